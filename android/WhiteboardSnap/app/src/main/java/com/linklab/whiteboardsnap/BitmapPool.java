@@ -0,0 +1,52 @@
+package com.linklab.whiteboardsnap;
+
+import android.graphics.Bitmap;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+// a handful of mutable bitmaps kept around for BitmapFactory.Options.inBitmap, so decoding a
+// preview reuses memory instead of allocating a new multi-megabyte bitmap every time
+public class BitmapPool {
+    private final int maxPooled;
+    private final LinkedList<Bitmap> free = new LinkedList<>();
+
+    public BitmapPool(int maxPooled) {
+        this.maxPooled = maxPooled;
+    }
+
+    // a pooled bitmap large enough to be decoded into, or null
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        int needed = width * height * bytesPerPixel(config);
+        Iterator<Bitmap> it = free.iterator();
+        while (it.hasNext()) {
+            Bitmap bitmap = it.next();
+            if (bitmap.getConfig() == config && bitmap.getAllocationByteCount() >= needed) {
+                it.remove();
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable() || free.contains(bitmap)) {
+            return;
+        }
+        if (free.size() < maxPooled) {
+            free.add(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 4;
+    }
+}
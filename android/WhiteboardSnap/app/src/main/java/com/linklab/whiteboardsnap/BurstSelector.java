@@ -0,0 +1,167 @@
+package com.linklab.whiteboardsnap;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// turns the burst of stills Camera2Service takes at a stop into the one snapshot the job gets.
+// SHARPEST scores small decodes of the frames and passes the sharpest one on untouched, MEDIAN decodes
+// them at full size and fuses them, so someone walking past the board is gone from the picture.
+// runs on the caller's thread with the decodes and the scoring on the workers. it also scores how the
+// board sits in a still, which picks between the two lenses' stills when a board was taken with both
+public class BurstSelector {
+    static final String TAG = "BurstSelector";
+
+    public enum Mode {
+        SHARPEST,
+        // grayscale, the processing stage throws the colour away anyway. raw luma stays raw
+        MEDIAN
+    }
+
+    // enough to tell a smeared frame from a sharp one, at a sixteenth of the pixels
+    private static final int SCORING_SAMPLE_SIZE = 4;
+    private static final int MEDIAN_QUALITY = 90;
+
+    private final ExecutorService workers;
+    private final FrameSelector selector;
+    private final LensSelector lensSelector;
+    private final Mode mode;
+    private final long budgetMs;
+    private final SnapshotBufferPool pool;
+
+    public BurstSelector(ExecutorService workers, Mode mode, long budgetMs, SnapshotBufferPool pool) {
+        this.workers = workers;
+        this.selector = new FrameSelector(workers);
+        this.lensSelector = new LensSelector(new WhiteboardProcessor(workers));
+        this.mode = mode;
+        this.budgetMs = budgetMs;
+        this.pool = pool;
+    }
+
+    // takes over the frames, in the order they were taken, and returns the snapshot to pass on. when
+    // anything goes wrong or runs out of time it's the last frame, the head has settled most by then
+    public Snapshot select(List<Snapshot> frames) {
+        Snapshot last = frames.get(frames.size() - 1);
+        if (frames.size() == 1) {
+            return last;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMs);
+        StageTimings timings = new StageTimings();
+        Snapshot selected = last;
+        try {
+            if (mode == Mode.MEDIAN) {
+                Snapshot fused = fuse(frames, deadline, timings);
+                if (fused != null) {
+                    selected = fused;
+                }
+            } else {
+                List<GrayImage> gray = decodeAll(frames, SCORING_SAMPLE_SIZE, deadline);
+                timings.lap("decode");
+                if (gray != null) {
+                    selected = frames.get(selector.sharpest(gray, deadline));
+                    timings.lap("score");
+                }
+            }
+        } catch (TimeoutException e) {
+            Log.w(TAG, "selecting from the burst of job " + last.getJobId() + " ran out of time: " + timings);
+        }
+        for (Snapshot frame : frames) {
+            if (frame != selected) {
+                frame.release();
+            }
+        }
+        Log.d(TAG, String.format("job %s: %s of %d frames, %s", last.getJobId(),
+                selected == last ? "last" : mode == Mode.MEDIAN ? "median" : "frame " + frames.indexOf(selected),
+                frames.size(), timings));
+        return selected;
+    }
+
+    // how each still shows the board, so the best lens can be picked and the board's profile can learn
+    // from it. null if they can't be scored in time. the stills stay the caller's
+    public List<LensSelector.Score> score(List<Snapshot> stills) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMs);
+        String jobId = stills.get(0).getJobId();
+        try {
+            List<GrayImage> gray = decodeAll(stills, SCORING_SAMPLE_SIZE, deadline);
+            if (gray == null) {
+                return null;
+            }
+            List<LensSelector.Score> scores = new ArrayList<>();
+            for (GrayImage image : gray) {
+                scores.add(lensSelector.score(image));
+            }
+            Log.d(TAG, "job " + jobId + ": " + scores);
+            return scores;
+        } catch (TimeoutException e) {
+            Log.w(TAG, "scoring the stills of job " + jobId + " ran out of time");
+            return null;
+        }
+    }
+
+    private Snapshot fuse(List<Snapshot> frames, long deadline, StageTimings timings) throws TimeoutException {
+        List<GrayImage> gray = decodeAll(frames, 1, deadline);
+        timings.lap("decode");
+        if (gray == null) {
+            return null;
+        }
+        GrayImage fused = selector.median(gray, deadline);
+        timings.lap("median");
+        Snapshot last = frames.get(frames.size() - 1);
+        if (PgmCodec.isPgm(last)) {
+            // encoded once, after processing
+            return new Snapshot(last.getJobId(), last.getLocation(), last.getCapturedAt(), PgmCodec.MIME_TYPE,
+                    PgmCodec.write(fused, pool), pool);
+        }
+        byte[] encoded = SnapshotProcessor.compress(fused, Bitmap.CompressFormat.JPEG, MEDIAN_QUALITY);
+        timings.lap("encode");
+        ByteBuffer data = pool.acquire(encoded.length);
+        data.put(encoded);
+        data.flip();
+        return new Snapshot(last.getJobId(), last.getLocation(), last.getCapturedAt(), "image/jpeg", data, pool);
+    }
+
+    // decodes the frames in parallel, null if one of them can't be decoded
+    private List<GrayImage> decodeAll(List<Snapshot> frames, final int sampleSize, long deadline)
+            throws TimeoutException {
+        List<Future<GrayImage>> decodes = new ArrayList<>();
+        for (final Snapshot frame : frames) {
+            decodes.add(workers.submit(new Callable<GrayImage>() {
+                @Override
+                public GrayImage call() {
+                    return SnapshotProcessor.decodeGray(frame, sampleSize);
+                }
+            }));
+        }
+        List<GrayImage> gray = new ArrayList<>();
+        try {
+            for (Future<GrayImage> decode : decodes) {
+                GrayImage image = decode.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (image == null) {
+                    Log.w(TAG, "can't decode a frame of job " + frames.get(0).getJobId());
+                    return null;
+                }
+                gray.add(image);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TimeoutException("interrupted");
+        } catch (ExecutionException e) {
+            Log.w(TAG, "decoding a frame of job " + frames.get(0).getJobId() + " failed", e.getCause());
+            return null;
+        } finally {
+            for (Future<GrayImage> decode : decodes) {
+                decode.cancel(true);
+            }
+        }
+        return gray;
+    }
+}
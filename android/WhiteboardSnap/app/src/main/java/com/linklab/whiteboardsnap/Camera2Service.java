@@ -11,39 +11,122 @@ import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.ColorSpaceTransform;
+import android.hardware.camera2.params.RggbChannelVector;
+import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
 import android.media.ImageReader;
-import android.os.Environment;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.Rational;
+import android.util.Size;
+import android.view.Surface;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import androidx.annotation.NonNull;
 import androidx.core.app.ActivityCompat;
 
+// the camera is opened as soon as the robot starts driving to a whiteboard (ACTION_PREWARM) and
+// runs a preview request so auto exposure and white balance settle on the way. on ACTION_CAPTURE a
+// burst of BURST_FRAMES stills is started as soon as AE/AWB report converged, BurstSelector makes one
+// snapshot of them off the main thread, and the camera stays open for the next stop until ACTION_RELEASE.
+// the stills are jpeg or yuv at a size the camera offers, as the CaptureProfile in the intent's
+// "profile" extra says. of a yuv still only the luma is kept, and hashed right from the image.
+// with an "otherCameraId" extra the capture is taken with that lens too, right after the first, and
+// BurstSelector keeps the still that shows the board better. the other one is handed over as well, for
+// the local history. the temi's android doesn't open two cameras at once, so it's one after the other.
+// with the exposure the lens last settled on at the board in the intent, a camera that can be set by
+// hand starts there with AE/AWB off and takes the still without waiting for convergence. otherwise
+// what AE/AWB settle on goes back with the snapshot, and so does how the board sits in the still.
+// everything that touches the camera, its callbacks and the intents included, runs on cameraThread, so
+// the fields below belong to it and the main thread never waits on the camera
 public class Camera2Service extends Service {
+    // give up waiting for AE/AWB convergence after this long and capture anyway
     protected static final int CAMERA_CALIBRATION_DELAY = 5000;
+    // a camera that hasn't got its session going by then is closed, and a pending capture fails
+    protected static final int CAMERA_OPEN_TIMEOUT = 10000;
     protected static final String TAG = "camera2Service";
     protected static final int CAMERACHOICE = CameraCharacteristics.LENS_FACING_FRONT;
-    protected static long cameraCaptureStartTime;
+    // 1 takes a single still like before. the stills are spaced out so the head can settle and whoever
+    // walks past the board can get out of the way
+    protected static final int BURST_FRAMES = 3;
+    protected static final int BURST_INTERVAL_MS = 150;
+    protected static final BurstSelector.Mode BURST_MODE = BurstSelector.Mode.SHARPEST;
+    // past this the last frame is taken as it is
+    protected static final long SELECTION_BUDGET_MS = 1500;
+
+    public static final String ACTION_PREWARM = "com.linklab.whiteboardsnap.PREWARM";
+    public static final String ACTION_CAPTURE = "com.linklab.whiteboardsnap.CAPTURE";
+    public static final String ACTION_RELEASE = "com.linklab.whiteboardsnap.RELEASE";
+
     protected CameraDevice cameraDevice;
     protected CameraCaptureSession session;
     protected ImageReader imageReader;
+    // small yuv stream that keeps 3A running while we wait. while a jpeg capture is pending its frames are
+    // hashed, so the still can be compared with the last upload without decoding the jpeg
+    protected ImageReader previewReader;
+    protected final PerceptualHash previewHasher = new PerceptualHash();
+    protected long[] captureHash;
     protected CameraCharacteristics camCharacteristics;
-    protected boolean alreadyProcessingImage = false;
-    protected int numClickedPictures = 0;
+    protected String openCameraId;
+    // what imageReader was made for
+    protected CaptureProfile openProfile;
+    // the job the pending capture belongs to
+    protected String captureJobId;
+    protected String captureLocation;
+    protected HandlerThread cameraThread;
+    protected Handler handler;
+    // the stills of the pending capture that arrived so far, how many were issued and how many won't
+    // arrive. burstCallback is the pending burst's, a failure reported to an older one is ignored
+    protected final List<Snapshot> burst = new ArrayList<>();
+    protected int burstIssued;
+    protected int burstFailed;
+    protected CameraCaptureSession.CaptureCallback burstCallback;
+    // the lens the pending capture still has to be taken with, null if none. the stills the lenses
+    // took so far, their ids and hashes, and the timings of the first
+    protected String otherCameraId;
+    protected final List<Snapshot> lensStills = new ArrayList<>();
+    protected final List<String> lensIds = new ArrayList<>();
+    protected final List<long[]> lensHashes = new ArrayList<>();
+    protected final List<BoardProfiles.Exposure> lensExposures = new ArrayList<>();
+    protected long lensOpenMs, lensConvergeMs, lensIssuedAt;
+    // the exposure to set by hand, null for AE/AWB. manualSensor is whether the open camera takes one
+    protected BoardProfiles.Exposure exposureHint;
+    protected boolean manualSensor;
+    // what AE/AWB last settled on, null while they haven't or aren't running
+    protected BoardProfiles.Exposure settledExposure;
+    // selection waits on the workers, so it gets a thread of its own
+    protected final ExecutorService selectionExecutor = Executors.newSingleThreadExecutor();
+    protected final ExecutorService burstWorkers = Executors.newFixedThreadPool(BURST_FRAMES);
+    protected final BurstSelector burstSelector = new BurstSelector(burstWorkers, BURST_MODE, SELECTION_BUDGET_MS,
+            SnapshotHandoff.POOL);
+
+    protected boolean converged = false;
+    protected boolean captureRequested = false;
+    protected boolean stillCaptureIssued = false;
+
+    // per-phase timing, all from SystemClock.elapsedRealtime()
+    protected long openRequestedAt, openedAt, captureRequestedAt, convergedAt, stillIssuedAt;
 
     protected CameraDevice.StateCallback cameraStateCallback = new CameraDevice.StateCallback() {
         @Override
         public void onOpened(@NonNull CameraDevice camera) {
-            Log.d(TAG, "CameraDevice.StateCallback onOpened");
+            openedAt = SystemClock.elapsedRealtime();
+            Log.d(TAG, "CameraDevice.StateCallback onOpened in " + (openedAt - openRequestedAt) + "ms");
             cameraDevice = camera;
             actOnReadyCameraDevice();
         }
@@ -51,37 +134,114 @@ public class Camera2Service extends Service {
         @Override
         public void onDisconnected(@NonNull CameraDevice camera) {
             Log.w(TAG, "CameraDevice.StateCallback onDisconnected");
+            camera.close();
+            if (cameraDevice == camera) {
+                fail("camera disconnected");
+            }
         }
 
         @Override
         public void onError(@NonNull CameraDevice camera,
                             int error) {
             Log.e(TAG, "CameraDevice.StateCallback onError " + error);
+            camera.close();
+            if (cameraDevice == camera || cameraDevice == null) {
+                fail("camera error " + error);
+            }
         }
     };
 
     protected CameraCaptureSession.StateCallback sessionStateCallback = new CameraCaptureSession.StateCallback() {
 
         @Override
-        public void onReady(CameraCaptureSession session) {
+        public void onConfigured(@NonNull CameraCaptureSession session) {
             Camera2Service.this.session = session;
+            handler.removeCallbacks(openTimeout);
             try {
-                session.setRepeatingRequest(createCaptureRequest(), null, null);
-//                session.capture(createCaptureRequest(), null, null);
-                cameraCaptureStartTime = System.currentTimeMillis();
+                // run 3A on the preview stream until we're asked for the picture
+                session.setRepeatingRequest(createPreviewRequest(), convergenceCallback, handler);
+                Log.d(TAG, "onConfigured: session ready " + (SystemClock.elapsedRealtime() - openRequestedAt) + "ms after open");
             } catch (CameraAccessException e) {
                 Log.e(TAG, e.getMessage());
             }
         }
 
+        @Override
+        public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+            Log.e(TAG, "onConfigureFailed");
+            fail("capture session not configured");
+        }
+    };
 
+    // watches AE/AWB on every preview frame, and fires the still capture once both have settled
+    protected CameraCaptureSession.CaptureCallback convergenceCallback = new CameraCaptureSession.CaptureCallback() {
         @Override
-        public void onConfigured(CameraCaptureSession session) {
+        public void onCaptureCompleted(@NonNull CameraCaptureSession session,
+                                       @NonNull CaptureRequest request,
+                                       @NonNull TotalCaptureResult result) {
+            if (!manualExposure() && isConverged(result)) {
+                settledExposure = exposureOf(result);
+            }
+            // set by hand, there's nothing to wait for
+            if (!converged && (manualExposure() || isConverged(result))) {
+                converged = true;
+                convergedAt = SystemClock.elapsedRealtime();
+                Log.d(TAG, "AE/AWB converged " + (convergedAt - openedAt) + "ms after open");
+            }
+            if (converged) {
+                issueStillCapture();
+            }
+        }
+    };
 
+    protected Runnable convergenceTimeout = new Runnable() {
+        @Override
+        public void run() {
+            if (!stillCaptureIssued) {
+                Log.w(TAG, "AE/AWB didn't converge within " + CAMERA_CALIBRATION_DELAY + "ms, capturing anyway");
+                convergedAt = SystemClock.elapsedRealtime();
+                issueStillCapture();
+            }
         }
+    };
 
+    protected Runnable openTimeout = new Runnable() {
         @Override
-        public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+        public void run() {
+            fail("camera " + openCameraId + " didn't open within " + CAMERA_OPEN_TIMEOUT + "ms");
+        }
+    };
+
+    // a frame of the burst that failed or lost its buffer counts as done, so the burst finishes with
+    // whatever frames did arrive
+    private CameraCaptureSession.CaptureCallback newBurstCallback() {
+        return new CameraCaptureSession.CaptureCallback() {
+            @Override
+            public void onCaptureFailed(@NonNull CameraCaptureSession session,
+                                        @NonNull CaptureRequest request,
+                                        @NonNull CaptureFailure failure) {
+                // a captured image may still arrive, if it doesn't its buffer is reported lost
+                if (!failure.wasImageCaptured()) {
+                    frameFailed(this, "reason " + failure.getReason());
+                }
+            }
+
+            @Override
+            public void onCaptureBufferLost(@NonNull CameraCaptureSession session,
+                                            @NonNull CaptureRequest request,
+                                            @NonNull Surface target, long frameNumber) {
+                // only api 24 on reports it, before that a lost frame is only missed at the job's deadline
+                if (imageReader != null && target == imageReader.getSurface()) {
+                    frameFailed(this, "buffer lost");
+                }
+            }
+        };
+    }
+
+    protected Runnable burstNext = new Runnable() {
+        @Override
+        public void run() {
+            issueBurstFrame();
         }
     };
 
@@ -89,11 +249,10 @@ public class Camera2Service extends Service {
         @Override
         public void onImageAvailable(ImageReader reader) {
             Log.d(TAG, "onImageAvailable");
-            Image img = reader.acquireLatestImage();
+            // every frame of the burst counts, so not the latest but the next
+            Image img = reader.acquireNextImage();
             if (img != null) {
-                // discard a few initial pics to ensure we don't have yellow pics due to unadjusted WB
-                if (++numClickedPictures > 3 && !alreadyProcessingImage) {
-                    alreadyProcessingImage = true;
+                if (stillCaptureIssued) {
                     Log.d(TAG, "onImageAvailable: processing image!");
                     processImage(img);
                 } else {
@@ -104,23 +263,316 @@ public class Camera2Service extends Service {
         }
     };
 
-    public void readyCamera(String cameraId) {
+    protected ImageReader.OnImageAvailableListener onPreviewAvailableListener = new ImageReader.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            Image img = reader.acquireLatestImage();
+            if (img != null) {
+                // yuv stills hash themselves
+                if (captureRequested && openProfile.getFormat() != CaptureProfile.Format.YUV) {
+                    // plane 0 of YUV_420_888 is full resolution luma
+                    Image.Plane luma = img.getPlanes()[0];
+                    captureHash = previewHasher.compute(luma.getBuffer(), img.getWidth(), img.getHeight(),
+                            luma.getRowStride(), luma.getPixelStride());
+                }
+                img.close();
+            }
+        }
+    };
+
+    // a null state means the device doesn't report it (LEGACY), so there's nothing to wait for
+    protected static boolean isConverged(CaptureResult result) {
+        Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
+        Integer awbState = result.get(CaptureResult.CONTROL_AWB_STATE);
+        boolean aeDone = aeState == null
+                || aeState == CaptureResult.CONTROL_AE_STATE_CONVERGED
+                || aeState == CaptureResult.CONTROL_AE_STATE_FLASH_REQUIRED
+                || aeState == CaptureResult.CONTROL_AE_STATE_LOCKED;
+        boolean awbDone = awbState == null
+                || awbState == CaptureResult.CONTROL_AWB_STATE_CONVERGED
+                || awbState == CaptureResult.CONTROL_AWB_STATE_LOCKED;
+        return aeDone && awbDone;
+    }
+
+    // r, g even, g odd, b gains and the colour transform, null if the result doesn't have them all
+    protected static BoardProfiles.Exposure exposureOf(CaptureResult result) {
+        Long exposureTime = result.get(CaptureResult.SENSOR_EXPOSURE_TIME);
+        Integer sensitivity = result.get(CaptureResult.SENSOR_SENSITIVITY);
+        RggbChannelVector gains = result.get(CaptureResult.COLOR_CORRECTION_GAINS);
+        ColorSpaceTransform transform = result.get(CaptureResult.COLOR_CORRECTION_TRANSFORM);
+        if (exposureTime == null || sensitivity == null || gains == null || transform == null) {
+            return null;
+        }
+        float[] matrix = new float[9];
+        for (int i = 0; i < 9; i++) {
+            matrix[i] = transform.getElement(i % 3, i / 3).floatValue();
+        }
+        return new BoardProfiles.Exposure(exposureTime, sensitivity, new float[] {gains.getRed(),
+                gains.getGreenEven(), gains.getGreenOdd(), gains.getBlue()}, matrix, System.currentTimeMillis());
+    }
+
+    // the exposure in the intent's extras, null if it has none
+    public static BoardProfiles.Exposure exposureOf(Intent intent) {
+        float[] gains = intent.getFloatArrayExtra("colorGains");
+        float[] transform = intent.getFloatArrayExtra("colorTransform");
+        if (!intent.hasExtra("exposureTimeNs") || gains == null || gains.length != 4
+                || transform == null || transform.length != 9) {
+            return null;
+        }
+        return new BoardProfiles.Exposure(intent.getLongExtra("exposureTimeNs", 0),
+                intent.getIntExtra("sensitivity", 0), gains, transform, intent.getLongExtra("measuredAt", 0));
+    }
+
+    public static void putExposure(Intent intent, BoardProfiles.Exposure exposure) {
+        intent.putExtra("exposureTimeNs", exposure.getExposureTimeNs());
+        intent.putExtra("sensitivity", exposure.getSensitivity());
+        intent.putExtra("colorGains", exposure.getColorGains());
+        intent.putExtra("colorTransform", exposure.getColorTransform());
+        intent.putExtra("measuredAt", exposure.getMeasuredAt());
+    }
+
+    protected boolean manualExposure() {
+        return exposureHint != null && manualSensor;
+    }
+
+    // a warm camera's preview switches to the new exposure right away, so 3A can settle on the way
+    protected void setExposureHint(BoardProfiles.Exposure hint) {
+        boolean wasManual = manualExposure();
+        exposureHint = hint;
+        if (session == null || (!wasManual && !manualExposure())) {
+            return;
+        }
+        converged = false;
+        settledExposure = null;
+        try {
+            session.setRepeatingRequest(createPreviewRequest(), convergenceCallback, handler);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, e.getMessage());
+        }
+    }
+
+    protected static boolean canSetByHand(CameraCharacteristics characteristics) {
+        int[] capabilities = characteristics.get(CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES);
+        boolean sensor = false;
+        boolean postProcessing = false;
+        for (int capability : capabilities != null ? capabilities : new int[0]) {
+            sensor |= capability == CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES_MANUAL_SENSOR;
+            postProcessing |= capability == CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES_MANUAL_POST_PROCESSING;
+        }
+        return sensor && postProcessing;
+    }
+
+    // opens the camera for the profile unless it already is. false if it can't be, the camera is
+    // closed then
+    public boolean readyCamera(String cameraId, CaptureProfile profile) {
+        if (cameraId.equals(openCameraId) && profile.equals(openProfile)) {
+            return true; // already warm
+        }
+        closeCamera();
         CameraManager manager = (CameraManager) getSystemService(CAMERA_SERVICE);
         try {
 //            String pickedCamera = getCamera(manager);
             String pickedCamera = cameraId; // using the hardcoded cameraId instead of picking with code
             if (ActivityCompat.checkSelfPermission(this, Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED) {
-                return;
+                fail("no permission to use camera " + pickedCamera);
+                return false;
             }
-            manager.openCamera(pickedCamera, cameraStateCallback, null);
-            imageReader = ImageReader.newInstance(1920, 1088, ImageFormat.JPEG, 1 /* images buffered */);
-            imageReader.setOnImageAvailableListener(onImageAvailableListener, null);
+            int format = profile.getFormat() == CaptureProfile.Format.YUV ? ImageFormat.YUV_420_888 : ImageFormat.JPEG;
+            CameraCharacteristics characteristics = manager.getCameraCharacteristics(pickedCamera);
+            int[] size = stillSize(characteristics, format, profile);
+            manualSensor = canSetByHand(characteristics);
+            imageReader = ImageReader.newInstance(size[0], size[1], format, BURST_FRAMES /* images buffered */);
+            imageReader.setOnImageAvailableListener(onImageAvailableListener, handler);
+            Log.d(TAG, "stills of camera " + pickedCamera + " for " + profile + ": " + size[0] + "x" + size[1]);
+            previewReader = ImageReader.newInstance(640, 480, ImageFormat.YUV_420_888, 2);
+            previewReader.setOnImageAvailableListener(onPreviewAvailableListener, handler);
             Log.d(TAG, "imageReader created");
+            converged = false;
+            settledExposure = null;
+            openCameraId = pickedCamera;
+            openProfile = profile;
+            openRequestedAt = SystemClock.elapsedRealtime();
+            handler.postDelayed(openTimeout, CAMERA_OPEN_TIMEOUT);
+            manager.openCamera(pickedCamera, cameraStateCallback, handler);
+            return true;
         } catch (CameraAccessException e) {
+            fail("can't open camera " + cameraId + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    // the largest size the camera offers for the format within the profile's, the old fixed size if it
+    // won't say
+    protected static int[] stillSize(CameraCharacteristics characteristics, int format, CaptureProfile profile) {
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        Size[] offered = map != null ? map.getOutputSizes(format) : null;
+        if (offered == null || offered.length == 0) {
+            return new int[] {1920, 1088};
+        }
+        int[][] sizes = new int[offered.length][];
+        for (int i = 0; i < offered.length; i++) {
+            sizes[i] = new int[] {offered[i].getWidth(), offered[i].getHeight()};
+        }
+        return profile.choose(sizes);
+    }
+
+    // called once the robot is in place. the still is taken as soon as 3A has converged
+    public void requestCapture(String cameraId, CaptureProfile profile, String jobId, String location) {
+        captureJobId = jobId;
+        captureLocation = location;
+        if (!readyCamera(cameraId, profile)) {
+            // the capture wasn't pending yet when fail() closed the camera
+            giveUp(jobId);
+            return;
+        }
+        captureRequested = true;
+        stillCaptureIssued = false;
+        releaseBurst();
+        captureHash = null;
+        captureRequestedAt = SystemClock.elapsedRealtime();
+        handler.postDelayed(convergenceTimeout, CAMERA_CALIBRATION_DELAY);
+        if (converged) {
+            issueStillCapture();
+        }
+    }
+
+    protected void issueStillCapture() {
+        if (!captureRequested || stillCaptureIssued || session == null) {
+            return;
+        }
+        try {
+            stillCaptureIssued = true;
+            handler.removeCallbacks(convergenceTimeout);
+            stillIssuedAt = SystemClock.elapsedRealtime();
+            burstCallback = newBurstCallback();
+            session.capture(createStillCaptureRequest(), burstCallback, handler);
+            burstIssued = 1;
+            if (burstIssued < BURST_FRAMES) {
+                handler.postDelayed(burstNext, BURST_INTERVAL_MS);
+            }
+        } catch (CameraAccessException e) {
+            stillCaptureIssued = false;
+            burstCallback = null;
             Log.e(TAG, e.getMessage());
         }
     }
 
+    protected void issueBurstFrame() {
+        if (!captureRequested || !stillCaptureIssued || session == null || burstIssued >= BURST_FRAMES) {
+            return;
+        }
+        burstIssued++;
+        if (burstIssued < BURST_FRAMES) {
+            handler.postDelayed(burstNext, BURST_INTERVAL_MS);
+        }
+        try {
+            session.capture(createStillCaptureRequest(), burstCallback, handler);
+        } catch (CameraAccessException e) {
+            // the frame won't come, the rest of the burst still does
+            frameFailed(burstCallback, e.getMessage());
+        }
+    }
+
+    // on the camera thread, callback is the one the failed frame was issued with
+    protected void frameFailed(CameraCaptureSession.CaptureCallback callback, String reason) {
+        if (callback != burstCallback || !captureRequested || !stillCaptureIssued) {
+            // an older burst's, or the capture is over
+            return;
+        }
+        Log.w(TAG, "frame of job " + captureJobId + " failed: " + reason);
+        burstFailed++;
+        burstFrameDone();
+    }
+
+    // selects from the frames that arrived once none is outstanding, fails the capture if none did
+    private void burstFrameDone() {
+        if (burst.size() + burstFailed < BURST_FRAMES) {
+            return;
+        }
+        if (burst.isEmpty()) {
+            fail("no frame of the burst of job " + captureJobId + " arrived");
+            return;
+        }
+        captureRequested = false;
+        burstCallback = null;
+        selectBurst(new ArrayList<>(burst));
+        burst.clear();
+    }
+
+    protected void releaseBurst() {
+        handler.removeCallbacks(burstNext);
+        for (Snapshot frame : burst) {
+            frame.release();
+        }
+        burst.clear();
+        burstIssued = 0;
+        burstFailed = 0;
+        burstCallback = null;
+    }
+
+    // closes the camera, the next prewarm or capture opens it again. a pending capture is answered
+    // without a snapshot, which fails its job right away instead of at its deadline
+    protected void fail(String reason) {
+        Log.e(TAG, reason);
+        String jobId = captureRequested ? captureJobId : null;
+        closeCamera();
+        if (jobId != null) {
+            giveUp(jobId);
+        }
+    }
+
+    // answers the job's capture with the first lens's still if there is one, otherwise without a snapshot
+    private void giveUp(String jobId) {
+        if (!lensStills.isEmpty()) {
+            // the other lens failed, the first one's still will do
+            otherCameraId = null;
+            chooseLens(jobId);
+        } else {
+            Intent intent = new Intent();
+            intent.setAction("imageReady");
+            intent.putExtra("jobId", jobId);
+            sendBroadcast(intent);
+        }
+    }
+
+    protected void releaseLenses() {
+        otherCameraId = null;
+        for (Snapshot still : lensStills) {
+            still.release();
+        }
+        lensStills.clear();
+        lensIds.clear();
+        lensHashes.clear();
+        lensExposures.clear();
+    }
+
+    protected void closeCamera() {
+        handler.removeCallbacks(convergenceTimeout);
+        handler.removeCallbacks(openTimeout);
+        releaseBurst();
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+        if (cameraDevice != null) {
+            cameraDevice.close();
+            cameraDevice = null;
+        }
+        if (imageReader != null) {
+            imageReader.close();
+            imageReader = null;
+        }
+        if (previewReader != null) {
+            previewReader.close();
+            previewReader = null;
+        }
+        openCameraId = null;
+        openProfile = null;
+        converged = false;
+        captureRequested = false;
+        stillCaptureIssued = false;
+    }
+
     public String getCamera(CameraManager manager) {
         try {
             for (String cameraId : manager.getCameraIdList()) {
@@ -137,25 +589,53 @@ public class Camera2Service extends Service {
     }
 
     @Override
-    public int onStartCommand(Intent intent,
+    public int onStartCommand(final Intent intent,
                               int flags,
                               int startId) {
         Log.d(TAG, "onStartCommand flags " + flags + " startId " + startId);
-        String cameraId = intent.getStringExtra("cameraId");
-        readyCamera(cameraId);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                handleCommand(intent);
+            }
+        });
+        return START_NOT_STICKY;
+    }
 
-        return super.onStartCommand(intent, flags, startId);
+    // on the camera thread
+    protected void handleCommand(Intent intent) {
+        String action = intent != null ? intent.getAction() : ACTION_RELEASE;
+        String cameraId = intent != null ? intent.getStringExtra("cameraId") : null;
+        String profile = intent != null ? intent.getStringExtra("profile") : null;
+        CaptureProfile captureProfile = profile != null ? CaptureProfile.parse(profile) : CaptureProfile.DEFAULT;
+        if (ACTION_PREWARM.equals(action)) {
+            setExposureHint(exposureOf(intent));
+            readyCamera(cameraId, captureProfile);
+        } else if (ACTION_CAPTURE.equals(action)) {
+            releaseLenses();
+            setExposureHint(exposureOf(intent));
+            otherCameraId = intent.getStringExtra("otherCameraId");
+            requestCapture(cameraId, captureProfile, intent.getStringExtra("jobId"), intent.getStringExtra("location"));
+        } else {
+            releaseLenses();
+            closeCamera();
+            stopSelf();
+        }
     }
 
     @Override
     public void onCreate() {
         Log.d(TAG, "onCreate service");
         super.onCreate();
+        cameraThread = new HandlerThread("camera");
+        cameraThread.start();
+        handler = new Handler(cameraThread.getLooper());
     }
 
     public void actOnReadyCameraDevice() {
         try {
-            cameraDevice.createCaptureSession(Arrays.asList(imageReader.getSurface()), sessionStateCallback, null);
+            cameraDevice.createCaptureSession(Arrays.asList(imageReader.getSurface(), previewReader.getSurface()),
+                    sessionStateCallback, handler);
         } catch (CameraAccessException e) {
             Log.e(TAG, e.getMessage());
         }
@@ -163,52 +643,175 @@ public class Camera2Service extends Service {
 
     @Override
     public void onDestroy() {
-        cameraDevice.close();
+        // after whatever the thread still has queued, the camera is closed where it was opened
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                releaseLenses();
+                closeCamera();
+            }
+        });
+        cameraThread.quitSafely();
+        selectionExecutor.shutdownNow();
+        burstWorkers.shutdownNow();
+        super.onDestroy();
     }
 
 
     private void processImage(Image image) {
         Log.v(TAG, "in processImage!!");
 
-        //Process image data
-        ByteBuffer buffer;
-        byte[] bytes;
-        boolean success = false;
-        File file = new File(Environment.getExternalStorageDirectory() + "/Pictures/image.jpg");
-        FileOutputStream output = null;
-
-        if (image.getFormat() == ImageFormat.JPEG) {
-            buffer = image.getPlanes()[0].getBuffer();
-            bytes = new byte[buffer.remaining()]; // makes byte array large enough to hold image
-            buffer.get(bytes); // copies image from buffer to byte array
-            try {
-                output = new FileOutputStream(file);
-                output.write(bytes);    // write the byte array to file
-//                j++;
-                success = true;
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-            } catch (IOException e) {
-                e.printStackTrace();
-            } finally {
-                image.close(); // close this to free up buffer for other images
-                if (null != output) {
-                    try {
-                        output.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+        // the one copy we can't avoid: out of the image (which goes back to the reader right away)
+        // into a pooled direct buffer that travels with the job until it's uploaded
+        if (image.getFormat() == ImageFormat.JPEG || image.getFormat() == ImageFormat.YUV_420_888) {
+            ByteBuffer data;
+            String mimeType;
+            if (image.getFormat() == ImageFormat.JPEG) {
+                ByteBuffer plane = image.getPlanes()[0].getBuffer();
+                data = SnapshotHandoff.POOL.acquire(plane.remaining());
+                data.put(plane);
+                data.flip();
+                mimeType = "image/jpeg";
+            } else {
+                // plane 0 of YUV_420_888 is full resolution luma, the chroma isn't needed
+                Image.Plane luma = image.getPlanes()[0];
+                if (burst.isEmpty()) {
+                    // the still itself rather than the preview, read in place
+                    captureHash = previewHasher.compute(luma.getBuffer(), image.getWidth(), image.getHeight(),
+                            luma.getRowStride(), luma.getPixelStride());
+                }
+                // turned like the jpegs are, see createStillCaptureRequest
+                data = PgmCodec.write(luma.getBuffer(), image.getWidth(), image.getHeight(), luma.getRowStride(),
+                        true, SnapshotHandoff.POOL);
+                mimeType = PgmCodec.MIME_TYPE;
+            }
+            image.close(); // close this to free up buffer for other images
+            burst.add(new Snapshot(captureJobId, captureLocation, System.currentTimeMillis(), mimeType, data,
+                    SnapshotHandoff.POOL));
+            burstFrameDone();
+        }
+    }
+
+    // picks the snapshot on the selection thread and tells the activity, or takes it back to the camera
+    // thread when another lens is to come. captureMs includes the selection
+    private void selectBurst(final List<Snapshot> frames) {
+        final String jobId = captureJobId;
+        final String lensId = openCameraId;
+        final boolean moreLenses = otherCameraId != null || !lensStills.isEmpty();
+        final long openMs = openedAt - openRequestedAt;
+        final long convergeMs = Math.max(0, convergedAt - captureRequestedAt);
+        final long issuedAt = stillIssuedAt;
+        final long[] hash = captureHash;
+        // taken by hand, the exposure was known already
+        final BoardProfiles.Exposure exposure = manualExposure() ? null : settledExposure;
+        selectionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Snapshot selected = burstSelector.select(frames);
+                if (moreLenses) {
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            lensDone(jobId, lensId, selected, hash, exposure, openMs, convergeMs, issuedAt);
+                        }
+                    });
+                    return;
                 }
-                Log.d(TAG, "processImage: we're all done!");
-                Intent intent = new Intent();
-                intent.setAction("imageReady");
-                this.sendBroadcast(intent);
-                stopSelf();
+                List<LensSelector.Score> scores = burstSelector.score(Collections.singletonList(selected));
+                deliver(jobId, selected, null, lensId, null, hash, scores != null ? scores.get(0) : null, exposure,
+                        openMs, convergeMs, issuedAt);
             }
+        });
+    }
 
+    // on the camera thread, once a lens's still of a dual capture is selected
+    protected void lensDone(String jobId, String lensId, Snapshot still, long[] hash, BoardProfiles.Exposure exposure,
+                            long openMs, long convergeMs, long issuedAt) {
+        if (!jobId.equals(captureJobId)) {
+            // a newer capture took over
+            still.release();
+            return;
+        }
+        if (lensStills.isEmpty()) {
+            lensOpenMs = openMs;
+            lensConvergeMs = convergeMs;
+            lensIssuedAt = issuedAt;
         }
+        lensStills.add(still);
+        lensIds.add(lensId);
+        lensHashes.add(hash);
+        lensExposures.add(exposure);
+        if (otherCameraId != null) {
+            String next = otherCameraId;
+            otherCameraId = null;
+            Log.d(TAG, "job " + jobId + ": lens " + lensId + " done, switching to lens " + next);
+            requestCapture(next, openProfile, jobId, captureLocation);
+            return;
+        }
+        chooseLens(jobId);
+    }
+
+    // hands the lenses' stills to the selection thread, which passes on the one that shows the board best
+    protected void chooseLens(final String jobId) {
+        final List<Snapshot> stills = new ArrayList<>(lensStills);
+        final List<String> ids = new ArrayList<>(lensIds);
+        final List<long[]> hashes = new ArrayList<>(lensHashes);
+        final List<BoardProfiles.Exposure> exposures = new ArrayList<>(lensExposures);
+        final long openMs = lensOpenMs;
+        final long convergeMs = lensConvergeMs;
+        final long issuedAt = lensIssuedAt;
+        lensStills.clear();
+        lensIds.clear();
+        lensHashes.clear();
+        lensExposures.clear();
+        selectionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // the first if they can't be told apart in time
+                List<LensSelector.Score> scores = burstSelector.score(stills);
+                int best = scores != null ? LensSelector.best(scores) : 0;
+                Log.d(TAG, "job " + jobId + ": lens " + ids.get(best) + " shows the board best");
+                Snapshot other = stills.size() > 1 ? stills.get(1 - best) : null;
+                String otherId = stills.size() > 1 ? ids.get(1 - best) : null;
+                deliver(jobId, stills.get(best), other, ids.get(best), otherId, hashes.get(best),
+                        scores != null ? scores.get(best) : null, exposures.get(best), openMs, convergeMs, issuedAt);
+            }
+        });
+    }
 
+    // publishes the snapshot (and the other lens's, if there is one) and tells the activity. score and
+    // exposure may be null
+    private void deliver(String jobId, Snapshot snapshot, Snapshot other, String lensId, String otherLensId,
+                         long[] hash, LensSelector.Score score, BoardProfiles.Exposure exposure, long openMs,
+                         long convergeMs, long issuedAt) {
+        SnapshotHandoff.publish(snapshot);
+        if (other != null) {
+            SnapshotHandoff.publishAlternate(other);
+        }
 
+        long done = SystemClock.elapsedRealtime();
+        Log.d(TAG, String.format("processImage: we're all done! lens: %s, open: %dms, converge: %dms, capture: %dms",
+                lensId, openMs, convergeMs, done - issuedAt));
+        Intent intent = new Intent();
+        intent.setAction("imageReady");
+        intent.putExtra("jobId", jobId);
+        intent.putExtra("cameraId", lensId);
+        if (other != null) {
+            intent.putExtra("alternateCameraId", otherLensId);
+        }
+        intent.putExtra("openMs", openMs);
+        intent.putExtra("convergeMs", convergeMs);
+        intent.putExtra("captureMs", done - issuedAt);
+        if (hash != null) {
+            intent.putExtra("previewHash", hash);
+        }
+        if (score != null) {
+            intent.putExtra("score", score.toArray());
+        }
+        if (exposure != null) {
+            putExposure(intent, exposure);
+        }
+        sendBroadcast(intent);
     }
 
 //    private int getJpegOrientation(CameraCharacteristics c, int deviceOrientation) {
@@ -230,14 +833,27 @@ public class Camera2Service extends Service {
 //    }
 
 
-    protected CaptureRequest createCaptureRequest() {
+    protected CaptureRequest createPreviewRequest() {
+        try {
+            CaptureRequest.Builder builder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            builder.addTarget(previewReader.getSurface());
+            applyExposure(builder);
+            return builder.build();
+        } catch (CameraAccessException e) {
+            Log.e(TAG, e.getMessage());
+            return null;
+        }
+    }
+
+    protected CaptureRequest createStillCaptureRequest() {
         try {
-            CaptureRequest.Builder builder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+            CaptureRequest.Builder builder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
             builder.addTarget(imageReader.getSurface());
 //            WindowManager windowManager = (WindowManager)getSystemService(WINDOW_SERVICE);
 //            int rotation = windowManager.getDefaultDisplay().getRotation();
 //            int jpegRotation = getJpegOrientation(camCharacteristics, rotation);
             builder.set(CaptureRequest.JPEG_ORIENTATION, 180); // hardcoding orientation for the temi camera
+            applyExposure(builder);
             return builder.build();
         } catch (CameraAccessException e) {
             Log.e(TAG, e.getMessage());
@@ -245,6 +861,27 @@ public class Camera2Service extends Service {
         }
     }
 
+    // AE/AWB off and the hint's values instead, when there is one and the camera takes it
+    protected void applyExposure(CaptureRequest.Builder builder) {
+        if (!manualExposure()) {
+            return;
+        }
+        builder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_OFF);
+        builder.set(CaptureRequest.SENSOR_EXPOSURE_TIME, exposureHint.getExposureTimeNs());
+        builder.set(CaptureRequest.SENSOR_SENSITIVITY, exposureHint.getSensitivity());
+        builder.set(CaptureRequest.CONTROL_AWB_MODE, CaptureRequest.CONTROL_AWB_MODE_OFF);
+        builder.set(CaptureRequest.COLOR_CORRECTION_MODE, CaptureRequest.COLOR_CORRECTION_MODE_TRANSFORM_MATRIX);
+        float[] gains = exposureHint.getColorGains();
+        builder.set(CaptureRequest.COLOR_CORRECTION_GAINS,
+                new RggbChannelVector(gains[0], gains[1], gains[2], gains[3]));
+        float[] matrix = exposureHint.getColorTransform();
+        Rational[] elements = new Rational[9];
+        for (int i = 0; i < 9; i++) {
+            elements[i] = new Rational(Math.round(matrix[i] * 1024), 1024);
+        }
+        builder.set(CaptureRequest.COLOR_CORRECTION_TRANSFORM, new ColorSpaceTransform(elements));
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
         return null;
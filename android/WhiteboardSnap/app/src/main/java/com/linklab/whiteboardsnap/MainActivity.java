@@ -7,49 +7,40 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
+import android.provider.Settings;
 import android.util.Log;
 import android.view.View;
+import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.Spinner;
 
-import com.hivemq.client.mqtt.MqttClient;
-import com.hivemq.client.mqtt.mqtt5.Mqtt5BlockingClient;
 import com.robotemi.sdk.Robot;
-import com.robotemi.sdk.listeners.OnGoToLocationStatusChangedListener;
 import com.robotemi.sdk.listeners.OnRobotReadyListener;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
-import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
-import okhttp3.Call;
-import okhttp3.Callback;
-import okhttp3.MediaType;
-import okhttp3.MultipartBody;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
-
-import static com.hivemq.client.mqtt.MqttGlobalPublishFilter.ALL;
-import static java.nio.charset.StandardCharsets.UTF_8;
 
 public class MainActivity extends AppCompatActivity implements OnRobotReadyListener {
     private Robot robot;
@@ -59,9 +50,48 @@ public class MainActivity extends AppCompatActivity implements OnRobotReadyListe
     private EditText angleInput;
     static final String TAG = "WhiteBoard";
 
-    String selectedLocation = "";
-    String initialLocationName = "starting position";
-    boolean receivingImages = false;
+    // keep a copy of every snapshot in Pictures/, for debugging
+    private static final boolean KEEP_SNAPSHOTS_ON_DISK = true;
+    // crop, flatten and recompress snapshots before uploading them. if this takes longer than
+    // PROCESSING_BUDGET_MS we upload the original instead
+    private static final boolean PROCESS_SNAPSHOTS = true;
+    private static final long PROCESSING_BUDGET_MS = 3000;
+    // how each whiteboard is captured, CaptureProfile.DEFAULT for the others. a yuv profile such as
+    // "yuv 1280x720" spares processing the jpeg decode and the upload a second lossy encode, and a
+    // smaller size is faster for a board close to where the robot stops
+    private static final Map<String, CaptureProfile> CAPTURE_PROFILES = Collections.emptyMap();
+    // every METRICS_INTERVAL_MS the latencies of the job phases are appended to files/metrics.lp, and
+    // published on METRICS_TOPIC unless that's null
+    private static final long METRICS_INTERVAL_MS = 60 * 1000;
+    private static final long METRICS_MAX_FILE_BYTES = 1024 * 1024;
+    private static final String METRICS_TOPIC = "temi-metrics";
+    // with more than one robot on the floor, give each its own id and run the dispatcher module: the
+    // robot then takes its requests from the dispatcher instead of temi-data and sends it a heartbeat
+    // every FLEET_HEARTBEAT_MS. null for a robot on its own
+    private static final String FLEET_ROBOT_ID = null;
+    private static final long FLEET_HEARTBEAT_MS = 5000;
+    // past these a job fails and the robot moves on, see JobDeadlines
+    private static final JobDeadlines DEADLINES = new JobDeadlines();
+
+    private TemiRobotController robotController;
+    private SnapshotFileWriter snapshotFileWriter;
+    private final PreviewDecoder previewDecoder = new PreviewDecoder();
+    private final SlackUploader slackUploader = new SlackUploader(SlackUploader.FILES_UPLOAD_URL,
+            BuildConfig.SLACK_USER_TOKEN, 2 /* concurrent uploads */, 4 /* attempts */, 1000 /* base backoff ms */,
+            DEADLINES.getUploadMs());
+    private final ExecutorService processingWorkers = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    // always there, raw yuv captures are encoded by it even when they aren't cleaned up
+    private final SnapshotProcessor snapshotProcessor = new SnapshotProcessor(processingWorkers,
+            SnapshotProcessor.Format.PALETTE_PNG, PROCESSING_BUDGET_MS, SnapshotHandoff.POOL, PROCESS_SNAPSHOTS);
+    private ConnectivityManager.NetworkCallback networkCallback;
+    // requests, the robot worker, processing, the cache and the outbox
+    private SnapPipeline pipeline;
+
+    private MqttRequestClient mqttClient;
+    private FleetMember fleetMember;
+    private final Tracer tracer = new Tracer(Clock.SYSTEM);
+    private final ScheduledExecutorService metricsExecutor = Executors.newSingleThreadScheduledExecutor();
 
     private static final String subscriptionTopic = "temi-data";
 
@@ -71,6 +101,8 @@ public class MainActivity extends AppCompatActivity implements OnRobotReadyListe
         setContentView(R.layout.activity_main);
 
         robot = Robot.getInstance();
+        robotController = new TemiRobotController(robot, tracer);
+        snapshotFileWriter = new SnapshotFileWriter(new File(Environment.getExternalStorageDirectory(), "Pictures"));
 
         whiteboardSpinner = findViewById(R.id.spinner);
         cameraSpinner = findViewById(R.id.spinner_camera);
@@ -90,6 +122,7 @@ public class MainActivity extends AppCompatActivity implements OnRobotReadyListe
         List<String> cameraOptions = new ArrayList<>();
         cameraOptions.add("Regular Lens");
         cameraOptions.add("Wide Angle Lens");
+        cameraOptions.add("Best of Both Lenses");
 
         ArrayAdapter<String> adapter = new ArrayAdapter<String>(
                 this, android.R.layout.simple_spinner_item, cameraOptions);
@@ -108,76 +141,151 @@ public class MainActivity extends AppCompatActivity implements OnRobotReadyListe
             @Override
             public void onReceive(Context context,
                                   Intent intent) {
-                // use this flag to ensure we don't receive repeated broadcasts
-                if(receivingImages) {
-                    receivingImages = false;
-                    Log.d(TAG, "onReceive: received broadcast from Camera2Service. Updating UI");
-                    File imageFile = new File(Environment.getExternalStorageDirectory() + "/Pictures/image.jpg");
-
-                    // update imageView to get a preview of the clicked picture for debugging
-                    updateImageView(imageFile);
-                    Log.d(TAG, "onReceive: updated imageView");
-
-                    Log.d(TAG, "onReceive: about to send to slack");
-                    sendFileOnSlack(imageFile);
-
-                    // move temi to its initial location
-                    robot.goTo(initialLocationName);
+                // the broadcast names the job, the snapshot itself is waiting in the handoff
+                String jobId = intent.getStringExtra("jobId");
+                Snapshot snapshot = jobId != null ? SnapshotHandoff.take(jobId) : null;
+                if (snapshot == null) {
+                    Log.w(TAG, "onReceive: no snapshot for job " + jobId);
+                    pipeline.captureFailed(jobId);
+                    return;
                 }
+                Snapshot alternate = SnapshotHandoff.takeAlternate(jobId);
+                String alternateLens = intent.getStringExtra("alternateCameraId");
+                if (alternate != null) {
+                    // the lens that lost out only goes into the history (and the local copies)
+                    if (KEEP_SNAPSHOTS_ON_DISK) {
+                        snapshotFileWriter.write(alternate);
+                    }
+                    pipeline.capturedAlternate(jobId, alternate,
+                            alternateLens != null ? Integer.parseInt(alternateLens) : -1);
+                }
+                Log.d(TAG, "onReceive: received snapshot of " + snapshot.size() + " bytes from lens "
+                        + intent.getStringExtra("cameraId") + " of Camera2Service");
+                String lens = intent.getStringExtra("cameraId");
+                pipeline.captured(jobId, snapshot, intent.getLongArrayExtra("previewHash"),
+                        intent.getLongExtra("openMs", 0), intent.getLongExtra("convergeMs", 0),
+                        intent.getLongExtra("captureMs", 0), lens != null ? Integer.parseInt(lens) : -1,
+                        LensSelector.Score.fromArray(intent.getDoubleArrayExtra("score")),
+                        Camera2Service.exposureOf(intent));
             }
         };
 
         registerReceiver(updateUIReceiver, filter);
-        waitForMqttMessages();
+        // the pipeline reports on its jobs through the mqtt client, which hands it the requests
+        createMqttClient();
+        startPipeline();
+        mqttClient.start();
+        if (FLEET_ROBOT_ID != null) {
+            fleetMember = new FleetMember(FLEET_ROBOT_ID, robotController, pipeline, mqttClient, FLEET_HEARTBEAT_MS);
+            fleetMember.start();
+        }
+        startMetricsExport();
     }
 
-    private void updateImageView(File imageFile) {
-        Bitmap myBitmap = BitmapFactory.decodeFile(imageFile.getAbsolutePath());
-        imageView.setImageBitmap(myBitmap);
+    @Override
+    protected void onDestroy() {
+        metricsExecutor.shutdown();
+        if (fleetMember != null) {
+            // so the dispatcher hands our work to the others right away
+            fleetMember.stop();
+        }
+        mqttClient.stop();
+        pipeline.stop();
+        robotController.release();
+        snapshotFileWriter.shutdown();
+        previewDecoder.shutdown();
+        processingWorkers.shutdownNow();
+        ((ConnectivityManager) getSystemService(CONNECTIVITY_SERVICE)).unregisterNetworkCallback(networkCallback);
+        slackUploader.shutdown();
+        super.onDestroy();
     }
 
-    private void sendFileOnSlack(File file) {
-        String serverURL = "https://slack.com/api/files.upload";
-        String userToken = BuildConfig.SLACK_USER_TOKEN;
-        try {
-            OkHttpClient client = new OkHttpClient();
-
-            RequestBody requestBody = new MultipartBody.Builder().setType(MultipartBody.FORM)
-                    .addFormDataPart("file", file.getName(),
-                            RequestBody.create(MediaType.parse("image/jpg"), file))
-                    .addFormDataPart("initial_comment", String.format("Here's the snap of %s you asked for!", selectedLocation))
-                    .addFormDataPart("channels", "whiteboard-messages")
-                    .build();
-
-            Request request = new Request.Builder()
-                    .url(serverURL)
-                    .post(requestBody)
-                    .addHeader("Authorization", "Bearer " + userToken)
-                    .build();
-
-            client.newCall(request).enqueue(new Callback() {
-                @Override
-                public void onFailure(final Call call, final IOException e) {
-                    // Handle the error
-                    Log.d(TAG, "onFailure: http post failed");
-                    e.printStackTrace();
+    private void startPipeline() {
+        SnapPipeline.Camera camera = new SnapPipeline.Camera() {
+            @Override
+            public void prepare(SnapJob job) {
+                Intent intent = cameraIntent(Camera2Service.ACTION_PREWARM, job.getCameraId());
+                intent.putExtra("profile", captureProfile(job.getLocation()).toString());
+                putExposureHint(intent, job);
+                startService(intent);
+            }
+
+            @Override
+            public void capture(SnapJob job) {
+                // the camera service sends a broadcast once done
+                Intent intent = cameraIntent(Camera2Service.ACTION_CAPTURE, job.getCameraId());
+                intent.putExtra("profile", captureProfile(job.getLocation()).toString());
+                intent.putExtra("jobId", job.getId());
+                intent.putExtra("location", job.getLocation());
+                putExposureHint(intent, job);
+                startService(intent);
+            }
+
+            @Override
+            public void release() {
+                startService(cameraIntent(Camera2Service.ACTION_RELEASE, -1));
+            }
+        };
+        SnapPipeline.Config config = new SnapPipeline.Config(getFilesDir(), SnapshotHandoff.POOL)
+                .deadlines(DEADLINES);
+        pipeline = new SnapPipeline(config, tracer, robotController, camera,
+                snapshotProcessor, slackUploader, mqttClient, new SnapPipeline.Listener() {
+            @Override
+            public void onCaptured(SnapJob job, Snapshot snapshot) {
+                // update imageView to get a preview of the clicked picture for debugging
+                updateImageView(snapshot);
+                if (KEEP_SNAPSHOTS_ON_DISK) {
+                    snapshotFileWriter.write(snapshot);
                 }
+            }
+
+            @Override
+            public void onEvent(String message) {
+                Log.d(TAG, "pipeline: " + message);
+            }
+
+            @Override
+            public void onWarning(String message, Exception error) {
+                Log.w(TAG, "pipeline: " + message, error);
+            }
+        });
+        pipeline.start();
+
+        // whatever piled up while we were offline goes out as soon as we're back
+        ConnectivityManager connectivityManager = (ConnectivityManager) getSystemService(CONNECTIVITY_SERVICE);
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                Log.d(TAG, "network available, draining outbox");
+                pipeline.drainOutbox();
+            }
+        };
+        connectivityManager.registerNetworkCallback(new NetworkRequest.Builder()
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                .build(), networkCallback);
+    }
 
-                @Override
-                public void onResponse(final Call call, final Response response) {
-                    if (!response.isSuccessful()) {
-                        // Handle the error
-                        Log.d(TAG, "onResponse: not successful");
-                        Log.d(TAG, "onResponse: " + response);
+    private void updateImageView(Snapshot snapshot) {
+        // decoded in the background, the view is updated once it's ready
+        previewDecoder.decode(snapshot, imageView);
+    }
+
+    private void startMetricsExport() {
+        final MetricsExporter exporter = new MetricsExporter(tracer, new File(getFilesDir(), "metrics.lp"),
+                METRICS_MAX_FILE_BYTES);
+        metricsExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    String lines = exporter.export(System.currentTimeMillis());
+                    if (!lines.isEmpty() && METRICS_TOPIC != null) {
+                        mqttClient.publish(METRICS_TOPIC, null, lines);
                     }
-                    // Upload successful
-                    Log.d(TAG, "onResponse: success!");
-                    Log.d(TAG, "onResponse: " + response);
+                } catch (IOException e) {
+                    Log.w(TAG, "can't export metrics", e);
                 }
-            });
-        } catch (Exception ex) {
-            // Handle the error
-        }
+            }
+        }, METRICS_INTERVAL_MS, METRICS_INTERVAL_MS, TimeUnit.MILLISECONDS);
     }
 
     @Override
@@ -195,8 +303,9 @@ public class MainActivity extends AppCompatActivity implements OnRobotReadyListe
     @RequiresApi(api = Build.VERSION_CODES.N)
     @Override
     public void onRobotReady(boolean isReady) {
-        // get the list of locations from the robot and populate the spinner
-        List<String> locations = robot.getLocations();
+        // get the list of locations from the robot and populate the spinner. the controller keeps it
+        // until the map changes
+        List<String> locations = robotController.getLocations();
         List<String> whiteboardLocs = new ArrayList<>();
         for (String location : locations) {
             if (location.startsWith("whiteboard")) {
@@ -211,60 +320,31 @@ public class MainActivity extends AppCompatActivity implements OnRobotReadyListe
 
         adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
         whiteboardSpinner.setAdapter(adapter);
+        whiteboardSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                // show the last snap of this whiteboard, if we took one since the app started
+                previewDecoder.showCached(parent.getItemAtPosition(position).toString(), imageView);
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
 
         goButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
                 Log.d(TAG, "user pressed go button");
 
-                selectedLocation = whiteboardSpinner.getSelectedItem().toString();
+                String location = whiteboardSpinner.getSelectedItem().toString();
                 int angle = Integer.parseInt(angleInput.getText().toString());
                 int cameraId = cameraSpinner.getSelectedItemPosition();
-                moveAndClickPicture(selectedLocation, angle, cameraId);
+                pipeline.submit(location, angle, cameraId, "ui");
             }
         });
     }
 
-    // cameraId: regular lens = 0, wide angle = 1
-    private void moveAndClickPicture(String location, int headAngle, int cameraId) {
-        // ensures that the broadcast message sent from the camera service is received
-        receivingImages = true;
-
-        // store current location so that we can go back to where we were
-        robot.saveLocation(initialLocationName);
-        Log.d(TAG, "moveAndClickPicture: temporarily saved the current location");
-
-        // setup a location change listener to obtain events when temi is moving
-        OnGoToLocationStatusChangedListener listener = new OnGoToLocationStatusChangedListener() {
-            @Override
-            public void onGoToLocationStatusChanged(@NonNull String currentLoc,
-                                                    @NonNull String status,
-                                                    int descriptionId,
-                                                    @NonNull String description) {
-                Log.d(TAG, String.format("onGoToLocationStatusChanged: location: %s, status: %s, desc: %s", currentLoc, status, description));
-
-                // if we've reached, adjust head angle and click picture
-                if (currentLoc.equals(location) && status.equals("complete")) {
-                    Log.d(TAG, "reached destination. now adjusting head angle.");
-                    robot.tiltAngle(headAngle);
-                    Log.d(TAG, "now clicking picture.");
-                    clickPicture(cameraId); // the camera service sends a broadcast once done
-                } else if(currentLoc.equals(initialLocationName) && status.equals("complete")) {
-                    // when we've reached back to original position, remove the temporarily saved initial location
-                    Log.d(TAG, "reached original position");
-                    robot.deleteLocation(initialLocationName);
-                    Log.d(TAG, "deleted temporary location");
-                    // remove the listening to location changes
-                    robot.removeOnGoToLocationStatusChangedListener(this);
-                }
-            }
-        };
-
-        robot.addOnGoToLocationStatusChangedListener(listener);
-        // ask temi to go to the requested location
-        robot.goTo(location);
-    }
-
     private void checkPermissionsOrRequest() {
         // The request code used in ActivityCompat.requestPermissions()
         // and returned in the Activity's onRequestPermissionsResult()
@@ -296,66 +376,55 @@ public class MainActivity extends AppCompatActivity implements OnRobotReadyListe
         return true;
     }
 
-    private void clickPicture(int cameraId) {
+    private static CaptureProfile captureProfile(String location) {
+        CaptureProfile profile = CAPTURE_PROFILES.get(location);
+        return profile != null ? profile : CaptureProfile.DEFAULT;
+    }
+
+    // the exposure the board was last taken with, so the camera can start from it
+    private void putExposureHint(Intent intent, SnapJob job) {
+        BoardProfiles.Exposure hint = pipeline.exposureHint(job);
+        if (hint != null) {
+            Camera2Service.putExposure(intent, hint);
+        }
+    }
+
+    private Intent cameraIntent(String action, int cameraId) {
         Intent cameraServiceIntent = new Intent(MainActivity.this, Camera2Service.class);
+        cameraServiceIntent.setAction(action);
 
         // camera apis expect the cameraId to be a string
         // from testing, regular lens = 0, wide angle = 1
         String idString = Integer.toString(cameraId);
+        if (cameraId == SnapRequest.BOTH_LENSES) {
+            // the wide angle first, it's warmed up on the way, then the regular lens
+            idString = "1";
+            cameraServiceIntent.putExtra("otherCameraId", "0");
+        }
         cameraServiceIntent.putExtra("cameraId", idString);
-        startService(cameraServiceIntent);
+        return cameraServiceIntent;
     }
 
-    @SuppressLint("NewApi")
-    private void waitForMqttMessages() {
-        final String host = BuildConfig.HIVEMQ_BROKER;
-        final String username = BuildConfig.HIVEMQ_USER;
-        final String password = BuildConfig.HIVEMQ_PASSWORD;
-
-        //create an MQTT client
-        final Mqtt5BlockingClient client = MqttClient.builder()
-                .useMqttVersion5()
-                .serverHost(host)
-                .serverPort(8883)
-                .sslWithDefaultConfig()
-                .buildBlocking();
-
-        //connect to HiveMQ Cloud with TLS and username/pw
-        client.connectWith()
-                .simpleAuth()
-                .username(username)
-                .password(UTF_8.encode(password))
-                .applySimpleAuth()
-                .send();
-
-        Log.d(TAG, "waitForMqttMessages: Connected successfully");
-
-        //subscribe to the topic "my/test/topic"
-        client.subscribeWith()
-                .topicFilter(subscriptionTopic)
-                .send();
-
-        // set a callback that is called when a message is received (using the async API style)
-        client.toAsync().publishes(ALL, publish -> {
-            String payload = UTF_8.decode(publish.getPayload().get()).toString();
-            Log.d(TAG, "waitForMqttMessages: Received message: " + payload);
-
-            try {
-                JSONObject sensorData = new JSONObject(payload);
-                if(sensorData.has("temi_request")) {
-                    selectedLocation = sensorData.getString("location");
-
-                    // we pick the location, and default to the wideangle lens with a head angle of 18
-                    moveAndClickPicture(selectedLocation, 18, 1);
-                } else {
-                    Log.d(TAG, "waitForMqttMessages: received invalid request!");
-                }
-            } catch (JSONException e) {
-                e.printStackTrace();
+    // connects in the background and keeps reconnecting once started, so onCreate never waits on the
+    // network. requests go straight to the pipeline, which acknowledges them once they're taken care of
+    private void createMqttClient() {
+        @SuppressLint("HardwareIds")
+        String clientId = "whiteboardsnap-" + Settings.Secure.getString(getContentResolver(), Settings.Secure.ANDROID_ID);
+        MqttRequestClient.Config config = new MqttRequestClient.Config(BuildConfig.HIVEMQ_BROKER, clientId,
+                FLEET_ROBOT_ID != null ? FleetDispatcher.requestTopic(FLEET_ROBOT_ID) : subscriptionTopic)
+                .credentials(BuildConfig.HIVEMQ_USER, BuildConfig.HIVEMQ_PASSWORD);
+        mqttClient = new MqttRequestClient(config, new MqttRequestClient.Handler() {
+            @Override
+            public void onRequest(String payload, String responseTopic, byte[] correlationData, Runnable ack) {
+                Log.d(TAG, "mqtt: received message: " + payload);
+                pipeline.onRequest(payload, responseTopic, correlationData, ack);
+            }
+        }, new MqttRequestClient.Listener() {
+            @Override
+            public void onStateChanged(MqttRequestClient.State state, Throwable cause) {
+                Log.d(TAG, "mqtt: " + state + (cause != null ? " (" + cause + ")" : "") + ", "
+                        + mqttClient.getStats());
             }
-
-            // disconnect the client after a message was received
-            // client.disconnect();
         });
     }
 
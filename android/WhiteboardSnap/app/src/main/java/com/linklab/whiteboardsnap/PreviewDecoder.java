@@ -0,0 +1,152 @@
+package com.linklab.whiteboardsnap;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// decodes the debug preview off the ui thread, downsampled to the size of the image view and into
+// recycled bitmaps. the latest thumbnail of each whiteboard is kept in a small lru for the ui
+public class PreviewDecoder {
+    static final String TAG = "PreviewDecoder";
+    private static final int MAX_THUMBNAIL_BYTES = 8 * 1024 * 1024;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final BitmapPool pool = new BitmapPool(3);
+    // only touched on the main thread
+    private Bitmap displayed;
+
+    private final LruCache<String, Bitmap> thumbnails = new LruCache<String, Bitmap>(MAX_THUMBNAIL_BYTES) {
+        @Override
+        protected int sizeOf(String location, Bitmap bitmap) {
+            return bitmap.getAllocationByteCount();
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, String location, Bitmap oldValue, Bitmap newValue) {
+            recycle(oldValue);
+        }
+    };
+
+    // decodes the snapshot and shows it in the view once ready. the snapshot is retained while decoding
+    public void decode(final Snapshot snapshot, final ImageView target) {
+        final int width = target.getWidth() > 0 ? target.getWidth() : 200;
+        final int height = target.getHeight() > 0 ? target.getHeight() : 200;
+        snapshot.retain();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap;
+                try {
+                    bitmap = decodeSampled(snapshot, width, height);
+                } finally {
+                    snapshot.release();
+                }
+                if (bitmap == null) {
+                    Log.w(TAG, "failed to decode preview of job " + snapshot.getJobId());
+                    return;
+                }
+                target.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        thumbnails.put(snapshot.getLocation(), bitmap);
+                        show(bitmap, target);
+                    }
+                });
+            }
+        });
+    }
+
+    // shows the last thumbnail of the location, if we have one. main thread only
+    public boolean showCached(String location, ImageView target) {
+        Bitmap bitmap = thumbnails.get(location);
+        if (bitmap != null) {
+            show(bitmap, target);
+        }
+        return bitmap != null;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void show(Bitmap bitmap, ImageView target) {
+        Bitmap previous = displayed;
+        displayed = bitmap;
+        target.setImageBitmap(bitmap);
+        if (previous != null && previous != bitmap && !thumbnails.snapshot().containsValue(previous)) {
+            pool.put(previous);
+        }
+    }
+
+    // a bitmap that left the lru can only be reused once it's no longer on screen
+    private void recycle(Bitmap bitmap) {
+        if (bitmap != displayed) {
+            pool.put(bitmap);
+        }
+    }
+
+    private Bitmap decodeSampled(Snapshot snapshot, int width, int height) {
+        if (PgmCodec.isPgm(snapshot)) {
+            return decodeGray(snapshot, width, height);
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeStream(new ByteBufferInputStream(snapshot.data()), null, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize(options.outWidth, options.outHeight, width, height);
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        int sampledWidth = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+        int sampledHeight = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+        options.inBitmap = pool.get(sampledWidth, sampledHeight, Bitmap.Config.ARGB_8888);
+        try {
+            return BitmapFactory.decodeStream(new ByteBufferInputStream(snapshot.data()), null, options);
+        } catch (IllegalArgumentException e) {
+            // the pooled bitmap couldn't be reused after all, fall back to a fresh one
+            options.inBitmap = null;
+            return BitmapFactory.decodeStream(new ByteBufferInputStream(snapshot.data()), null, options);
+        }
+    }
+
+    // raw luma from a yuv capture, which BitmapFactory can't read
+    private Bitmap decodeGray(Snapshot snapshot, int width, int height) {
+        int[] size = PgmCodec.size(snapshot.data());
+        if (size == null) {
+            return null;
+        }
+        GrayImage gray = PgmCodec.read(snapshot.data(), sampleSize(size[0], size[1], width, height));
+        Bitmap bitmap = pool.get(gray.getWidth(), gray.getHeight(), Bitmap.Config.ARGB_8888);
+        if (bitmap != null) {
+            bitmap.reconfigure(gray.getWidth(), gray.getHeight(), Bitmap.Config.ARGB_8888);
+        } else {
+            bitmap = Bitmap.createBitmap(gray.getWidth(), gray.getHeight(), Bitmap.Config.ARGB_8888);
+        }
+        int[] row = new int[gray.getWidth()];
+        for (int y = 0; y < gray.getHeight(); y++) {
+            for (int x = 0; x < row.length; x++) {
+                int v = gray.get(x, y);
+                row[x] = 0xff000000 | v << 16 | v << 8 | v;
+            }
+            bitmap.setPixels(row, 0, row.length, 0, y, row.length, 1);
+        }
+        return bitmap;
+    }
+
+    // largest power of two that keeps the decoded image at least as big as the view
+    static int sampleSize(int imageWidth, int imageHeight, int viewWidth, int viewHeight) {
+        int sampleSize = 1;
+        while (imageWidth / (sampleSize * 2) >= viewWidth && imageHeight / (sampleSize * 2) >= viewHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
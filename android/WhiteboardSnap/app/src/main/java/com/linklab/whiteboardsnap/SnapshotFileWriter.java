@@ -0,0 +1,60 @@
+package com.linklab.whiteboardsnap;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// optional side channel that keeps a copy of every snapshot on disk, one file per job, written in
+// the background so the upload never waits on flash. when flash falls behind by more than MAX_PENDING
+// snapshots the newest are skipped rather than held in memory, it's only a copy
+public class SnapshotFileWriter {
+    static final String TAG = "SnapshotFileWriter";
+    static final int MAX_PENDING = 4;
+
+    private final File directory;
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(MAX_PENDING));
+
+    public SnapshotFileWriter(File directory) {
+        this.directory = directory;
+    }
+
+    public void write(final Snapshot snapshot) {
+        snapshot.retain();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    File file = new File(directory, snapshot.fileName());
+                    try (FileOutputStream output = new FileOutputStream(file);
+                         FileChannel channel = output.getChannel()) {
+                        ByteBuffer data = snapshot.data();
+                        while (data.hasRemaining()) {
+                            channel.write(data);
+                        }
+                        Log.d(TAG, "wrote " + file);
+                    } catch (IOException e) {
+                        Log.e(TAG, "failed to write " + file, e);
+                    } finally {
+                        snapshot.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "still writing earlier snapshots, skipping " + snapshot.fileName());
+            snapshot.release();
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
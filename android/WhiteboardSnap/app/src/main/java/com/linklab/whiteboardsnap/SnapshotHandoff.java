@@ -0,0 +1,42 @@
+package com.linklab.whiteboardsnap;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// hands captured snapshots from Camera2Service to MainActivity within the process, keyed by job id.
+// the broadcast only tells the activity which job is ready, the bytes never leave memory
+public final class SnapshotHandoff {
+    public static final SnapshotBufferPool POOL = new SnapshotBufferPool(4);
+
+    private static final ConcurrentMap<String, Snapshot> ready = new ConcurrentHashMap<>();
+    // the still of the lens that lost out, when a job was taken with both
+    private static final ConcurrentMap<String, Snapshot> alternates = new ConcurrentHashMap<>();
+
+    private SnapshotHandoff() {
+    }
+
+    public static void publish(Snapshot snapshot) {
+        put(ready, snapshot);
+    }
+
+    public static void publishAlternate(Snapshot snapshot) {
+        put(alternates, snapshot);
+    }
+
+    private static void put(ConcurrentMap<String, Snapshot> snapshots, Snapshot snapshot) {
+        Snapshot previous = snapshots.put(snapshot.getJobId(), snapshot);
+        if (previous != null) {
+            previous.release();
+        }
+    }
+
+    // the caller takes over the snapshot's reference and must release it
+    public static Snapshot take(String jobId) {
+        return ready.remove(jobId);
+    }
+
+    // null unless the job was taken with both lenses. released by the caller too
+    public static Snapshot takeAlternate(String jobId) {
+        return alternates.remove(jobId);
+    }
+}
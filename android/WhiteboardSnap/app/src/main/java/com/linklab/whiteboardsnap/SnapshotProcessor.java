@@ -0,0 +1,151 @@
+package com.linklab.whiteboardsnap;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// the stage between capture and upload: decodes the jpeg to grayscale, cleans it up with
+// WhiteboardProcessor and encodes the result in a much smaller format. raw luma from a yuv capture
+// skips the decode, and is always encoded here since nothing else can upload it, cleaned up or not.
+// everything but the decode and the jpeg/webp encode is plain java
+public class SnapshotProcessor implements SnapPipeline.Processor {
+    static final String TAG = "SnapshotProcessor";
+
+    public enum Format {
+        // 16 gray levels, usually the smallest for a clean board
+        PALETTE_PNG,
+        GRAY_JPEG,
+        GRAY_WEBP
+    }
+
+    private static final int LOSSY_QUALITY = 60;
+    // raw luma that couldn't be cleaned up is sent as the photo it is
+    private static final int ORIGINAL_QUALITY = 90;
+
+    private final WhiteboardProcessor processor;
+    private final Format format;
+    private final long budgetMs;
+    private final SnapshotBufferPool pool;
+    // false only encodes raw luma, jpegs go out as they were captured
+    private final boolean cleanUp;
+
+    public SnapshotProcessor(ExecutorService workers, Format format, long budgetMs, SnapshotBufferPool pool,
+                             boolean cleanUp) {
+        this.processor = new WhiteboardProcessor(workers);
+        this.format = format;
+        this.budgetMs = budgetMs;
+        this.pool = pool;
+        this.cleanUp = cleanUp;
+    }
+
+    // a new snapshot with the processed image, or null if processing failed or ran out of time, in
+    // which case the original should be uploaded. the input snapshot is left to the caller
+    public Snapshot process(Snapshot snapshot) {
+        boolean raw = PgmCodec.isPgm(snapshot);
+        if (!cleanUp && !raw) {
+            return null;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMs);
+        StageTimings timings = new StageTimings();
+
+        GrayImage gray = decodeGray(snapshot, 1);
+        timings.lap(raw ? "read" : "decode");
+        if (gray == null) {
+            Log.w(TAG, "can't decode snapshot of job " + snapshot.getJobId());
+            return null;
+        }
+
+        WhiteboardProcessor.Result result = null;
+        if (cleanUp) {
+            result = processor.process(gray, timings, deadline);
+            if (!result.isComplete()) {
+                Log.w(TAG, "processing of job " + snapshot.getJobId() + " ran out of time: " + timings);
+                if (!raw) {
+                    return null;
+                }
+                result = null;
+            }
+        }
+
+        byte[] encoded = result != null ? encode(result.getImage())
+                : compress(gray, Bitmap.CompressFormat.JPEG, ORIGINAL_QUALITY);
+        timings.lap("encode");
+        ByteBuffer data = pool.acquire(encoded.length);
+        data.put(encoded);
+        data.flip();
+
+        Log.d(TAG, String.format("job %s: %d -> %d bytes, board %s, %s", snapshot.getJobId(), snapshot.size(),
+                encoded.length, result == null ? "not cleaned up" : result.getQuad() != null ? "found" : "not found",
+                timings));
+        return new Snapshot(snapshot.getJobId(), snapshot.getLocation(), snapshot.getCapturedAt(),
+                result != null ? mimeType() : "image/jpeg", data, pool);
+    }
+
+    private String mimeType() {
+        switch (format) {
+            case GRAY_JPEG:
+                return "image/jpeg";
+            case GRAY_WEBP:
+                return "image/webp";
+            default:
+                return "image/png";
+        }
+    }
+
+    // sampleSize > 1 decodes at 1/sampleSize of the size, which is much faster. null if it can't be decoded
+    static GrayImage decodeGray(Snapshot snapshot, int sampleSize) {
+        if (PgmCodec.isPgm(snapshot)) {
+            // no decode, a copy out of the pooled buffer
+            return PgmCodec.read(snapshot.data(), sampleSize);
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        Bitmap bitmap = BitmapFactory.decodeStream(new ByteBufferInputStream(snapshot.data()), null, options);
+        if (bitmap == null) {
+            return null;
+        }
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        GrayImage gray = new GrayImage(width, height);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; x++) {
+                int c = row[x];
+                // rec. 601 luma in fixed point
+                gray.pixels[y * width + x] = (byte) ((77 * ((c >> 16) & 0xff) + 150 * ((c >> 8) & 0xff) + 29 * (c & 0xff)) >> 8);
+            }
+        }
+        bitmap.recycle();
+        return gray;
+    }
+
+    private byte[] encode(GrayImage image) {
+        if (format == Format.PALETTE_PNG) {
+            return PalettePngEncoder.encode(image);
+        }
+        return compress(image, format == Format.GRAY_WEBP ? Bitmap.CompressFormat.WEBP : Bitmap.CompressFormat.JPEG,
+                LOSSY_QUALITY);
+    }
+
+    static byte[] compress(GrayImage image, Bitmap.CompressFormat format, int quality) {
+        Bitmap bitmap = Bitmap.createBitmap(image.width, image.height, Bitmap.Config.ARGB_8888);
+        int[] row = new int[image.width];
+        for (int y = 0; y < image.height; y++) {
+            for (int x = 0; x < image.width; x++) {
+                int v = image.pixels[y * image.width + x] & 0xff;
+                row[x] = 0xff000000 | v << 16 | v << 8 | v;
+            }
+            bitmap.setPixels(row, 0, image.width, 0, y, image.width, 1);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(image.width * image.height / 8);
+        bitmap.compress(format, quality, out);
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,183 @@
+package com.linklab.whiteboardsnap;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.robotemi.sdk.BatteryData;
+import com.robotemi.sdk.Robot;
+import com.robotemi.sdk.listeners.OnGoToLocationStatusChangedListener;
+import com.robotemi.sdk.listeners.OnLocationsUpdatedListener;
+import com.robotemi.sdk.navigation.listener.OnCurrentPositionChangedListener;
+import com.robotemi.sdk.navigation.model.Position;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import androidx.annotation.NonNull;
+
+// RobotController backed by the temi sdk. the sdk doesn't hand out the coordinates of saved
+// locations, so we remember where the robot was every time it arrives at or saves one. every goTo()
+// is timed as route planning (until temi says it's going) and driving. the list of locations is a
+// call into the robot's launcher, so it's kept until temi says the map changed
+public class TemiRobotController implements RobotController, OnGoToLocationStatusChangedListener,
+        OnCurrentPositionChangedListener, OnLocationsUpdatedListener {
+    static final String TAG = "TemiRobotController";
+
+    private final Robot robot;
+    private final Tracer tracer;
+    private final Map<String, MapPoint> locationPositions = new ConcurrentHashMap<>();
+    private volatile MapPoint position;
+    // null until asked for, or after the map changed
+    private volatile List<String> locations;
+
+    private final Object navigationLock = new Object();
+    private String target;
+    private CountDownLatch arrival;
+    private boolean reached;
+    // elapsedRealtime of the goTo() call and of temi starting to drive, 0 until it does
+    private long goToAt, goingAt;
+
+    public TemiRobotController(Robot robot, Tracer tracer) {
+        this.robot = robot;
+        this.tracer = tracer;
+        robot.addOnGoToLocationStatusChangedListener(this);
+        robot.addOnCurrentPositionChangedListener(this);
+        robot.addOnLocationsUpdatedListener(this);
+    }
+
+    public void release() {
+        robot.removeOnGoToLocationStatusChangedListener(this);
+        robot.removeOnCurrentPositionChangedListener(this);
+        robot.removeOnLocationsUpdateListener(this);
+    }
+
+    @Override
+    public boolean goTo(String location) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        synchronized (navigationLock) {
+            target = location;
+            arrival = latch;
+            reached = false;
+            goToAt = SystemClock.elapsedRealtime();
+            goingAt = 0;
+        }
+        Log.d(TAG, "goTo: " + location);
+        robot.goTo(location);
+        latch.await();
+        synchronized (navigationLock) {
+            return reached;
+        }
+    }
+
+    @Override
+    public void onGoToLocationStatusChanged(@NonNull String currentLoc,
+                                            @NonNull String status,
+                                            int descriptionId,
+                                            @NonNull String description) {
+        Log.d(TAG, String.format("onGoToLocationStatusChanged: location: %s, status: %s, desc: %s", currentLoc, status, description));
+        synchronized (navigationLock) {
+            if (!currentLoc.equals(target)) {
+                return;
+            }
+            long now = SystemClock.elapsedRealtime();
+            if (status.equals("going") && goingAt == 0) {
+                goingAt = now;
+                tracer.record(Phase.ROUTE_PLANNING, now - goToAt);
+            }
+            if (!(status.equals("complete") || status.equals("abort"))) {
+                return;
+            }
+            reached = status.equals("complete");
+            if (reached && goingAt != 0) {
+                tracer.record(Phase.DRIVING, now - goingAt);
+            }
+            MapPoint here = position;
+            if (reached && here != null) {
+                locationPositions.put(currentLoc, here);
+            }
+            target = null;
+            arrival.countDown();
+        }
+    }
+
+    @Override
+    public void onCurrentPositionChanged(@NonNull Position position) {
+        this.position = new MapPoint(position.getX(), position.getY());
+    }
+
+    @Override
+    public void onLocationsUpdated(@NonNull List<String> locations) {
+        Log.d(TAG, "onLocationsUpdated: " + locations.size() + " locations");
+        this.locations = Collections.unmodifiableList(new ArrayList<>(locations));
+    }
+
+    @Override
+    public void stopMovement() {
+        Log.d(TAG, "stopMovement");
+        robot.stopMovement();
+        synchronized (navigationLock) {
+            // temi doesn't always report the abort, goTo() mustn't wait for it
+            if (target != null) {
+                target = null;
+                reached = false;
+                arrival.countDown();
+            }
+        }
+    }
+
+    @Override
+    public void tiltAngle(int angle) {
+        robot.tiltAngle(angle);
+    }
+
+    @Override
+    public boolean saveLocation(String name) {
+        boolean saved = robot.saveLocation(name);
+        MapPoint here = position;
+        if (saved && here != null) {
+            locationPositions.put(name, here);
+        }
+        locations = null;
+        Log.d(TAG, "saveLocation: " + name + " saved: " + saved);
+        return saved;
+    }
+
+    @Override
+    public boolean deleteLocation(String name) {
+        locationPositions.remove(name);
+        boolean deleted = robot.deleteLocation(name);
+        locations = null;
+        Log.d(TAG, "deleteLocation: " + name + " deleted: " + deleted);
+        return deleted;
+    }
+
+    @Override
+    public List<String> getLocations() {
+        List<String> cached = locations;
+        if (cached == null) {
+            cached = Collections.unmodifiableList(new ArrayList<>(robot.getLocations()));
+            locations = cached;
+        }
+        return cached;
+    }
+
+    @Override
+    public MapPoint getPosition() {
+        return position;
+    }
+
+    @Override
+    public MapPoint positionOf(String location) {
+        return locationPositions.get(location);
+    }
+
+    @Override
+    public int getBatteryPercentage() {
+        BatteryData battery = robot.getBatteryData();
+        return battery != null ? battery.getBatteryPercentage() : -1;
+    }
+}
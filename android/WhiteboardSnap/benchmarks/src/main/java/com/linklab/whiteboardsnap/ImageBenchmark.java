@@ -0,0 +1,100 @@
+package com.linklab.whiteboardsnap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// the per-frame and per-capture image work on real whiteboard photos: the change detector's hash
+// runs on preview frames, processing and the png encoder on every capture, the frame selector on every burst
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageBenchmark {
+    @Param({Samples.WHITEBOARD_225, Samples.WHITEBOARD_225_RIGHT})
+    String sample;
+
+    private GrayImage image;
+    // the image as a direct luma plane, the way preview frames come from the camera
+    private ByteBuffer plane;
+    private GrayImage processed;
+    private final PerceptualHash hash = new PerceptualHash();
+    private ExecutorService workers;
+    private WhiteboardProcessor processor;
+    private FrameSelector selector;
+    private List<GrayImage> burst;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        image = Samples.gray(sample);
+        plane = ByteBuffer.allocateDirect(image.pixels.length);
+        plane.put(image.pixels).flip();
+        // same pool size as on the robot
+        workers = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        processor = new WhiteboardProcessor(workers);
+        processed = processor.process(image, new StageTimings(), Long.MAX_VALUE).getImage();
+        selector = new FrameSelector(workers);
+        burst = Arrays.asList(image, image, image);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        workers.shutdownNow();
+    }
+
+    @Benchmark
+    public long[] perceptualHash() {
+        return hash.compute(image);
+    }
+
+    @Benchmark
+    public long[] perceptualHashPlane() {
+        return hash.compute(plane, image.width, image.height, image.width, 1);
+    }
+
+    @Benchmark
+    public WhiteboardProcessor.Quad detectQuad() {
+        return processor.detectQuad(image);
+    }
+
+    @Benchmark
+    public WhiteboardProcessor.Result process() {
+        return processor.process(image, new StageTimings(), System.nanoTime() + TimeUnit.SECONDS.toNanos(10));
+    }
+
+    @Benchmark
+    public byte[] encodePng() {
+        return PalettePngEncoder.encode(processed);
+    }
+
+    @Benchmark
+    public double sharpness() {
+        return FrameSelector.sharpness(image);
+    }
+
+    @Benchmark
+    public GrayImage medianOfThree() throws TimeoutException {
+        return selector.median(burst, System.nanoTime() + TimeUnit.SECONDS.toNanos(10));
+    }
+}
@@ -0,0 +1,56 @@
+package com.linklab.whiteboardsnap;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import javax.imageio.ImageIO;
+
+// the whiteboard photos checked in under resources/whiteboards, as the robot's camera took them
+final class Samples {
+    static final String WHITEBOARD_225 = "whiteboard-225.jpg";
+    // the sparser right half of the same board
+    static final String WHITEBOARD_225_RIGHT = "whiteboard-225-right.jpg";
+
+    private Samples() {
+    }
+
+    static byte[] jpeg(String name) throws IOException {
+        try (InputStream input = Samples.class.getResourceAsStream("/whiteboards/" + name)) {
+            if (input == null) {
+                throw new IOException("no sample " + name);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            int n;
+            while ((n = input.read(chunk)) != -1) {
+                bytes.write(chunk, 0, n);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    // decoded to luma the way the camera's Y plane would hold it
+    static GrayImage gray(String name) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg(name)));
+        GrayImage gray = new GrayImage(image.getWidth(), image.getHeight());
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int rgb = image.getRGB(x, y);
+                int r = (rgb >> 16) & 0xff;
+                int g = (rgb >> 8) & 0xff;
+                int b = rgb & 0xff;
+                gray.set(x, y, (77 * r + 150 * g + 29 * b) >> 8);
+            }
+        }
+        return gray;
+    }
+
+    static Snapshot snapshot(String jobId, String name) throws IOException {
+        return new Snapshot(jobId, "whiteboard-225", System.currentTimeMillis(), "image/jpeg",
+                ByteBuffer.wrap(jpeg(name)), null);
+    }
+}
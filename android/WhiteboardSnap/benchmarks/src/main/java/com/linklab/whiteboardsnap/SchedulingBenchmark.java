@@ -0,0 +1,79 @@
+package com.linklab.whiteboardsnap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// what the robot worker does between two trips: take the batch off the queue, order it, and when
+// idle pick the boards to patrol
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SchedulingBenchmark {
+    // SnapRequestParser.MAX_LOCATIONS is the biggest batch a single request brings
+    @Param({"4", "16", "64"})
+    int stops;
+
+    private final List<String> locations = new ArrayList<>();
+    private final List<SnapJob> jobs = new ArrayList<>();
+    private final Map<String, MapPoint> positions = new HashMap<>();
+    private final RoutePlanner planner = new NearestNeighbourRoutePlanner();
+    private PatrolScheduler patrol;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < stops; i++) {
+            String location = "whiteboard-" + (200 + i);
+            locations.add(location);
+            jobs.add(new SnapJob(Integer.toString(i), location, 18, 1, "bench"));
+            positions.put(location, new MapPoint(random.nextFloat() * 40, random.nextFloat() * 20));
+        }
+        patrol = new PatrolScheduler(Clock.SYSTEM, 0, 0, 0, 60 * 60 * 1000);
+        for (int i = 0; i < stops * 4; i++) {
+            patrol.recordRequest(locations.get(random.nextInt(stops)));
+        }
+    }
+
+    // three requests per board, two of them merged into the first one's job
+    @Benchmark
+    public int submitAndDrain() {
+        SnapJobQueue queue = new SnapJobQueue();
+        for (int round = 0; round < 3; round++) {
+            for (String location : locations) {
+                queue.submit(location, 18, 1, "requester-" + round);
+            }
+        }
+        List<SnapJob> batch = new ArrayList<>();
+        queue.drainTo(batch);
+        return batch.size();
+    }
+
+    @Benchmark
+    public List<SnapJob> planRoute() {
+        return planner.plan(new MapPoint(0, 0), jobs, positions);
+    }
+
+    @Benchmark
+    public List<String> planPatrol() {
+        return patrol.plan(locations);
+    }
+}
@@ -0,0 +1,66 @@
+package com.linklab.whiteboardsnap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// every mqtt message goes through the parser on the client's thread, and its locations through the
+// location index before anything is queued
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapRequestParserBenchmark {
+    private static final String V1 = "{\"v\":1,\"id\":\"Ft01ABCDEF\",\"locations\":[\"whiteboard-225\","
+            + "\"whiteboard-230\",\"whiteboard-241\"],\"camera\":1,\"tilt\":18,"
+            + "\"reply\":{\"channel\":\"whiteboard-messages\",\"thread\":\"1634567890.000100\"},"
+            + "\"extra\":{\"user\":\"U123\"}}";
+    private static final String LEGACY = "{\"temi_request\":\"snap\",\"location\":\"whiteboard-225\"}";
+
+    private final SnapRequestParser parser = new SnapRequestParser();
+    private final LocationIndex index = new LocationIndex(floor());
+
+    // forty boards and a few rooms
+    private static List<String> floor() {
+        List<String> locations = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            locations.add("whiteboard-" + (200 + i * 3));
+        }
+        locations.add("kitchen");
+        locations.add("home base");
+        locations.add("lobby");
+        return locations;
+    }
+
+    @Benchmark
+    public SnapRequest parseV1() throws SnapRequestParser.MalformedRequestException {
+        return parser.parse(V1);
+    }
+
+    @Benchmark
+    public SnapRequest parseLegacy() throws SnapRequestParser.MalformedRequestException {
+        return parser.parse(LEGACY);
+    }
+
+    @Benchmark
+    public LocationIndex.Resolution resolveExact() {
+        return index.resolve("whiteboard-230");
+    }
+
+    @Benchmark
+    public LocationIndex.Resolution resolveTypo() {
+        return index.resolve("Whitebaord 230");
+    }
+}
@@ -0,0 +1,75 @@
+package com.linklab.whiteboardsnap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+
+// what it costs to hand a capture over for upload: journaling it in the outbox (which syncs the blob
+// to disk, so this mostly measures the disk) and writing the multipart body slack receives
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UploadBenchmark {
+    private Snapshot snapshot;
+    private File directory;
+    private UploadOutbox outbox;
+    private final Buffer sink = new Buffer();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        snapshot = Samples.snapshot("1", Samples.WHITEBOARD_225);
+        directory = Files.createTempDirectory("outbox").toFile();
+        outbox = new UploadOutbox(directory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        outbox.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public long multipartBody() throws IOException {
+        sink.clear();
+        SlackUploader.uploadBody(snapshot, "whiteboard-messages", "Here's the snap of whiteboard 225")
+                .writeTo(sink);
+        return sink.size();
+    }
+
+    @Benchmark
+    public boolean outboxAddAndDone() throws IOException {
+        UploadOutbox.Entry entry = outbox.add(snapshot, "whiteboard-messages", null,
+                "Here's the snap of whiteboard 225");
+        if (outbox.needsSync()) {
+            outbox.sync();
+        }
+        outbox.markDone(entry);
+        return outbox.isPending(entry);
+    }
+}
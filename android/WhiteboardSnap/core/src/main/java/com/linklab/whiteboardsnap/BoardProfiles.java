@@ -0,0 +1,308 @@
+package com.linklab.whiteboardsnap;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+// what the robot learned about taking each board: the head angle and lens that frame it, and the
+// exposure and white balance it was last taken with. every capture's LensSelector score moves the view
+// a step: a board running off the top or bottom tilts the head that way, one off centre is nudged
+// back towards the middle, one too wide for the regular lens goes to the wide angle and one that's
+// small in the wide angle tries the regular lens. requests that leave the view to us get the learned
+// one, a view asked for in so many words is kept. kept in a file of records like the snapshot cache
+// index, rewritten on every change, so it does file i/o too
+public class BoardProfiles {
+    static final int REGULAR_LENS = 0;
+    static final int WIDE_LENS = 1;
+    // degrees the head moves for a board cut off at the top or bottom
+    static final int TILT_STEP = 5;
+    // about the vertical field of view, in degrees. a board off centre is moved half of the way back,
+    // so the head settles instead of swinging past it
+    static final double FIELD_OF_VIEW = 40;
+    // how far off centre a whole board may be, as a share of the frame's height
+    static final double CENTRE_TOLERANCE = 0.1;
+    // a whole board taking up less of the wide angle's frame than this tries the regular lens
+    static final double SMALL_BOARD = 0.2;
+    // a capture less than this share of the board's usual sharpness was taken with the head still moving,
+    // where the board is in it doesn't say where it will be
+    static final double MIN_SHARPNESS = 0.5;
+    // weight of the latest capture in the running averages
+    static final double SMOOTHING = 0.3;
+
+    // what AE/AWB settled on for a board, so the next capture can start from it instead of converging
+    public static class Exposure {
+        final long exposureTimeNs;
+        final int sensitivity;
+        // r, g even, g odd, b
+        final float[] colorGains;
+        // 3x3, row by row
+        final float[] colorTransform;
+        final long measuredAt;
+
+        public Exposure(long exposureTimeNs, int sensitivity, float[] colorGains, float[] colorTransform,
+                        long measuredAt) {
+            if (colorGains.length != 4 || colorTransform.length != 9) {
+                throw new IllegalArgumentException("4 gains and a 3x3 transform, got " + colorGains.length
+                        + " and " + colorTransform.length);
+            }
+            this.exposureTimeNs = exposureTimeNs;
+            this.sensitivity = sensitivity;
+            this.colorGains = colorGains.clone();
+            this.colorTransform = colorTransform.clone();
+            this.measuredAt = measuredAt;
+        }
+
+        public long getExposureTimeNs() {
+            return exposureTimeNs;
+        }
+
+        public int getSensitivity() {
+            return sensitivity;
+        }
+
+        public float[] getColorGains() {
+            return colorGains.clone();
+        }
+
+        public float[] getColorTransform() {
+            return colorTransform.clone();
+        }
+
+        public long getMeasuredAt() {
+            return measuredAt;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%.1fms iso %d", exposureTimeNs / 1e6, sensitivity);
+        }
+    }
+
+    public static class Profile {
+        final String location;
+        int headAngle;
+        int cameraId;
+        int captures;
+        double coverage;
+        double sharpness;
+        // the regular lens cut the board off at the sides, it won't be tried again
+        boolean regularTooNarrow;
+        final Map<Integer, Exposure> exposures = new HashMap<>();
+
+        Profile(String location, int headAngle, int cameraId) {
+            this.location = location;
+            this.headAngle = headAngle;
+            this.cameraId = cameraId;
+        }
+
+        public String getLocation() {
+            return location;
+        }
+
+        public int getHeadAngle() {
+            return headAngle;
+        }
+
+        public int getCameraId() {
+            return cameraId;
+        }
+
+        public int getCaptures() {
+            return captures;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s: tilt %d, lens %d after %d captures, coverage=%.2f sharpness=%.0f",
+                    location, headAngle, cameraId, captures, coverage, sharpness);
+        }
+    }
+
+    private final File file;
+    private final long exposureMaxAgeMs;
+    private final Map<String, Profile> profiles = new LinkedHashMap<>();
+
+    // exposures older than exposureMaxAgeMs aren't used, the light in the room has changed since
+    public BoardProfiles(File file, long exposureMaxAgeMs) throws IOException {
+        this.file = file;
+        this.exposureMaxAgeMs = exposureMaxAgeMs;
+        read();
+    }
+
+    // a request that didn't pick a view gets these
+    public static boolean isDefaultView(int headAngle, int cameraId) {
+        return headAngle == SnapRequest.DEFAULT_HEAD_ANGLE && cameraId == SnapRequest.DEFAULT_CAMERA_ID;
+    }
+
+    // null if the location hasn't been taken yet
+    public synchronized Profile get(String location) {
+        return profiles.get(location);
+    }
+
+    // the learned head angle for the default view, otherwise the one asked for
+    public synchronized int headAngle(String location, int headAngle, int cameraId) {
+        Profile profile = isDefaultView(headAngle, cameraId) ? profiles.get(location) : null;
+        return profile != null ? profile.headAngle : headAngle;
+    }
+
+    // the learned lens for the default view, otherwise the one asked for
+    public synchronized int cameraId(String location, int headAngle, int cameraId) {
+        Profile profile = isDefaultView(headAngle, cameraId) ? profiles.get(location) : null;
+        return profile != null ? profile.cameraId : cameraId;
+    }
+
+    // the exposure the lens last settled on at the location, null if there is none younger than exposureMaxAgeMs
+    public synchronized Exposure exposure(String location, int cameraId, long now) {
+        Profile profile = profiles.get(location);
+        Exposure exposure = profile != null ? profile.exposures.get(cameraId) : null;
+        return exposure != null && now - exposure.measuredAt <= exposureMaxAgeMs ? exposure : null;
+    }
+
+    // learns from a capture of the location, taken at headAngle with the lens. score or exposure may be
+    // null if the camera didn't say. a capture from a head angle somebody picked for themselves only
+    // teaches the exposure. returns the location's profile, null if there is none yet
+    public synchronized Profile record(String location, int headAngle, int cameraId, LensSelector.Score score,
+                                       Exposure exposure) throws IOException {
+        Profile profile = profiles.get(location);
+        if (profile == null && headAngle == SnapRequest.DEFAULT_HEAD_ANGLE) {
+            profile = new Profile(location, headAngle, cameraId);
+            profiles.put(location, profile);
+        }
+        if (profile == null) {
+            return null;
+        }
+        if (exposure != null) {
+            profile.exposures.put(cameraId, exposure);
+        }
+        if (score != null && score.coverage > 0 && headAngle == profile.headAngle) {
+            boolean steady = profile.captures == 0 || score.sharpness >= MIN_SHARPNESS * profile.sharpness;
+            profile.coverage = average(profile.coverage, score.coverage, profile.captures);
+            profile.sharpness = average(profile.sharpness, score.sharpness, profile.captures);
+            profile.captures++;
+            if (steady) {
+                profile.headAngle = nextHeadAngle(headAngle, score);
+                profile.cameraId = nextCameraId(profile, cameraId, score);
+            }
+        }
+        write();
+        return profile;
+    }
+
+    public synchronized int size() {
+        return profiles.size();
+    }
+
+    private static double average(double average, double value, int count) {
+        return count == 0 ? value : average + SMOOTHING * (value - average);
+    }
+
+    private static int nextHeadAngle(int headAngle, LensSelector.Score score) {
+        int next = headAngle;
+        if (score.isCutOffTop() && !score.isCutOffBottom()) {
+            // positive looks up
+            next += TILT_STEP;
+        } else if (score.isCutOffBottom() && !score.isCutOffTop()) {
+            next -= TILT_STEP;
+        } else if (!score.isCutOffTop() && Math.abs(score.getRise()) > CENTRE_TOLERANCE) {
+            next += (int) Math.round(score.getRise() * FIELD_OF_VIEW / 2);
+        }
+        return Math.max(RobotController.MIN_HEAD_ANGLE, Math.min(RobotController.MAX_HEAD_ANGLE, next));
+    }
+
+    private static int nextCameraId(Profile profile, int cameraId, LensSelector.Score score) {
+        boolean tooTall = score.isCutOffTop() && score.isCutOffBottom();
+        if (cameraId == REGULAR_LENS && (score.isCutOffLeft() || score.isCutOffRight() || tooTall)) {
+            profile.regularTooNarrow = true;
+            return WIDE_LENS;
+        }
+        if (cameraId == WIDE_LENS && !score.isCutOff() && score.coverage < SMALL_BOARD && !profile.regularTooNarrow) {
+            return REGULAR_LENS;
+        }
+        // a dual capture only tells us which lens won
+        return cameraId == REGULAR_LENS || cameraId == WIDE_LENS ? cameraId : profile.cameraId;
+    }
+
+    private void read() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = UploadOutbox.parse(line);
+                try {
+                    if (fields != null && fields.length == 8 && fields[0].equals("view")) {
+                        Profile profile = new Profile(fields[1], Integer.parseInt(fields[2]), Integer.parseInt(fields[3]));
+                        profile.captures = Integer.parseInt(fields[4]);
+                        profile.coverage = Double.parseDouble(fields[5]);
+                        profile.sharpness = Double.parseDouble(fields[6]);
+                        profile.regularTooNarrow = Boolean.parseBoolean(fields[7]);
+                        profiles.put(profile.location, profile);
+                    } else if (fields != null && fields.length == 19 && fields[0].equals("exposure")
+                            && profiles.containsKey(fields[1])) {
+                        float[] values = new float[13];
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] = Float.parseFloat(fields[5 + i]);
+                        }
+                        float[] gains = new float[4];
+                        float[] transform = new float[9];
+                        System.arraycopy(values, 0, gains, 0, 4);
+                        System.arraycopy(values, 4, transform, 0, 9);
+                        profiles.get(fields[1]).exposures.put(Integer.parseInt(fields[2]), new Exposure(
+                                Long.parseLong(fields[3]), Integer.parseInt(fields[4]), gains, transform,
+                                Long.parseLong(fields[18])));
+                    }
+                } catch (NumberFormatException e) {
+                    // not written by us, skip it
+                }
+            }
+        }
+    }
+
+    // a view record per location, followed by one per lens it has an exposure for
+    private void write() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(tmp);
+             Writer writer = new OutputStreamWriter(output, UTF_8)) {
+            for (Profile profile : profiles.values()) {
+                writer.write(UploadOutbox.record("view", profile.location, Integer.toString(profile.headAngle),
+                        Integer.toString(profile.cameraId), Integer.toString(profile.captures),
+                        Double.toString(profile.coverage), Double.toString(profile.sharpness),
+                        Boolean.toString(profile.regularTooNarrow)));
+                for (Map.Entry<Integer, Exposure> entry : profile.exposures.entrySet()) {
+                    Exposure exposure = entry.getValue();
+                    String[] fields = new String[19];
+                    fields[0] = "exposure";
+                    fields[1] = profile.location;
+                    fields[2] = Integer.toString(entry.getKey());
+                    fields[3] = Long.toString(exposure.exposureTimeNs);
+                    fields[4] = Integer.toString(exposure.sensitivity);
+                    for (int i = 0; i < 4; i++) {
+                        fields[5 + i] = Float.toString(exposure.colorGains[i]);
+                    }
+                    for (int i = 0; i < 9; i++) {
+                        fields[9 + i] = Float.toString(exposure.colorTransform[i]);
+                    }
+                    fields[18] = Long.toString(exposure.measuredAt);
+                    writer.write(UploadOutbox.record(fields));
+                }
+            }
+            writer.flush();
+            output.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("can't replace " + file);
+        }
+    }
+}
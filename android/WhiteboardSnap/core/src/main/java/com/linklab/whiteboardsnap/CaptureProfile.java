@@ -0,0 +1,92 @@
+package com.linklab.whiteboardsnap;
+
+import java.util.Locale;
+
+// how a board is captured. JPEG stills are encoded by the camera and decoded again for processing, YUV
+// stills hand their luma to processing as it is and are encoded once, after it. the size is the
+// largest the camera offers within maxWidth x maxHeight, smaller is faster all the way to the upload.
+// written and parsed as "yuv 1280x720", so a profile fits in an intent extra or a line of config
+public class CaptureProfile {
+    public enum Format {
+        JPEG,
+        YUV
+    }
+
+    // what the app always captured
+    public static final CaptureProfile DEFAULT = new CaptureProfile(Format.JPEG, 1920, 1088);
+
+    private final Format format;
+    private final int maxWidth;
+    private final int maxHeight;
+
+    public CaptureProfile(Format format, int maxWidth, int maxHeight) {
+        if (maxWidth <= 0 || maxHeight <= 0) {
+            throw new IllegalArgumentException("bad size " + maxWidth + "x" + maxHeight);
+        }
+        this.format = format;
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+    }
+
+    public static CaptureProfile parse(String text) {
+        String[] parts = text.trim().split("\\s+");
+        String[] size = parts.length == 2 ? parts[1].split("x") : new String[0];
+        if (size.length != 2) {
+            throw new IllegalArgumentException("expected a profile like \"yuv 1280x720\", got \"" + text + "\"");
+        }
+        try {
+            return new CaptureProfile(Format.valueOf(parts[0].toUpperCase(Locale.ROOT)), Integer.parseInt(size[0]),
+                    Integer.parseInt(size[1]));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("expected a profile like \"yuv 1280x720\", got \"" + text + "\"");
+        }
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public int getMaxWidth() {
+        return maxWidth;
+    }
+
+    public int getMaxHeight() {
+        return maxHeight;
+    }
+
+    // which of the sizes the camera offers for the format to use, as {width, height}: the largest that
+    // fits, or the smallest if none does
+    public int[] choose(int[][] sizes) {
+        int[] best = null;
+        int[] smallest = null;
+        for (int[] size : sizes) {
+            long area = (long) size[0] * size[1];
+            if (size[0] <= maxWidth && size[1] <= maxHeight && (best == null || area > (long) best[0] * best[1])) {
+                best = size;
+            }
+            if (smallest == null || area < (long) smallest[0] * smallest[1]) {
+                smallest = size;
+            }
+        }
+        return best != null ? best : smallest;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof CaptureProfile)) {
+            return false;
+        }
+        CaptureProfile other = (CaptureProfile) o;
+        return format == other.format && maxWidth == other.maxWidth && maxHeight == other.maxHeight;
+    }
+
+    @Override
+    public int hashCode() {
+        return (format.hashCode() * 31 + maxWidth) * 31 + maxHeight;
+    }
+
+    @Override
+    public String toString() {
+        return format.name().toLowerCase(Locale.ROOT) + " " + maxWidth + "x" + maxHeight;
+    }
+}
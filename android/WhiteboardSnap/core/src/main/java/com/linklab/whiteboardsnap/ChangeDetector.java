@@ -0,0 +1,95 @@
+package com.linklab.whiteboardsnap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// remembers the hash of the last snapshot we got onto slack for every view (location, head angle and
+// lens), so a request for a board that hasn't changed since can be answered with a link to that file
+// instead of another upload. a hash only counts once its upload went through, until then it is pending
+public class ChangeDetector {
+    public static class Previous {
+        private final long[] hash;
+        private final String fileId;
+        private final String permalink;
+        private final long capturedAt;
+
+        Previous(long[] hash, String fileId, String permalink, long capturedAt) {
+            this.hash = hash;
+            this.fileId = fileId;
+            this.permalink = permalink;
+            this.capturedAt = capturedAt;
+        }
+
+        public long[] getHash() {
+            return hash;
+        }
+
+        public String getFileId() {
+            return fileId;
+        }
+
+        public String getPermalink() {
+            return permalink;
+        }
+
+        public long getCapturedAt() {
+            return capturedAt;
+        }
+    }
+
+    private static class Pending {
+        final String view;
+        final long[] hash;
+        final long capturedAt;
+
+        Pending(String view, long[] hash, long capturedAt) {
+            this.view = view;
+            this.hash = hash;
+            this.capturedAt = capturedAt;
+        }
+    }
+
+    private final int maxDistance;
+    private final Map<String, Previous> uploaded = new HashMap<>();
+    // keyed by outbox id, so uploads replayed from an earlier run can't be mistaken for ours
+    private final Map<String, Pending> pending = new HashMap<>();
+
+    public ChangeDetector(int maxDistance) {
+        this.maxDistance = maxDistance;
+    }
+
+    public static String view(SnapJob job) {
+        return job.getLocation() + "/" + job.getHeadAngle() + "/" + job.getCameraId();
+    }
+
+    // the last upload of this view if the new frame is within maxDistance of it, null if it changed
+    // or we have nothing to compare with
+    public synchronized Previous unchanged(String view, long[] hash) {
+        Previous previous = uploaded.get(view);
+        if (previous == null || PerceptualHash.distance(previous.hash, hash) > maxDistance) {
+            return null;
+        }
+        return previous;
+    }
+
+    public synchronized void captured(String uploadId, String view, long[] hash, long capturedAt) {
+        pending.put(uploadId, new Pending(view, hash, capturedAt));
+    }
+
+    // to be called with every upload result, retryable failures keep the hash pending
+    public synchronized void uploaded(String uploadId, UploadResult result) {
+        if (!result.isOk() && result.isRetryable()) {
+            return;
+        }
+        Pending captured = pending.remove(uploadId);
+        if (captured == null || !result.isOk() || result.getPermalink() == null) {
+            return;
+        }
+        Previous previous = uploaded.get(captured.view);
+        // uploads can finish out of order, never go back to an older frame
+        if (previous == null || previous.capturedAt <= captured.capturedAt) {
+            uploaded.put(captured.view, new Previous(captured.hash, result.getFileId(), result.getPermalink(),
+                    captured.capturedAt));
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.linklab.whiteboardsnap;
+
+// wall clock in milliseconds, swapped for a simulated one in tests
+public interface Clock {
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long now() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    long now();
+}
@@ -0,0 +1,386 @@
+package com.linklab.whiteboardsnap;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+// shares the snap requests of a floor among several robots. robots join by sending heartbeats to
+// temi-fleet/<robot>/heartbeat and take their work from temi-fleet/<robot>/requests instead of
+// temi-data. every location of a request is resolved against the boards the robots know
+// (LocationIndex, so a typo finds its board and a name nobody knows is turned down right away),
+// becomes an assignment of its own and goes to the robot that would be done with it first, counting
+// the work it already has, the drive there from its last board and the snap. an assignment asks for
+// its status events on temi-fleet-status/<assignment>, where the dispatcher follows it to its end
+// and passes the events on to whoever sent the request. a robot that misses heartbeats for
+// heartbeatTimeoutMs is dropped and its unfinished assignments go to the others, so a board may be
+// snapped twice but isn't lost. the mqtt side is FleetDispatcherService's
+public class FleetDispatcher {
+    public static final String ROBOT_TOPICS = "temi-fleet/";
+    public static final String STATUS_TOPICS = "temi-fleet-status/";
+
+    public interface Transport {
+        // must not block, it's called with the dispatcher locked
+        void publish(String topic, String responseTopic, byte[] correlationData, String payload);
+    }
+
+    public interface Listener {
+        void onEvent(String message);
+
+        // error may be null
+        void onWarning(String message, Exception error);
+    }
+
+    public static class Config {
+        long heartbeatTimeoutMs = 15 * 1000;
+        // what a snap costs a robot besides the drive: planning, tilting, the camera and the odd wait
+        long jobMs = 20 * 1000;
+        double metersPerSecond = 0.5;
+        // robots below this only get boards nobody else can do
+        int minBattery = 20;
+
+        public Config heartbeatTimeout(long ms) {
+            this.heartbeatTimeoutMs = ms;
+            return this;
+        }
+
+        public Config estimates(long jobMs, double metersPerSecond) {
+            this.jobMs = jobMs;
+            this.metersPerSecond = metersPerSecond;
+            return this;
+        }
+
+        public Config minBattery(int percentage) {
+            this.minBattery = percentage;
+            return this;
+        }
+    }
+
+    private static class Assignment {
+        final String id;
+        // the original request narrowed down to the location
+        final SnapRequest request;
+        final String responseTopic;
+        final byte[] correlationData;
+        Robot robot;
+
+        Assignment(String id, SnapRequest request, String responseTopic, byte[] correlationData) {
+            this.id = id;
+            this.request = request;
+            this.responseTopic = responseTopic;
+            this.correlationData = correlationData;
+        }
+
+        String location() {
+            return request.getLocations().get(0);
+        }
+    }
+
+    private static class Robot {
+        final String id;
+        RobotHeartbeat heartbeat;
+        long lastSeenAt;
+        // unfinished, in the order they were given
+        final List<Assignment> assignments = new ArrayList<>();
+
+        Robot(String id) {
+            this.id = id;
+        }
+    }
+
+    private final Config config;
+    private final Clock clock;
+    private final Transport transport;
+    private final Listener listener;
+    private final StatusReporter statusReporter;
+    private final SnapRequestParser requestParser = new SnapRequestParser();
+
+    private final Map<String, Robot> robots = new LinkedHashMap<>();
+    // every location any robot has told us about. a board whose robots are all away waits for them, one
+    // nobody knows fails once there's a robot to ask
+    private final Set<String> knownLocations = new HashSet<>();
+    // of knownLocations, null once a robot brings a new one
+    private LocationIndex locationIndex;
+    private final LinkedList<Assignment> pending = new LinkedList<>();
+    // unfinished ones by id, pending or not
+    private final Map<String, Assignment> assignments = new HashMap<>();
+    private long nextId = 1;
+    private final Map<String, Long> assignedTo = new LinkedHashMap<>();
+    private long reassigned = 0;
+
+    public FleetDispatcher(Config config, Clock clock, final Transport transport, Listener listener) {
+        this.config = config;
+        this.clock = clock;
+        this.transport = transport;
+        this.listener = listener;
+        this.statusReporter = new StatusReporter(new StatusReporter.Publisher() {
+            @Override
+            public void publish(String topic, byte[] correlationData, String payload) {
+                transport.publish(topic, null, correlationData, payload);
+            }
+        }, clock);
+    }
+
+    public static String requestTopic(String robotId) {
+        return ROBOT_TOPICS + robotId + "/requests";
+    }
+
+    public static String heartbeatTopic(String robotId) {
+        return ROBOT_TOPICS + robotId + "/heartbeat";
+    }
+
+    // a request as it came in on temi-data, acknowledged once its locations are assigned or waiting
+    public synchronized void onRequest(String payload, String responseTopic, byte[] correlationData, Runnable ack) {
+        SnapRequest request;
+        try {
+            request = requestParser.parse(payload);
+        } catch (SnapRequestParser.MalformedRequestException e) {
+            listener.onWarning("received invalid request, " + e.getMessage(), null);
+            if (responseTopic != null) {
+                statusReporter.reject(responseTopic, correlationData, e.getMessage());
+            }
+            ack.run();
+            return;
+        }
+        for (String text : request.getLocations()) {
+            String location = resolve(request, text, responseTopic, correlationData);
+            if (location == null) {
+                continue;
+            }
+            String id = Long.toString(nextId++);
+            Assignment assignment = new Assignment(id, request.forLocation(location, "fleet-" + id), responseTopic,
+                    correlationData);
+            pending.add(assignment);
+            assignments.put(id, assignment);
+        }
+        dispatch();
+        ack.run();
+    }
+
+    public synchronized void onHeartbeat(String payload) {
+        RobotHeartbeat heartbeat;
+        try {
+            heartbeat = RobotHeartbeat.parse(payload);
+        } catch (JSONException e) {
+            listener.onWarning("received invalid heartbeat", e);
+            return;
+        }
+        Robot robot = robots.get(heartbeat.getRobotId());
+        if (heartbeat.getState() == RobotHeartbeat.State.OFFLINE) {
+            if (robot != null) {
+                drop(robot, "went offline");
+            }
+            return;
+        }
+        if (robot == null) {
+            robot = new Robot(heartbeat.getRobotId());
+            robots.put(robot.id, robot);
+            listener.onEvent(robot.id + " joined with " + heartbeat.getLocations().size() + " locations");
+        }
+        robot.heartbeat = heartbeat;
+        robot.lastSeenAt = clock.now();
+        if (knownLocations.addAll(heartbeat.getLocations().keySet())) {
+            locationIndex = null;
+        }
+        dispatch();
+    }
+
+    // the board the text names, or null if it was turned down. before the first robot anything goes, the
+    // assignment waits for one
+    private String resolve(SnapRequest request, String text, String responseTopic, byte[] correlationData) {
+        if (knownLocations.isEmpty()) {
+            return text;
+        }
+        if (locationIndex == null) {
+            // sorted, so equally close suggestions come in a stable order
+            locationIndex = new LocationIndex(new TreeSet<>(knownLocations));
+        }
+        LocationIndex.Resolution resolution = locationIndex.resolve(text);
+        if (resolution.isResolved()) {
+            if (!resolution.isExact()) {
+                listener.onEvent("took " + text + " for " + resolution.getLocation());
+            }
+            return resolution.getLocation();
+        }
+        String reason = "no robot knows " + text + resolution.didYouMean();
+        listener.onWarning(reason, null);
+        if (responseTopic != null) {
+            statusReporter.fail(request, text, responseTopic, correlationData, reason);
+        }
+        return null;
+    }
+
+    // a status event a robot published for an assignment, whose id is the correlation data
+    public synchronized void onStatus(String payload, byte[] correlationData) {
+        Assignment assignment = correlationData != null ? assignments.get(new String(correlationData, UTF_8)) : null;
+        if (assignment == null) {
+            // finished already, by this robot or one it was taken from
+            return;
+        }
+        if (assignment.responseTopic != null) {
+            transport.publish(assignment.responseTopic, null, assignment.correlationData, payload);
+        }
+        JobStatus status;
+        try {
+            status = JobStatus.valueOf(new JSONObject(payload).getString("status").toUpperCase(Locale.ROOT));
+        } catch (JSONException | IllegalArgumentException e) {
+            listener.onWarning("received invalid status of assignment " + assignment.id, e);
+            return;
+        }
+        if (status.isFinal()) {
+            assignments.remove(assignment.id);
+            if (assignment.robot != null) {
+                assignment.robot.assignments.remove(assignment);
+            } else {
+                // answered by a robot it was taken from before the new one got to it
+                pending.remove(assignment);
+            }
+        }
+    }
+
+    // drops the robots we haven't heard from in a while, call it every few seconds
+    public synchronized void checkHeartbeats() {
+        long now = clock.now();
+        for (Robot robot : new ArrayList<>(robots.values())) {
+            if (now - robot.lastSeenAt > config.heartbeatTimeoutMs) {
+                drop(robot, "missed its heartbeats");
+            }
+        }
+    }
+
+    private void drop(Robot robot, String reason) {
+        robots.remove(robot.id);
+        if (robot.assignments.isEmpty()) {
+            listener.onEvent(robot.id + " " + reason);
+            return;
+        }
+        listener.onWarning(robot.id + " " + reason + ", its unfinished assignments go to the others: "
+                + robot.assignments.size(), null);
+        for (Assignment assignment : robot.assignments) {
+            assignment.robot = null;
+        }
+        // they've waited longest
+        pending.addAll(0, robot.assignments);
+        reassigned += robot.assignments.size();
+        robot.assignments.clear();
+        dispatch();
+    }
+
+    private void dispatch() {
+        Iterator<Assignment> it = pending.iterator();
+        while (it.hasNext()) {
+            Assignment assignment = it.next();
+            Robot robot = fastest(assignment);
+            if (robot == null) {
+                if (!robots.isEmpty() && !knownLocations.contains(assignment.location())) {
+                    it.remove();
+                    assignments.remove(assignment.id);
+                    listener.onWarning("no robot knows " + assignment.location(), null);
+                    if (assignment.responseTopic != null) {
+                        statusReporter.fail(assignment.request, assignment.location(), assignment.responseTopic,
+                                assignment.correlationData, "no robot knows " + assignment.location());
+                    }
+                }
+                // otherwise it waits for the first robot, or for one of those that know the board
+                continue;
+            }
+            it.remove();
+            assignment.robot = robot;
+            robot.assignments.add(assignment);
+            Long count = assignedTo.get(robot.id);
+            assignedTo.put(robot.id, count == null ? 1 : count + 1);
+            transport.publish(requestTopic(robot.id), STATUS_TOPICS + assignment.id, assignment.id.getBytes(UTF_8),
+                    assignment.request.toJson());
+            listener.onEvent("assigned " + assignment.location() + " to " + robot.id);
+        }
+    }
+
+    // the robot that knows the location and would be done with it first, preferring ones with battery to spare
+    private Robot fastest(Assignment assignment) {
+        Robot fastest = null;
+        long fastestMs = Long.MAX_VALUE;
+        boolean fastestCharged = false;
+        for (Robot robot : robots.values()) {
+            if (!robot.heartbeat.getLocations().containsKey(assignment.location())) {
+                continue;
+            }
+            int battery = robot.heartbeat.getBatteryPercentage();
+            boolean charged = battery < 0 || battery >= config.minBattery;
+            long ms = estimateMs(robot, assignment.request);
+            if (fastest == null || (charged && !fastestCharged) || (charged == fastestCharged && ms < fastestMs)) {
+                fastest = robot;
+                fastestMs = ms;
+                fastestCharged = charged;
+            }
+        }
+        return fastest;
+    }
+
+    // how long until the robot would be done with the request, going through its assignments in the order
+    // they were given. it plans its own route, so that's only an estimate. jobs it has that aren't ours
+    // (a patrol, someone at the robot) come first
+    long estimateMs(Robot robot, SnapRequest request) {
+        RobotHeartbeat heartbeat = robot.heartbeat;
+        String location = request.getLocations().get(0);
+        int theirs = heartbeat.getQueueDepth() + (heartbeat.getState() == RobotHeartbeat.State.BUSY ? 1 : 0)
+                - robot.assignments.size();
+        long ms = Math.max(0, theirs) * config.jobMs;
+        MapPoint at = heartbeat.getPosition();
+        for (Assignment assignment : robot.assignments) {
+            MapPoint next = heartbeat.getLocations().get(assignment.location());
+            ms += driveMs(at, next) + config.jobMs;
+            at = next;
+            if (assignment.location().equals(location) && assignment.request.getCameraId() == request.getCameraId()
+                    && assignment.request.getHeadAngle() == request.getHeadAngle()) {
+                // the robot's job queue merges the two, one snap answers both
+                return ms;
+            }
+        }
+        return ms + driveMs(at, heartbeat.getLocations().get(location)) + config.jobMs;
+    }
+
+    // a robot that doesn't know where it is is guessed to be a job away
+    private long driveMs(MapPoint from, MapPoint to) {
+        if (from == null || to == null) {
+            return config.jobMs;
+        }
+        return (long) (from.distanceTo(to) / config.metersPerSecond * 1000);
+    }
+
+    public synchronized List<String> getRobots() {
+        return new ArrayList<>(robots.keySet());
+    }
+
+    // unfinished assignments of the robot, 0 if it isn't in the fleet
+    public synchronized int getAssignments(String robotId) {
+        Robot robot = robots.get(robotId);
+        return robot != null ? robot.assignments.size() : 0;
+    }
+
+    // assignments waiting for a robot
+    public synchronized int getPending() {
+        return pending.size();
+    }
+
+    // how many assignments each robot was given since start, robots that left included
+    public synchronized Map<String, Long> getAssignedTo() {
+        return new LinkedHashMap<>(assignedTo);
+    }
+
+    // assignments taken from robots that were dropped
+    public synchronized long getReassigned() {
+        return reassigned;
+    }
+}
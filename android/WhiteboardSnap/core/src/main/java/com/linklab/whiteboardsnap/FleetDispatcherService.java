@@ -0,0 +1,74 @@
+package com.linklab.whiteboardsnap;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// runs a FleetDispatcher over one mqtt connection: requests come in on the client's topic (temi-data),
+// heartbeats and status events on the fleet's topics, and assignments and relayed events go out the
+// same way. the dispatcher looks for robots that went quiet a few times per heartbeat timeout
+public class FleetDispatcherService {
+    private final MqttRequestClient client;
+    private final FleetDispatcher dispatcher;
+    private final long checkIntervalMs;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    public FleetDispatcherService(MqttRequestClient.Config mqtt, FleetDispatcher.Config config,
+                                  final FleetDispatcher.Listener listener) {
+        this.dispatcher = new FleetDispatcher(config, Clock.SYSTEM, new FleetDispatcher.Transport() {
+            @Override
+            public void publish(String topic, String responseTopic, byte[] correlationData, String payload) {
+                client.publish(topic, responseTopic, correlationData, payload);
+            }
+        }, listener);
+        this.checkIntervalMs = Math.max(1, config.heartbeatTimeoutMs / 3);
+        mqtt.subscribe(FleetDispatcher.ROBOT_TOPICS + "+/heartbeat", new MqttRequestClient.Handler() {
+            @Override
+            public void onRequest(String payload, String responseTopic, byte[] correlationData, Runnable ack) {
+                dispatcher.onHeartbeat(payload);
+                ack.run();
+            }
+        }).subscribe(FleetDispatcher.STATUS_TOPICS + "#", new MqttRequestClient.Handler() {
+            @Override
+            public void onRequest(String payload, String responseTopic, byte[] correlationData, Runnable ack) {
+                dispatcher.onStatus(payload, correlationData);
+                ack.run();
+            }
+        });
+        this.client = new MqttRequestClient(mqtt, new MqttRequestClient.Handler() {
+            @Override
+            public void onRequest(String payload, String responseTopic, byte[] correlationData, Runnable ack) {
+                dispatcher.onRequest(payload, responseTopic, correlationData, ack);
+            }
+        }, new MqttRequestClient.Listener() {
+            @Override
+            public void onStateChanged(MqttRequestClient.State state, Throwable cause) {
+                listener.onEvent("mqtt: " + state + (cause != null ? " (" + cause + ")" : ""));
+            }
+        });
+    }
+
+    public FleetDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    public MqttRequestClient getClient() {
+        return client;
+    }
+
+    // returns right away, like the client
+    public void start() {
+        client.start();
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                dispatcher.checkHeartbeats();
+            }
+        }, checkIntervalMs, checkIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+        client.stop();
+    }
+}
@@ -0,0 +1,65 @@
+package com.linklab.whiteboardsnap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// a robot's side of the fleet: sends the dispatcher a heartbeat every intervalMs while it runs, and one
+// saying it's offline when it stops, so its work goes to the others right away. the robot takes its
+// requests from FleetDispatcher.requestTopic(robotId) instead of temi-data
+public class FleetMember {
+    private final String robotId;
+    private final RobotController robot;
+    private final SnapPipeline pipeline;
+    private final StatusReporter.Publisher publisher;
+    private final long intervalMs;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    public FleetMember(String robotId, RobotController robot, SnapPipeline pipeline,
+                       StatusReporter.Publisher publisher, long intervalMs) {
+        this.robotId = robotId;
+        this.robot = robot;
+        this.pipeline = pipeline;
+        this.publisher = publisher;
+        this.intervalMs = intervalMs;
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                // one that throws would cancel every heartbeat after it, and the dispatcher would take
+                // the robot for gone
+                try {
+                    publish(pipeline.isBusy() ? RobotHeartbeat.State.BUSY : RobotHeartbeat.State.IDLE);
+                } catch (RuntimeException e) {
+                    pipeline.getListener().onWarning("can't send heartbeat of " + robotId, e);
+                }
+            }
+        }, 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+        publish(RobotHeartbeat.State.OFFLINE);
+    }
+
+    private void publish(RobotHeartbeat.State state) {
+        publisher.publish(FleetDispatcher.heartbeatTopic(robotId), null, heartbeat(state).toJson());
+    }
+
+    RobotHeartbeat heartbeat(RobotHeartbeat.State state) {
+        Map<String, MapPoint> locations = new LinkedHashMap<>();
+        for (String location : robot.getLocations()) {
+            MapPoint position = robot.positionOf(location);
+            // the tour's own bookmark isn't a board
+            if (position != null && !location.equals(SnapTour.HOME)) {
+                locations.put(location, position);
+            }
+        }
+        return new RobotHeartbeat(robotId, state, robot.getPosition(), pipeline.getQueueDepth(),
+                robot.getBatteryPercentage(), locations);
+    }
+}
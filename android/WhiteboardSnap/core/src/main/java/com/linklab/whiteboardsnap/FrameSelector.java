@@ -0,0 +1,147 @@
+package com.linklab.whiteboardsnap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// picks what a burst of stills of the same board is answered with: the sharpest frame, or the per-pixel
+// median of all of them, which drops whatever is in front of the board in fewer than half the frames.
+// the work is spread over the workers, the camera's threads only hand the frames over
+public class FrameSelector {
+    private static final int BAND_ROWS = 32;
+
+    private final ExecutorService workers;
+
+    public FrameSelector(ExecutorService workers) {
+        this.workers = workers;
+    }
+
+    // variance of the laplacian: edges that are smeared by motion or out of focus flatten it. only
+    // comparable between frames of the same scene at the same size
+    public static double sharpness(GrayImage image) {
+        int width = image.width;
+        byte[] p = image.pixels;
+        long sum = 0;
+        long sumSquares = 0;
+        long n = 0;
+        for (int y = 1; y < image.height - 1; y++) {
+            int row = y * width;
+            for (int x = 1; x < width - 1; x++) {
+                int i = row + x;
+                int laplacian = 4 * (p[i] & 0xff) - (p[i - 1] & 0xff) - (p[i + 1] & 0xff)
+                        - (p[i - width] & 0xff) - (p[i + width] & 0xff);
+                sum += laplacian;
+                sumSquares += laplacian * laplacian;
+                n++;
+            }
+        }
+        if (n == 0) {
+            return 0;
+        }
+        double mean = (double) sum / n;
+        return (double) sumSquares / n - mean * mean;
+    }
+
+    // index of the sharpest frame, the frames are scored in parallel
+    public int sharpest(List<GrayImage> frames, long deadlineNanos) throws TimeoutException {
+        List<Future<Double>> scores = new ArrayList<>();
+        for (final GrayImage frame : frames) {
+            scores.add(workers.submit(new Callable<Double>() {
+                @Override
+                public Double call() {
+                    return sharpness(frame);
+                }
+            }));
+        }
+        int best = -1;
+        double bestScore = 0;
+        for (int i = 0; i < scores.size(); i++) {
+            double score = await(scores, scores.get(i), deadlineNanos);
+            if (best < 0 || score > bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    // the per-pixel median, the lower one of an even number of frames. the frames must be the same size
+    public GrayImage median(final List<GrayImage> frames, long deadlineNanos) throws TimeoutException {
+        final GrayImage first = frames.get(0);
+        for (GrayImage frame : frames) {
+            if (frame.width != first.width || frame.height != first.height) {
+                throw new IllegalArgumentException("frames of " + first.width + "x" + first.height + " and "
+                        + frame.width + "x" + frame.height);
+            }
+        }
+        final GrayImage fused = new GrayImage(first.width, first.height);
+        List<Future<?>> bands = new ArrayList<>();
+        for (int from = 0; from < first.height; from += BAND_ROWS) {
+            final int start = from * first.width;
+            final int end = Math.min(first.height, from + BAND_ROWS) * first.width;
+            bands.add(workers.submit(new Runnable() {
+                @Override
+                public void run() {
+                    median(frames, fused, start, end);
+                }
+            }));
+        }
+        for (Future<?> band : bands) {
+            await(bands, band, deadlineNanos);
+        }
+        return fused;
+    }
+
+    private static void median(List<GrayImage> frames, GrayImage fused, int start, int end) {
+        int k = frames.size();
+        byte[][] pixels = new byte[k][];
+        for (int f = 0; f < k; f++) {
+            pixels[f] = frames.get(f).pixels;
+        }
+        int[] values = new int[k];
+        for (int i = start; i < end; i++) {
+            if (k == 3) {
+                // the usual burst, without the sort
+                int a = pixels[0][i] & 0xff;
+                int b = pixels[1][i] & 0xff;
+                int c = pixels[2][i] & 0xff;
+                fused.pixels[i] = (byte) Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+                continue;
+            }
+            for (int f = 0; f < k; f++) {
+                values[f] = pixels[f][i] & 0xff;
+            }
+            Arrays.sort(values);
+            fused.pixels[i] = (byte) values[(k - 1) / 2];
+        }
+    }
+
+    private static <T> T await(List<? extends Future<?>> all, Future<T> future, long deadlineNanos)
+            throws TimeoutException {
+        try {
+            return future.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel(all);
+            throw new TimeoutException("interrupted");
+        } catch (ExecutionException e) {
+            cancel(all);
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            cancel(all);
+            throw e;
+        }
+    }
+
+    private static void cancel(List<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+}
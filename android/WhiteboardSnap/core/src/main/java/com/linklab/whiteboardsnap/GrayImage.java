@@ -0,0 +1,41 @@
+package com.linklab.whiteboardsnap;
+
+// an 8-bit grayscale image, row major
+public class GrayImage {
+    final int width;
+    final int height;
+    final byte[] pixels;
+
+    public GrayImage(int width, int height) {
+        this(width, height, new byte[width * height]);
+    }
+
+    public GrayImage(int width, int height, byte[] pixels) {
+        if (pixels.length < width * height) {
+            throw new IllegalArgumentException("need " + width * height + " pixels, got " + pixels.length);
+        }
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public byte[] getPixels() {
+        return pixels;
+    }
+
+    public int get(int x, int y) {
+        return pixels[y * width + x] & 0xff;
+    }
+
+    public void set(int x, int y, int value) {
+        pixels[y * width + x] = (byte) value;
+    }
+}
@@ -0,0 +1,50 @@
+package com.linklab.whiteboardsnap;
+
+// how long each phase of a job may take before the watchdog gives up on it. a job past its deadline
+// fails and is reported like any other failure, and the robot moves on to the next board, so one
+// stuck job costs minutes instead of the rest of the day
+public class JobDeadlines {
+    // from goTo() to arriving. the watchdog stops the robot, which ends the goTo()
+    long navigateMs = 5 * 60 * 1000;
+    // the head moves while the camera starts, so these three add up to how long the robot waits at
+    // the board for its picture. after that the camera is released and opened afresh for the next job
+    long tiltMs = 3000;
+    long cameraOpenMs = 10 * 1000;
+    long captureMs = 15 * 1000;
+    // one attempt at an upload, the outbox tries again later
+    long uploadMs = 2 * 60 * 1000;
+
+    public JobDeadlines navigate(long ms) {
+        this.navigateMs = ms;
+        return this;
+    }
+
+    public JobDeadlines tilt(long ms) {
+        this.tiltMs = ms;
+        return this;
+    }
+
+    public JobDeadlines cameraOpen(long ms) {
+        this.cameraOpenMs = ms;
+        return this;
+    }
+
+    public JobDeadlines capture(long ms) {
+        this.captureMs = ms;
+        return this;
+    }
+
+    public JobDeadlines upload(long ms) {
+        this.uploadMs = ms;
+        return this;
+    }
+
+    public long getUploadMs() {
+        return uploadMs;
+    }
+
+    // from asking for the picture to having it
+    long atBoardMs() {
+        return tiltMs + cameraOpenMs + captureMs;
+    }
+}
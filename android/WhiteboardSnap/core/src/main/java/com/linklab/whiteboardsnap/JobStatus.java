@@ -0,0 +1,18 @@
+package com.linklab.whiteboardsnap;
+
+import java.util.Locale;
+
+// the steps of a snap job that are reported back to whoever asked for it
+public enum JobStatus {
+    QUEUED, NAVIGATING, CAPTURED, UPLOADED, FAILED;
+
+    // nothing follows these
+    public boolean isFinal() {
+        return this == UPLOADED || this == FAILED;
+    }
+
+    // how the status is spelled in status events
+    public String wireName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
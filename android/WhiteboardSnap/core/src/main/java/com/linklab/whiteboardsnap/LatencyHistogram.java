@@ -0,0 +1,112 @@
+package com.linklab.whiteboardsnap;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// latencies in milliseconds, bucketed like an hdr histogram: exact below 128, then 64 buckets per
+// power of two, so every value is within 1/64 of its bucket. recording is lock free and allocates
+// nothing, the percentiles are read off the buckets. values past maxValue count as maxValue
+public class LatencyHistogram {
+    private static final int LINEAR = 128;
+    private static final int SUB_BUCKETS = 64;
+
+    private final long maxValue;
+    private final AtomicLongArray counts;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram(long maxValue) {
+        this.maxValue = maxValue;
+        this.counts = new AtomicLongArray(bucketOf(maxValue) + 1);
+    }
+
+    public void record(long value) {
+        value = Math.max(0, Math.min(value, maxValue));
+        counts.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long previous;
+        while (value > (previous = max.get()) && !max.compareAndSet(previous, value)) {
+            // lost a race with a bigger value, try again
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / n;
+    }
+
+    // the smallest recorded value (rounded up to its bucket) that percentile % of the values are at or below
+    public long valueAt(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestIn(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    // adds everything recorded here to the other histogram and starts over. values recorded while
+    // this runs end up in one or the other, never both
+    public void moveTo(LatencyHistogram other) {
+        for (int i = 0; i < counts.length(); i++) {
+            long c = counts.getAndSet(i, 0);
+            if (c > 0) {
+                // only what was moved, a value recorded in between stays counted with its bucket
+                count.addAndGet(-c);
+                other.counts.addAndGet(i, c);
+                other.count.addAndGet(c);
+            }
+        }
+        // sum and max may be off by the values recorded in between, they're only reported
+        other.sum.addAndGet(sum.getAndSet(0));
+        long moved = max.getAndSet(0);
+        long previous;
+        while (moved > (previous = other.max.get()) && !other.max.compareAndSet(previous, moved)) {
+            // lost a race with a bigger value, try again
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    static int bucketOf(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        // value >> shift is in [64, 128)
+        int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+        return LINEAR + (shift - 1) * SUB_BUCKETS + (int) (value >> shift) - SUB_BUCKETS;
+    }
+
+    static long highestIn(int bucket) {
+        if (bucket < LINEAR) {
+            return bucket;
+        }
+        int shift = (bucket - LINEAR) / SUB_BUCKETS + 1;
+        long sub = (bucket - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,137 @@
+package com.linklab.whiteboardsnap;
+
+import java.util.List;
+import java.util.Locale;
+
+// picks which lens's still of a board goes out when the robot took one with each. a board that's all
+// in the frame beats one that runs off its edge, whatever their size, since part of that one is
+// missing. between two alike the one the board covers more of wins, and a blurrier frame loses some
+// of its lead. the stills have to be decoded at about the same size, sharpness isn't comparable otherwise
+public class LensSelector {
+    // a board corner this close to the edge of the frame (as a share of its width or height) means
+    // the board goes on past it
+    static final double EDGE_MARGIN = 0.02;
+
+    public static class Score {
+        final double coverage;
+        final double sharpness;
+        // where the board is in the frame, as a share of its width and height
+        final double left;
+        final double top;
+        final double right;
+        final double bottom;
+        final boolean cutOff;
+
+        Score(double coverage, double sharpness, double left, double top, double right, double bottom) {
+            this.coverage = coverage;
+            this.sharpness = sharpness;
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+            this.cutOff = coverage > 0 && (isCutOffLeft() || isCutOffRight() || isCutOffTop() || isCutOffBottom());
+        }
+
+        // the share of the frame the board takes up, 0 if no board was found
+        public double getCoverage() {
+            return coverage;
+        }
+
+        public boolean isCutOff() {
+            return cutOff;
+        }
+
+        public boolean isCutOffLeft() {
+            return coverage > 0 && left < EDGE_MARGIN;
+        }
+
+        public boolean isCutOffRight() {
+            return coverage > 0 && right > 1 - EDGE_MARGIN;
+        }
+
+        public boolean isCutOffTop() {
+            return coverage > 0 && top < EDGE_MARGIN;
+        }
+
+        public boolean isCutOffBottom() {
+            return coverage > 0 && bottom > 1 - EDGE_MARGIN;
+        }
+
+        public double getSharpness() {
+            return sharpness;
+        }
+
+        // how far above the middle of the frame the middle of the board is, as a share of its height
+        public double getRise() {
+            return coverage > 0 ? 0.5 - (top + bottom) / 2 : 0;
+        }
+
+        // to pass a score around in an intent
+        public double[] toArray() {
+            return new double[] {coverage, sharpness, left, top, right, bottom};
+        }
+
+        public static Score fromArray(double[] values) {
+            return values != null && values.length == 6
+                    ? new Score(values[0], values[1], values[2], values[3], values[4], values[5]) : null;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "coverage=%.2f%s sharpness=%.0f", coverage,
+                    cutOff ? " cut off" : "", sharpness);
+        }
+    }
+
+    private final WhiteboardProcessor processor;
+
+    public LensSelector(WhiteboardProcessor processor) {
+        this.processor = processor;
+    }
+
+    public Score score(GrayImage image) {
+        WhiteboardProcessor.Quad quad = processor.detectQuad(image);
+        double sharpness = FrameSelector.sharpness(image);
+        if (quad == null) {
+            return new Score(0, sharpness, 0, 0, 0, 0);
+        }
+        double left = image.width;
+        double top = image.height;
+        double right = 0;
+        double bottom = 0;
+        for (int c = 0; c < 4; c++) {
+            left = Math.min(left, quad.getX(c));
+            right = Math.max(right, quad.getX(c));
+            top = Math.min(top, quad.getY(c));
+            bottom = Math.max(bottom, quad.getY(c));
+        }
+        // a corner on the last pixel is right at the edge
+        return new Score(quad.area() / ((double) image.width * image.height), sharpness, left / image.width,
+                top / image.height, (right + 1) / image.width, (bottom + 1) / image.height);
+    }
+
+    // index of the best still. without a board in any of them it's the sharpest
+    public static int best(List<Score> scores) {
+        double maxSharpness = 0;
+        for (Score score : scores) {
+            maxSharpness = Math.max(maxSharpness, score.sharpness);
+        }
+        int best = 0;
+        double bestValue = -1;
+        int sharpest = 0;
+        for (int i = 0; i < scores.size(); i++) {
+            Score score = scores.get(i);
+            // coverage is at most 1, so a whole board always comes out ahead
+            double value = (score.coverage > 0 && !score.cutOff ? 1 : 0)
+                    + score.coverage * (maxSharpness > 0 ? Math.sqrt(score.sharpness / maxSharpness) : 1);
+            if (value > bestValue) {
+                bestValue = value;
+                best = i;
+            }
+            if (score.sharpness > scores.get(sharpest).sharpness) {
+                sharpest = i;
+            }
+        }
+        return bestValue > 0 ? best : sharpest;
+    }
+}
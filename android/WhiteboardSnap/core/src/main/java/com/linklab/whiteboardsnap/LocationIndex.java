@@ -0,0 +1,256 @@
+package com.linklab.whiteboardsnap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+// resolves what someone typed in slack to one of the robot's saved locations before the robot moves.
+// names are compared normalized (lower case, punctuation gone, "wb225" split into "wb 225") by edit
+// distance, transpositions included, so "Whitebaord-225" finds "whiteboard 225". numbers have to
+// match exactly though, 225 is one letter away from 226 but a different board. a name that is close
+// to nothing, or about as close to two, isn't resolved and comes with the closest names instead.
+// built once per list of locations, resolving takes microseconds
+public class LocationIndex {
+    // how similar (1 - distance / length) the best name has to be
+    static final double MIN_SIMILARITY = 0.7;
+    // and by how much it has to beat the next one
+    static final double MIN_LEAD = 0.1;
+    // suggestions need to be at least this similar
+    static final double MIN_SUGGESTION = 0.4;
+    static final int MAX_SUGGESTIONS = 3;
+
+    public static class Resolution {
+        private final String text;
+        private final String location;
+        private final boolean exact;
+        private final List<String> suggestions;
+
+        Resolution(String text, String location, boolean exact, List<String> suggestions) {
+            this.text = text;
+            this.location = location;
+            this.exact = exact;
+            this.suggestions = suggestions;
+        }
+
+        public boolean isResolved() {
+            return location != null;
+        }
+
+        // the saved location, null if not resolved
+        public String getLocation() {
+            return location;
+        }
+
+        // spelled just like the saved location
+        public boolean isExact() {
+            return exact;
+        }
+
+        // closest first, empty for a resolved text
+        public List<String> getSuggestions() {
+            return suggestions;
+        }
+
+        // why it wasn't resolved, for whoever asked
+        public String describe() {
+            return isResolved() ? text + " is " + location : "no location called " + text + didYouMean();
+        }
+
+        // ", did you mean a, b or c?", empty without suggestions
+        public String didYouMean() {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < suggestions.size(); i++) {
+                text.append(i == 0 ? ", did you mean " : i == suggestions.size() - 1 ? " or " : ", ")
+                        .append(suggestions.get(i));
+            }
+            return text.append(suggestions.isEmpty() ? "" : "?").toString();
+        }
+    }
+
+    private static class Entry {
+        final String location;
+        final String normalized;
+        final List<String> numbers;
+
+        Entry(String location) {
+            this.location = location;
+            this.normalized = normalize(location);
+            this.numbers = numbers(normalized);
+        }
+    }
+
+    private final List<String> locations;
+    private final List<Entry> entries = new ArrayList<>();
+
+    public LocationIndex(Collection<String> locations) {
+        this.locations = Collections.unmodifiableList(new ArrayList<>(locations));
+        for (String location : this.locations) {
+            entries.add(new Entry(location));
+        }
+    }
+
+    public List<String> getLocations() {
+        return locations;
+    }
+
+    // whether the index was built from these locations, so it doesn't need rebuilding
+    public boolean isOf(List<String> locations) {
+        return this.locations.equals(locations);
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public Resolution resolve(String text) {
+        for (Entry entry : entries) {
+            if (entry.location.equals(text)) {
+                return new Resolution(text, entry.location, true, Collections.<String>emptyList());
+            }
+        }
+        String normalized = normalize(text);
+        List<String> numbers = numbers(normalized);
+        int[][] rows = new int[3][normalized.length() + 1];
+        double[] similarities = new double[entries.size()];
+        int best = -1;
+        double second = -1;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            // a board with other numbers is only ever a suggestion, it's compared if it comes to that
+            if (!entry.numbers.containsAll(numbers)) {
+                similarities[i] = Double.NaN;
+                continue;
+            }
+            similarities[i] = similarity(normalized, entry.normalized, rows);
+            if (best < 0 || similarities[i] > similarities[best]) {
+                second = best < 0 ? -1 : similarities[best];
+                best = i;
+            } else if (similarities[i] > second) {
+                second = similarities[i];
+            }
+        }
+        if (best >= 0 && (similarities[best] >= MIN_SIMILARITY || (!numbers.isEmpty() && letters(normalized) == 0))
+                && similarities[best] - second >= MIN_LEAD) {
+            // close enough, or nothing but the number of a board only one location has
+            return new Resolution(text, entries.get(best).location, false, Collections.<String>emptyList());
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            if (Double.isNaN(similarities[i])) {
+                similarities[i] = similarity(normalized, entries.get(i).normalized, rows);
+            }
+        }
+        return new Resolution(text, null, false, suggestions(numbers, similarities));
+    }
+
+    // the closest first, equally close ones in the order of the index
+    private List<String> suggestions(List<String> numbers, double[] similarities) {
+        List<String> suggestions = new ArrayList<>();
+        boolean[] taken = new boolean[similarities.length];
+        while (suggestions.size() < MAX_SUGGESTIONS) {
+            int next = -1;
+            for (int i = 0; i < similarities.length; i++) {
+                boolean candidate = similarities[i] >= MIN_SUGGESTION
+                        || (!numbers.isEmpty() && entries.get(i).numbers.containsAll(numbers));
+                if (candidate && !taken[i] && (next < 0 || similarities[i] > similarities[next])) {
+                    next = i;
+                }
+            }
+            if (next < 0) {
+                break;
+            }
+            taken[next] = true;
+            suggestions.add(entries.get(next).location);
+        }
+        return suggestions;
+    }
+
+    // lower case letters and digits, words separated by single spaces, letters and digits split apart
+    static String normalize(String text) {
+        StringBuilder normalized = new StringBuilder(text.length() + 4);
+        int last = ' ';
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            int kind = Character.isDigit(c) ? '0' : Character.isLetter(c) ? 'a' : ' ';
+            if (kind == ' ') {
+                last = ' ';
+                continue;
+            }
+            if (normalized.length() > 0 && kind != last) {
+                normalized.append(' ');
+            }
+            normalized.append(c);
+            last = kind;
+        }
+        return normalized.toString();
+    }
+
+    private static List<String> numbers(String normalized) {
+        List<String> numbers = new ArrayList<>();
+        for (String word : normalized.split(" ")) {
+            if (!word.isEmpty() && Character.isDigit(word.charAt(0))) {
+                // "0225" is 225
+                int zeros = 0;
+                while (zeros < word.length() - 1 && word.charAt(zeros) == '0') {
+                    zeros++;
+                }
+                numbers.add(word.substring(zeros));
+            }
+        }
+        return numbers;
+    }
+
+    private static int letters(String normalized) {
+        int letters = 0;
+        for (int i = 0; i < normalized.length(); i++) {
+            if (Character.isLetter(normalized.charAt(i))) {
+                letters++;
+            }
+        }
+        return letters;
+    }
+
+    // 1 for the same text, 0 for nothing in common
+    static double similarity(String a, String b) {
+        return similarity(a, b, new int[3][a.length() + 1]);
+    }
+
+    private static double similarity(String a, String b, int[][] rows) {
+        int length = Math.max(a.length(), b.length());
+        return length == 0 ? 1 : 1 - (double) distance(a, b, rows) / length;
+    }
+
+    // edits to turn a into b, a swap of neighbours counting as one (optimal string alignment)
+    static int distance(String a, String b) {
+        return distance(a, b, new int[3][a.length() + 1]);
+    }
+
+    // rows holds three rows of a.length() + 1, reused from one call to the next
+    private static int distance(String a, String b, int[][] rows) {
+        int n = a.length();
+        int m = b.length();
+        int[] before = rows[0];
+        int[] previous = rows[1];
+        int[] current = rows[2];
+        for (int i = 0; i <= n; i++) {
+            previous[i] = i;
+        }
+        for (int j = 1; j <= m; j++) {
+            current[0] = j;
+            char bj = b.charAt(j - 1);
+            for (int i = 1; i <= n; i++) {
+                char ai = a.charAt(i - 1);
+                int d = Math.min(Math.min(previous[i] + 1, current[i - 1] + 1), previous[i - 1] + (ai == bj ? 0 : 1));
+                if (i > 1 && j > 1 && ai == b.charAt(j - 2) && a.charAt(i - 2) == bj) {
+                    d = Math.min(d, before[i - 2] + 1);
+                }
+                current[i] = d;
+            }
+            int[] recycled = before;
+            before = previous;
+            previous = current;
+            current = recycled;
+        }
+        return previous[n];
+    }
+}
@@ -0,0 +1,31 @@
+package com.linklab.whiteboardsnap;
+
+// a position on temi's map, in meters
+public class MapPoint {
+    private final float x;
+    private final float y;
+
+    public MapPoint(float x, float y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    public float getX() {
+        return x;
+    }
+
+    public float getY() {
+        return y;
+    }
+
+    public double distanceTo(MapPoint other) {
+        double dx = x - other.x;
+        double dy = y - other.y;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("(%.2f, %.2f)", x, y);
+    }
+}
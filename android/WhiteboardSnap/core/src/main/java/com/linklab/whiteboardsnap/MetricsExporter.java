@@ -0,0 +1,61 @@
+package com.linklab.whiteboardsnap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+// turns the latencies the tracer collected since the last export into influx line protocol, one line
+// per phase that saw any, e.g.
+//   whiteboardsnap_latency,phase=navigation count=3i,mean=8120i,p50=7935i,p90=9215i,p99=9215i,max=9180i 1634567890123000000
+// in milliseconds, and appends them to a file that is rotated (to <file>.1) once it grows past
+// maxFileBytes. does file i/o, keep it off the ui thread
+public class MetricsExporter {
+    static final String MEASUREMENT = "whiteboardsnap_latency";
+
+    private final Tracer tracer;
+    private final File file;
+    private final long maxFileBytes;
+    // the interval being exported, reused every time
+    private final LatencyHistogram interval = new LatencyHistogram(Tracer.MAX_LATENCY_MS);
+    private final StringBuilder lines = new StringBuilder();
+
+    public MetricsExporter(Tracer tracer, File file, long maxFileBytes) {
+        this.tracer = tracer;
+        this.file = file;
+        this.maxFileBytes = maxFileBytes;
+    }
+
+    // the lines written, empty if nothing was recorded since the last export
+    public synchronized String export(long now) throws IOException {
+        lines.setLength(0);
+        for (Phase phase : Phase.values()) {
+            interval.reset();
+            tracer.histogram(phase).moveTo(interval);
+            if (interval.getCount() == 0) {
+                continue;
+            }
+            lines.append(MEASUREMENT).append(",phase=").append(phase.wireName())
+                    .append(" count=").append(interval.getCount())
+                    .append("i,mean=").append(interval.getMean())
+                    .append("i,p50=").append(interval.valueAt(50))
+                    .append("i,p90=").append(interval.valueAt(90))
+                    .append("i,p99=").append(interval.valueAt(99))
+                    .append("i,max=").append(interval.getMax())
+                    .append("i ").append(now).append("000000\n");
+        }
+        if (lines.length() == 0) {
+            return "";
+        }
+        if (file.length() > maxFileBytes && !file.renameTo(new File(file.getPath() + ".1"))) {
+            throw new IOException("can't rotate " + file);
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), UTF_8)) {
+            writer.append(lines);
+        }
+        return lines.toString();
+    }
+}
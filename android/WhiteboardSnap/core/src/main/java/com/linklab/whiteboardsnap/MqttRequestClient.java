@@ -0,0 +1,372 @@
+package com.linklab.whiteboardsnap;
+
+import com.hivemq.client.mqtt.MqttClient;
+import com.hivemq.client.mqtt.MqttGlobalPublishFilter;
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+import com.hivemq.client.mqtt.datatypes.MqttTopic;
+import com.hivemq.client.mqtt.datatypes.MqttTopicFilter;
+import com.hivemq.client.mqtt.lifecycle.MqttClientConnectedContext;
+import com.hivemq.client.mqtt.lifecycle.MqttClientConnectedListener;
+import com.hivemq.client.mqtt.lifecycle.MqttClientDisconnectedContext;
+import com.hivemq.client.mqtt.lifecycle.MqttClientDisconnectedListener;
+import com.hivemq.client.mqtt.mqtt5.Mqtt5AsyncClient;
+import com.hivemq.client.mqtt.mqtt5.Mqtt5ClientBuilder;
+import com.hivemq.client.mqtt.mqtt5.lifecycle.Mqtt5ClientConnectedContext;
+import com.hivemq.client.mqtt.mqtt5.message.connect.Mqtt5ConnectBuilder;
+import com.hivemq.client.mqtt.mqtt5.message.subscribe.Mqtt5Subscription;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+// receives snap requests over mqtt without ever blocking the caller. the client connects in the
+// background and reconnects on its own with exponential backoff. it keeps a persistent session
+// (cleanStart=false plus a session expiry), so the broker holds on to requests published while we
+// are away, and subscribes with qos 1 and manual acknowledgement: a request is only acknowledged once
+// the handler says it was accepted, anything not acknowledged is delivered again after a reconnect.
+// a redelivered request may reach the handler twice, the job queue merges those. replies to a
+// request go to the response topic it names, with its correlation data
+public class MqttRequestClient implements StatusReporter.Publisher {
+    public enum State {
+        DISCONNECTED, CONNECTING, CONNECTED, RECONNECTING
+    }
+
+    public interface Handler {
+        // called on an mqtt thread for every request. run ack once the request is safely in our hands.
+        // responseTopic and correlationData are null unless the sender wants to hear back
+        void onRequest(String payload, String responseTopic, byte[] correlationData, Runnable ack);
+    }
+
+    public interface Listener {
+        // cause is null unless a connection was lost or refused
+        void onStateChanged(State state, Throwable cause);
+    }
+
+    public static class Config {
+        String host;
+        int port = 8883;
+        boolean ssl = true;
+        String username;
+        String password;
+        String clientId;
+        String topic;
+        long sessionExpirySeconds = 24 * 60 * 60;
+        long reconnectInitialDelayMs = 1000;
+        long reconnectMaxDelayMs = 2 * 60 * 1000;
+        // more topic filters with handlers of their own, for messages that aren't requests
+        final Map<String, Handler> subscriptions = new LinkedHashMap<>();
+
+        public Config(String host, String clientId, String topic) {
+            this.host = host;
+            this.clientId = clientId;
+            this.topic = topic;
+        }
+
+        public Config port(int port, boolean ssl) {
+            this.port = port;
+            this.ssl = ssl;
+            return this;
+        }
+
+        public Config credentials(String username, String password) {
+            this.username = username;
+            this.password = password;
+            return this;
+        }
+
+        public Config sessionExpiry(long seconds) {
+            this.sessionExpirySeconds = seconds;
+            return this;
+        }
+
+        public Config reconnectDelays(long initialMs, long maxMs) {
+            this.reconnectInitialDelayMs = initialMs;
+            this.reconnectMaxDelayMs = maxMs;
+            return this;
+        }
+
+        // messages on topics matching the filter go to this handler instead, acknowledged the same way
+        public Config subscribe(String topicFilter, Handler handler) {
+            subscriptions.put(topicFilter, handler);
+            return this;
+        }
+    }
+
+    // connection and delivery counters, all since start()
+    public static class Stats {
+        final AtomicLong connects = new AtomicLong();
+        final AtomicLong disconnects = new AtomicLong();
+        final AtomicLong reconnectAttempts = new AtomicLong();
+        final AtomicLong received = new AtomicLong();
+        final AtomicLong acknowledged = new AtomicLong();
+        // publishes answering a request, with its correlation data
+        final AtomicLong replies = new AtomicLong();
+        final AtomicLong lastConnectMs = new AtomicLong(-1);
+
+        public long getConnects() {
+            return connects.get();
+        }
+
+        public long getDisconnects() {
+            return disconnects.get();
+        }
+
+        public long getReconnectAttempts() {
+            return reconnectAttempts.get();
+        }
+
+        public long getReceived() {
+            return received.get();
+        }
+
+        public long getAcknowledged() {
+            return acknowledged.get();
+        }
+
+        public long getReplies() {
+            return replies.get();
+        }
+
+        // requests handed to the handler but not acknowledged yet
+        public long getUnacknowledged() {
+            return received.get() - acknowledged.get();
+        }
+
+        // from starting a connection attempt to the broker's connack, -1 before the first one
+        public long getLastConnectMs() {
+            return lastConnectMs.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("connects=%d disconnects=%d reconnectAttempts=%d received=%d unacked=%d replies=%d "
+                            + "lastConnect=%dms", getConnects(), getDisconnects(), getReconnectAttempts(), getReceived(),
+                    getUnacknowledged(), getReplies(), getLastConnectMs());
+        }
+    }
+
+    private final Config config;
+    private final Handler handler;
+    private final Listener listener;
+    private final Stats stats = new Stats();
+    private volatile State state = State.DISCONNECTED;
+    private volatile long attemptStartedAt;
+    private volatile boolean subscribed = false;
+    private long resubscribeDelayMs;
+    private Mqtt5AsyncClient client;
+    private ScheduledExecutorService resubscriber;
+    private final Map<MqttTopicFilter, Handler> handlers = new LinkedHashMap<>();
+
+    public MqttRequestClient(Config config, Handler handler, Listener listener) {
+        this.config = config;
+        this.handler = handler;
+        this.listener = listener;
+        for (Map.Entry<String, Handler> subscription : config.subscriptions.entrySet()) {
+            handlers.put(MqttTopicFilter.of(subscription.getKey()), subscription.getValue());
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public Stats getStats() {
+        return stats;
+    }
+
+    // returns right away, the connection is made (and remade) in the background
+    public synchronized void start() {
+        if (client != null) {
+            return;
+        }
+        Mqtt5ClientBuilder builder = MqttClient.builder()
+                .useMqttVersion5()
+                .identifier(config.clientId)
+                .serverHost(config.host)
+                .serverPort(config.port)
+                .automaticReconnect()
+                .initialDelay(config.reconnectInitialDelayMs, TimeUnit.MILLISECONDS)
+                .maxDelay(config.reconnectMaxDelayMs, TimeUnit.MILLISECONDS)
+                .applyAutomaticReconnect()
+                .addConnectedListener(new MqttClientConnectedListener() {
+                    @Override
+                    public void onConnected(MqttClientConnectedContext context) {
+                        stats.connects.incrementAndGet();
+                        stats.lastConnectMs.set(System.currentTimeMillis() - attemptStartedAt);
+                        if (subscribed && ((Mqtt5ClientConnectedContext) context).getConnAck().isSessionPresent()) {
+                            setState(State.CONNECTED, null);
+                        } else {
+                            // a fresh session (the first one, or ours expired while we were away), the
+                            // broker doesn't know our subscription. only connected once it does, requests
+                            // published before the suback would be dropped
+                            subscribe();
+                        }
+                    }
+                })
+                .addDisconnectedListener(new MqttClientDisconnectedListener() {
+                    @Override
+                    public void onDisconnected(MqttClientDisconnectedContext context) {
+                        if (state == State.CONNECTED) {
+                            stats.disconnects.incrementAndGet();
+                        }
+                        if (context.getReconnector().isReconnect()) {
+                            stats.reconnectAttempts.incrementAndGet();
+                            attemptStartedAt = System.currentTimeMillis() + context.getReconnector().getDelay(TimeUnit.MILLISECONDS);
+                            setState(State.RECONNECTING, context.getCause());
+                        } else {
+                            setState(State.DISCONNECTED, context.getCause());
+                        }
+                    }
+                });
+        if (config.ssl) {
+            builder = builder.sslWithDefaultConfig();
+        }
+        client = builder.buildAsync();
+        resubscriber = Executors.newSingleThreadScheduledExecutor();
+        resubscribeDelayMs = config.reconnectInitialDelayMs;
+
+        // set up before connecting, a resumed session delivers queued requests right after the connack
+        client.publishes(MqttGlobalPublishFilter.SUBSCRIBED, publish -> {
+            stats.received.incrementAndGet();
+            String payload = publish.getPayload().isPresent() ? UTF_8.decode(publish.getPayload().get()).toString() : "";
+            String responseTopic = publish.getResponseTopic().isPresent()
+                    ? publish.getResponseTopic().get().toString() : null;
+            byte[] correlationData = null;
+            if (publish.getCorrelationData().isPresent()) {
+                correlationData = new byte[publish.getCorrelationData().get().remaining()];
+                publish.getCorrelationData().get().get(correlationData);
+            }
+            handlerFor(publish.getTopic()).onRequest(payload, responseTopic, correlationData, new Runnable() {
+                private boolean done = false;
+
+                @Override
+                public synchronized void run() {
+                    if (!done) {
+                        done = true;
+                        publish.acknowledge();
+                        stats.acknowledged.incrementAndGet();
+                    }
+                }
+            });
+        }, true);
+
+        Mqtt5ConnectBuilder.Send<?> connect = client.connectWith()
+                .cleanStart(false)
+                .sessionExpiryInterval(config.sessionExpirySeconds);
+        if (config.username != null) {
+            connect = connect.simpleAuth()
+                    .username(config.username)
+                    .password(UTF_8.encode(config.password))
+                    .applySimpleAuth();
+        }
+        attemptStartedAt = System.currentTimeMillis();
+        setState(State.CONNECTING, null);
+        // if this attempt fails, automatic reconnect keeps trying
+        connect.send();
+    }
+
+    private Handler handlerFor(MqttTopic topic) {
+        for (Map.Entry<MqttTopicFilter, Handler> subscription : handlers.entrySet()) {
+            if (subscription.getKey().matches(topic)) {
+                return subscription.getValue();
+            }
+        }
+        return handler;
+    }
+
+    private synchronized void subscribe() {
+        if (client == null) {
+            return;
+        }
+        List<Mqtt5Subscription> subscriptions = new ArrayList<>();
+        subscriptions.add(Mqtt5Subscription.builder().topicFilter(config.topic).qos(MqttQos.AT_LEAST_ONCE).build());
+        for (MqttTopicFilter topicFilter : handlers.keySet()) {
+            subscriptions.add(Mqtt5Subscription.builder().topicFilter(topicFilter).qos(MqttQos.AT_LEAST_ONCE).build());
+        }
+        client.subscribeWith()
+                .addSubscriptions(subscriptions)
+                .send()
+                .whenComplete((subAck, error) -> {
+                    if (error == null) {
+                        subscribed = true;
+                        resubscribed();
+                        setState(State.CONNECTED, null);
+                    } else {
+                        subscribed = false;
+                        setState(State.CONNECTING, error);
+                        resubscribeLater();
+                    }
+                });
+    }
+
+    // the broker refused the subscription but we're still connected, nothing would ever reach us.
+    // tried again with the same backoff as reconnecting, a reconnect in the meantime subscribes anyway
+    private synchronized void resubscribeLater() {
+        if (client == null) {
+            return;
+        }
+        long delayMs = resubscribeDelayMs;
+        resubscribeDelayMs = Math.min(delayMs * 2, config.reconnectMaxDelayMs);
+        resubscriber.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (MqttRequestClient.this) {
+                    if (client != null && !subscribed && client.getState().isConnected()) {
+                        subscribe();
+                    }
+                }
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void resubscribed() {
+        resubscribeDelayMs = config.reconnectInitialDelayMs;
+    }
+
+    // qos 1, and queued by the client while we're reconnecting
+    @Override
+    public void publish(String topic, byte[] correlationData, String payload) {
+        publish(topic, null, correlationData, payload);
+    }
+
+    // a request of our own, whose replies should go to responseTopic
+    public synchronized void publish(String topic, String responseTopic, byte[] correlationData, String payload) {
+        if (client == null) {
+            return;
+        }
+        client.publishWith()
+                .topic(topic)
+                .qos(MqttQos.AT_LEAST_ONCE)
+                .responseTopic(responseTopic)
+                .correlationData(correlationData)
+                .payload(payload.getBytes(UTF_8))
+                .send();
+        if (correlationData != null) {
+            stats.replies.incrementAndGet();
+        }
+    }
+
+    // leaves the session on the broker, so requests sent until we're back aren't lost
+    public synchronized void stop() {
+        if (client != null) {
+            resubscriber.shutdownNow();
+            client.disconnect();
+            client = null;
+        }
+    }
+
+    private void setState(State state, Throwable cause) {
+        this.state = state;
+        if (listener != null) {
+            listener.onStateChanged(state, cause);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.linklab.whiteboardsnap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// greedy nearest neighbour tour, then improved with 2-opt moves until no reversal shortens it.
+// the tour is an open path: it starts at the robot and ends at the last whiteboard, going home is
+// decided separately
+public class NearestNeighbourRoutePlanner implements RoutePlanner {
+    private static final double EPSILON = 1e-6;
+
+    @Override
+    public List<SnapJob> plan(MapPoint start, List<SnapJob> stops, Map<String, MapPoint> positions) {
+        List<SnapJob> known = new ArrayList<>();
+        List<SnapJob> unknown = new ArrayList<>();
+        for (SnapJob stop : stops) {
+            if (positions.get(stop.getLocation()) != null) {
+                known.add(stop);
+            } else {
+                unknown.add(stop);
+            }
+        }
+
+        int n = known.size();
+        MapPoint[] points = new MapPoint[n];
+        for (int i = 0; i < n; i++) {
+            points[i] = positions.get(known.get(i).getLocation());
+        }
+
+        int[] order = nearestNeighbour(start, points);
+        twoOpt(start, points, order);
+
+        List<SnapJob> tour = new ArrayList<>(stops.size());
+        for (int i : order) {
+            tour.add(known.get(i));
+        }
+        tour.addAll(unknown);
+        return tour;
+    }
+
+    private static int[] nearestNeighbour(MapPoint start, MapPoint[] points) {
+        int n = points.length;
+        int[] order = new int[n];
+        boolean[] visited = new boolean[n];
+        MapPoint current = start;
+        for (int k = 0; k < n; k++) {
+            int best = -1;
+            double bestDistance = Double.MAX_VALUE;
+            for (int i = 0; i < n; i++) {
+                if (visited[i]) {
+                    continue;
+                }
+                double d = distance(current, points[i]);
+                if (d < bestDistance) {
+                    bestDistance = d;
+                    best = i;
+                }
+            }
+            visited[best] = true;
+            order[k] = best;
+            current = points[best];
+        }
+        return order;
+    }
+
+    // reversing order[i..j] swaps the edges (prev, i) + (j, next) for (prev, j) + (i, next)
+    private static void twoOpt(MapPoint start, MapPoint[] points, int[] order) {
+        int n = order.length;
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int i = 0; i < n - 1; i++) {
+                MapPoint prev = i == 0 ? start : points[order[i - 1]];
+                for (int j = i + 1; j < n; j++) {
+                    MapPoint a = points[order[i]];
+                    MapPoint b = points[order[j]];
+                    MapPoint next = j == n - 1 ? null : points[order[j + 1]];
+                    double before = distance(prev, a) + distance(b, next);
+                    double after = distance(prev, b) + distance(a, next);
+                    if (after < before - EPSILON) {
+                        reverse(order, i, j);
+                        improved = true;
+                    }
+                }
+            }
+        }
+    }
+
+    // an unknown start or the open end of the path costs nothing
+    private static double distance(MapPoint from, MapPoint to) {
+        if (from == null || to == null) {
+            return 0;
+        }
+        return from.distanceTo(to);
+    }
+
+    private static void reverse(int[] order, int i, int j) {
+        while (i < j) {
+            int tmp = order[i];
+            order[i++] = order[j];
+            order[j--] = tmp;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.linklab.whiteboardsnap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// sends snapshots to slack through the durable outbox. a snapshot is journaled before its upload
+// starts and only marked done once slack accepted it (or rejected it for good), so anything still
+// pending after a crash or a network outage goes out on the next drain(). drains happen on start,
+// when a new snapshot arrives, whenever the app sees connectivity come back and, while uploads keep
+// failing in ways that may go away, after a backoff of their own. they never run more than maxInFlight
+// uploads at a time. capture never waits on any of this: all outbox i/o happens on our own thread.
+// shutdown() gives the uploads still running a moment to finish, so their results are recorded
+public class OutboxUploader {
+    // journal records are made durable in batches, at most this long after they were written
+    private static final long SYNC_INTERVAL_MS = 200;
+    // slack's uploader has already retried by the time a failure reaches us, so the outbox waits longer,
+    // doubling every time until an upload goes through
+    private static final long REDRAIN_INITIAL_MS = 30 * 1000;
+    private static final long REDRAIN_MAX_MS = 10 * 60 * 1000;
+    // how long shutdown() waits for uploads in flight before closing the outbox without them
+    private static final long SHUTDOWN_GRACE_MS = 5 * 1000;
+
+    public interface Listener {
+        // called for every finished upload attempt, including retryable failures that stay in the outbox
+        void onUploaded(UploadOutbox.Entry entry, UploadResult result);
+
+        void onError(String message, Exception e);
+    }
+
+    private final File directory;
+    private final SlackUploader uploader;
+    private final SnapshotBufferPool pool;
+    private final int maxInFlight;
+    private final Listener listener;
+    private final ScheduledExecutorService io = Executors.newSingleThreadScheduledExecutor();
+
+    // confined to the io thread
+    private UploadOutbox outbox;
+    private final Set<String> inFlight = new HashSet<>();
+    private boolean syncScheduled = false;
+    private long redrainDelayMs = REDRAIN_INITIAL_MS;
+    private ScheduledFuture<?> redrain;
+    private boolean closing = false;
+    private ScheduledFuture<?> closeDeadline;
+
+    public OutboxUploader(File directory, SlackUploader uploader, SnapshotBufferPool pool,
+                          int maxInFlight, Listener listener) {
+        this.directory = directory;
+        this.uploader = uploader;
+        this.pool = pool;
+        this.maxInFlight = maxInFlight;
+        this.listener = listener;
+    }
+
+    // opens the outbox, replaying whatever was left over from the last run, and starts sending it
+    public void start() {
+        io.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    outbox = new UploadOutbox(directory);
+                } catch (IOException e) {
+                    listener.onError("can't open outbox, uploads won't survive a restart", e);
+                    return;
+                }
+                drainNow(null, null);
+            }
+        });
+    }
+
+    // takes over the caller's reference to the snapshot. thread is the slack thread to answer in, or null
+    public void submit(final Snapshot snapshot, final String channels, final String thread, final String comment) {
+        io.execute(new Runnable() {
+            @Override
+            public void run() {
+                UploadOutbox.Entry entry = null;
+                if (outbox != null) {
+                    try {
+                        entry = outbox.add(snapshot, channels, thread, comment);
+                        scheduleSync();
+                    } catch (IOException e) {
+                        listener.onError("can't store snapshot of job " + snapshot.getJobId() + " in the outbox", e);
+                    }
+                }
+                if (entry == null) {
+                    // no durability, but at least try to send it
+                    uploader.upload(snapshot, channels, thread, comment, null);
+                    return;
+                }
+                drainNow(entry, snapshot);
+            }
+        });
+    }
+
+    public void drain() {
+        io.execute(new Runnable() {
+            @Override
+            public void run() {
+                drainNow(null, null);
+            }
+        });
+    }
+
+    // starts no more uploads and closes the outbox once the ones in flight are over, or after
+    // SHUTDOWN_GRACE_MS. anything not done by then is sent again on the next start()
+    public void shutdown() {
+        io.execute(new Runnable() {
+            @Override
+            public void run() {
+                closing = true;
+                if (inFlight.isEmpty()) {
+                    close();
+                } else {
+                    closeDeadline = io.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            close();
+                        }
+                    }, SHUTDOWN_GRACE_MS, TimeUnit.MILLISECONDS);
+                }
+            }
+        });
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return io.awaitTermination(timeout, unit);
+    }
+
+    // on the io thread, once shutting down
+    private void close() {
+        if (io.isShutdown()) {
+            return;
+        }
+        // or they would hold the io thread for minutes
+        if (closeDeadline != null) {
+            closeDeadline.cancel(false);
+        }
+        if (redrain != null) {
+            redrain.cancel(false);
+        }
+        if (outbox != null) {
+            try {
+                outbox.close();
+            } catch (IOException e) {
+                listener.onError("can't close outbox", e);
+            }
+        }
+        io.shutdown();
+    }
+
+    // starts uploads for pending entries until maxInFlight are running. the snapshot of a freshly
+    // added entry is still in memory, every other one is read back from its blob
+    private void drainNow(UploadOutbox.Entry fresh, Snapshot freshSnapshot) {
+        if (outbox != null && !closing) {
+            for (UploadOutbox.Entry entry : outbox.pending()) {
+                if (inFlight.size() >= maxInFlight) {
+                    break;
+                }
+                if (inFlight.contains(entry.getId())) {
+                    continue;
+                }
+                Snapshot snapshot;
+                if (entry == fresh) {
+                    snapshot = freshSnapshot;
+                    freshSnapshot = null;
+                } else {
+                    try {
+                        snapshot = outbox.load(entry, pool);
+                    } catch (IOException e) {
+                        listener.onError("can't read back " + entry.getId() + ", dropping it", e);
+                        markDone(entry);
+                        continue;
+                    }
+                }
+                send(entry, snapshot);
+            }
+        }
+        if (freshSnapshot != null) {
+            // it has to wait its turn, and it's safe on disk until then
+            freshSnapshot.release();
+        }
+    }
+
+    private void send(final UploadOutbox.Entry entry, Snapshot snapshot) {
+        inFlight.add(entry.getId());
+        uploader.upload(snapshot, entry.getChannels(), entry.getThread(), entry.getComment(),
+                new SlackUploader.Listener() {
+            @Override
+            public void onComplete(final UploadResult result) {
+                try {
+                    io.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            uploaded(entry, result);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // finished after the grace period, it stays in the outbox and goes out again next time
+                    listener.onUploaded(entry, result);
+                }
+            }
+        });
+    }
+
+    private void uploaded(UploadOutbox.Entry entry, UploadResult result) {
+        inFlight.remove(entry.getId());
+        if (result.isOk() || !result.isRetryable()) {
+            markDone(entry);
+            if (result.isOk()) {
+                redrainDelayMs = REDRAIN_INITIAL_MS;
+            }
+            drainNow(null, null);
+        } else if (!closing) {
+            // stays in the outbox for the next drain, which comes after a backoff at the latest
+            scheduleRedrain();
+        }
+        listener.onUploaded(entry, result);
+        if (closing && inFlight.isEmpty()) {
+            close();
+        }
+    }
+
+    private void markDone(UploadOutbox.Entry entry) {
+        try {
+            outbox.markDone(entry);
+            scheduleSync();
+        } catch (IOException e) {
+            listener.onError("can't mark " + entry.getId() + " as done, it may be sent again", e);
+        }
+    }
+
+    private void scheduleRedrain() {
+        if (redrain != null && !redrain.isDone()) {
+            return;
+        }
+        long delayMs = redrainDelayMs;
+        redrainDelayMs = Math.min(delayMs * 2, REDRAIN_MAX_MS);
+        redrain = io.schedule(new Runnable() {
+            @Override
+            public void run() {
+                drainNow(null, null);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void scheduleSync() {
+        if (syncScheduled) {
+            return;
+        }
+        syncScheduled = true;
+        io.schedule(new Runnable() {
+            @Override
+            public void run() {
+                syncScheduled = false;
+                try {
+                    outbox.sync();
+                } catch (IOException e) {
+                    listener.onError("can't sync outbox journal", e);
+                }
+            }
+        }, SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,92 @@
+package com.linklab.whiteboardsnap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+// encodes a grayscale image as a 4-bit palettized png with 16 gray levels. a cleaned up whiteboard
+// is mostly flat white with a few ink tones, which deflate squeezes far below what jpeg manages
+public final class PalettePngEncoder {
+    private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+    static final int LEVELS = 16;
+
+    private PalettePngEncoder() {
+    }
+
+    public static byte[] encode(GrayImage image) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(image.width * image.height / 8);
+        try {
+            out.write(SIGNATURE);
+
+            byte[] header = new byte[13];
+            putInt(header, 0, image.width);
+            putInt(header, 4, image.height);
+            header[8] = 4; // bit depth
+            header[9] = 3; // color type: indexed
+            chunk(out, "IHDR", header, header.length);
+
+            byte[] palette = new byte[LEVELS * 3];
+            for (int i = 0; i < LEVELS; i++) {
+                palette[i * 3] = palette[i * 3 + 1] = palette[i * 3 + 2] = (byte) (i * 255 / (LEVELS - 1));
+            }
+            chunk(out, "PLTE", palette, palette.length);
+
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(image.width * image.height / 16);
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            try (DeflaterOutputStream deflated = new DeflaterOutputStream(compressed, deflater, 64 * 1024)) {
+                int stride = (image.width + 1) / 2;
+                byte[] row = new byte[1 + stride];
+                for (int y = 0; y < image.height; y++) {
+                    row[0] = 0; // filter: none
+                    int offset = y * image.width;
+                    for (int x = 0; x < image.width; x += 2) {
+                        int hi = level(image.pixels[offset + x] & 0xff);
+                        int lo = x + 1 < image.width ? level(image.pixels[offset + x + 1] & 0xff) : 0;
+                        row[1 + x / 2] = (byte) (hi << 4 | lo);
+                    }
+                    deflated.write(row);
+                }
+            } finally {
+                deflater.end();
+            }
+            chunk(out, "IDAT", compressed.toByteArray(), compressed.size());
+            chunk(out, "IEND", new byte[0], 0);
+        } catch (IOException e) {
+            // can't happen with in-memory streams
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    // nearest of the 16 palette levels
+    static int level(int value) {
+        return (value * (LEVELS - 1) + 127) / 255;
+    }
+
+    private static void chunk(OutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] header = new byte[8];
+        putInt(header, 0, length);
+        for (int i = 0; i < 4; i++) {
+            header[4 + i] = (byte) type.charAt(i);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(header, 4, 4);
+        crc.update(data, 0, length);
+        byte[] trailer = new byte[4];
+        putInt(trailer, 0, (int) crc.getValue());
+
+        out.write(header);
+        out.write(data, 0, length);
+        out.write(trailer);
+    }
+
+    private static void putInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) (value >>> 24);
+        b[offset + 1] = (byte) (value >>> 16);
+        b[offset + 2] = (byte) (value >>> 8);
+        b[offset + 3] = (byte) value;
+    }
+}
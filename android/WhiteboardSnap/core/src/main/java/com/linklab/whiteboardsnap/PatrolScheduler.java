@@ -0,0 +1,106 @@
+package com.linklab.whiteboardsnap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// decides when the idle robot should go round the whiteboards on its own, and in which order, so the
+// snapshot cache already holds a recent picture when someone asks. boards are ranked by how often
+// they're asked for (a count that halves every requestHalfLifeMs) times how long ago we last captured
+// them, so a popular board that went stale comes first and boards captured within minIntervalMs are
+// left out. the robot only patrols after idleBeforePatrolMs without live work, and only with at
+// least minBattery percent of charge
+public class PatrolScheduler {
+    // patrol jobs are queued under this requester, and shoot the same view slack requests get
+    public static final String REQUESTER = "patrol";
+    public static final int HEAD_ANGLE = 18;
+    public static final int CAMERA_ID = 1;
+    static final String PREFIX = "whiteboard";
+
+    private static class Demand {
+        double requests;
+        long updatedAt;
+    }
+
+    private final Clock clock;
+    private final long minIntervalMs;
+    private final long idleBeforePatrolMs;
+    private final int minBattery;
+    private final long requestHalfLifeMs;
+    private final Map<String, Demand> demand = new HashMap<>();
+    private final Map<String, Long> capturedAt = new HashMap<>();
+    private final long startedAt;
+    private long lastActivity;
+
+    public PatrolScheduler(Clock clock, long minIntervalMs, long idleBeforePatrolMs, int minBattery,
+                           long requestHalfLifeMs) {
+        this.clock = clock;
+        this.minIntervalMs = minIntervalMs;
+        this.idleBeforePatrolMs = idleBeforePatrolMs;
+        this.minBattery = minBattery;
+        this.requestHalfLifeMs = requestHalfLifeMs;
+        this.startedAt = clock.now();
+        this.lastActivity = startedAt;
+    }
+
+    // every request counts, including the ones answered from the cache
+    public synchronized void recordRequest(String location) {
+        long now = clock.now();
+        Demand d = demand.get(location);
+        if (d == null) {
+            d = new Demand();
+            demand.put(location, d);
+        }
+        d.requests = decayed(d, now) + 1;
+        d.updatedAt = now;
+    }
+
+    public synchronized void recordCapture(String location) {
+        capturedAt.put(location, clock.now());
+    }
+
+    // the robot did live work, so patrols wait another idleBeforePatrolMs
+    public synchronized void recordActivity() {
+        lastActivity = clock.now();
+    }
+
+    public synchronized boolean shouldPatrol(int batteryPercentage) {
+        return batteryPercentage >= minBattery && clock.now() - lastActivity >= idleBeforePatrolMs;
+    }
+
+    // the whiteboards among the given locations that are due for a capture, most valuable first
+    public synchronized List<String> plan(List<String> locations) {
+        final long now = clock.now();
+        final Map<String, Double> scores = new HashMap<>();
+        List<String> due = new ArrayList<>();
+        for (String location : locations) {
+            if (!location.startsWith(PREFIX)) {
+                continue;
+            }
+            Long captured = capturedAt.get(location);
+            // a board we haven't captured since starting up is always due
+            long staleness = captured != null ? now - captured : now - startedAt + minIntervalMs;
+            if (staleness < minIntervalMs) {
+                continue;
+            }
+            Demand d = demand.get(location);
+            scores.put(location, (1 + (d != null ? decayed(d, now) : 0)) * staleness);
+            due.add(location);
+        }
+        Collections.sort(due, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                int byScore = Double.compare(scores.get(b), scores.get(a));
+                return byScore != 0 ? byScore : a.compareTo(b);
+            }
+        });
+        return due;
+    }
+
+    private double decayed(Demand d, long now) {
+        return d.requests * Math.pow(0.5, (double) (now - d.updatedAt) / requestHalfLifeMs);
+    }
+}
@@ -0,0 +1,79 @@
+package com.linklab.whiteboardsnap;
+
+import java.nio.ByteBuffer;
+
+// perceptual hash of a grayscale frame made for whiteboards: the frame is box-averaged down to a
+// COLUMNS x ROWS grid (like an average hash) and each cell's bit says whether it holds ink, i.e. is
+// clearly darker than the brightest of its neighbours. comparing against the local background rather
+// than the global mean (ahash) or the next cell's sign (dhash) keeps the bits steady under lighting
+// changes, sensor noise and flat areas, so the hamming distance between two frames is simply the
+// number of cells where ink appeared or went away. cheap enough for every preview frame: one pass over
+// the pixels and no allocations but the result. not thread safe, every thread needs its own instance
+public class PerceptualHash {
+    public static final int COLUMNS = 32;
+    public static final int ROWS = 24;
+    public static final int BITS = COLUMNS * ROWS;
+    // in gray levels, how much darker than its surroundings a cell has to be to count as ink
+    static final int INK_CONTRAST = 12;
+
+    // cell means in 1/16 gray levels, reused between frames
+    private final int[] means = new int[COLUMNS * ROWS];
+
+    public long[] compute(GrayImage image) {
+        return compute(ByteBuffer.wrap(image.pixels), image.width, image.height, image.width, 1);
+    }
+
+    // hashes a luma plane as the camera hands it to us, row and pixel strides included. the buffer's
+    // position is left alone
+    public long[] compute(ByteBuffer luma, int width, int height, int rowStride, int pixelStride) {
+        if (width < COLUMNS || height < ROWS) {
+            throw new IllegalArgumentException("frame too small to hash: " + width + "x" + height);
+        }
+        int base = luma.position();
+        for (int cy = 0; cy < ROWS; cy++) {
+            int y0 = cy * height / ROWS;
+            int y1 = (cy + 1) * height / ROWS;
+            for (int cx = 0; cx < COLUMNS; cx++) {
+                int x0 = cx * width / COLUMNS;
+                int x1 = (cx + 1) * width / COLUMNS;
+                long sum = 0;
+                for (int y = y0; y < y1; y++) {
+                    int offset = base + y * rowStride + x0 * pixelStride;
+                    for (int x = x0; x < x1; x++, offset += pixelStride) {
+                        sum += luma.get(offset) & 0xff;
+                    }
+                }
+                means[cy * COLUMNS + cx] = (int) (sum * 16 / ((long) (y1 - y0) * (x1 - x0)));
+            }
+        }
+
+        long[] hash = new long[(BITS + 63) / 64];
+        for (int cy = 0; cy < ROWS; cy++) {
+            for (int cx = 0; cx < COLUMNS; cx++) {
+                int background = 0;
+                for (int ny = Math.max(0, cy - 1); ny <= Math.min(ROWS - 1, cy + 1); ny++) {
+                    for (int nx = Math.max(0, cx - 1); nx <= Math.min(COLUMNS - 1, cx + 1); nx++) {
+                        background = Math.max(background, means[ny * COLUMNS + nx]);
+                    }
+                }
+                int cell = cy * COLUMNS + cx;
+                if (background - means[cell] > INK_CONTRAST * 16) {
+                    hash[cell >>> 6] |= 1L << (cell & 63);
+                }
+            }
+        }
+        return hash;
+    }
+
+    // number of differing bits, 0 for identical frames
+    public static int distance(long[] a, long[] b) {
+        if (a.length != b.length) {
+            throw new IllegalArgumentException("hashes of different length");
+        }
+        int distance = 0;
+        for (int i = 0; i < a.length; i++) {
+            distance += Long.bitCount(a[i] ^ b[i]);
+        }
+        return distance;
+    }
+}
@@ -0,0 +1,124 @@
+package com.linklab.whiteboardsnap;
+
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+// raw 8-bit grayscale in the netpbm P5 format, a short text header and the pixels row by row. it's
+// how the luma of a yuv capture travels from the camera to processing without being encoded on the
+// way. only what write() produces is read back, a single space or newline between the header fields
+public final class PgmCodec {
+    public static final String MIME_TYPE = "image/x-portable-graymap";
+
+    private PgmCodec() {
+    }
+
+    public static boolean isPgm(Snapshot snapshot) {
+        return MIME_TYPE.equals(snapshot.getMimeType());
+    }
+
+    // copies a luma plane into a pooled buffer, turned by 180 degrees if asked, the way the camera
+    // turns its jpegs. the plane is read from its position on and left as it was
+    public static ByteBuffer write(ByteBuffer plane, int width, int height, int rowStride, boolean rotate180,
+                                   SnapshotBufferPool pool) {
+        byte[] header = header(width, height);
+        ByteBuffer data = pool.acquire(header.length + width * height);
+        data.put(header);
+        ByteBuffer source = plane.duplicate();
+        int start = source.position();
+        byte[] row = new byte[width];
+        for (int y = 0; y < height; y++) {
+            source.position(start + (rotate180 ? height - 1 - y : y) * rowStride);
+            source.get(row, 0, width);
+            if (rotate180) {
+                for (int i = 0, j = width - 1; i < j; i++, j--) {
+                    byte b = row[i];
+                    row[i] = row[j];
+                    row[j] = b;
+                }
+            }
+            data.put(row);
+        }
+        data.flip();
+        return data;
+    }
+
+    public static ByteBuffer write(GrayImage image, SnapshotBufferPool pool) {
+        return write(ByteBuffer.wrap(image.pixels), image.width, image.height, image.width, false, pool);
+    }
+
+    // {width, height}, null if it isn't a pgm we wrote
+    public static int[] size(ByteBuffer data) {
+        int[] header = parseHeader(data);
+        return header != null ? new int[] {header[0], header[1]} : null;
+    }
+
+    // every sampleSize-th pixel of every sampleSize-th row, null if it isn't a pgm we wrote
+    public static GrayImage read(ByteBuffer data, int sampleSize) {
+        int[] header = parseHeader(data);
+        if (header == null) {
+            return null;
+        }
+        int width = header[0];
+        int height = header[1];
+        ByteBuffer source = data.duplicate();
+        source.position(header[2]);
+        if (sampleSize <= 1) {
+            GrayImage image = new GrayImage(width, height);
+            source.get(image.pixels, 0, width * height);
+            return image;
+        }
+        GrayImage image = new GrayImage((width + sampleSize - 1) / sampleSize, (height + sampleSize - 1) / sampleSize);
+        for (int y = 0; y < image.height; y++) {
+            int row = header[2] + y * sampleSize * width;
+            for (int x = 0; x < image.width; x++) {
+                image.pixels[y * image.width + x] = source.get(row + x * sampleSize);
+            }
+        }
+        return image;
+    }
+
+    // width, height and where the pixels start
+    private static int[] parseHeader(ByteBuffer data) {
+        ByteBuffer source = data.duplicate();
+        int[] fields = new int[3];
+        if (source.remaining() < 3 || source.get() != 'P' || source.get() != '5') {
+            return null;
+        }
+        for (int i = 0; i < fields.length; i++) {
+            if (!source.hasRemaining() || !isSeparator(source.get())) {
+                return null;
+            }
+            int value = 0;
+            int digits = 0;
+            while (source.hasRemaining() && digits < 6) {
+                byte b = source.get(source.position());
+                if (b < '0' || b > '9') {
+                    break;
+                }
+                value = value * 10 + (b - '0');
+                digits++;
+                source.get();
+            }
+            if (digits == 0) {
+                return null;
+            }
+            fields[i] = value;
+        }
+        int width = fields[0];
+        int height = fields[1];
+        if (fields[2] != 255 || width == 0 || height == 0 || !source.hasRemaining() || !isSeparator(source.get())
+                || source.remaining() < width * height) {
+            return null;
+        }
+        return new int[] {width, height, source.position()};
+    }
+
+    private static boolean isSeparator(byte b) {
+        return b == ' ' || b == '\n';
+    }
+
+    private static byte[] header(int width, int height) {
+        return ("P5\n" + width + " " + height + "\n255\n").getBytes(US_ASCII);
+    }
+}
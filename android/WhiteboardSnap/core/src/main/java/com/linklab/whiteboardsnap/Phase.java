@@ -0,0 +1,31 @@
+package com.linklab.whiteboardsnap;
+
+import java.util.Locale;
+
+// the parts of a snap job we time, roughly in the order they happen
+public enum Phase {
+    // from the mqtt message arriving to its jobs being queued (parsing, cache lookup)
+    INTAKE,
+    // queued until the robot sets off for the job
+    QUEUE_WAIT,
+    // from goTo() to temi reporting it's going, and from there to arriving
+    ROUTE_PLANNING,
+    DRIVING,
+    // setting off to the camera being asked for the picture, includes the two above
+    NAVIGATION,
+    // as measured by Camera2Service
+    CAMERA_OPEN,
+    CONVERGENCE,
+    STILL_CAPTURE,
+    // the still being ready to the activity picking it up
+    HANDOFF,
+    PROCESSING,
+    // slack's response to the upload, retries included
+    UPLOAD,
+    // from the request arriving to the snap being on slack
+    END_TO_END;
+
+    public String wireName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
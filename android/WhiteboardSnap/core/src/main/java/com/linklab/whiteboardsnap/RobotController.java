@@ -0,0 +1,35 @@
+package com.linklab.whiteboardsnap;
+
+import java.util.List;
+
+// the robot operations needed to carry out snap jobs. kept free of the temi sdk so the
+// scheduling code can run against a fake robot on the jvm
+public interface RobotController {
+    // the range of temi's head, in degrees
+    int MIN_HEAD_ANGLE = -25;
+    int MAX_HEAD_ANGLE = 55;
+
+    // blocks until the robot reports it reached the location (true) or gave up (false)
+    boolean goTo(String location) throws InterruptedException;
+
+    // aborts the current goTo(), which then returns false
+    void stopMovement();
+
+    // MIN_HEAD_ANGLE to MAX_HEAD_ANGLE, positive looks up
+    void tiltAngle(int angle);
+
+    boolean saveLocation(String name);
+
+    boolean deleteLocation(String name);
+
+    List<String> getLocations();
+
+    // current position on the map, or null if unknown
+    MapPoint getPosition();
+
+    // position of a saved location, or null if unknown
+    MapPoint positionOf(String location);
+
+    // 0 to 100, or -1 if unknown
+    int getBatteryPercentage();
+}
@@ -0,0 +1,136 @@
+package com.linklab.whiteboardsnap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// what a robot of the fleet tells the dispatcher about itself, every few seconds and when it leaves:
+//   {"v": 1, "robot": "temi-2", "state": "busy", "x": 3.2, "y": -1.5, "queue": 2, "battery": 81,
+//    "locations": {"whiteboard 225": [10.5, 2.0], "whiteboard 110": [-4.0, 7.25]}}
+// positions are on the robot's own map, every robot has one. x and y are left out if the robot doesn't
+// know where it is. the first heartbeat is all it takes to join the fleet
+public class RobotHeartbeat {
+    public static final int VERSION = 1;
+
+    public enum State {
+        // at home with nothing to do
+        IDLE,
+        // on a tour, or about to set off
+        BUSY,
+        // shutting down, its work should go to the others
+        OFFLINE;
+
+        public String wireName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final String robotId;
+    private final State state;
+    private final MapPoint position;
+    private final int queueDepth;
+    private final int batteryPercentage;
+    private final Map<String, MapPoint> locations;
+
+    public RobotHeartbeat(String robotId, State state, MapPoint position, int queueDepth, int batteryPercentage,
+                          Map<String, MapPoint> locations) {
+        this.robotId = robotId;
+        this.state = state;
+        this.position = position;
+        this.queueDepth = queueDepth;
+        this.batteryPercentage = batteryPercentage;
+        this.locations = Collections.unmodifiableMap(new LinkedHashMap<>(locations));
+    }
+
+    public String getRobotId() {
+        return robotId;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    // null if unknown
+    public MapPoint getPosition() {
+        return position;
+    }
+
+    // jobs waiting for the robot, not counting the one it's on
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    // 0 to 100, or -1 if unknown
+    public int getBatteryPercentage() {
+        return batteryPercentage;
+    }
+
+    // the saved locations the robot can go to, by name
+    public Map<String, MapPoint> getLocations() {
+        return locations;
+    }
+
+    public String toJson() {
+        try {
+            JSONObject json = new JSONObject()
+                    .put("v", VERSION)
+                    .put("robot", robotId)
+                    .put("state", state.wireName())
+                    .put("queue", queueDepth)
+                    .put("battery", batteryPercentage);
+            if (position != null) {
+                json.put("x", position.getX()).put("y", position.getY());
+            }
+            JSONObject points = new JSONObject();
+            for (Map.Entry<String, MapPoint> location : locations.entrySet()) {
+                points.put(location.getKey(), new JSONArray()
+                        .put(location.getValue().getX())
+                        .put(location.getValue().getY()));
+            }
+            return json.put("locations", points).toString();
+        } catch (JSONException e) {
+            // only thrown for NaN and infinite positions
+            throw new IllegalArgumentException("can't write heartbeat of " + robotId, e);
+        }
+    }
+
+    public static RobotHeartbeat parse(String payload) throws JSONException {
+        JSONObject json = new JSONObject(payload);
+        int version = json.getInt("v");
+        if (version > VERSION) {
+            throw new JSONException("heartbeat version " + version + " isn't supported");
+        }
+        State state;
+        try {
+            state = State.valueOf(json.getString("state").toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new JSONException("unknown state " + json.getString("state"));
+        }
+        MapPoint position = json.has("x") && json.has("y")
+                ? new MapPoint((float) json.getDouble("x"), (float) json.getDouble("y")) : null;
+        Map<String, MapPoint> locations = new LinkedHashMap<>();
+        JSONObject points = json.optJSONObject("locations");
+        if (points != null) {
+            Iterator<String> names = points.keys();
+            while (names.hasNext()) {
+                String name = names.next();
+                JSONArray point = points.getJSONArray(name);
+                locations.put(name, new MapPoint((float) point.getDouble(0), (float) point.getDouble(1)));
+            }
+        }
+        return new RobotHeartbeat(json.getString("robot"), state, position, json.optInt("queue", 0),
+                json.optInt("battery", -1), locations);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RobotHeartbeat{robot=%s, state=%s, position=%s, queue=%d, battery=%d, locations=%d}",
+                robotId, state.wireName(), position, queueDepth, batteryPercentage, locations.size());
+    }
+}
@@ -0,0 +1,11 @@
+package com.linklab.whiteboardsnap;
+
+import java.util.List;
+import java.util.Map;
+
+// orders the whiteboards of a batch into a single tour starting from where the robot is
+public interface RoutePlanner {
+    // stops whose location has no known position are visited last, in the order they were requested.
+    // start may be null if the robot hasn't reported its position yet
+    List<SnapJob> plan(MapPoint start, List<SnapJob> stops, Map<String, MapPoint> positions);
+}
@@ -0,0 +1,258 @@
+package com.linklab.whiteboardsnap;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
+import okhttp3.FormBody;
+import okhttp3.HttpUrl;
+import okhttp3.MultipartBody;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+// the one http client we use to post snapshots to slack's files.upload (and the odd
+// chat.postMessage). it lives as long as the app, so connections (http/2 where slack offers it) and
+// tls sessions are reused across uploads, and the dispatcher bounds how many uploads run at once.
+// failed uploads are retried with exponential backoff, honouring Retry-After on 429
+public class SlackUploader {
+    public static final String FILES_UPLOAD_URL = "https://slack.com/api/files.upload";
+    private static final long MAX_BACKOFF_MS = 30 * 1000;
+
+    public interface Listener {
+        // called once per upload, on an okhttp thread, after the last attempt
+        void onComplete(UploadResult result);
+    }
+
+    private final OkHttpClient client;
+    private final String url;
+    private final String messageUrl;
+    private final String token;
+    private final int maxAttempts;
+    private final long baseBackoffMs;
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor();
+    private final UploadStats stats = new UploadStats();
+
+    public SlackUploader(String url, String token, int maxConcurrentUploads, int maxAttempts, long baseBackoffMs) {
+        this(url, token, maxConcurrentUploads, maxAttempts, baseBackoffMs, new JobDeadlines().getUploadMs());
+    }
+
+    // an attempt that takes longer than callTimeoutMs altogether is given up and retried like a
+    // dropped connection, so a stalled upload doesn't hold on to its slot
+    public SlackUploader(String url, String token, int maxConcurrentUploads, int maxAttempts, long baseBackoffMs,
+                         long callTimeoutMs) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxConcurrentUploads);
+        dispatcher.setMaxRequestsPerHost(maxConcurrentUploads);
+        this.client = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectTimeout(15, TimeUnit.SECONDS)
+                .writeTimeout(60, TimeUnit.SECONDS)
+                .readTimeout(30, TimeUnit.SECONDS)
+                .callTimeout(callTimeoutMs, TimeUnit.MILLISECONDS)
+                .build();
+        this.url = url;
+        // chat.postMessage lives next to files.upload
+        this.messageUrl = HttpUrl.get(url).resolve("chat.postMessage").toString();
+        this.token = token;
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMs = baseBackoffMs;
+    }
+
+    public UploadStats getStats() {
+        return stats;
+    }
+
+    // takes over the caller's reference to the snapshot and releases it when the upload is over
+    public void upload(Snapshot snapshot, String channels, String comment, Listener listener) {
+        upload(snapshot, channels, null, comment, listener);
+    }
+
+    // the same, posted as a reply in the thread with the timestamp thread (null for none)
+    public void upload(Snapshot snapshot, String channels, String thread, String comment, Listener listener) {
+        Request request = new Request.Builder()
+                .url(url)
+                .post(uploadBody(snapshot, channels, thread, comment))
+                .addHeader("Authorization", "Bearer " + token)
+                .build();
+
+        new Upload(snapshot.getJobId(), snapshot, request, listener).send();
+    }
+
+    // the files.upload form. the file part streams straight from the snapshot's buffer
+    static RequestBody uploadBody(Snapshot snapshot, String channels, String comment) {
+        return uploadBody(snapshot, channels, null, comment);
+    }
+
+    static RequestBody uploadBody(Snapshot snapshot, String channels, String thread, String comment) {
+        MultipartBody.Builder body = new MultipartBody.Builder().setType(MultipartBody.FORM)
+                .addFormDataPart("file", snapshot.fileName(), new SnapshotRequestBody(snapshot))
+                .addFormDataPart("initial_comment", comment)
+                .addFormDataPart("channels", channels);
+        if (thread != null) {
+            body.addFormDataPart("thread_ts", thread);
+        }
+        return body.build();
+    }
+
+    // posts a plain message, with the same retries as an upload. the result has no file
+    public void postMessage(String jobId, String channel, String text, Listener listener) {
+        postMessage(jobId, channel, null, text, listener);
+    }
+
+    // the same, as a reply in the thread with the timestamp thread (null for none)
+    public void postMessage(String jobId, String channel, String thread, String text, Listener listener) {
+        FormBody.Builder body = new FormBody.Builder()
+                .add("channel", channel)
+                .add("text", text);
+        if (thread != null) {
+            body.add("thread_ts", thread);
+        }
+        Request request = new Request.Builder()
+                .url(messageUrl)
+                .post(body.build())
+                .addHeader("Authorization", "Bearer " + token)
+                .build();
+
+        new Upload(jobId, null, request, listener).send();
+    }
+
+    public void shutdown() {
+        retryScheduler.shutdownNow();
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+    }
+
+    // exponential backoff with full jitter, unless the server told us how long to wait
+    long backoffMs(int attempt, long retryAfterMs) {
+        if (retryAfterMs >= 0) {
+            return retryAfterMs;
+        }
+        long ceiling = Math.min(MAX_BACKOFF_MS, baseBackoffMs << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+    }
+
+    // Retry-After in seconds, or -1 if missing or not a number
+    static long retryAfterMs(Response response) {
+        String value = response.header("Retry-After");
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim())) * 1000;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private class Upload implements Callback {
+        private final String jobId;
+        private final Snapshot snapshot; // null for messages
+        private final Request request;
+        private final Listener listener;
+        private final long startNanos = System.nanoTime();
+        private long bytes;
+        private int attempt = 0;
+
+        Upload(String jobId, Snapshot snapshot, Request request, Listener listener) {
+            this.jobId = jobId;
+            this.snapshot = snapshot;
+            this.request = request;
+            this.listener = listener;
+            try {
+                this.bytes = request.body().contentLength();
+            } catch (IOException e) {
+                this.bytes = snapshot != null ? snapshot.size() : 0;
+            }
+        }
+
+        void send() {
+            attempt++;
+            client.newCall(request).enqueue(this);
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            retryOrFail("io: " + e.getMessage(), -1);
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) {
+            try (ResponseBody body = response.body()) {
+                int code = response.code();
+                if (code == 429 || code >= 500) {
+                    retryOrFail("http " + code, retryAfterMs(response));
+                    return;
+                }
+                if (!response.isSuccessful()) {
+                    finish(false, "http " + code, null, null);
+                    return;
+                }
+                // slack answers 200 even for failed uploads, the verdict is in the body
+                JSONObject json = new JSONObject(body.string());
+                if (json.optBoolean("ok", false)) {
+                    JSONObject file = json.optJSONObject("file");
+                    finish(true, null,
+                            file != null ? file.optString("id", null) : null,
+                            file != null ? file.optString("permalink", null) : null);
+                } else if ("ratelimited".equals(json.optString("error"))) {
+                    retryOrFail("ratelimited", retryAfterMs(response));
+                } else {
+                    finish(false, json.optString("error", "unknown error"), null, null);
+                }
+            } catch (IOException e) {
+                retryOrFail("io: " + e.getMessage(), -1);
+            } catch (JSONException e) {
+                finish(false, "bad response: " + e.getMessage(), null, null);
+            }
+        }
+
+        private void retryOrFail(String error, long retryAfterMs) {
+            if (attempt >= maxAttempts) {
+                finish(false, true, error, null, null);
+                return;
+            }
+            try {
+                retryScheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        send();
+                    }
+                }, backoffMs(attempt, retryAfterMs), TimeUnit.MILLISECONDS);
+            } catch (RuntimeException e) {
+                // the uploader was shut down
+                finish(false, true, error, null, null);
+            }
+        }
+
+        private void finish(boolean ok, String error, String fileId, String permalink) {
+            finish(ok, false, error, fileId, permalink);
+        }
+
+        private void finish(boolean ok, boolean retryable, String error, String fileId, String permalink) {
+            long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            UploadResult result = new UploadResult(jobId, ok, retryable, error, fileId, permalink,
+                    bytes, latencyMs, attempt);
+            if (snapshot != null) {
+                snapshot.release();
+            }
+            stats.record(result);
+            if (listener != null) {
+                listener.onComplete(result);
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.linklab.whiteboardsnap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// a single trip of the robot to a whiteboard. requests that arrive for the same whiteboard
+// while the job is still queued or on its way are merged into it, so one capture answers all of them
+public class SnapJob {
+    private final String id;
+    private final String location;
+    private final int headAngle;
+    private final int cameraId; // regular lens = 0, wide angle = 1
+    private final List<String> requesters = new ArrayList<>();
+    private final Set<String> channels = new LinkedHashSet<>();
+    // the slack thread to answer in, by channel
+    private final Map<String, String> threads = new HashMap<>();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile boolean captured = false;
+    private volatile boolean failed = false;
+
+    SnapJob(String id, String location, int headAngle, int cameraId, String requester) {
+        this.id = id;
+        this.location = location;
+        this.headAngle = headAngle;
+        this.cameraId = cameraId;
+        this.requesters.add(requester);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public int getHeadAngle() {
+        return headAngle;
+    }
+
+    public int getCameraId() {
+        return cameraId;
+    }
+
+    public synchronized List<String> getRequesters() {
+        return Collections.unmodifiableList(new ArrayList<>(requesters));
+    }
+
+    synchronized void addRequester(String requester) {
+        requesters.add(requester);
+    }
+
+    // a slack channel that wants the picture, requests merged into the job may each name their own.
+    // thread is the one to answer in, or null. the first request to name one for the channel gets it
+    public synchronized void addChannel(String channel, String thread) {
+        channels.add(channel);
+        if (thread != null && !threads.containsKey(channel)) {
+            threads.put(channel, thread);
+        }
+    }
+
+    // the thread to answer in on the channel, or null
+    public synchronized String getThread(String channel) {
+        return threads.get(channel);
+    }
+
+    // the thread the picture goes to, or null. files.upload takes one thread for all its channels, so a
+    // job shared by several channels posts it at the top of each
+    public synchronized String getThread() {
+        return channels.size() == 1 ? threads.get(channels.iterator().next()) : null;
+    }
+
+    // comma separated, as slack takes them. the default channel if no request named one
+    public synchronized String getChannels() {
+        if (channels.isEmpty()) {
+            return SnapRequest.DEFAULT_CHANNEL;
+        }
+        StringBuilder joined = new StringBuilder();
+        for (String channel : channels) {
+            if (joined.length() > 0) {
+                joined.append(',');
+            }
+            joined.append(channel);
+        }
+        return joined.toString();
+    }
+
+    // true while nobody but the patrol wants this picture
+    public synchronized boolean isPatrol() {
+        for (String requester : requesters) {
+            if (!requester.equals(PatrolScheduler.REQUESTER)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // a job can only answer another request if it would take the same picture
+    boolean matches(String location, int headAngle, int cameraId) {
+        return this.location.equals(location) && this.headAngle == headAngle && this.cameraId == cameraId;
+    }
+
+    public boolean isCaptured() {
+        return captured;
+    }
+
+    void markCaptured() {
+        captured = true;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    public void complete() {
+        done.countDown();
+    }
+
+    public void markFailed() {
+        failed = true;
+    }
+
+    public void awaitDone() throws InterruptedException {
+        done.await();
+    }
+
+    // false if the job wasn't done in time
+    public boolean awaitDone(long timeout, TimeUnit unit) throws InterruptedException {
+        return done.await(timeout, unit);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SnapJob{id=%s, location=%s, angle=%d, camera=%d, requesters=%d}",
+                id, location, headAngle, cameraId, getRequesters().size());
+    }
+}
@@ -0,0 +1,101 @@
+package com.linklab.whiteboardsnap;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// fifo of snap jobs consumed by a single robot worker. a request for a whiteboard that already has
+// a job waiting in the queue, or one that is in flight but not yet captured, is merged into that job
+public class SnapJobQueue {
+    public interface Listener {
+        // a request that couldn't be merged into an existing job. called with the queue locked
+        void onNewJob(SnapJob job);
+    }
+
+    private final LinkedList<SnapJob> pending = new LinkedList<>();
+    // jobs that can still absorb new requests, keyed by location
+    private final Map<String, SnapJob> open = new HashMap<>();
+    private long nextId = 1;
+    private Listener listener;
+
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public synchronized SnapJob submit(String location, int headAngle, int cameraId, String requester) {
+        SnapJob job = open.get(location);
+        if (job != null && job.matches(location, headAngle, cameraId)) {
+            job.addRequester(requester);
+            return job;
+        }
+        job = new SnapJob(Long.toString(nextId++), location, headAngle, cameraId, requester);
+        pending.add(job);
+        open.put(location, job);
+        notifyAll();
+        if (listener != null) {
+            listener.onNewJob(job);
+        }
+        return job;
+    }
+
+    // a job for the robot's own patrol. it is handed straight to the caller instead of being queued,
+    // but live requests for the location still merge into it. null if a job for the location is
+    // already open
+    public synchronized SnapJob patrol(String location, int headAngle, int cameraId) {
+        if (open.containsKey(location)) {
+            return null;
+        }
+        SnapJob job = new SnapJob(Long.toString(nextId++), location, headAngle, cameraId, PatrolScheduler.REQUESTER);
+        open.put(location, job);
+        return job;
+    }
+
+    // blocks until a job is available and hands it to the caller as in flight
+    public synchronized SnapJob take() throws InterruptedException {
+        while (pending.isEmpty()) {
+            wait();
+        }
+        return pending.removeFirst();
+    }
+
+    // like take(), but gives up after the timeout and returns null
+    public synchronized SnapJob poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (pending.isEmpty()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return pending.removeFirst();
+    }
+
+    // moves every queued job into the given list without waiting
+    public synchronized void drainTo(List<SnapJob> jobs) {
+        jobs.addAll(pending);
+        pending.clear();
+    }
+
+    // once the picture is taken, later requests for the location need a new trip
+    public synchronized void markCaptured(SnapJob job) {
+        job.markCaptured();
+        close(job);
+    }
+
+    public synchronized void finish(SnapJob job) {
+        close(job);
+    }
+
+    private void close(SnapJob job) {
+        if (open.get(job.getLocation()) == job) {
+            open.remove(job.getLocation());
+        }
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+}
@@ -0,0 +1,826 @@
+package com.linklab.whiteboardsnap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// everything between a snap request and its answer on slack, without android: requests are answered
+// from the snapshot cache or queued for the robot worker, requests for an earlier time from the history,
+// captures are compared with the last upload of the board, processed, cached, kept in the history and
+// sent through the outbox, and every job's progress is reported
+// to whoever asked and traced. the robot, the camera and the image processing are plugged in, so the
+// same pipeline runs on the robot and in the simulator.
+// each stage has its own thread: the robot worker drives and captures, processing and the cache run on
+// single threads of their own and the outbox uploads on its. a job is handed from one to the next and
+// only touched by the stage that holds it, so the robot can capture the next board while the last one
+// is processed and uploaded, but no more than snapshotsInFlight captures wait in memory for processing
+public class SnapPipeline {
+    public interface Camera {
+        // the robot set off for the job, so the camera can warm up on the way
+        void prepare(SnapJob job);
+
+        // takes the picture for the job once the robot is in place. returns right away, the result comes
+        // back through captured() or captureFailed(), from any thread
+        void capture(SnapJob job);
+
+        // the tour is over and the robot heads home
+        void release();
+    }
+
+    public interface Processor {
+        // a new snapshot with the cleaned up board, or null to upload the original. the input snapshot
+        // is left to the caller
+        Snapshot process(Snapshot snapshot);
+    }
+
+    public interface Listener {
+        // a capture for a job, before it's processed or uploaded. retain the snapshot to keep it past the call
+        void onCaptured(SnapJob job, Snapshot snapshot);
+
+        // progress worth a line in the log
+        void onEvent(String message);
+
+        // something went wrong but the pipeline carries on. error may be null
+        void onWarning(String message, Exception error);
+    }
+
+    public static class Config {
+        final File directory;
+        final SnapshotBufferPool pool;
+        // how long the robot waits at its last whiteboard for more requests before heading back
+        long idleTimeoutMs = 60 * 1000;
+        // a board whose preview hash differs from its last upload in at most this many cells (each about
+        // 1/32 of the frame across) is taken as unchanged and answered with a link to that upload
+        int unchangedMaxDistance = 2;
+        // requests for a board snapped within cacheMaxAgeMs are answered from the cache alone. older
+        // snaps are posted right away too, labelled with their age, while the robot fetches a new one
+        long cacheMaxAgeMs = 10 * 60 * 1000;
+        long cacheMaxBytes = 32 * 1024 * 1024;
+        // after patrolIdleMs without requests, and with enough battery, the robot snaps every board it
+        // hasn't seen in patrolIntervalMs into the cache, the most requested and stalest ones first
+        boolean patrol = true;
+        long patrolIdleMs = 5 * 60 * 1000;
+        long patrolIntervalMs = 30 * 60 * 1000;
+        long patrolCheckMs = 30 * 1000;
+        int patrolMinBattery = 50;
+        long requestHalfLifeMs = 7L * 24 * 60 * 60 * 1000;
+        int uploadsInFlight = 2;
+        // captures between the camera and the outbox. the robot waits at the next board for a slot
+        int snapshotsInFlight = 2;
+        JobDeadlines deadlines = new JobDeadlines();
+        // every snap is kept in the history until it holds historyMaxBytes, then the oldest go
+        boolean history = true;
+        long historyMaxBytes = 256 * 1024 * 1024;
+        // a board's exposure is reused for this long, then a capture with auto exposure measures it again
+        long exposureMaxAgeMs = 6 * 60 * 60 * 1000;
+
+        // the cache and the outbox live in subdirectories of directory, captures are held in pool's buffers
+        public Config(File directory, SnapshotBufferPool pool) {
+            this.directory = directory;
+            this.pool = pool;
+        }
+
+        public Config idleTimeout(long ms) {
+            this.idleTimeoutMs = ms;
+            return this;
+        }
+
+        public Config unchangedMaxDistance(int cells) {
+            this.unchangedMaxDistance = cells;
+            return this;
+        }
+
+        public Config cache(long maxBytes, long maxAgeMs) {
+            this.cacheMaxBytes = maxBytes;
+            this.cacheMaxAgeMs = maxAgeMs;
+            return this;
+        }
+
+        public Config patrol(long idleMs, long intervalMs, long checkMs, int minBattery) {
+            this.patrol = true;
+            this.patrolIdleMs = idleMs;
+            this.patrolIntervalMs = intervalMs;
+            this.patrolCheckMs = checkMs;
+            this.patrolMinBattery = minBattery;
+            return this;
+        }
+
+        public Config noPatrol() {
+            this.patrol = false;
+            return this;
+        }
+
+        public Config uploadsInFlight(int uploads) {
+            this.uploadsInFlight = uploads;
+            return this;
+        }
+
+        public Config snapshotsInFlight(int snapshots) {
+            this.snapshotsInFlight = snapshots;
+            return this;
+        }
+
+        public Config deadlines(JobDeadlines deadlines) {
+            this.deadlines = deadlines;
+            return this;
+        }
+
+        public Config history(long maxBytes) {
+            this.history = true;
+            this.historyMaxBytes = maxBytes;
+            return this;
+        }
+
+        public Config noHistory() {
+            this.history = false;
+            return this;
+        }
+
+        public Config exposureMaxAge(long ms) {
+            this.exposureMaxAgeMs = ms;
+            return this;
+        }
+    }
+
+    private final Config config;
+    private final Tracer tracer;
+    private final RobotController robot;
+    private final Camera camera;
+    private final Processor processor;
+    private final SlackUploader uploader;
+    private final Listener listener;
+
+    // all requests go through the queue and are carried out one at a time by the robot worker
+    private final SnapJobQueue jobQueue = new SnapJobQueue();
+    private final ExecutorService robotWorker = Executors.newSingleThreadExecutor();
+    private final PatrolScheduler patrolScheduler;
+    private volatile SnapTour tour;
+    // the job the camera is taking a picture for. captured() and the capture deadline race for it
+    private final Object captureLock = new Object();
+    private SnapJob activeJob;
+
+    private final ChangeDetector changeDetector;
+    // opened and only used on cacheExecutor
+    private SnapshotCache snapshotCache;
+    private SnapshotHistory snapshotHistory;
+    // opened on cacheExecutor once the tour is running, and learned into there. read from any thread,
+    // null until it's open
+    private volatile BoardProfiles boardProfiles;
+    // the robot's locations as of the last request, rebuilt when its map changed. only used on cacheExecutor
+    private LocationIndex locationIndex;
+    private final ExecutorService cacheExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService processingExecutor = Executors.newSingleThreadExecutor();
+    // taken by the robot worker before a capture, given back once the snapshot is in the outbox or cache
+    private final Semaphore snapshotSlots;
+    private OutboxUploader outboxUploader;
+
+    private final StatusReporter statusReporter;
+    private final SnapRequestParser requestParser = new SnapRequestParser();
+
+    // without a processor snapshots are uploaded as they were captured
+    public SnapPipeline(Config config, Tracer tracer, RobotController robot, Camera camera, Processor processor,
+                        SlackUploader uploader, StatusReporter.Publisher publisher, Listener listener) {
+        this.config = config;
+        this.tracer = tracer;
+        this.robot = robot;
+        this.camera = camera;
+        this.processor = processor;
+        this.uploader = uploader;
+        this.listener = listener;
+        this.changeDetector = new ChangeDetector(config.unchangedMaxDistance);
+        this.patrolScheduler = config.patrol ? new PatrolScheduler(Clock.SYSTEM, config.patrolIntervalMs,
+                config.patrolIdleMs, config.patrolMinBattery, config.requestHalfLifeMs) : null;
+        this.statusReporter = new StatusReporter(publisher, Clock.SYSTEM);
+        this.snapshotSlots = new Semaphore(config.snapshotsInFlight);
+    }
+
+    public Tracer getTracer() {
+        return tracer;
+    }
+
+    public void start() {
+        openSnapshotCache();
+        if (config.history) {
+            openSnapshotHistory();
+        }
+        startOutbox();
+        startRobotWorker();
+        openBoardProfiles();
+    }
+
+    public void stop() {
+        robotWorker.shutdownNow();
+        processingExecutor.shutdownNow();
+        cacheExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeSnapshotHistory();
+            }
+        });
+        cacheExecutor.shutdown();
+        outboxUploader.shutdown();
+    }
+
+    // jobs waiting for the robot, not counting the one it's on
+    public int getQueueDepth() {
+        return jobQueue.size();
+    }
+
+    // the robot is out, or about to set off
+    public boolean isBusy() {
+        return tour.isAway() || jobQueue.size() > 0;
+    }
+
+    // what runs alongside the pipeline reports its warnings with the pipeline's
+    Listener getListener() {
+        return listener;
+    }
+
+    // whatever piled up while we were offline goes out now
+    public void drainOutbox() {
+        outboxUploader.drain();
+    }
+
+    // a request as it came in over mqtt. it is only acknowledged once it has been answered from the
+    // cache or queued, so requests aren't lost if we crash or drop off the network in between
+    public void onRequest(String payload, String responseTopic, byte[] correlationData, Runnable ack) {
+        long receivedAt = System.currentTimeMillis();
+        SnapRequest request;
+        try {
+            synchronized (requestParser) {
+                request = requestParser.parse(payload);
+            }
+        } catch (SnapRequestParser.MalformedRequestException e) {
+            listener.onWarning("received invalid request, " + e.getMessage(), null);
+            if (responseTopic != null) {
+                statusReporter.reject(responseTopic, correlationData, e.getMessage());
+            }
+            // nothing we'll ever be able to do with it, don't have it redelivered
+            ack.run();
+            return;
+        }
+        requestSnap(request, "mqtt", receivedAt, responseTopic, correlationData, ack);
+    }
+
+    // someone standing next to the robot wants it to go, so this skips the cache. the default view
+    // gets the board's learned one
+    public SnapJob submit(String location, int headAngle, int cameraId, String requester) {
+        if (patrolScheduler != null) {
+            patrolScheduler.recordRequest(location);
+        }
+        BoardProfiles profiles = boardProfiles;
+        SnapJob job = profiles != null
+                ? jobQueue.submit(location, profiles.headAngle(location, headAngle, cameraId),
+                        profiles.cameraId(location, headAngle, cameraId), requester)
+                : jobQueue.submit(location, headAngle, cameraId, requester);
+        tracer.start(job.getId(), System.currentTimeMillis());
+        tracer.begin(job.getId(), Phase.QUEUE_WAIT);
+        listener.onEvent("queued " + job);
+        return job;
+    }
+
+    // the still of the lens that lost out in a dual capture of the job. it's only kept in the history,
+    // marked as the alternate, and has to come before the job's captured(). takes over the caller's
+    // reference to the snapshot
+    public void capturedAlternate(final String jobId, final Snapshot snapshot, final int cameraId) {
+        final SnapJob job;
+        synchronized (captureLock) {
+            job = activeJob;
+        }
+        if (job == null || !job.getId().equals(jobId) || job.isCaptured()) {
+            snapshot.release();
+            return;
+        }
+        cacheExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (snapshotHistory != null) {
+                        snapshotHistory.put(snapshot, job.getHeadAngle(), cameraId, true);
+                    }
+                } catch (IOException e) {
+                    listener.onWarning("can't keep the other lens's snapshot of job " + jobId + " in the history", e);
+                } finally {
+                    snapshot.release();
+                }
+            }
+        });
+    }
+
+    // the camera's picture for a job, with the hash of its last preview frame (null if there was none)
+    // and how long the camera took. takes over the caller's reference to the snapshot
+    public void captured(String jobId, Snapshot snapshot, long[] previewHash, long openMs, long convergeMs,
+                         long captureMs) {
+        captured(jobId, snapshot, previewHash, openMs, convergeMs, captureMs, -1, null, null);
+    }
+
+    // the same, with what the board's profile learns from: the lens the picture was taken with (-1 for
+    // the job's), how the board sits in it and the exposure auto exposure settled on. score and
+    // exposure may be null
+    public void captured(String jobId, Snapshot snapshot, long[] previewHash, long openMs, long convergeMs,
+                         long captureMs, int cameraId, LensSelector.Score score, BoardProfiles.Exposure exposure) {
+        SnapJob job;
+        synchronized (captureLock) {
+            job = activeJob;
+            if (job == null || !job.getId().equals(jobId) || job.isCaptured()) {
+                listener.onWarning("snapshot for job " + jobId + " is not for the active job, dropping it", null);
+                snapshot.release();
+                return;
+            }
+            jobQueue.markCaptured(job);
+        }
+        tracer.record(Phase.CAMERA_OPEN, openMs);
+        tracer.record(Phase.CONVERGENCE, convergeMs);
+        tracer.record(Phase.STILL_CAPTURE, captureMs);
+        tracer.record(Phase.HANDOFF, System.currentTimeMillis() - snapshot.getCapturedAt());
+        listener.onCaptured(job, snapshot);
+        int lens = cameraId >= 0 ? cameraId : job.getCameraId();
+        learn(job, lens, score, exposure);
+
+        if (job.isPatrol()) {
+            // nobody asked for it (yet), it's only for the cache
+            cacheSnapshot(snapshot, job, lens);
+            snapshot.release();
+            snapshotSlots.release();
+            job.complete();
+            return;
+        }
+
+        String view = ChangeDetector.view(job);
+        ChangeDetector.Previous previous = previewHash != null ? changeDetector.unchanged(view, previewHash) : null;
+        if (previous != null) {
+            // as good as a new snap of the board, so it resets the cache's clock
+            cacheSnapshot(snapshot, job, lens);
+            snapshot.release();
+            snapshotSlots.release();
+            sendUnchanged(job, previous);
+        } else {
+            if (previewHash != null) {
+                changeDetector.captured(UploadOutbox.idOf(snapshot), view, previewHash, snapshot.getCapturedAt());
+            }
+            sendFile(snapshot, job, lens); // takes over our reference to the snapshot
+        }
+
+        // lets the robot worker move on to the next whiteboard
+        job.complete();
+    }
+
+    // the exposure the job's lens last settled on at its board, for the camera to start from. null if
+    // there is none recent enough, or the job takes both lenses
+    public BoardProfiles.Exposure exposureHint(SnapJob job) {
+        BoardProfiles profiles = boardProfiles;
+        if (profiles == null || job.getCameraId() == SnapRequest.BOTH_LENSES) {
+            return null;
+        }
+        return profiles.exposure(job.getLocation(), job.getCameraId(), System.currentTimeMillis());
+    }
+
+    // the camera couldn't take the job's picture, the robot worker moves on and reports it failed
+    public void captureFailed(String jobId) {
+        SnapJob job;
+        synchronized (captureLock) {
+            job = activeJob;
+        }
+        if (job != null && job.getId().equals(jobId) && !job.isCaptured()) {
+            listener.onWarning("no picture for job " + jobId, null);
+            job.complete();
+        }
+    }
+
+    private void startRobotWorker() {
+        SnapTour.Capturer capturer = new SnapTour.Capturer() {
+            @Override
+            public void prepare(SnapJob job) {
+                camera.prepare(job);
+            }
+
+            @Override
+            public void capture(SnapJob job) throws InterruptedException {
+                listener.onEvent("clicking picture for " + job);
+                tracer.end(job.getId(), Phase.NAVIGATION);
+                // the snapshots before this one have to get out of the way first
+                snapshotSlots.acquire();
+                synchronized (captureLock) {
+                    activeJob = job;
+                }
+                boolean captured;
+                try {
+                    // the camera calls captured() or captureFailed() once done, and either completes the job
+                    camera.capture(job);
+                    long deadlineMs = config.deadlines.atBoardMs();
+                    if (!job.awaitDone(deadlineMs, TimeUnit.MILLISECONDS)) {
+                        listener.onWarning("no picture for " + job + " within " + deadlineMs + "ms", null);
+                    }
+                } finally {
+                    synchronized (captureLock) {
+                        activeJob = null;
+                        captured = job.isCaptured();
+                    }
+                    if (!captured) {
+                        // otherwise the slot went with the snapshot
+                        snapshotSlots.release();
+                    }
+                }
+                if (!captured) {
+                    // whatever the camera got stuck on, the next job opens it afresh
+                    camera.release();
+                }
+            }
+
+            @Override
+            public void release() {
+                camera.release();
+            }
+        };
+        tour = new SnapTour(jobQueue, robot, new NearestNeighbourRoutePlanner(), capturer,
+                config.idleTimeoutMs, patrolScheduler, config.patrolCheckMs);
+        tour.setListener(new SnapTour.Listener() {
+            @Override
+            public void onStatus(SnapJob job, JobStatus status, String detail) {
+                reportStatus(job.getId(), status, detail);
+                if (status == JobStatus.FAILED && !job.isPatrol()) {
+                    sendFailure(job, detail);
+                }
+            }
+        });
+        tour.setDeadlines(config.deadlines);
+        robotWorker.execute(tour);
+    }
+
+    // the snapshot goes into the outbox first, which releases it once the upload is over. so does its slot
+    private void sendFile(final Snapshot snapshot, final SnapJob job, final int lens) {
+        final String comment = String.format("Here's the snap of %s you asked for!", job.getLocation());
+        if (processor == null) {
+            cacheSnapshot(snapshot, job, lens);
+            outboxUploader.submit(snapshot, job.getChannels(), job.getThread(), comment);
+            snapshotSlots.release();
+            return;
+        }
+        processingExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Snapshot processed = null;
+                long startedAt = System.currentTimeMillis();
+                try {
+                    processed = processor.process(snapshot);
+                } catch (RuntimeException e) {
+                    listener.onWarning("processing failed, uploading the original", e);
+                }
+                tracer.record(Phase.PROCESSING, System.currentTimeMillis() - startedAt);
+                try {
+                    if (processed != null) {
+                        snapshot.release();
+                        cacheSnapshot(processed, job, lens);
+                        outboxUploader.submit(processed, job.getChannels(), job.getThread(), comment);
+                    } else {
+                        cacheSnapshot(snapshot, job, lens);
+                        outboxUploader.submit(snapshot, job.getChannels(), job.getThread(), comment);
+                    }
+                } finally {
+                    snapshotSlots.release();
+                }
+            }
+        });
+    }
+
+    private void openSnapshotCache() {
+        cacheExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    snapshotCache = new SnapshotCache(new File(config.directory, "snapshots"), config.cacheMaxBytes,
+                            config.cacheMaxAgeMs);
+                    listener.onEvent("snapshot cache: " + snapshotCache.size() + " snaps, "
+                            + snapshotCache.bytes() + " bytes");
+                } catch (IOException e) {
+                    listener.onWarning("can't open snapshot cache, every request will send the robot", e);
+                }
+            }
+        });
+    }
+
+    private void openSnapshotHistory() {
+        cacheExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // the oldest sixteenth goes at a time
+                    snapshotHistory = new SnapshotHistory(new File(config.directory, "history"),
+                            config.historyMaxBytes, config.historyMaxBytes / 16);
+                    listener.onEvent("snapshot history: " + snapshotHistory.size() + " snaps, "
+                            + snapshotHistory.bytes() + " bytes");
+                } catch (IOException e) {
+                    listener.onWarning("can't open snapshot history, requests for earlier snaps will be turned down", e);
+                }
+            }
+        });
+    }
+
+    private void closeSnapshotHistory() {
+        try {
+            if (snapshotHistory != null) {
+                snapshotHistory.close();
+                snapshotHistory = null;
+            }
+        } catch (IOException e) {
+            listener.onWarning("can't close snapshot history", e);
+        }
+    }
+
+    private void openBoardProfiles() {
+        cacheExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    boardProfiles = new BoardProfiles(new File(config.directory, "profiles"), config.exposureMaxAgeMs);
+                    tour.setBoardProfiles(boardProfiles);
+                    listener.onEvent("board profiles: " + boardProfiles.size() + " boards");
+                } catch (IOException e) {
+                    listener.onWarning("can't read board profiles, every board starts from the default view", e);
+                }
+            }
+        });
+    }
+
+    private void learn(final SnapJob job, final int cameraId, final LensSelector.Score score,
+                       final BoardProfiles.Exposure exposure) {
+        cacheExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                BoardProfiles profiles = boardProfiles;
+                if (profiles == null) {
+                    return;
+                }
+                try {
+                    BoardProfiles.Profile profile = profiles.record(job.getLocation(), job.getHeadAngle(), cameraId,
+                            score, exposure);
+                    if (profile != null && (profile.getHeadAngle() != job.getHeadAngle()
+                            || profile.getCameraId() != cameraId)) {
+                        listener.onEvent("next time " + profile);
+                    }
+                } catch (IOException e) {
+                    listener.onWarning("can't save the profile of " + job.getLocation(), e);
+                }
+            }
+        });
+    }
+
+    // keeps its own reference to the snapshot until it's on disk, in the cache and the history. the cache
+    // keeps it under the view the job asked for, which is what requests look it up by, the history under
+    // the lens that took it
+    private void cacheSnapshot(final Snapshot snapshot, final SnapJob job, final int lens) {
+        snapshot.retain();
+        cacheExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (snapshotCache != null) {
+                        snapshotCache.put(snapshot, job.getHeadAngle(), job.getCameraId());
+                    }
+                } catch (IOException e) {
+                    listener.onWarning("can't cache snapshot of job " + snapshot.getJobId(), e);
+                }
+                try {
+                    if (snapshotHistory != null) {
+                        snapshotHistory.put(snapshot, job.getHeadAngle(), lens);
+                    }
+                } catch (IOException e) {
+                    listener.onWarning("can't keep snapshot of job " + snapshot.getJobId() + " in the history", e);
+                } finally {
+                    snapshot.release();
+                }
+            }
+        });
+    }
+
+    // answers a request from the cache if we can, board by board. a fresh snap is all it takes, a stale
+    // one is posted with its age while the robot goes out for a new one. a board the robot doesn't know
+    // is turned down with the closest names before anything moves. if the request named a response
+    // topic, status events of its jobs go there. accepted runs once every board is taken care of
+    private void requestSnap(final SnapRequest request, final String requester, final long receivedAt,
+                             final String responseTopic, final byte[] correlationData, final Runnable accepted) {
+        cacheExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long now = System.currentTimeMillis();
+                List<String> locations = request.getLocations();
+                LocationIndex index = locationIndex();
+                for (int i = 0; i < locations.size(); i++) {
+                    String location = resolve(index, request, locations.get(i), responseTopic, correlationData);
+                    if (location == null) {
+                        continue;
+                    }
+                    if (request.isFromHistory()) {
+                        // the robot can't go back in time, the history answers or nothing does
+                        answerFromHistory(request, location, "history-" + now + "-" + i, receivedAt, now,
+                                responseTopic, correlationData);
+                        continue;
+                    }
+                    if (patrolScheduler != null) {
+                        patrolScheduler.recordRequest(location);
+                    }
+                    // the board as learned, unless the request picked a view of its own
+                    int headAngle = request.getHeadAngle();
+                    int cameraId = request.getCameraId();
+                    BoardProfiles profiles = boardProfiles;
+                    if (profiles != null) {
+                        headAngle = profiles.headAngle(location, request.getHeadAngle(), request.getCameraId());
+                        cameraId = profiles.cameraId(location, request.getHeadAngle(), request.getCameraId());
+                    }
+                    // a job id of its own, so the outbox doesn't take it for the original upload
+                    String cachedJobId = "cached-" + now + "-" + i;
+                    if (answerFromCache(request, location, headAngle, cameraId, cachedJobId, receivedAt, now,
+                            responseTopic, correlationData)) {
+                        listener.onEvent("answered " + location + " from the cache");
+                        continue;
+                    }
+                    SnapJob job = jobQueue.submit(location, headAngle, cameraId, requester);
+                    job.addChannel(request.getChannel(), request.getThread());
+                    tracer.start(job.getId(), receivedAt);
+                    tracer.begin(job.getId(), Phase.QUEUE_WAIT);
+                    listener.onEvent("queued " + job);
+                    if (responseTopic != null) {
+                        statusReporter.watch(job.getId(), request, location, responseTopic, correlationData);
+                    }
+                }
+                tracer.record(Phase.INTAKE, System.currentTimeMillis() - receivedAt);
+                accepted.run();
+            }
+        });
+    }
+
+    private LocationIndex locationIndex() {
+        List<String> locations = new ArrayList<>(robot.getLocations());
+        // the tour's own bookmark isn't a board
+        locations.remove(SnapTour.HOME);
+        if (locationIndex == null || !locationIndex.isOf(locations)) {
+            locationIndex = new LocationIndex(locations);
+            listener.onEvent("indexed " + locations.size() + " locations");
+        }
+        return locationIndex;
+    }
+
+    // the saved location the text names, or null if it's turned down. runs on the cache executor
+    private String resolve(LocationIndex index, SnapRequest request, String text, String responseTopic,
+                           byte[] correlationData) {
+        if (index.isEmpty()) {
+            // the robot hasn't told us its map yet, let it try
+            return text;
+        }
+        LocationIndex.Resolution resolution = index.resolve(text);
+        if (resolution.isResolved()) {
+            if (!resolution.isExact()) {
+                listener.onEvent("took " + text + " for " + resolution.getLocation());
+            }
+            return resolution.getLocation();
+        }
+        turnDown(request, text, resolution.describe(), responseTopic, correlationData);
+        return null;
+    }
+
+    // tells whoever asked for the location why nothing is coming
+    private void turnDown(SnapRequest request, String location, String reason, String responseTopic,
+                          byte[] correlationData) {
+        listener.onWarning(reason, null);
+        if (responseTopic != null) {
+            statusReporter.fail(request, location, responseTopic, correlationData, reason);
+        }
+        uploader.postMessage("declined-" + System.currentTimeMillis(), request.getChannel(), request.getThread(),
+                reason, new SlackUploader.Listener() {
+                    @Override
+                    public void onComplete(UploadResult result) {
+                        if (!result.isOk()) {
+                            listener.onWarning("can't tell slack: " + result.getError(), null);
+                        }
+                    }
+                });
+    }
+
+    // posts the last snap of the location from before the time the request asked about, or says there
+    // is none. runs on the cache executor
+    private void answerFromHistory(SnapRequest request, String location, String jobId, long receivedAt, long now,
+                                   String responseTopic, byte[] correlationData) {
+        SnapshotHistory.Entry entry = snapshotHistory != null
+                ? snapshotHistory.latestBefore(location, request.getBefore()) : null;
+        if (entry == null) {
+            turnDown(request, location, "no snap of " + location + " from before then", responseTopic,
+                    correlationData);
+            return;
+        }
+        String comment = String.format("Here's %s as it was %s ago", location,
+                SnapshotCache.describeAge(entry.ageMs(now)));
+        try {
+            Snapshot snapshot = snapshotHistory.load(entry, jobId, config.pool);
+            tracer.start(jobId, receivedAt);
+            if (responseTopic != null) {
+                statusReporter.watch(jobId, request, location, responseTopic, correlationData);
+            }
+            outboxUploader.submit(snapshot, request.getChannel(), request.getThread(), comment);
+            listener.onEvent("answered " + location + " from the history");
+        } catch (IOException e) {
+            listener.onWarning("can't read the history of " + location, e);
+            turnDown(request, location, "can't find the snap of " + location + " from before then", responseTopic,
+                    correlationData);
+        }
+    }
+
+    // posts the cached snap of the location if there is one, true if it was fresh. runs on the cache executor
+    private boolean answerFromCache(SnapRequest request, String location, int headAngle, int cameraId, String jobId,
+                                    long receivedAt, long now, String responseTopic, byte[] correlationData) {
+        SnapshotCache.Entry cached = snapshotCache != null ? snapshotCache.get(location, headAngle, cameraId) : null;
+        if (cached == null) {
+            return false;
+        }
+        boolean fresh = snapshotCache.isFresh(cached, now);
+        String comment = String.format("Here's the snap of %s from %s ago%s", location,
+                SnapshotCache.describeAge(cached.ageMs(now)), fresh ? "" : ", a new one is on its way");
+        try {
+            Snapshot snapshot = snapshotCache.load(cached, jobId, config.pool);
+            if (fresh) {
+                // the upload is all there is to this request, so it's traced and watched before it can finish
+                tracer.start(jobId, receivedAt);
+                if (responseTopic != null) {
+                    statusReporter.watch(jobId, request, location, responseTopic, correlationData);
+                }
+            }
+            outboxUploader.submit(snapshot, request.getChannel(), request.getThread(), comment);
+            return fresh;
+        } catch (IOException e) {
+            listener.onWarning("can't read cached snap of " + location, e);
+            return false;
+        }
+    }
+
+    // the board looks just like in our last upload, so point at that instead of uploading it again
+    private void sendUnchanged(SnapJob job, ChangeDetector.Previous previous) {
+        listener.onEvent(job.getLocation() + " unchanged since " + previous.getFileId());
+        String text = String.format("%s hasn't changed since the last snap: %s", job.getLocation(),
+                previous.getPermalink());
+        final String permalink = previous.getPermalink();
+        // chat.postMessage takes one channel at a time
+        for (String channel : job.getChannels().split(",")) {
+            uploader.postMessage(job.getId(), channel, job.getThread(channel), text, new SlackUploader.Listener() {
+                @Override
+                public void onComplete(UploadResult result) {
+                    if (result.isOk()) {
+                        reportStatus(result.getJobId(), JobStatus.UPLOADED, permalink);
+                    } else {
+                        reportStatus(result.getJobId(), JobStatus.FAILED, result.getError());
+                    }
+                }
+            });
+        }
+    }
+
+    // so whoever asked on slack isn't left waiting for a picture that won't come
+    private void sendFailure(SnapJob job, String detail) {
+        String text = String.format("Sorry, I couldn't snap %s: %s", job.getLocation(), detail);
+        for (String channel : job.getChannels().split(",")) {
+            uploader.postMessage(job.getId(), channel, job.getThread(channel), text, new SlackUploader.Listener() {
+                @Override
+                public void onComplete(UploadResult result) {
+                    if (!result.isOk()) {
+                        listener.onWarning("can't tell slack: " + result.getError(), null);
+                    }
+                }
+            });
+        }
+    }
+
+    // tells whoever asked for the job, and follows the job in its trace
+    private void reportStatus(String jobId, JobStatus status, String detail) {
+        tracer.onStatus(jobId, status);
+        statusReporter.report(jobId, status, detail);
+    }
+
+    private void startOutbox() {
+        outboxUploader = new OutboxUploader(new File(config.directory, "outbox"), uploader, config.pool,
+                config.uploadsInFlight, new OutboxUploader.Listener() {
+            @Override
+            public void onUploaded(UploadOutbox.Entry entry, UploadResult result) {
+                changeDetector.uploaded(entry.getId(), result);
+                if (result.isOk()) {
+                    listener.onEvent("uploaded " + result);
+                    tracer.record(Phase.UPLOAD, result.getLatencyMs());
+                    reportStatus(entry.getJobId(), JobStatus.UPLOADED, result.getPermalink());
+                } else if (result.isRetryable()) {
+                    listener.onWarning("upload failed, kept in outbox " + result, null);
+                } else {
+                    listener.onWarning("upload rejected " + result, null);
+                    reportStatus(entry.getJobId(), JobStatus.FAILED, result.getError());
+                }
+            }
+
+            @Override
+            public void onError(String message, Exception e) {
+                listener.onWarning("outbox: " + message, e);
+            }
+        });
+        outboxUploader.start();
+    }
+}
@@ -0,0 +1,146 @@
+package com.linklab.whiteboardsnap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// what someone asked the robot for. version 1 of the request schema looks like
+//   {"v": 1, "id": "a1b2", "locations": ["whiteboard 225", "whiteboard 110"], "camera": 1, "tilt": 18,
+//    "reply": {"channel": "whiteboard-messages", "thread": "1634567890.000200"}}
+// where everything but the id and the locations is optional. "before": 1634560000 (seconds since the
+// epoch, like slack's timestamps) asks for the boards as they were then, which the robot's history
+// answers without moving. the unversioned requests sent before,
+// {"temi_request": true, "location": "whiteboard 225"}, are read as version 0
+public class SnapRequest {
+    public static final int VERSION = 1;
+    public static final int DEFAULT_CAMERA_ID = 1; // wide angle
+    // a still with each lens, the one that shows the board better goes out
+    public static final int BOTH_LENSES = 2;
+    public static final int DEFAULT_HEAD_ANGLE = 18;
+    public static final String DEFAULT_CHANNEL = "whiteboard-messages";
+
+    private final int version;
+    private final String id;
+    private final List<String> locations;
+    private final int cameraId;
+    private final int headAngle;
+    private final String channel;
+    private final String thread;
+    private final long before;
+
+    SnapRequest(int version, String id, List<String> locations, int cameraId, int headAngle, String channel,
+                String thread) {
+        this(version, id, locations, cameraId, headAngle, channel, thread, 0);
+    }
+
+    SnapRequest(int version, String id, List<String> locations, int cameraId, int headAngle, String channel,
+                String thread, long before) {
+        this.version = version;
+        this.id = id;
+        this.locations = Collections.unmodifiableList(new ArrayList<>(locations));
+        this.cameraId = cameraId;
+        this.headAngle = headAngle;
+        this.channel = channel;
+        this.thread = thread;
+        this.before = before;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    // chosen by the sender, it comes back in every status event. version 0 requests have none
+    public String getId() {
+        return id;
+    }
+
+    public List<String> getLocations() {
+        return locations;
+    }
+
+    public int getCameraId() {
+        return cameraId;
+    }
+
+    public int getHeadAngle() {
+        return headAngle;
+    }
+
+    // the slack channel the snap goes to
+    public String getChannel() {
+        return channel;
+    }
+
+    // the slack thread the request came from, or null. the snap and anything said about it go there
+    public String getThread() {
+        return thread;
+    }
+
+    // in ms, the board should be shown as it was before then. 0 for a new snap
+    public long getBefore() {
+        return before;
+    }
+
+    public boolean isFromHistory() {
+        return before > 0;
+    }
+
+    // one of the request's locations as a request of its own, for a robot of the fleet to carry out.
+    // version 0 requests get the id, which they didn't have
+    public SnapRequest forLocation(String location, String id) {
+        return new SnapRequest(VERSION, this.id != null ? this.id : id, Collections.singletonList(location), cameraId,
+                headAngle, channel, thread, before);
+    }
+
+    // in the latest version of the schema, which SnapRequestParser reads back into an equal request
+    public String toJson() {
+        StringBuilder json = new StringBuilder(128);
+        json.append("{\"v\":").append(VERSION).append(",\"id\":");
+        appendString(json, id);
+        json.append(",\"locations\":[");
+        for (int i = 0; i < locations.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            appendString(json, locations.get(i));
+        }
+        json.append("],\"camera\":").append(cameraId).append(",\"tilt\":").append(headAngle);
+        if (before > 0) {
+            json.append(",\"before\":").append(before / 1000);
+        }
+        json.append(",\"reply\":{\"channel\":");
+        appendString(json, channel);
+        if (thread != null) {
+            json.append(",\"thread\":");
+            appendString(json, thread);
+        }
+        json.append("}}");
+        return json.toString();
+    }
+
+    // a json string, or null
+    static void appendString(StringBuilder out, String value) {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SnapRequest{v=%d, id=%s, locations=%s, camera=%d, tilt=%d, channel=%s, thread=%s%s}",
+                version, id, locations, cameraId, headAngle, channel, thread, before > 0 ? ", before=" + before : "");
+    }
+}
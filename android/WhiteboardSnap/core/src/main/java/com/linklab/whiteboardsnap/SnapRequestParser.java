@@ -0,0 +1,358 @@
+package com.linklab.whiteboardsnap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// reads a snap request in a single pass over the payload, without building a json tree. keys are
+// compared in a reused buffer and values we don't know are skipped, so the only allocations are
+// the strings the request keeps. one parser per thread, it isn't thread safe
+public class SnapRequestParser {
+    public static class MalformedRequestException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        MalformedRequestException(String message) {
+            super(message);
+        }
+    }
+
+    // batches bigger than this are refused rather than sending the robot on an endless tour
+    static final int MAX_LOCATIONS = 16;
+    private static final int MAX_DEPTH = 8;
+
+    private final StringBuilder buffer = new StringBuilder();
+    private CharSequence input;
+    private int pos;
+
+    // fields of the request being read
+    private int version;
+    private boolean legacy;
+    private String id;
+    private final List<String> locations = new ArrayList<>();
+    private int cameraId;
+    private int headAngle;
+    private String channel;
+    private String thread;
+    private long before;
+
+    public SnapRequest parse(CharSequence payload) throws MalformedRequestException {
+        input = payload;
+        pos = 0;
+        version = -1;
+        legacy = false;
+        id = null;
+        locations.clear();
+        cameraId = SnapRequest.DEFAULT_CAMERA_ID;
+        headAngle = SnapRequest.DEFAULT_HEAD_ANGLE;
+        channel = SnapRequest.DEFAULT_CHANNEL;
+        thread = null;
+        before = 0;
+        try {
+            readRequest();
+            skipWhitespace();
+            if (pos < input.length()) {
+                throw error("trailing characters");
+            }
+        } finally {
+            input = null;
+        }
+
+        if (version == -1) {
+            if (!legacy) {
+                throw error("no version");
+            }
+            version = 0;
+        } else if (version > SnapRequest.VERSION) {
+            throw new MalformedRequestException("version " + version + " isn't supported, "
+                    + SnapRequest.VERSION + " is the latest");
+        } else if (version > 0 && id == null) {
+            throw new MalformedRequestException("no id");
+        }
+        if (locations.isEmpty()) {
+            throw new MalformedRequestException("no locations");
+        }
+        return new SnapRequest(version, id, locations, cameraId, headAngle, channel, thread, before);
+    }
+
+    private void readRequest() throws MalformedRequestException {
+        expect('{');
+        if (consume('}')) {
+            return;
+        }
+        do {
+            readKey();
+            if (is("v")) {
+                version = readInt();
+            } else if (is("id")) {
+                id = readString();
+            } else if (is("locations")) {
+                readLocations();
+            } else if (is("location")) {
+                // version 0 names a single location
+                addLocation(readString());
+            } else if (is("temi_request")) {
+                legacy = true;
+                skipValue(0);
+            } else if (is("camera")) {
+                cameraId = readInt();
+                if (cameraId < 0 || cameraId > SnapRequest.BOTH_LENSES) {
+                    throw error("camera must be 0, 1 or 2");
+                }
+            } else if (is("tilt")) {
+                headAngle = readInt();
+                if (headAngle < RobotController.MIN_HEAD_ANGLE || headAngle > RobotController.MAX_HEAD_ANGLE) {
+                    throw error("tilt out of range");
+                }
+            } else if (is("before")) {
+                // seconds, kept in ms like every other time
+                before = readLong() * 1000;
+                if (before <= 0) {
+                    throw error("before must be after 1970");
+                }
+            } else if (is("reply")) {
+                readReply();
+            } else {
+                // added in a later minor revision, or not ours
+                skipValue(0);
+            }
+        } while (consume(','));
+        expect('}');
+    }
+
+    private void readLocations() throws MalformedRequestException {
+        expect('[');
+        if (consume(']')) {
+            return;
+        }
+        do {
+            addLocation(readString());
+        } while (consume(','));
+        expect(']');
+    }
+
+    private void addLocation(String location) throws MalformedRequestException {
+        if (location.isEmpty()) {
+            throw error("empty location");
+        }
+        if (locations.size() == MAX_LOCATIONS) {
+            throw error("more than " + MAX_LOCATIONS + " locations");
+        }
+        // asking for the same board twice in one batch only needs one trip
+        if (!locations.contains(location)) {
+            locations.add(location);
+        }
+    }
+
+    private void readReply() throws MalformedRequestException {
+        expect('{');
+        if (consume('}')) {
+            return;
+        }
+        do {
+            readKey();
+            if (is("channel")) {
+                channel = readString();
+            } else if (is("thread")) {
+                thread = readString();
+            } else {
+                skipValue(0);
+            }
+        } while (consume(','));
+        expect('}');
+    }
+
+    // reads a key and its colon into the buffer
+    private void readKey() throws MalformedRequestException {
+        readStringInto(buffer);
+        expect(':');
+    }
+
+    private boolean is(String key) {
+        return key.contentEquals(buffer);
+    }
+
+    private String readString() throws MalformedRequestException {
+        readStringInto(buffer);
+        return buffer.toString();
+    }
+
+    private void readStringInto(StringBuilder out) throws MalformedRequestException {
+        expect('"');
+        out.setLength(0);
+        while (true) {
+            if (pos >= input.length()) {
+                throw error("unterminated string");
+            }
+            char c = input.charAt(pos++);
+            if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                if (pos >= input.length()) {
+                    throw error("unterminated string");
+                }
+                char escaped = input.charAt(pos++);
+                switch (escaped) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        out.append(escaped);
+                        break;
+                    case 'b':
+                        out.append('\b');
+                        break;
+                    case 'f':
+                        out.append('\f');
+                        break;
+                    case 'n':
+                        out.append('\n');
+                        break;
+                    case 'r':
+                        out.append('\r');
+                        break;
+                    case 't':
+                        out.append('\t');
+                        break;
+                    case 'u':
+                        out.append((char) readHex4());
+                        break;
+                    default:
+                        throw error("bad escape");
+                }
+            } else if (c < 0x20) {
+                throw error("control character in string");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    private int readHex4() throws MalformedRequestException {
+        if (pos + 4 > input.length()) {
+            throw error("bad unicode escape");
+        }
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(input.charAt(pos++), 16);
+            if (digit < 0) {
+                throw error("bad unicode escape");
+            }
+            value = value * 16 + digit;
+        }
+        return value;
+    }
+
+    private int readInt() throws MalformedRequestException {
+        return (int) readInteger(Integer.MAX_VALUE);
+    }
+
+    // as many seconds as still fit in a long of ms
+    private long readLong() throws MalformedRequestException {
+        return readInteger(Long.MAX_VALUE / 1000);
+    }
+
+    // integers only, no fractions or exponents
+    private long readInteger(long max) throws MalformedRequestException {
+        skipWhitespace();
+        boolean negative = pos < input.length() && input.charAt(pos) == '-';
+        if (negative) {
+            pos++;
+        }
+        int start = pos;
+        long value = 0;
+        while (pos < input.length() && input.charAt(pos) >= '0' && input.charAt(pos) <= '9') {
+            value = value * 10 + (input.charAt(pos++) - '0');
+            if (value > max) {
+                throw error("number too big");
+            }
+        }
+        if (pos == start) {
+            throw error("expected a number");
+        }
+        if (pos < input.length() && (input.charAt(pos) == '.' || input.charAt(pos) == 'e' || input.charAt(pos) == 'E')) {
+            throw error("expected an integer");
+        }
+        return negative ? -value : value;
+    }
+
+    private void skipValue(int depth) throws MalformedRequestException {
+        if (depth > MAX_DEPTH) {
+            throw error("nested too deep");
+        }
+        skipWhitespace();
+        if (pos >= input.length()) {
+            throw error("unexpected end");
+        }
+        char c = input.charAt(pos);
+        if (c == '"') {
+            readStringInto(buffer);
+        } else if (c == '{') {
+            pos++;
+            if (consume('}')) {
+                return;
+            }
+            do {
+                readStringInto(buffer);
+                expect(':');
+                skipValue(depth + 1);
+            } while (consume(','));
+            expect('}');
+        } else if (c == '[') {
+            pos++;
+            if (consume(']')) {
+                return;
+            }
+            do {
+                skipValue(depth + 1);
+            } while (consume(','));
+            expect(']');
+        } else if (c == '-' || (c >= '0' && c <= '9')) {
+            while (pos < input.length() && "+-0123456789.eE".indexOf(input.charAt(pos)) >= 0) {
+                pos++;
+            }
+        } else if (!skipLiteral("true") && !skipLiteral("false") && !skipLiteral("null")) {
+            throw error("unexpected character");
+        }
+    }
+
+    private boolean skipLiteral(String literal) {
+        int end = pos + literal.length();
+        if (end > input.length()) {
+            return false;
+        }
+        for (int i = 0; i < literal.length(); i++) {
+            if (input.charAt(pos + i) != literal.charAt(i)) {
+                return false;
+            }
+        }
+        pos = end;
+        return true;
+    }
+
+    private void skipWhitespace() {
+        while (pos < input.length()) {
+            char c = input.charAt(pos);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private boolean consume(char c) {
+        skipWhitespace();
+        if (pos < input.length() && input.charAt(pos) == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) throws MalformedRequestException {
+        if (!consume(c)) {
+            throw error("expected '" + c + "'");
+        }
+    }
+
+    private MalformedRequestException error(String message) {
+        return new MalformedRequestException(message + " at " + pos);
+    }
+}
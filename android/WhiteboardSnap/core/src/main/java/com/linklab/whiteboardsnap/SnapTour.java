@@ -0,0 +1,267 @@
+package com.linklab.whiteboardsnap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// the robot worker. it leaves its starting position for the first job, then keeps visiting
+// whiteboards in the order given by the route planner, replanning after every stop so requests
+// that arrive on the way join the tour. it only drives back once the queue stays empty for the
+// idle timeout. with a patrol scheduler, an idle robot also goes round the boards that are due on
+// its own, and gives way to live requests as soon as they come in, mid-drive if need be. a drive that
+// takes longer than the navigate deadline is stopped by the watchdog and its job fails
+public class SnapTour implements Runnable {
+    static final String HOME = "starting position";
+
+    public interface Capturer {
+        // called as the robot sets off for the job, so the camera can warm up on the way
+        void prepare(SnapJob job);
+
+        // takes the picture for a job once the robot is in place, blocking until it's captured
+        void capture(SnapJob job) throws InterruptedException;
+
+        // called when the tour is over and the robot heads home
+        void release();
+    }
+
+    public interface Listener {
+        // the job is navigating, captured, or failed on the way. called on the worker thread
+        void onStatus(SnapJob job, JobStatus status, String detail);
+    }
+
+    private final SnapJobQueue queue;
+    private final RobotController robot;
+    private final RoutePlanner planner;
+    private final Capturer capturer;
+    private final long idleTimeoutMs;
+    private final PatrolScheduler patrol;
+    private final long patrolCheckMs;
+
+    // only changed by the worker thread, true between leaving HOME and getting back
+    private volatile boolean away = false;
+    // the patrol job the robot is on its way to, if any
+    private volatile SnapJob patrolJob;
+    private volatile Listener listener;
+    private volatile JobDeadlines deadlines = new JobDeadlines();
+    // patrols take the boards as learned, null until they're loaded
+    private volatile BoardProfiles profiles;
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor();
+
+    public SnapTour(SnapJobQueue queue, RobotController robot, RoutePlanner planner,
+                    Capturer capturer, long idleTimeoutMs) {
+        this(queue, robot, planner, capturer, idleTimeoutMs, null, 0);
+    }
+
+    // patrols are considered every patrolCheckMs while the queue is empty
+    public SnapTour(SnapJobQueue queue, final RobotController robot, RoutePlanner planner,
+                    Capturer capturer, long idleTimeoutMs, PatrolScheduler patrol, long patrolCheckMs) {
+        this.queue = queue;
+        this.robot = robot;
+        this.planner = planner;
+        this.capturer = capturer;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.patrol = patrol;
+        this.patrolCheckMs = patrolCheckMs;
+        if (patrol != null) {
+            queue.setListener(new SnapJobQueue.Listener() {
+                @Override
+                public void onNewJob(SnapJob job) {
+                    SnapJob target = patrolJob;
+                    // unless someone asked for the board we're heading to, the live job goes first
+                    if (target != null && target.isPatrol()) {
+                        robot.stopMovement();
+                    }
+                }
+            });
+        }
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setDeadlines(JobDeadlines deadlines) {
+        this.deadlines = deadlines;
+    }
+
+    public void setBoardProfiles(BoardProfiles profiles) {
+        this.profiles = profiles;
+    }
+
+    // out on a tour or a patrol
+    public boolean isAway() {
+        return away;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                SnapJob first = patrol == null ? queue.take() : queue.poll(patrolCheckMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    patrol();
+                    continue;
+                }
+                List<SnapJob> remaining = new ArrayList<>();
+                remaining.add(first);
+
+                leave();
+                if (patrol != null) {
+                    patrol.recordActivity();
+                }
+                while (!remaining.isEmpty()) {
+                    queue.drainTo(remaining);
+                    SnapJob next = planner.plan(robot.getPosition(), remaining, positionsOf(remaining)).get(0);
+                    remaining.remove(next);
+                    visit(next);
+
+                    if (remaining.isEmpty()) {
+                        SnapJob more = queue.poll(idleTimeoutMs, TimeUnit.MILLISECONDS);
+                        if (more != null) {
+                            remaining.add(more);
+                        }
+                    }
+                }
+
+                if (patrol != null) {
+                    patrol.recordActivity();
+                }
+                goHome();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            watchdog.shutdownNow();
+        }
+    }
+
+    // visits the boards that are due, best first, as long as nobody else needs the robot. a live
+    // request takes over from wherever the robot is, and that tour takes it home
+    private void patrol() throws InterruptedException {
+        if (!patrol.shouldPatrol(robot.getBatteryPercentage())) {
+            return;
+        }
+        for (String board : patrol.plan(robot.getLocations())) {
+            if (queue.size() > 0) {
+                return;
+            }
+            int headAngle = PatrolScheduler.HEAD_ANGLE;
+            int cameraId = PatrolScheduler.CAMERA_ID;
+            BoardProfiles profiles = this.profiles;
+            if (profiles != null) {
+                // the same view requests get, so the cache can answer them
+                headAngle = profiles.headAngle(board, PatrolScheduler.HEAD_ANGLE, PatrolScheduler.CAMERA_ID);
+                cameraId = profiles.cameraId(board, PatrolScheduler.HEAD_ANGLE, PatrolScheduler.CAMERA_ID);
+            }
+            SnapJob job = queue.patrol(board, headAngle, cameraId);
+            if (job == null) {
+                continue;
+            }
+            leave();
+            patrolJob = job;
+            try {
+                visit(job);
+            } finally {
+                patrolJob = null;
+            }
+        }
+        if (away && queue.size() == 0) {
+            goHome();
+        }
+    }
+
+    // store current location so that we can go back to where we were
+    private void leave() {
+        if (!away) {
+            robot.saveLocation(HOME);
+            away = true;
+        }
+    }
+
+    // the bookmark goes even if the robot doesn't make it back, the next tour saves a new one
+    private void goHome() throws InterruptedException {
+        capturer.release();
+        try {
+            navigate(HOME);
+        } finally {
+            robot.deleteLocation(HOME);
+            away = false;
+        }
+    }
+
+    // drives to the location, stopped by the watchdog past the navigate deadline. null once there,
+    // otherwise why not
+    private String navigate(String location) throws InterruptedException {
+        final AtomicBoolean late = new AtomicBoolean();
+        final long deadlineMs = deadlines.navigateMs;
+        ScheduledFuture<?> timeout = watchdog.schedule(new Runnable() {
+            @Override
+            public void run() {
+                late.set(true);
+                robot.stopMovement();
+            }
+        }, deadlineMs, TimeUnit.MILLISECONDS);
+        boolean arrived;
+        try {
+            arrived = robot.goTo(location);
+        } finally {
+            timeout.cancel(false);
+        }
+        if (arrived) {
+            return null;
+        }
+        return late.get() ? "didn't get to " + location + " within " + deadlineMs + "ms"
+                : "couldn't get to " + location;
+    }
+
+    private void visit(SnapJob job) throws InterruptedException {
+        try {
+            capturer.prepare(job);
+            report(job, JobStatus.NAVIGATING, null);
+            String failure = navigate(job.getLocation());
+            if (failure == null) {
+                robot.tiltAngle(job.getHeadAngle());
+                capturer.capture(job);
+                if (job.isCaptured()) {
+                    report(job, JobStatus.CAPTURED, null);
+                    if (patrol != null) {
+                        patrol.recordCapture(job.getLocation());
+                    }
+                } else {
+                    job.markFailed();
+                    report(job, JobStatus.FAILED, "no picture was taken");
+                }
+            } else {
+                job.markFailed();
+                report(job, JobStatus.FAILED, failure);
+            }
+        } finally {
+            queue.finish(job);
+            job.complete();
+        }
+    }
+
+    private void report(SnapJob job, JobStatus status, String detail) {
+        Listener listener = this.listener;
+        if (listener != null) {
+            listener.onStatus(job, status, detail);
+        }
+    }
+
+    private Map<String, MapPoint> positionsOf(List<SnapJob> jobs) {
+        Map<String, MapPoint> positions = new HashMap<>();
+        for (SnapJob job : jobs) {
+            MapPoint position = robot.positionOf(job.getLocation());
+            if (position != null) {
+                positions.put(job.getLocation(), position);
+            }
+        }
+        return positions;
+    }
+}
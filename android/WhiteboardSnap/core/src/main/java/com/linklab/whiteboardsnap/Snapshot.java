@@ -0,0 +1,82 @@
+package com.linklab.whiteboardsnap;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// an encoded capture held in a pooled direct buffer. every stage that keeps the snapshot past the
+// call that handed it over retains it, and the buffer goes back to the pool once the last one releases
+public class Snapshot {
+    private final String jobId;
+    private final String location;
+    private final long capturedAt;
+    private final String mimeType;
+    private final ByteBuffer data;
+    private final SnapshotBufferPool pool;
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    public Snapshot(String jobId, String location, long capturedAt, String mimeType,
+                    ByteBuffer data, SnapshotBufferPool pool) {
+        this.jobId = jobId;
+        this.location = location;
+        this.capturedAt = capturedAt;
+        this.mimeType = mimeType;
+        this.data = data;
+        this.pool = pool;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public long getCapturedAt() {
+        return capturedAt;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    // a view with its own position, so several readers can stream the bytes at the same time
+    public ByteBuffer data() {
+        return data.duplicate();
+    }
+
+    // the name it's uploaded and stored under. job ids restart with the app, the capture time keeps
+    // names unique across restarts
+    public String fileName() {
+        return String.format("snap-%d-%s.%s", capturedAt, jobId, extension(mimeType));
+    }
+
+    static String extension(String mimeType) {
+        if ("image/png".equals(mimeType)) {
+            return "png";
+        } else if ("image/webp".equals(mimeType)) {
+            return "webp";
+        } else if (PgmCodec.MIME_TYPE.equals(mimeType)) {
+            return "pgm";
+        }
+        return "jpg";
+    }
+
+    public int size() {
+        return data.remaining();
+    }
+
+    public Snapshot retain() {
+        refs.incrementAndGet();
+        return this;
+    }
+
+    public void release() {
+        int left = refs.decrementAndGet();
+        if (left == 0 && pool != null) {
+            pool.release(data);
+        } else if (left < 0) {
+            throw new IllegalStateException("snapshot " + jobId + " released too often");
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.linklab.whiteboardsnap;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+// recycles direct buffers for encoded snapshots, so a capture doesn't allocate a fresh multi-megabyte
+// array on the java heap. buffers are rounded up to a slab size to make reuse likely
+public class SnapshotBufferPool {
+    private static final int SLAB_SIZE = 256 * 1024;
+
+    private final int maxPooled;
+    private final LinkedList<ByteBuffer> free = new LinkedList<>();
+
+    public SnapshotBufferPool(int maxPooled) {
+        this.maxPooled = maxPooled;
+    }
+
+    // returns a buffer positioned at 0 with its limit set to size
+    public synchronized ByteBuffer acquire(int size) {
+        ByteBuffer buffer = null;
+        Iterator<ByteBuffer> it = free.iterator();
+        while (it.hasNext()) {
+            ByteBuffer candidate = it.next();
+            if (candidate.capacity() >= size && (buffer == null || candidate.capacity() < buffer.capacity())) {
+                buffer = candidate;
+            }
+        }
+        if (buffer != null) {
+            free.remove(buffer);
+        } else {
+            buffer = ByteBuffer.allocateDirect((size + SLAB_SIZE - 1) / SLAB_SIZE * SLAB_SIZE);
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    public synchronized void release(ByteBuffer buffer) {
+        if (free.size() < maxPooled) {
+            free.add(buffer);
+        }
+    }
+
+    public synchronized int pooled() {
+        return free.size();
+    }
+}
@@ -0,0 +1,237 @@
+package com.linklab.whiteboardsnap;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+// the last snapshot of every whiteboard location, so a request can be answered without sending the
+// robot out. snapshots younger than maxAgeMs are fresh, older ones can still be shown while a new one
+// is taken. least recently used locations are evicted once the cache holds more than maxBytes.
+// each snapshot is a file next to an index (same record format as the outbox journal) that is
+// rewritten on every change, so the cache survives restarts. does file i/o, keep it off the ui thread
+public class SnapshotCache {
+    static final String INDEX = "index";
+    private static final String SUFFIX = ".snap";
+
+    public static class Entry {
+        final String location;
+        final int headAngle;
+        final int cameraId;
+        final long capturedAt;
+        final String mimeType;
+        final long size;
+        final String file;
+
+        Entry(String location, int headAngle, int cameraId, long capturedAt, String mimeType, long size, String file) {
+            this.location = location;
+            this.headAngle = headAngle;
+            this.cameraId = cameraId;
+            this.capturedAt = capturedAt;
+            this.mimeType = mimeType;
+            this.size = size;
+            this.file = file;
+        }
+
+        public String getLocation() {
+            return location;
+        }
+
+        public long getCapturedAt() {
+            return capturedAt;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long ageMs(long now) {
+            return Math.max(0, now - capturedAt);
+        }
+    }
+
+    private final File directory;
+    private final long maxBytes;
+    private final long maxAgeMs;
+    // in access order, eldest first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+
+    public SnapshotCache(File directory, long maxBytes, long maxAgeMs) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.maxAgeMs = maxAgeMs;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("can't create " + directory);
+        }
+        readIndex();
+        deleteOrphans();
+    }
+
+    // the cached snapshot of the location, or null if there is none or it shows a different view
+    public synchronized Entry get(String location, int headAngle, int cameraId) {
+        Entry entry = entries.get(location);
+        if (entry == null || entry.headAngle != headAngle || entry.cameraId != cameraId) {
+            return null;
+        }
+        return entry;
+    }
+
+    public boolean isFresh(Entry entry, long now) {
+        return entry.ageMs(now) <= maxAgeMs;
+    }
+
+    // replaces the location's snapshot unless the cached one is as new. snapshots that would take up
+    // more than maxBytes on their own aren't cached at all
+    public synchronized void put(Snapshot snapshot, int headAngle, int cameraId) throws IOException {
+        Entry old = entries.get(snapshot.getLocation());
+        if (old != null && old.capturedAt >= snapshot.getCapturedAt()) {
+            return;
+        }
+        if (snapshot.size() > maxBytes) {
+            return;
+        }
+        String file = snapshot.getCapturedAt() + "-" + snapshot.getJobId() + SUFFIX;
+        try (FileOutputStream output = new FileOutputStream(new File(directory, file));
+             FileChannel channel = output.getChannel()) {
+            ByteBuffer data = snapshot.data();
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+
+        List<Entry> dropped = new ArrayList<>();
+        if (old != null) {
+            entries.remove(old.location);
+            bytes -= old.size;
+            dropped.add(old);
+        }
+        Entry entry = new Entry(snapshot.getLocation(), headAngle, cameraId, snapshot.getCapturedAt(),
+                snapshot.getMimeType(), snapshot.size(), file);
+        entries.put(entry.location, entry);
+        bytes += entry.size;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            Entry evicted = eldest.next();
+            if (evicted != entry) {
+                eldest.remove();
+                bytes -= evicted.size;
+                dropped.add(evicted);
+            }
+        }
+
+        // only delete files once the index no longer points at them
+        writeIndex();
+        for (Entry gone : dropped) {
+            new File(directory, gone.file).delete();
+        }
+    }
+
+    // reads the cached bytes into a pooled buffer, as a snapshot of the given job
+    public synchronized Snapshot load(Entry entry, String jobId, SnapshotBufferPool pool) throws IOException {
+        try (FileInputStream input = new FileInputStream(new File(directory, entry.file));
+             FileChannel channel = input.getChannel()) {
+            ByteBuffer data = pool.acquire((int) channel.size());
+            while (data.hasRemaining()) {
+                if (channel.read(data) < 0) {
+                    pool.release(data);
+                    throw new IOException(entry.file + " is truncated");
+                }
+            }
+            data.flip();
+            return new Snapshot(jobId, entry.location, entry.capturedAt, entry.mimeType, data, pool);
+        }
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // "40 s", "12 min", "3 h" or "2 days"
+    public static String describeAge(long ageMs) {
+        long seconds = ageMs / 1000;
+        if (seconds < 60) {
+            return seconds + " s";
+        } else if (seconds < 60 * 60) {
+            return seconds / 60 + " min";
+        } else if (seconds < 48 * 60 * 60) {
+            return seconds / (60 * 60) + " h";
+        }
+        return seconds / (24 * 60 * 60) + " days";
+    }
+
+    private void readIndex() throws IOException {
+        File file = new File(directory, INDEX);
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = UploadOutbox.parse(line);
+                if (fields == null || fields.length != 7) {
+                    continue;
+                }
+                try {
+                    Entry entry = new Entry(fields[0], Integer.parseInt(fields[1]), Integer.parseInt(fields[2]),
+                            Long.parseLong(fields[3]), fields[4], Long.parseLong(fields[5]), fields[6]);
+                    if (new File(directory, entry.file).length() == entry.size) {
+                        entries.put(entry.location, entry);
+                        bytes += entry.size;
+                    }
+                } catch (NumberFormatException e) {
+                    // not written by us, skip it
+                }
+            }
+        }
+    }
+
+    // written to a temporary file first, a crash leaves either the old or the new index
+    private void writeIndex() throws IOException {
+        File tmp = new File(directory, INDEX + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(tmp);
+             Writer writer = new OutputStreamWriter(output, UTF_8)) {
+            for (Entry entry : entries.values()) {
+                writer.write(UploadOutbox.record(entry.location, Integer.toString(entry.headAngle),
+                        Integer.toString(entry.cameraId), Long.toString(entry.capturedAt), entry.mimeType,
+                        Long.toString(entry.size), entry.file));
+            }
+            writer.flush();
+            output.getFD().sync();
+        }
+        if (!tmp.renameTo(new File(directory, INDEX))) {
+            throw new IOException("can't replace " + INDEX);
+        }
+    }
+
+    private void deleteOrphans() {
+        List<String> known = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            known.add(entry.file);
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(SUFFIX) && !known.contains(file.getName())) {
+                    file.delete();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,546 @@
+package com.linklab.whiteboardsnap;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+// every snapshot the robot took, so "what was on whiteboard 225 before the meeting?" can be answered
+// without it moving. snapshots are appended to numbered segment files, and a fixed size record per
+// snapshot goes into an index file that is memory mapped. the index is read once on open into a map
+// per location, ordered by capture time, so queries never touch the segments. a snapshot with the same
+// bytes as one already kept only gets an index record pointing at the same blob. the still of the lens
+// that lost out in a dual capture is kept too, marked as the alternate, but it only answers for its time
+// if asked for a range.
+// once the segments hold more than maxBytes the oldest one goes, with the snapshots appended while it
+// was being written. later snapshots sharing one of its blobs get a copy in the newest segment, and the
+// index is compacted to the records that are left. does file i/o, keep it off the ui thread
+public class SnapshotHistory {
+    static final String INDEX = "index";
+    static final String NAMES = "names";
+    private static final String SUFFIX = ".blob";
+    private static final int MAGIC = 0x534e4150; // "SNAP"
+    // magic, record count
+    private static final int HEADER = 16;
+    private static final int INITIAL_CAPACITY = 256;
+
+    // the index record of a snapshot
+    static final int RECORD = 64;
+    private static final int LOCATION = 0; // id in the names file
+    private static final int MIME_TYPE = 4; // id in the names file
+    private static final int CAPTURED_AT = 8;
+    private static final int SEGMENT = 16; // the blob's
+    private static final int WRITTEN_IN = 20; // the segment that was being written when the record was added
+    private static final int OFFSET = 24;
+    private static final int LENGTH = 32;
+    private static final int HEAD_ANGLE = 36;
+    private static final int CAMERA_ID = 40;
+    private static final int HASH = 44; // 16 bytes of the blob's sha-256
+    private static final int HASH_LENGTH = 16;
+    private static final int FLAGS = 60;
+    private static final int ALTERNATE = 1;
+
+    public static class Entry {
+        final String location;
+        final long capturedAt;
+        final String mimeType;
+        final int headAngle;
+        final int cameraId;
+        final int size;
+        final boolean alternate;
+
+        Entry(String location, long capturedAt, String mimeType, int headAngle, int cameraId, int size,
+              boolean alternate) {
+            this.location = location;
+            this.capturedAt = capturedAt;
+            this.mimeType = mimeType;
+            this.headAngle = headAngle;
+            this.cameraId = cameraId;
+            this.size = size;
+            this.alternate = alternate;
+        }
+
+        public String getLocation() {
+            return location;
+        }
+
+        public long getCapturedAt() {
+            return capturedAt;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        public int getHeadAngle() {
+            return headAngle;
+        }
+
+        public int getCameraId() {
+            return cameraId;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        // taken with the lens that didn't show the board as well
+        public boolean isAlternate() {
+            return alternate;
+        }
+
+        public long ageMs(long now) {
+            return Math.max(0, now - capturedAt);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s at %d, %d bytes", location, capturedAt, size);
+        }
+    }
+
+    private final File directory;
+    private final long maxBytes;
+    private final long segmentBytes;
+
+    private RandomAccessFile indexFile;
+    private MappedByteBuffer index;
+    private int count;
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> nameIds = new HashMap<>();
+    // record numbers by capture time, per location
+    private final Map<String, TreeMap<Long, Integer>> byLocation = new HashMap<>();
+    // the record of every blob kept, by its hash and length
+    private final Map<String, Integer> blobs = new HashMap<>();
+    // segment number to size
+    private final TreeMap<Integer, Long> segments = new TreeMap<>();
+    private long bytes = 0;
+
+    // segments are closed at around segmentBytes, so the oldest 1 / (maxBytes / segmentBytes) of the
+    // history goes at a time
+    public SnapshotHistory(File directory, long maxBytes, long segmentBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = segmentBytes;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("can't create " + directory);
+        }
+        readNames();
+        open();
+    }
+
+    // the last snapshot of the location taken before the time, leaving out alternates. null if there is none
+    public synchronized Entry latestBefore(String location, long before) {
+        TreeMap<Long, Integer> records = byLocation.get(location);
+        if (records == null) {
+            return null;
+        }
+        for (int record : records.headMap(before, false).descendingMap().values()) {
+            if ((index.getInt(position(record) + FLAGS) & ALTERNATE) == 0) {
+                return entry(record);
+            }
+        }
+        return null;
+    }
+
+    // the snapshots of the location taken from from up to but not including to, oldest first
+    public synchronized List<Entry> between(String location, long from, long to) {
+        List<Entry> entries = new ArrayList<>();
+        TreeMap<Long, Integer> records = byLocation.get(location);
+        if (records != null && from < to) {
+            for (int record : records.subMap(from, true, to, false).values()) {
+                entries.add(entry(record));
+            }
+        }
+        return entries;
+    }
+
+    // appends the snapshot, unless the location already has one taken at the same time. its bytes are
+    // only written if no snapshot kept has the same. snapshots bigger than maxBytes aren't kept at all
+    public synchronized boolean put(Snapshot snapshot, int headAngle, int cameraId) throws IOException {
+        return put(snapshot, headAngle, cameraId, false);
+    }
+
+    // the same, alternate for the still of the lens that lost out in a dual capture
+    public synchronized boolean put(Snapshot snapshot, int headAngle, int cameraId, boolean alternate)
+            throws IOException {
+        TreeMap<Long, Integer> records = byLocation.get(snapshot.getLocation());
+        if ((records != null && records.containsKey(snapshot.getCapturedAt())) || snapshot.size() > maxBytes) {
+            return false;
+        }
+        byte[] hash = hash(snapshot.data());
+        String blobKey = blobKey(hash, snapshot.size());
+        Integer same = blobs.get(blobKey);
+        int segment;
+        long offset;
+        if (same != null) {
+            segment = index.getInt(position(same) + SEGMENT);
+            offset = index.getLong(position(same) + OFFSET);
+        } else {
+            segment = segments.isEmpty() ? 1 : segments.lastKey();
+            long size = segments.isEmpty() ? 0 : segments.lastEntry().getValue();
+            if (size > 0 && size + snapshot.size() > segmentBytes) {
+                segment++;
+                size = 0;
+            }
+            offset = size;
+            append(segment, offset, snapshot.data());
+            segments.put(segment, size + snapshot.size());
+            bytes += snapshot.size();
+        }
+
+        int record = count;
+        ensureCapacity(record + 1);
+        int position = position(record);
+        index.putInt(position + LOCATION, nameId(snapshot.getLocation()));
+        index.putInt(position + MIME_TYPE, nameId(snapshot.getMimeType()));
+        index.putLong(position + CAPTURED_AT, snapshot.getCapturedAt());
+        index.putInt(position + SEGMENT, segment);
+        index.putInt(position + WRITTEN_IN, segments.lastKey());
+        index.putLong(position + OFFSET, offset);
+        index.putInt(position + LENGTH, snapshot.size());
+        index.putInt(position + HEAD_ANGLE, headAngle);
+        index.putInt(position + CAMERA_ID, cameraId);
+        index.putInt(position + FLAGS, alternate ? ALTERNATE : 0);
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            index.put(position + HASH + i, hash[i]);
+        }
+        // the record only counts once it's all there
+        index.force();
+        count++;
+        index.putInt(4, count);
+        index.force();
+        add(record);
+        if (same == null) {
+            blobs.put(blobKey, record);
+        }
+
+        boolean dropped = false;
+        while (bytes > maxBytes && segments.size() > 1) {
+            dropOldestSegment();
+            dropped = true;
+        }
+        if (dropped) {
+            compact();
+        }
+        return true;
+    }
+
+    // reads the snapshot's bytes into a pooled buffer, as a snapshot of the given job
+    public synchronized Snapshot load(Entry entry, String jobId, SnapshotBufferPool pool) throws IOException {
+        TreeMap<Long, Integer> records = byLocation.get(entry.location);
+        Integer record = records != null ? records.get(entry.capturedAt) : null;
+        if (record == null) {
+            throw new IOException(entry + " is no longer kept");
+        }
+        int position = position(record);
+        File file = segmentFile(index.getInt(position + SEGMENT));
+        try (FileInputStream input = new FileInputStream(file);
+             FileChannel channel = input.getChannel()) {
+            ByteBuffer data = pool.acquire(index.getInt(position + LENGTH));
+            long offset = index.getLong(position + OFFSET);
+            while (data.hasRemaining()) {
+                int read = channel.read(data, offset);
+                if (read < 0) {
+                    pool.release(data);
+                    throw new IOException(file.getName() + " is truncated");
+                }
+                offset += read;
+            }
+            data.flip();
+            return new Snapshot(jobId, entry.location, entry.capturedAt, entry.mimeType, data, pool);
+        }
+    }
+
+    // bytes in the segments
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    // snapshots kept, counting the ones that share their bytes with another
+    public synchronized int size() {
+        int size = 0;
+        for (TreeMap<Long, Integer> records : byLocation.values()) {
+            size += records.size();
+        }
+        return size;
+    }
+
+    public synchronized int segments() {
+        return segments.size();
+    }
+
+    public synchronized void close() throws IOException {
+        if (indexFile != null) {
+            indexFile.close();
+            indexFile = null;
+            index = null;
+        }
+    }
+
+    private Entry entry(int record) {
+        int position = position(record);
+        return new Entry(names.get(index.getInt(position + LOCATION)), index.getLong(position + CAPTURED_AT),
+                names.get(index.getInt(position + MIME_TYPE)), index.getInt(position + HEAD_ANGLE),
+                index.getInt(position + CAMERA_ID), index.getInt(position + LENGTH),
+                (index.getInt(position + FLAGS) & ALTERNATE) != 0);
+    }
+
+    private static int position(int record) {
+        return HEADER + record * RECORD;
+    }
+
+    private File segmentFile(int segment) {
+        return new File(directory, String.format(Locale.ROOT, "%08d%s", segment, SUFFIX));
+    }
+
+    private static String blobKey(byte[] hash, int length) {
+        StringBuilder key = new StringBuilder(HASH_LENGTH * 2 + 12);
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            key.append(String.format(Locale.ROOT, "%02x", hash[i]));
+        }
+        return key.append(':').append(length).toString();
+    }
+
+    private String blobKey(int record) {
+        byte[] hash = new byte[HASH_LENGTH];
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            hash[i] = index.get(position(record) + HASH + i);
+        }
+        return blobKey(hash, index.getInt(position(record) + LENGTH));
+    }
+
+    private static byte[] hash(ByteBuffer data) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(data);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // written to disk before the record that points at it
+    private void append(int segment, long offset, ByteBuffer data) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segmentFile(segment), "rw");
+             FileChannel channel = file.getChannel()) {
+            long position = offset;
+            while (data.hasRemaining()) {
+                position += channel.write(data, position);
+            }
+            channel.force(false);
+        }
+    }
+
+    private void add(int record) {
+        String location = names.get(index.getInt(position(record) + LOCATION));
+        TreeMap<Long, Integer> records = byLocation.get(location);
+        if (records == null) {
+            records = new TreeMap<>();
+            byLocation.put(location, records);
+        }
+        records.put(index.getLong(position(record) + CAPTURED_AT), record);
+    }
+
+    private int nameId(String name) throws IOException {
+        Integer id = nameIds.get(name);
+        if (id != null) {
+            return id;
+        }
+        try (FileOutputStream output = new FileOutputStream(new File(directory, NAMES), true);
+             Writer writer = new OutputStreamWriter(output, UTF_8)) {
+            writer.write(UploadOutbox.record(Integer.toString(names.size()), name));
+            writer.flush();
+            output.getFD().sync();
+        }
+        nameIds.put(name, names.size());
+        names.add(name);
+        return names.size() - 1;
+    }
+
+    private void readNames() throws IOException {
+        File file = new File(directory, NAMES);
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = UploadOutbox.parse(line);
+                // a torn last line is the only way to get one out of order, and nothing points at it
+                if (fields == null || fields.length != 2 || !fields[0].equals(Integer.toString(names.size()))) {
+                    break;
+                }
+                nameIds.put(fields[1], names.size());
+                names.add(fields[1]);
+            }
+        }
+    }
+
+    // maps the index and builds the maps from its records. records whose blob or names didn't make it
+    // to disk are left out
+    private void open() throws IOException {
+        indexFile = new RandomAccessFile(new File(directory, INDEX), "rw");
+        if (indexFile.length() < HEADER) {
+            indexFile.setLength(position(INITIAL_CAPACITY));
+            map();
+            index.putInt(0, MAGIC);
+            index.putInt(4, 0);
+            index.force();
+        } else {
+            map();
+            if (index.getInt(0) != MAGIC) {
+                throw new IOException(INDEX + " isn't a snapshot history index");
+            }
+        }
+        count = Math.min(index.getInt(4), (index.capacity() - HEADER) / RECORD);
+
+        File[] files = directory.listFiles();
+        for (File file : files != null ? files : new File[0]) {
+            String name = file.getName();
+            if (name.endsWith(SUFFIX)) {
+                try {
+                    segments.put(Integer.parseInt(name.substring(0, name.length() - SUFFIX.length())), file.length());
+                    bytes += file.length();
+                } catch (NumberFormatException e) {
+                    // not ours
+                }
+            }
+        }
+        for (int record = 0; record < count; record++) {
+            int position = position(record);
+            Long size = segments.get(index.getInt(position + SEGMENT));
+            if (size == null || index.getLong(position + OFFSET) + index.getInt(position + LENGTH) > size
+                    || index.getInt(position + LOCATION) >= names.size()
+                    || index.getInt(position + MIME_TYPE) >= names.size()) {
+                continue;
+            }
+            add(record);
+            String blobKey = blobKey(record);
+            if (!blobs.containsKey(blobKey)) {
+                blobs.put(blobKey, record);
+            }
+        }
+    }
+
+    private void map() throws IOException {
+        index = indexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, indexFile.length());
+    }
+
+    // doubles the index file, and maps it again, until it has room for the records
+    private void ensureCapacity(int records) throws IOException {
+        if (position(records) <= index.capacity()) {
+            return;
+        }
+        long length = indexFile.length();
+        while (length < position(records)) {
+            length = HEADER + (length - HEADER) * 2;
+        }
+        indexFile.setLength(length);
+        map();
+    }
+
+    // drops the records appended while the oldest segment was being written, copies the blobs of its
+    // later records to the newest segment and deletes it
+    private void dropOldestSegment() throws IOException {
+        int oldest = segments.firstKey();
+        int newest = segments.lastKey();
+        File file = segmentFile(oldest);
+        // old offset to new, for the blobs copied so far
+        Map<Long, Long> moved = new HashMap<>();
+        try (FileInputStream input = new FileInputStream(file);
+             FileChannel channel = input.getChannel()) {
+            for (TreeMap<Long, Integer> records : byLocation.values()) {
+                for (Iterator<Integer> it = records.values().iterator(); it.hasNext(); ) {
+                    int position = position(it.next());
+                    if (index.getInt(position + WRITTEN_IN) <= oldest) {
+                        it.remove();
+                        continue;
+                    }
+                    if (index.getInt(position + SEGMENT) != oldest) {
+                        continue;
+                    }
+                    long offset = index.getLong(position + OFFSET);
+                    Long newOffset = moved.get(offset);
+                    if (newOffset == null) {
+                        int length = index.getInt(position + LENGTH);
+                        ByteBuffer blob = ByteBuffer.allocate(length);
+                        while (blob.hasRemaining()) {
+                            if (channel.read(blob, offset + blob.position()) < 0) {
+                                throw new IOException(file.getName() + " is truncated");
+                            }
+                        }
+                        blob.flip();
+                        newOffset = segments.get(newest);
+                        append(newest, newOffset, blob);
+                        segments.put(newest, newOffset + length);
+                        bytes += length;
+                        moved.put(offset, newOffset);
+                    }
+                    index.putInt(position + SEGMENT, newest);
+                    index.putLong(position + OFFSET, newOffset);
+                }
+            }
+        }
+        index.force();
+        bytes -= segments.remove(oldest);
+        // the copied blobs are on disk and the records point at them
+        file.delete();
+    }
+
+    // rewrites the index with only the records still in the maps, in the order they were added
+    private void compact() throws IOException {
+        List<Integer> live = new ArrayList<>();
+        for (TreeMap<Long, Integer> records : byLocation.values()) {
+            live.addAll(records.values());
+        }
+        Collections.sort(live);
+        File tmp = new File(directory, INDEX + ".tmp");
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < live.size()) {
+            capacity *= 2;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(tmp, "rw");
+             FileChannel channel = file.getChannel()) {
+            file.setLength(position(capacity));
+            MappedByteBuffer compacted = channel.map(FileChannel.MapMode.READ_WRITE, 0, position(capacity));
+            compacted.putInt(0, MAGIC);
+            compacted.putInt(4, live.size());
+            for (int i = 0; i < live.size(); i++) {
+                for (int b = 0; b < RECORD; b++) {
+                    compacted.put(position(i) + b, index.get(position(live.get(i)) + b));
+                }
+            }
+            compacted.force();
+        }
+        indexFile.close();
+        if (!tmp.renameTo(new File(directory, INDEX))) {
+            throw new IOException("can't replace " + INDEX);
+        }
+        byLocation.clear();
+        blobs.clear();
+        segments.clear();
+        bytes = 0;
+        open();
+    }
+}
@@ -0,0 +1,36 @@
+package com.linklab.whiteboardsnap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+// streams a snapshot straight from its buffer into the request, so uploads need neither a file
+// nor a byte[] copy. safe to write more than once, e.g. when a request is retried
+public class SnapshotRequestBody extends RequestBody {
+    private final Snapshot snapshot;
+
+    public SnapshotRequestBody(Snapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return MediaType.parse(snapshot.getMimeType());
+    }
+
+    @Override
+    public long contentLength() {
+        return snapshot.size();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        ByteBuffer data = snapshot.data();
+        while (data.hasRemaining()) {
+            sink.write(data);
+        }
+    }
+}
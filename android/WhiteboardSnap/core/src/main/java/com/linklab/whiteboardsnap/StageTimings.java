@@ -0,0 +1,41 @@
+package com.linklab.whiteboardsnap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// wall time of each stage of a pipeline, in the order the stages ran. skipped stages are recorded as -1
+public class StageTimings {
+    private final Map<String, Long> stages = new LinkedHashMap<>();
+    private final long startNanos = System.nanoTime();
+    private long lapNanos = startNanos;
+
+    // ends the current stage
+    public void lap(String stage) {
+        long now = System.nanoTime();
+        stages.put(stage, (now - lapNanos) / 1000000);
+        lapNanos = now;
+    }
+
+    public void skip(String stage) {
+        stages.put(stage, -1L);
+        lapNanos = System.nanoTime();
+    }
+
+    public Map<String, Long> getStages() {
+        return stages;
+    }
+
+    public long totalMs() {
+        return (System.nanoTime() - startNanos) / 1000000;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> stage : stages.entrySet()) {
+            sb.append(stage.getKey()).append('=');
+            sb.append(stage.getValue() < 0 ? "skipped" : stage.getValue() + "ms").append(' ');
+        }
+        return sb.append("total=").append(totalMs()).append("ms").toString();
+    }
+}
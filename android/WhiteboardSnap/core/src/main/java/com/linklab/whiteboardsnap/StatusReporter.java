@@ -0,0 +1,110 @@
+package com.linklab.whiteboardsnap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// publishes the status of snap jobs to the requests that asked to hear about them. a request names
+// a response topic and correlation data (mqtt 5 request/response), and gets one event per step
+//   {"v": 1, "id": "a1b2", "location": "whiteboard 225", "job": "7", "status": "queued", "at": 1634567890123}
+// with a "detail" for the final steps: the file's permalink once uploaded, the reason if it failed.
+// a batch request gets the events of each of its locations. merged requests all hear about the job.
+// a request we can't read gets a single failed event without id, location or job
+public class StatusReporter {
+    public interface Publisher {
+        // must not block, events are published while jobs are being worked on
+        void publish(String topic, byte[] correlationData, String payload);
+    }
+
+    private static class Watcher {
+        final String requestId;
+        final String location;
+        final String topic;
+        final byte[] correlationData;
+
+        Watcher(String requestId, String location, String topic, byte[] correlationData) {
+            this.requestId = requestId;
+            this.location = location;
+            this.topic = topic;
+            this.correlationData = correlationData;
+        }
+    }
+
+    private final Publisher publisher;
+    private final Clock clock;
+    // keyed by job id, until the job's final status
+    private final Map<String, List<Watcher>> watchers = new HashMap<>();
+
+    public StatusReporter(Publisher publisher, Clock clock) {
+        this.publisher = publisher;
+        this.clock = clock;
+    }
+
+    // the request's location is in the job now. it is told so, and about every step from here on
+    public void watch(String jobId, SnapRequest request, String location, String topic, byte[] correlationData) {
+        Watcher watcher = new Watcher(request.getId(), location, topic, correlationData);
+        synchronized (this) {
+            List<Watcher> list = watchers.get(jobId);
+            if (list == null) {
+                list = new ArrayList<>();
+                watchers.put(jobId, list);
+            }
+            list.add(watcher);
+        }
+        publish(watcher, jobId, JobStatus.QUEUED, null);
+    }
+
+    public void report(String jobId, JobStatus status, String detail) {
+        List<Watcher> list;
+        synchronized (this) {
+            list = status.isFinal() ? watchers.remove(jobId) : watchers.get(jobId);
+            if (list == null) {
+                return;
+            }
+            list = new ArrayList<>(list);
+        }
+        for (Watcher watcher : list) {
+            publish(watcher, jobId, status, detail);
+        }
+    }
+
+    public void reject(String topic, byte[] correlationData, String reason) {
+        publisher.publish(topic, correlationData, event(null, null, null, JobStatus.FAILED, reason));
+    }
+
+    // a location of the request that won't get a job at all
+    public void fail(SnapRequest request, String location, String topic, byte[] correlationData, String reason) {
+        publisher.publish(topic, correlationData, event(request.getId(), location, null, JobStatus.FAILED, reason));
+    }
+
+    // jobs that still have someone waiting for their final status
+    public synchronized int watchedJobs() {
+        return watchers.size();
+    }
+
+    private void publish(Watcher watcher, String jobId, JobStatus status, String detail) {
+        publisher.publish(watcher.topic, watcher.correlationData,
+                event(watcher.requestId, watcher.location, jobId, status, detail));
+    }
+
+    private String event(String requestId, String location, String jobId, JobStatus status, String detail) {
+        StringBuilder event = new StringBuilder(160);
+        event.append("{\"v\":").append(SnapRequest.VERSION);
+        appendField(event, "id", requestId);
+        appendField(event, "location", location);
+        appendField(event, "job", jobId);
+        appendField(event, "status", status.wireName());
+        event.append(",\"at\":").append(clock.now());
+        if (detail != null) {
+            appendField(event, "detail", detail);
+        }
+        event.append('}');
+        return event.toString();
+    }
+
+    private static void appendField(StringBuilder out, String key, String value) {
+        out.append(",\"").append(key).append("\":");
+        SnapRequest.appendString(out, value);
+    }
+}
@@ -0,0 +1,96 @@
+package com.linklab.whiteboardsnap;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// times the phases of every snap job into one latency histogram per phase. a phase is either timed
+// here between begin() and end() for a job, or measured elsewhere and passed to record(). the trace
+// of a job is dropped once the job has uploaded (which records its end to end latency) or failed.
+// traces of jobs that never get there are dropped oldest first past MAX_TRACES
+public class Tracer {
+    static final int MAX_TRACES = 256;
+    // nothing we time takes longer than an hour, and a job that does is broken anyway
+    static final long MAX_LATENCY_MS = 60 * 60 * 1000;
+
+    private static final int ORIGIN = Phase.values().length;
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final Clock clock;
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Phase.values().length];
+    // per job, when each phase began (NONE if it didn't), and when the job's request arrived
+    private final Map<String, long[]> traces = new LinkedHashMap<String, long[]>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest) {
+            return size() > MAX_TRACES;
+        }
+    };
+
+    public Tracer(Clock clock) {
+        this.clock = clock;
+        for (Phase phase : Phase.values()) {
+            histograms[phase.ordinal()] = new LatencyHistogram(MAX_LATENCY_MS);
+        }
+    }
+
+    // the job answers a request that arrived at receivedAt. requests merged into a job later don't
+    // move its start
+    public synchronized void start(String jobId, long receivedAt) {
+        long[] trace = trace(jobId);
+        if (trace[ORIGIN] == NONE) {
+            trace[ORIGIN] = receivedAt;
+        }
+    }
+
+    public synchronized void begin(String jobId, Phase phase) {
+        long[] trace = trace(jobId);
+        if (trace[phase.ordinal()] == NONE) {
+            trace[phase.ordinal()] = clock.now();
+        }
+    }
+
+    // records the phase if it began for this job
+    public synchronized void end(String jobId, Phase phase) {
+        long[] trace = traces.get(jobId);
+        if (trace != null && trace[phase.ordinal()] != NONE) {
+            record(phase, clock.now() - trace[phase.ordinal()]);
+            trace[phase.ordinal()] = NONE;
+        }
+    }
+
+    public void record(Phase phase, long ms) {
+        histograms[phase.ordinal()].record(ms);
+    }
+
+    // follows a job through its statuses: its wait in the queue ends as it sets off, and once it's
+    // uploaded its end to end latency is recorded
+    public synchronized void onStatus(String jobId, JobStatus status) {
+        if (status == JobStatus.NAVIGATING) {
+            end(jobId, Phase.QUEUE_WAIT);
+            begin(jobId, Phase.NAVIGATION);
+        } else if (status.isFinal()) {
+            long[] trace = traces.remove(jobId);
+            if (status == JobStatus.UPLOADED && trace != null && trace[ORIGIN] != NONE) {
+                record(Phase.END_TO_END, clock.now() - trace[ORIGIN]);
+            }
+        }
+    }
+
+    public LatencyHistogram histogram(Phase phase) {
+        return histograms[phase.ordinal()];
+    }
+
+    public synchronized int openTraces() {
+        return traces.size();
+    }
+
+    private long[] trace(String jobId) {
+        long[] trace = traces.get(jobId);
+        if (trace == null) {
+            trace = new long[ORIGIN + 1];
+            Arrays.fill(trace, NONE);
+            traces.put(jobId, trace);
+        }
+        return trace;
+    }
+}
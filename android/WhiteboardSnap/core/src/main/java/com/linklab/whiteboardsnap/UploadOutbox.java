@@ -0,0 +1,323 @@
+package com.linklab.whiteboardsnap;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+// durable record of snapshots that still have to be uploaded. each snapshot is stored as a blob file
+// next to an append-only journal of ADD and DONE records, one per line and each ending in a crc so a
+// record torn by a crash is skipped. the journal is replayed when the outbox is opened, so pending
+// uploads survive crashes and restarts. blobs and journal records are made durable together by sync(),
+// blobs first, and an ADD record says how big its blob is, so one left short by a crash isn't sent.
+// not thread safe: all calls are expected to come from a single i/o thread
+public class UploadOutbox {
+    static final String JOURNAL = "journal.log";
+    private static final String ADD = "ADD";
+    private static final String DONE = "DONE";
+
+    public static class Entry {
+        final String id;
+        final String jobId;
+        final String location;
+        final long capturedAt;
+        final String mimeType;
+        final String channels;
+        final String comment;
+        // the slack thread to answer in, or null
+        final String thread;
+        // of the blob
+        final long size;
+
+        Entry(String id, String jobId, String location, long capturedAt, String mimeType,
+              String channels, String comment, String thread, long size) {
+            this.id = id;
+            this.jobId = jobId;
+            this.location = location;
+            this.capturedAt = capturedAt;
+            this.mimeType = mimeType;
+            this.channels = channels;
+            this.comment = comment;
+            this.thread = thread;
+            this.size = size;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getJobId() {
+            return jobId;
+        }
+
+        public String getLocation() {
+            return location;
+        }
+
+        public String getChannels() {
+            return channels;
+        }
+
+        public String getComment() {
+            return comment;
+        }
+
+        public String getThread() {
+            return thread;
+        }
+    }
+
+    private final File directory;
+    private final Map<String, Entry> pending = new LinkedHashMap<>();
+    // blobs written since the last sync
+    private final Set<String> unsynced = new LinkedHashSet<>();
+    private FileOutputStream journalStream;
+    private Writer journal;
+    private boolean dirty = false;
+
+    public UploadOutbox(File directory) throws IOException {
+        this.directory = directory;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("can't create " + directory);
+        }
+        replay();
+        compact();
+        journalStream = new FileOutputStream(new File(directory, JOURNAL), true);
+        journal = new OutputStreamWriter(journalStream, UTF_8);
+    }
+
+    // job ids start over with every run, the capture time keeps ids from different runs apart
+    public static String idOf(Snapshot snapshot) {
+        return snapshot.getCapturedAt() + "-" + snapshot.getJobId();
+    }
+
+    // stores the snapshot's bytes and journals it as pending, to be posted in the slack thread (null for
+    // none). neither is durable before the next sync()
+    public Entry add(Snapshot snapshot, String channels, String thread, String comment) throws IOException {
+        String id = idOf(snapshot);
+        ByteBuffer data = snapshot.data();
+        Entry entry = new Entry(id, snapshot.getJobId(), snapshot.getLocation(), snapshot.getCapturedAt(),
+                snapshot.getMimeType(), channels, comment, thread, data.remaining());
+        try (FileOutputStream output = new FileOutputStream(blob(id));
+             FileChannel channel = output.getChannel()) {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+        unsynced.add(id);
+        append(addRecord(entry));
+        pending.put(id, entry);
+        return entry;
+    }
+
+    public void markDone(Entry entry) throws IOException {
+        if (pending.remove(entry.id) != null) {
+            append(DONE, entry.id);
+            unsynced.remove(entry.id);
+            // the DONE record may not be on disk yet, but a missing blob is also treated as done
+            blob(entry.id).delete();
+        }
+    }
+
+    public List<Entry> pending() {
+        return new ArrayList<>(pending.values());
+    }
+
+    public boolean isPending(Entry entry) {
+        return pending.containsKey(entry.id);
+    }
+
+    // reads an entry's blob back into a pooled buffer
+    public Snapshot load(Entry entry, SnapshotBufferPool pool) throws IOException {
+        try (FileInputStream input = new FileInputStream(blob(entry.id));
+             FileChannel channel = input.getChannel()) {
+            ByteBuffer data = pool.acquire((int) channel.size());
+            while (data.hasRemaining()) {
+                if (channel.read(data) < 0) {
+                    pool.release(data);
+                    throw new IOException("blob of " + entry.id + " is truncated");
+                }
+            }
+            data.flip();
+            return new Snapshot(entry.jobId, entry.location, entry.capturedAt, entry.mimeType, data, pool);
+        }
+    }
+
+    public boolean needsSync() {
+        return dirty;
+    }
+
+    // group commit: makes every blob and record written since the last sync durable, the blobs before
+    // the journal that refers to them
+    public void sync() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        for (String id : unsynced) {
+            try (RandomAccessFile file = new RandomAccessFile(blob(id), "rw")) {
+                file.getChannel().force(false);
+            }
+        }
+        unsynced.clear();
+        journal.flush();
+        journalStream.getFD().sync();
+        dirty = false;
+    }
+
+    public void close() throws IOException {
+        sync();
+        journal.close();
+    }
+
+    private File blob(String id) {
+        return new File(directory, id + ".blob");
+    }
+
+    private static String[] addRecord(Entry entry) {
+        return new String[] {ADD, entry.id, entry.jobId, entry.location, Long.toString(entry.capturedAt),
+                entry.mimeType, entry.channels, entry.comment, Long.toString(entry.size), entry.thread};
+    }
+
+    private void append(String... fields) throws IOException {
+        journal.write(record(fields));
+        dirty = true;
+    }
+
+    private void replay() throws IOException {
+        File file = new File(directory, JOURNAL);
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = parse(line);
+                if (fields == null) {
+                    continue; // a torn record from a crash
+                }
+                if (fields.length == 10 && fields[0].equals(ADD)) {
+                    try {
+                        pending.put(fields[1], new Entry(fields[1], fields[2], fields[3], Long.parseLong(fields[4]),
+                                fields[5], fields[6], fields[7], fields[9].isEmpty() ? null : fields[9],
+                                Long.parseLong(fields[8])));
+                    } catch (NumberFormatException e) {
+                        // not written by us, skip it
+                    }
+                } else if (fields.length == 2 && fields[0].equals(DONE)) {
+                    pending.remove(fields[1]);
+                }
+            }
+        }
+        // an entry whose blob is gone (or was cut short by a crash) can't be uploaded anymore
+        List<String> missing = new ArrayList<>();
+        for (Entry entry : pending.values()) {
+            File blob = blob(entry.id);
+            if (!blob.exists() || blob.length() != entry.size) {
+                missing.add(entry.id);
+            }
+        }
+        for (String id : missing) {
+            pending.remove(id);
+        }
+    }
+
+    // rewrites the journal with just the pending entries and removes blobs nobody refers to
+    private void compact() throws IOException {
+        File tmp = new File(directory, JOURNAL + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(tmp);
+             Writer writer = new OutputStreamWriter(output, UTF_8)) {
+            for (Entry entry : pending.values()) {
+                writer.write(record(addRecord(entry)));
+            }
+            writer.flush();
+            output.getFD().sync();
+        }
+        if (!tmp.renameTo(new File(directory, JOURNAL))) {
+            throw new IOException("can't replace " + JOURNAL);
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(".blob") && !pending.containsKey(name.substring(0, name.length() - 5))) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    // fields are tab separated, with backslash escapes for tabs, newlines and backslashes, followed
+    // by the crc32 of everything before it
+    static String record(String... fields) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                sb.append('\t');
+            }
+            String field = fields[i] != null ? fields[i] : "";
+            for (int j = 0; j < field.length(); j++) {
+                char c = field.charAt(j);
+                if (c == '\\') {
+                    sb.append("\\\\");
+                } else if (c == '\t') {
+                    sb.append("\\t");
+                } else if (c == '\n') {
+                    sb.append("\\n");
+                } else if (c == '\r') {
+                    sb.append("\\r");
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        String crc = Long.toHexString(crc(sb));
+        return sb.append('\t').append(crc).append('\n').toString();
+    }
+
+    // the record's fields, or null if its crc doesn't match
+    static String[] parse(String line) {
+        int split = line.lastIndexOf('\t');
+        if (split < 0 || !Long.toHexString(crc(line.substring(0, split))).equals(line.substring(split + 1))) {
+            return null;
+        }
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        for (int i = 0; i < split; i++) {
+            char c = line.charAt(i);
+            if (c == '\t') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\\' && i + 1 < split) {
+                char next = line.charAt(++i);
+                field.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[0]);
+    }
+
+    private static long crc(CharSequence text) {
+        CRC32 crc = new CRC32();
+        byte[] bytes = text.toString().getBytes(UTF_8);
+        crc.update(bytes, 0, bytes.length);
+        return crc.getValue();
+    }
+}
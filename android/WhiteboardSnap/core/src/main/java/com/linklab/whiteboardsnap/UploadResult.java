@@ -0,0 +1,72 @@
+package com.linklab.whiteboardsnap;
+
+// outcome of one snapshot upload, including the numbers we track per upload
+public class UploadResult {
+    private final String jobId;
+    private final boolean ok;
+    private final boolean retryable;
+    private final String error;
+    private final String fileId;
+    private final String permalink;
+    private final long bytes;
+    private final long latencyMs;
+    private final int attempts;
+
+    UploadResult(String jobId, boolean ok, boolean retryable, String error, String fileId, String permalink,
+                 long bytes, long latencyMs, int attempts) {
+        this.jobId = jobId;
+        this.ok = ok;
+        this.retryable = retryable;
+        this.error = error;
+        this.fileId = fileId;
+        this.permalink = permalink;
+        this.bytes = bytes;
+        this.latencyMs = latencyMs;
+        this.attempts = attempts;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public boolean isOk() {
+        return ok;
+    }
+
+    // true if the upload failed for reasons that may go away (network, rate limits, server errors),
+    // false if slack rejected it
+    public boolean isRetryable() {
+        return retryable;
+    }
+
+    // slack's error code, or a short description of the http/io failure
+    public String getError() {
+        return error;
+    }
+
+    public String getFileId() {
+        return fileId;
+    }
+
+    public String getPermalink() {
+        return permalink;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getLatencyMs() {
+        return latencyMs;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("UploadResult{job=%s, ok=%b, error=%s, file=%s, bytes=%d, latency=%dms, attempts=%d}",
+                jobId, ok, error, fileId, bytes, latencyMs, attempts);
+    }
+}
@@ -0,0 +1,50 @@
+package com.linklab.whiteboardsnap;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// running totals over all uploads since the app started
+public class UploadStats {
+    private final AtomicLong uploads = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong latencyMs = new AtomicLong();
+
+    void record(UploadResult result) {
+        if (result.isOk()) {
+            uploads.incrementAndGet();
+            bytes.addAndGet(result.getBytes());
+            latencyMs.addAndGet(result.getLatencyMs());
+        } else {
+            failures.incrementAndGet();
+        }
+        retries.addAndGet(result.getAttempts() - 1);
+    }
+
+    public long getUploads() {
+        return uploads.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getAverageLatencyMs() {
+        long n = uploads.get();
+        return n == 0 ? 0 : latencyMs.get() / n;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("UploadStats{uploads=%d, failures=%d, retries=%d, bytes=%d, avgLatency=%dms}",
+                getUploads(), getFailures(), getRetries(), getBytes(), getAverageLatencyMs());
+    }
+}
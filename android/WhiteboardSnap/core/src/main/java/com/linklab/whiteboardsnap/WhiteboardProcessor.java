@@ -0,0 +1,460 @@
+package com.linklab.whiteboardsnap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// turns a grayscale photo of a whiteboard into a flat, evenly lit scan of the board:
+// 1. detect: finds the board as the largest bright region of a downsampled copy and takes its corners
+// 2. warp: perspective-corrects the board quad into an upright rectangle, cropping everything around it
+// 3. normalize: divides out the (smooth) background brightness so the board turns white and ink stays dark
+// warp and normalize work on bands of rows spread over the given executor. the whole run is bounded by a
+// deadline: a stage that would run past it is abandoned and the result is marked incomplete
+public class WhiteboardProcessor {
+    static final int TILE_ROWS = 64;
+    // width of the downsampled copy used to find the board
+    private static final int DETECT_WIDTH = 240;
+    // the board has to cover at least this share of the frame, otherwise we keep the full frame
+    private static final double MIN_BOARD_AREA = 0.15;
+    private static final int BLOCK = 32;
+
+    public static class Quad {
+        // top left, top right, bottom right, bottom left
+        final double[] x = new double[4];
+        final double[] y = new double[4];
+
+        public double getX(int corner) {
+            return x[corner];
+        }
+
+        public double getY(int corner) {
+            return y[corner];
+        }
+
+        double area() {
+            double sum = 0;
+            for (int i = 0; i < 4; i++) {
+                int j = (i + 1) % 4;
+                sum += x[i] * y[j] - x[j] * y[i];
+            }
+            return Math.abs(sum) / 2;
+        }
+    }
+
+    public static class Result {
+        final GrayImage image;
+        final Quad quad;
+        final boolean complete;
+
+        Result(GrayImage image, Quad quad, boolean complete) {
+            this.image = image;
+            this.quad = quad;
+            this.complete = complete;
+        }
+
+        public GrayImage getImage() {
+            return image;
+        }
+
+        // where the board was found in the input, or null if we kept the whole frame
+        public Quad getQuad() {
+            return quad;
+        }
+
+        // false if the deadline cut the processing short
+        public boolean isComplete() {
+            return complete;
+        }
+    }
+
+    private interface Band {
+        void run(int fromRow, int toRow);
+    }
+
+    private final ExecutorService executor;
+
+    public WhiteboardProcessor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public Result process(GrayImage input, StageTimings timings, long deadlineNanos) {
+        Quad quad = detectQuad(input);
+        timings.lap("detect");
+
+        GrayImage board = input;
+        try {
+            if (quad != null) {
+                board = warp(input, quad, deadlineNanos);
+                timings.lap("warp");
+            } else {
+                timings.skip("warp");
+            }
+            GrayImage normalized = normalize(board, deadlineNanos);
+            timings.lap("normalize");
+            return new Result(normalized, quad, true);
+        } catch (TimeoutException e) {
+            timings.lap("timeout");
+            return new Result(board, quad, false);
+        }
+    }
+
+    public Quad detectQuad(GrayImage input) {
+        int scale = Math.max(1, input.width / DETECT_WIDTH);
+        int w = input.width / scale;
+        int h = input.height / scale;
+        if (w < 4 || h < 4) {
+            return null;
+        }
+
+        // box-downsample, which also smooths out the writing on the board
+        int[] small = new int[w * h];
+        int[] histogram = new int[256];
+        for (int sy = 0; sy < h; sy++) {
+            for (int sx = 0; sx < w; sx++) {
+                int sum = 0;
+                for (int dy = 0; dy < scale; dy++) {
+                    int offset = (sy * scale + dy) * input.width + sx * scale;
+                    for (int dx = 0; dx < scale; dx++) {
+                        sum += input.pixels[offset + dx] & 0xff;
+                    }
+                }
+                int value = sum / (scale * scale);
+                small[sy * w + sx] = value;
+                histogram[value]++;
+            }
+        }
+
+        int threshold = otsu(histogram, w * h);
+        int[] labels = new int[w * h];
+        int[] queue = new int[w * h];
+        int bestLabel = 0;
+        int bestSize = 0;
+        int label = 0;
+        for (int start = 0; start < w * h; start++) {
+            if (labels[start] != 0 || small[start] <= threshold) {
+                continue;
+            }
+            label++;
+            int size = floodFill(small, labels, queue, w, h, start, threshold, label);
+            if (size > bestSize) {
+                bestSize = size;
+                bestLabel = label;
+            }
+        }
+        if (bestSize < MIN_BOARD_AREA * w * h) {
+            return null;
+        }
+
+        // the corners are the extremes of x + y and x - y over the region
+        int minSum = Integer.MAX_VALUE, maxSum = Integer.MIN_VALUE;
+        int minDiff = Integer.MAX_VALUE, maxDiff = Integer.MIN_VALUE;
+        int[] corners = new int[4];
+        for (int i = 0; i < w * h; i++) {
+            if (labels[i] != bestLabel) {
+                continue;
+            }
+            int x = i % w;
+            int y = i / w;
+            if (x + y < minSum) {
+                minSum = x + y;
+                corners[0] = i;
+            }
+            if (x - y > maxDiff) {
+                maxDiff = x - y;
+                corners[1] = i;
+            }
+            if (x + y > maxSum) {
+                maxSum = x + y;
+                corners[2] = i;
+            }
+            if (x - y < minDiff) {
+                minDiff = x - y;
+                corners[3] = i;
+            }
+        }
+
+        Quad quad = new Quad();
+        for (int c = 0; c < 4; c++) {
+            quad.x[c] = Math.min(input.width - 1, (corners[c] % w) * scale + scale / 2.0);
+            quad.y[c] = Math.min(input.height - 1, (corners[c] / w) * scale + scale / 2.0);
+        }
+        if (quad.area() < MIN_BOARD_AREA * input.width * input.height) {
+            return null;
+        }
+        return quad;
+    }
+
+    private static int floodFill(int[] small, int[] labels, int[] queue, int w, int h,
+                                 int start, int threshold, int label) {
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = start;
+        labels[start] = label;
+        while (head < tail) {
+            int i = queue[head++];
+            int x = i % w;
+            int y = i / w;
+            if (x > 0 && labels[i - 1] == 0 && small[i - 1] > threshold) {
+                labels[i - 1] = label;
+                queue[tail++] = i - 1;
+            }
+            if (x < w - 1 && labels[i + 1] == 0 && small[i + 1] > threshold) {
+                labels[i + 1] = label;
+                queue[tail++] = i + 1;
+            }
+            if (y > 0 && labels[i - w] == 0 && small[i - w] > threshold) {
+                labels[i - w] = label;
+                queue[tail++] = i - w;
+            }
+            if (y < h - 1 && labels[i + w] == 0 && small[i + w] > threshold) {
+                labels[i + w] = label;
+                queue[tail++] = i + w;
+            }
+        }
+        return tail;
+    }
+
+    // threshold that best separates the histogram into two classes
+    static int otsu(int[] histogram, int total) {
+        long sum = 0;
+        for (int i = 0; i < 256; i++) {
+            sum += (long) i * histogram[i];
+        }
+        long sumBackground = 0;
+        int weightBackground = 0;
+        double bestVariance = -1;
+        int threshold = 127;
+        for (int t = 0; t < 256; t++) {
+            weightBackground += histogram[t];
+            if (weightBackground == 0) {
+                continue;
+            }
+            int weightForeground = total - weightBackground;
+            if (weightForeground == 0) {
+                break;
+            }
+            sumBackground += (long) t * histogram[t];
+            double meanBackground = (double) sumBackground / weightBackground;
+            double meanForeground = (double) (sum - sumBackground) / weightForeground;
+            double variance = (double) weightBackground * weightForeground
+                    * (meanBackground - meanForeground) * (meanBackground - meanForeground);
+            if (variance > bestVariance) {
+                bestVariance = variance;
+                threshold = t;
+            }
+        }
+        return threshold;
+    }
+
+    public GrayImage warp(final GrayImage input, Quad quad, long deadlineNanos) throws TimeoutException {
+        final int w = (int) Math.round(Math.max(distance(quad, 0, 1), distance(quad, 3, 2)));
+        final int h = (int) Math.round(Math.max(distance(quad, 0, 3), distance(quad, 1, 2)));
+        final GrayImage output = new GrayImage(Math.max(1, Math.min(w, input.width)), Math.max(1, Math.min(h, input.height)));
+        final double[] m = homography(output.width - 1, output.height - 1, quad);
+
+        forEachBand(output.height, deadlineNanos, new Band() {
+            @Override
+            public void run(int fromRow, int toRow) {
+                for (int v = fromRow; v < toRow; v++) {
+                    int offset = v * output.width;
+                    for (int u = 0; u < output.width; u++) {
+                        double z = m[6] * u + m[7] * v + 1;
+                        double x = (m[0] * u + m[1] * v + m[2]) / z;
+                        double y = (m[3] * u + m[4] * v + m[5]) / z;
+                        output.pixels[offset + u] = (byte) bilinear(input, x, y);
+                    }
+                }
+            }
+        });
+        return output;
+    }
+
+    private static double distance(Quad quad, int a, int b) {
+        return Math.hypot(quad.x[a] - quad.x[b], quad.y[a] - quad.y[b]);
+    }
+
+    private static int bilinear(GrayImage image, double x, double y) {
+        x = Math.max(0, Math.min(image.width - 1, x));
+        y = Math.max(0, Math.min(image.height - 1, y));
+        int x0 = (int) x;
+        int y0 = (int) y;
+        int x1 = Math.min(x0 + 1, image.width - 1);
+        int y1 = Math.min(y0 + 1, image.height - 1);
+        double fx = x - x0;
+        double fy = y - y0;
+        double top = image.get(x0, y0) * (1 - fx) + image.get(x1, y0) * fx;
+        double bottom = image.get(x0, y1) * (1 - fx) + image.get(x1, y1) * fx;
+        return (int) (top * (1 - fy) + bottom * fy + 0.5);
+    }
+
+    // the projective transform taking the output rectangle (0,0)-(maxU,maxV) onto the quad,
+    // as m[0..7] of the 3x3 matrix with m[8] = 1
+    static double[] homography(double maxU, double maxV, Quad quad) {
+        double[] us = {0, maxU, maxU, 0};
+        double[] vs = {0, 0, maxV, maxV};
+        double[][] a = new double[8][9];
+        for (int i = 0; i < 4; i++) {
+            double u = us[i], v = vs[i], x = quad.x[i], y = quad.y[i];
+            a[2 * i] = new double[]{u, v, 1, 0, 0, 0, -u * x, -v * x, x};
+            a[2 * i + 1] = new double[]{0, 0, 0, u, v, 1, -u * y, -v * y, y};
+        }
+        // gaussian elimination with partial pivoting
+        for (int col = 0; col < 8; col++) {
+            int pivot = col;
+            for (int row = col + 1; row < 8; row++) {
+                if (Math.abs(a[row][col]) > Math.abs(a[pivot][col])) {
+                    pivot = row;
+                }
+            }
+            double[] tmp = a[col];
+            a[col] = a[pivot];
+            a[pivot] = tmp;
+            for (int row = 0; row < 8; row++) {
+                if (row == col || a[col][col] == 0) {
+                    continue;
+                }
+                double factor = a[row][col] / a[col][col];
+                for (int k = col; k < 9; k++) {
+                    a[row][k] -= factor * a[col][k];
+                }
+            }
+        }
+        double[] m = new double[8];
+        for (int i = 0; i < 8; i++) {
+            m[i] = a[i][i] == 0 ? 0 : a[i][8] / a[i][i];
+        }
+        return m;
+    }
+
+    // background brightness is estimated per 32x32 block as a high percentile (the board, not the ink),
+    // spread to neighbouring blocks so blocks full of writing don't darken, and interpolated per pixel
+    public GrayImage normalize(final GrayImage input, long deadlineNanos) throws TimeoutException {
+        final int gw = (input.width + BLOCK - 1) / BLOCK;
+        final int gh = (input.height + BLOCK - 1) / BLOCK;
+        final int[] grid = new int[gw * gh];
+
+        forEachBand(gh, deadlineNanos, new Band() {
+            @Override
+            public void run(int fromRow, int toRow) {
+                int[] histogram = new int[256];
+                for (int by = fromRow; by < toRow; by++) {
+                    for (int bx = 0; bx < gw; bx++) {
+                        Arrays.fill(histogram, 0);
+                        int count = 0;
+                        int yEnd = Math.min(input.height, (by + 1) * BLOCK);
+                        int xEnd = Math.min(input.width, (bx + 1) * BLOCK);
+                        for (int y = by * BLOCK; y < yEnd; y++) {
+                            for (int x = bx * BLOCK; x < xEnd; x++) {
+                                histogram[input.pixels[y * input.width + x] & 0xff]++;
+                                count++;
+                            }
+                        }
+                        grid[by * gw + bx] = percentile(histogram, count, 0.9);
+                    }
+                }
+            }
+        }, 1);
+
+        final int[] background = new int[gw * gh];
+        for (int by = 0; by < gh; by++) {
+            for (int bx = 0; bx < gw; bx++) {
+                int max = 0;
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        int y = by + dy;
+                        int x = bx + dx;
+                        if (x >= 0 && x < gw && y >= 0 && y < gh) {
+                            max = Math.max(max, grid[y * gw + x]);
+                        }
+                    }
+                }
+                background[by * gw + bx] = Math.max(16, max);
+            }
+        }
+
+        final GrayImage output = new GrayImage(input.width, input.height);
+        forEachBand(input.height, deadlineNanos, new Band() {
+            @Override
+            public void run(int fromRow, int toRow) {
+                for (int y = fromRow; y < toRow; y++) {
+                    double gy = Math.max(0, Math.min(gh - 1, (y + 0.5) / BLOCK - 0.5));
+                    int y0 = (int) gy;
+                    int y1 = Math.min(y0 + 1, gh - 1);
+                    double fy = gy - y0;
+                    for (int x = 0; x < input.width; x++) {
+                        double gx = Math.max(0, Math.min(gw - 1, (x + 0.5) / BLOCK - 0.5));
+                        int x0 = (int) gx;
+                        int x1 = Math.min(x0 + 1, gw - 1);
+                        double fx = gx - x0;
+                        double bg = (background[y0 * gw + x0] * (1 - fx) + background[y0 * gw + x1] * fx) * (1 - fy)
+                                + (background[y1 * gw + x0] * (1 - fx) + background[y1 * gw + x1] * fx) * fy;
+                        // relative to the board: 1 is clean board, ink is well below. anything within
+                        // 15% of the board goes to white, the rest is stretched over the full range
+                        double ratio = (input.pixels[y * input.width + x] & 0xff) / bg;
+                        int value = (int) Math.round(Math.min(1, ratio / 0.85) * 255);
+                        output.pixels[y * input.width + x] = (byte) value;
+                    }
+                }
+            }
+        });
+        return output;
+    }
+
+    private static int percentile(int[] histogram, int count, double fraction) {
+        int target = (int) (count * fraction);
+        int seen = 0;
+        for (int i = 0; i < 256; i++) {
+            seen += histogram[i];
+            if (seen > target) {
+                return i;
+            }
+        }
+        return 255;
+    }
+
+    private void forEachBand(int rows, long deadlineNanos, Band band) throws TimeoutException {
+        forEachBand(rows, deadlineNanos, band, TILE_ROWS);
+    }
+
+    // runs the band over [0, rows) in slices of bandRows, in parallel, waiting at most until the deadline
+    private void forEachBand(int rows, long deadlineNanos, final Band band, int bandRows) throws TimeoutException {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int from = 0; from < rows; from += bandRows) {
+            final int fromRow = from;
+            final int toRow = Math.min(rows, from + bandRows);
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    band.run(fromRow, toRow);
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                long remaining = deadlineNanos - System.nanoTime();
+                future.get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel(futures);
+            throw new TimeoutException("interrupted");
+        } catch (ExecutionException e) {
+            cancel(futures);
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            cancel(futures);
+            throw e;
+        }
+    }
+
+    private static void cancel(List<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+}
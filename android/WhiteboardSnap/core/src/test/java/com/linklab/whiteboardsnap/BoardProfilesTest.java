@@ -0,0 +1,90 @@
+package com.linklab.whiteboardsnap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class BoardProfilesTest {
+    private static final long MAX_AGE_MS = 60 * 60 * 1000;
+    private static final int REGULAR = BoardProfiles.REGULAR_LENS;
+    private static final int WIDE = BoardProfiles.WIDE_LENS;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // a board from (left, top) to (right, bottom), as shares of the frame
+    private static LensSelector.Score board(double left, double top, double right, double bottom, double sharpness) {
+        return new LensSelector.Score((right - left) * (bottom - top), sharpness, left, top, right, bottom);
+    }
+
+    private static BoardProfiles.Exposure exposure(long measuredAt) {
+        return new BoardProfiles.Exposure(20000000, 400, new float[] {2, 1, 1, 1.5f},
+                new float[] {1, 0, 0, 0, 1, 0, 0, 0, 1}, measuredAt);
+    }
+
+    @Test
+    public void learnsTheViewThatFramesTheBoard() throws IOException {
+        BoardProfiles profiles = new BoardProfiles(folder.newFile("profiles"), MAX_AGE_MS);
+        int angle = SnapRequest.DEFAULT_HEAD_ANGLE;
+        // runs off the top of the frame, the head looks up
+        profiles.record("whiteboard 225", angle, WIDE, board(0.2, 0, 0.8, 0.5, 100), null);
+        assertEquals(angle + BoardProfiles.TILT_STEP, profiles.headAngle("whiteboard 225", angle, WIDE));
+        // only for requests that leave the view to us
+        assertEquals(30, profiles.headAngle("whiteboard 225", 30, WIDE));
+        assertEquals(REGULAR, profiles.cameraId("whiteboard 225", angle, REGULAR));
+
+        // a small board in the wide angle tries the regular lens, which cuts it off and goes back for good
+        angle = profiles.headAngle("whiteboard 225", SnapRequest.DEFAULT_HEAD_ANGLE, SnapRequest.DEFAULT_CAMERA_ID);
+        profiles.record("whiteboard 225", angle, WIDE, board(0.4, 0.4, 0.6, 0.6, 100), null);
+        assertEquals(REGULAR, profiles.get("whiteboard 225").getCameraId());
+        profiles.record("whiteboard 225", angle, REGULAR, board(0, 0.3, 0.9, 0.7, 100), null);
+        assertEquals(WIDE, profiles.get("whiteboard 225").getCameraId());
+        profiles.record("whiteboard 225", angle, WIDE, board(0.4, 0.4, 0.6, 0.6, 100), null);
+        assertEquals(WIDE, profiles.get("whiteboard 225").getCameraId());
+
+        // low in the frame, it's nudged back towards the middle
+        profiles.record("whiteboard 110", SnapRequest.DEFAULT_HEAD_ANGLE, WIDE, board(0.2, 0.6, 0.8, 0.9, 100), null);
+        assertTrue(profiles.get("whiteboard 110").getHeadAngle() < SnapRequest.DEFAULT_HEAD_ANGLE);
+    }
+
+    @Test
+    public void blurryOrForeignCapturesDontMoveTheView() throws IOException {
+        BoardProfiles profiles = new BoardProfiles(folder.newFile("profiles"), MAX_AGE_MS);
+        int angle = SnapRequest.DEFAULT_HEAD_ANGLE;
+        profiles.record("kitchen", angle, WIDE, board(0.2, 0.3, 0.8, 0.7, 100), null);
+        assertEquals(angle, profiles.get("kitchen").getHeadAngle());
+        // the head was still moving
+        profiles.record("kitchen", angle, WIDE, board(0.2, 0, 0.8, 0.4, 10), null);
+        assertEquals(angle, profiles.get("kitchen").getHeadAngle());
+        // somebody's own view
+        profiles.record("kitchen", 40, WIDE, board(0.2, 0, 0.8, 0.4, 100), null);
+        assertEquals(angle, profiles.get("kitchen").getHeadAngle());
+        assertNull(profiles.record("hallway", 40, WIDE, board(0.2, 0, 0.8, 0.4, 100), null));
+        assertNull(profiles.get("hallway"));
+    }
+
+    @Test
+    public void keepsExposuresAcrossRestartsUntilTheyAreOld() throws IOException {
+        File file = folder.newFile("profiles");
+        BoardProfiles profiles = new BoardProfiles(file, MAX_AGE_MS);
+        profiles.record("whiteboard 225", SnapRequest.DEFAULT_HEAD_ANGLE, WIDE, board(0.2, 0, 0.8, 0.5, 100),
+                exposure(1000));
+
+        BoardProfiles reopened = new BoardProfiles(file, MAX_AGE_MS);
+        assertEquals(SnapRequest.DEFAULT_HEAD_ANGLE + BoardProfiles.TILT_STEP,
+                reopened.get("whiteboard 225").getHeadAngle());
+        BoardProfiles.Exposure exposure = reopened.exposure("whiteboard 225", WIDE, 2000);
+        assertEquals(20000000, exposure.getExposureTimeNs());
+        assertEquals(400, exposure.getSensitivity());
+        assertEquals(2, exposure.getColorGains()[0], 0);
+        assertEquals(1, exposure.getColorTransform()[8], 0);
+        // the other lens hasn't been measured, and this one is measured again after an hour
+        assertNull(reopened.exposure("whiteboard 225", REGULAR, 2000));
+        assertNull(reopened.exposure("whiteboard 225", WIDE, 1000 + MAX_AGE_MS + 1));
+    }
+}
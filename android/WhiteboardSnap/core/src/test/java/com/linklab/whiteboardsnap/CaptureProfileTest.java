@@ -0,0 +1,34 @@
+package com.linklab.whiteboardsnap;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CaptureProfileTest {
+    // what the temi's wide angle camera offers for jpeg
+    private static final int[][] SIZES = {{4160, 3120}, {1920, 1080}, {1920, 1088}, {1280, 720}, {640, 480}};
+
+    @Test
+    public void takesTheLargestSizeThatFits() {
+        assertArrayEquals(new int[] {1920, 1088}, CaptureProfile.DEFAULT.choose(SIZES));
+        assertArrayEquals(new int[] {1280, 720}, CaptureProfile.parse("yuv 1280x1000").choose(SIZES));
+        assertArrayEquals(new int[] {4160, 3120}, CaptureProfile.parse("jpeg 10000x10000").choose(SIZES));
+        // nothing fits, the smallest is closest
+        assertArrayEquals(new int[] {640, 480}, CaptureProfile.parse("yuv 320x240").choose(SIZES));
+    }
+
+    @Test
+    public void readsBackWhatItWrites() {
+        CaptureProfile profile = new CaptureProfile(CaptureProfile.Format.YUV, 1280, 720);
+        assertEquals("yuv 1280x720", profile.toString());
+        assertEquals(profile, CaptureProfile.parse(" YUV  1280x720 "));
+        assertEquals(CaptureProfile.DEFAULT, CaptureProfile.parse(CaptureProfile.DEFAULT.toString()));
+        for (String bad : new String[] {"", "yuv", "raw 1280x720", "yuv 1280", "yuv 0x720", "yuv axb"}) {
+            try {
+                CaptureProfile.parse(bad);
+                fail(bad);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
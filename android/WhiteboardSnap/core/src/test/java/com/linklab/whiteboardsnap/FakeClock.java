@@ -0,0 +1,19 @@
+package com.linklab.whiteboardsnap;
+
+// a clock that only moves when the test says so
+class FakeClock implements Clock {
+    private volatile long now;
+
+    FakeClock(long now) {
+        this.now = now;
+    }
+
+    @Override
+    public long now() {
+        return now;
+    }
+
+    void advance(long ms) {
+        now += ms;
+    }
+}
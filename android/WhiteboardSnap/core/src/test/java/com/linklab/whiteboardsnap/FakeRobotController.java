@@ -0,0 +1,91 @@
+package com.linklab.whiteboardsnap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+// in-memory robot for jvm tests. locations live at fixed synthetic coordinates and goTo()
+// teleports there immediately, recording every call. a stuck location is never reached, goTo() waits
+// there until stopMovement()
+class FakeRobotController implements RobotController {
+    final Map<String, MapPoint> locations = new HashMap<>();
+    final Set<String> unreachable = new HashSet<>();
+    final Set<String> stuck = new HashSet<>();
+    private volatile CountDownLatch stopped;
+    final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+    private MapPoint position = new MapPoint(0, 0);
+    volatile int battery = 100;
+
+    FakeRobotController place(String location, float x, float y) {
+        locations.put(location, new MapPoint(x, y));
+        return this;
+    }
+
+    @Override
+    public synchronized boolean goTo(String location) throws InterruptedException {
+        calls.add("goTo " + location);
+        if (stuck.contains(location)) {
+            CountDownLatch latch = new CountDownLatch(1);
+            stopped = latch;
+            latch.await();
+            return false;
+        }
+        if (unreachable.contains(location) || !locations.containsKey(location)) {
+            return false;
+        }
+        position = locations.get(location);
+        return true;
+    }
+
+    @Override
+    public void stopMovement() {
+        calls.add("stop");
+        CountDownLatch latch = stopped;
+        if (latch != null) {
+            latch.countDown();
+        }
+    }
+
+    @Override
+    public void tiltAngle(int angle) {
+        calls.add("tilt " + angle);
+    }
+
+    @Override
+    public synchronized boolean saveLocation(String name) {
+        calls.add("save " + name);
+        locations.put(name, position);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean deleteLocation(String name) {
+        calls.add("delete " + name);
+        return locations.remove(name) != null;
+    }
+
+    @Override
+    public synchronized List<String> getLocations() {
+        return new ArrayList<>(locations.keySet());
+    }
+
+    @Override
+    public synchronized MapPoint getPosition() {
+        return position;
+    }
+
+    @Override
+    public synchronized MapPoint positionOf(String location) {
+        return locations.get(location);
+    }
+
+    @Override
+    public int getBatteryPercentage() {
+        return battery;
+    }
+}
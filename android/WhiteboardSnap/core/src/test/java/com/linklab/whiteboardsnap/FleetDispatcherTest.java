@@ -0,0 +1,165 @@
+package com.linklab.whiteboardsnap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class FleetDispatcherTest {
+    private final FakeClock clock = new FakeClock(1000);
+    // "topic <- response topic/correlation data: payload"
+    private final List<String> published = new ArrayList<>();
+    private final List<String> warnings = new ArrayList<>();
+    private final FleetDispatcher dispatcher = new FleetDispatcher(new FleetDispatcher.Config()
+            .heartbeatTimeout(10 * 1000)
+            .estimates(20 * 1000, 1), clock, new FleetDispatcher.Transport() {
+        @Override
+        public void publish(String topic, String responseTopic, byte[] correlationData, String payload) {
+            published.add(topic + " <- " + responseTopic + "/" + new String(correlationData, UTF_8) + ": " + payload);
+        }
+    }, new FleetDispatcher.Listener() {
+        @Override
+        public void onEvent(String message) {
+        }
+
+        @Override
+        public void onWarning(String message, Exception error) {
+            warnings.add(message);
+        }
+    });
+    private final Runnable ack = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    // whiteboards a, b and c along a corridor, c only on robot one's map
+    private void heartbeat(String robot, RobotHeartbeat.State state, float x, int queue) {
+        Map<String, MapPoint> locations = new HashMap<>();
+        locations.put("whiteboard a", new MapPoint(0, 0));
+        locations.put("whiteboard b", new MapPoint(100, 0));
+        if (robot.equals("one")) {
+            locations.put("whiteboard c", new MapPoint(50, 0));
+        }
+        dispatcher.onHeartbeat(new RobotHeartbeat(robot, state, new MapPoint(x, 0), queue, 90, locations).toJson());
+    }
+
+    private void request(String id, String... locations) {
+        StringBuilder json = new StringBuilder();
+        for (String location : locations) {
+            json.append(json.length() > 0 ? "," : "").append('"').append(location).append('"');
+        }
+        dispatcher.onRequest("{\"v\":1,\"id\":\"" + id + "\",\"locations\":[" + json + "]}", "status/" + id,
+                id.getBytes(UTF_8), ack);
+    }
+
+    private List<String> assignedTo(String robot) {
+        List<String> assigned = new ArrayList<>();
+        for (String message : published) {
+            if (message.startsWith(FleetDispatcher.requestTopic(robot))) {
+                assigned.add(message.substring(message.indexOf("\"locations\":[\"") + 14, message.indexOf("\"]")));
+            }
+        }
+        return assigned;
+    }
+
+    @Test
+    public void sendsEachBoardToTheRobotThatIsDoneWithItFirst() {
+        heartbeat("one", RobotHeartbeat.State.IDLE, 0, 0);
+        heartbeat("two", RobotHeartbeat.State.IDLE, 100, 0);
+
+        request("r1", "whiteboard a", "whiteboard b");
+        assertEquals("[whiteboard a]", assignedTo("one").toString());
+        assertEquals("[whiteboard b]", assignedTo("two").toString());
+        assertEquals("temi-fleet/one/requests <- temi-fleet-status/1/1: {\"v\":1,\"id\":\"r1\","
+                + "\"locations\":[\"whiteboard a\"],\"camera\":1,\"tilt\":18,\"reply\":{\"channel\":\"whiteboard-messages\"}}",
+                published.get(0));
+
+        // a queue of ten is worth the drive across
+        heartbeat("one", RobotHeartbeat.State.BUSY, 0, 10);
+        request("r2", "whiteboard a");
+        assertEquals("[whiteboard b, whiteboard a]", assignedTo("two").toString());
+
+        // but a board the robot is already going to costs nothing more
+        request("r3", "whiteboard b");
+        assertEquals("[whiteboard b, whiteboard a, whiteboard b]", assignedTo("two").toString());
+    }
+
+    @Test
+    public void passesStatusEventsOnUntilTheBoardIsDone() {
+        heartbeat("one", RobotHeartbeat.State.IDLE, 0, 0);
+        request("r1", "whiteboard a");
+        published.clear();
+
+        dispatcher.onStatus("{\"v\":1,\"id\":\"r1\",\"status\":\"navigating\"}", "1".getBytes(UTF_8));
+        assertEquals(1, dispatcher.getAssignments("one"));
+        dispatcher.onStatus("{\"v\":1,\"id\":\"r1\",\"status\":\"uploaded\"}", "1".getBytes(UTF_8));
+        assertEquals(0, dispatcher.getAssignments("one"));
+        // a late duplicate isn't passed on
+        dispatcher.onStatus("{\"v\":1,\"id\":\"r1\",\"status\":\"uploaded\"}", "1".getBytes(UTF_8));
+
+        assertEquals(2, published.size());
+        assertEquals("status/r1 <- null/r1: {\"v\":1,\"id\":\"r1\",\"status\":\"navigating\"}", published.get(0));
+    }
+
+    @Test
+    public void handsTheWorkOfAQuietRobotToTheOthers() {
+        heartbeat("one", RobotHeartbeat.State.IDLE, 0, 0);
+        heartbeat("two", RobotHeartbeat.State.IDLE, 100, 0);
+        request("r1", "whiteboard a");
+        assertEquals("[whiteboard a]", assignedTo("one").toString());
+
+        clock.advance(6 * 1000);
+        heartbeat("two", RobotHeartbeat.State.IDLE, 100, 0);
+        dispatcher.checkHeartbeats();
+        assertEquals(2, dispatcher.getRobots().size());
+        clock.advance(6 * 1000);
+        dispatcher.checkHeartbeats();
+
+        assertEquals("[two]", dispatcher.getRobots().toString());
+        assertEquals("[whiteboard a]", assignedTo("two").toString());
+        assertEquals(1, dispatcher.getReassigned());
+        // the second robot answers on the same status topic
+        assertTrue(published.get(published.size() - 1).contains("<- temi-fleet-status/1/1"));
+
+        // and a robot that says it's leaving doesn't get to wait for the timeout
+        heartbeat("one", RobotHeartbeat.State.IDLE, 0, 0);
+        request("r2", "whiteboard a");
+        heartbeat("one", RobotHeartbeat.State.OFFLINE, 0, 0);
+        assertEquals("[whiteboard a, whiteboard a]", assignedTo("two").toString());
+    }
+
+    @Test
+    public void boardsWaitForARobotThatKnowsThem() {
+        request("r1", "whiteboard a");
+        assertEquals(1, dispatcher.getPending());
+
+        heartbeat("one", RobotHeartbeat.State.IDLE, 0, 0);
+        heartbeat("two", RobotHeartbeat.State.IDLE, 100, 0);
+        assertEquals(0, dispatcher.getPending());
+        assertEquals("[whiteboard a]", assignedTo("one").toString());
+
+        // only one knows c, it waits while that one is gone
+        heartbeat("one", RobotHeartbeat.State.OFFLINE, 0, 0);
+        assertEquals("[whiteboard a]", assignedTo("two").toString());
+        request("r2", "whiteboard c");
+        assertEquals(1, dispatcher.getPending());
+        heartbeat("one", RobotHeartbeat.State.IDLE, 0, 0);
+        assertEquals("[whiteboard a, whiteboard c]", assignedTo("one").toString());
+
+        // nobody has ever heard of d
+        published.clear();
+        request("r3", "whiteboard d");
+        assertEquals(0, dispatcher.getPending());
+        assertEquals("no robot knows whiteboard d, did you mean whiteboard a, whiteboard b or whiteboard c?",
+                warnings.get(warnings.size() - 1));
+        assertEquals(1, published.size());
+        assertTrue(published.get(0), published.get(0).startsWith("status/r3 <- null/r3: {\"v\":1,\"id\":\"r3\","
+                + "\"location\":\"whiteboard d\",\"job\":null,\"status\":\"failed\""));
+    }
+}
@@ -0,0 +1,91 @@
+package com.linklab.whiteboardsnap;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class FrameSelectorTest {
+    private static final int W = 320;
+    private static final int H = 240;
+
+    private final ExecutorService workers = Executors.newFixedThreadPool(3);
+    private final FrameSelector selector = new FrameSelector(workers);
+
+    @After
+    public void tearDown() {
+        workers.shutdownNow();
+    }
+
+    // a white board with a few lines of dark ink
+    private static GrayImage board() {
+        GrayImage image = new GrayImage(W, H);
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                boolean ink = y % 40 >= 20 && y % 40 < 23 && x > 40 && x < 280;
+                image.set(x, y, ink ? 30 : 230);
+            }
+        }
+        return image;
+    }
+
+    // smears the image sideways the way a turning head does
+    private static GrayImage smeared(GrayImage image, int length) {
+        GrayImage smeared = new GrayImage(W, H);
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                int sum = 0;
+                for (int i = 0; i < length; i++) {
+                    sum += image.get(Math.min(W - 1, x + i), y);
+                }
+                smeared.set(x, y, sum / length);
+            }
+        }
+        return smeared;
+    }
+
+    private static long deadline() {
+        return System.nanoTime() + 10L * 1000 * 1000 * 1000;
+    }
+
+    @Test
+    public void picksTheFrameTakenOnceTheHeadSettled() throws TimeoutException {
+        GrayImage sharp = board();
+        assertTrue(FrameSelector.sharpness(sharp) > FrameSelector.sharpness(smeared(sharp, 3)));
+        assertEquals(2, selector.sharpest(Arrays.asList(smeared(sharp, 9), smeared(sharp, 3), sharp), deadline()));
+        assertEquals(0, selector.sharpest(Arrays.asList(sharp, smeared(sharp, 3)), deadline()));
+        // a flat frame has nothing to be sharp about
+        assertEquals(0, FrameSelector.sharpness(new GrayImage(W, H)), 0);
+    }
+
+    @Test
+    public void medianDropsWhatWalksPastTheBoard() throws TimeoutException {
+        GrayImage[] frames = {board(), board(), board()};
+        // someone in front of the left of the board in the first frame, the right in the last
+        for (int y = 60; y < H; y++) {
+            for (int x = 0; x < 120; x++) {
+                frames[0].set(x, y, 80);
+                frames[2].set(x + 200, y, 80);
+            }
+        }
+        frames[1].set(10, 10, 0); // sensor noise
+
+        GrayImage fused = selector.median(Arrays.asList(frames), deadline());
+        assertArrayEquals(board().getPixels(), fused.getPixels());
+
+        // an even number of frames takes the lower of the middle two
+        GrayImage dark = new GrayImage(W, H);
+        fused = selector.median(Arrays.asList(board(), dark, board(), dark), deadline());
+        assertEquals(0, fused.get(0, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fusesOnlyFramesOfTheSameSize() throws TimeoutException {
+        selector.median(Arrays.asList(board(), new GrayImage(W / 2, H / 2)), deadline());
+    }
+}
@@ -0,0 +1,86 @@
+package com.linklab.whiteboardsnap;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    @Test
+    public void bucketsStayWithinOneSixtyFourth() {
+        for (long value = 0; value < 5000000; value += 1 + value / 100) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            long highest = LatencyHistogram.highestIn(bucket);
+            assertTrue(value + " in bucket ending at " + highest, value <= highest);
+            assertTrue(value + " in bucket ending at " + highest, highest - value <= value / 64);
+            assertEquals(bucket, LatencyHistogram.bucketOf(highest));
+            assertEquals(bucket + 1, LatencyHistogram.bucketOf(highest + 1));
+        }
+    }
+
+    @Test
+    public void readsPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram(Tracer.MAX_LATENCY_MS);
+        for (int ms = 1; ms <= 100; ms++) {
+            histogram.record(ms);
+        }
+        histogram.record(20000);
+
+        assertEquals(101, histogram.getCount());
+        assertEquals(51, histogram.valueAt(50));
+        assertEquals(91, histogram.valueAt(90));
+        assertEquals(100, histogram.valueAt(99));
+        assertEquals(20000, histogram.valueAt(100));
+        assertEquals(20000, histogram.getMax());
+        assertEquals((5050 + 20000) / 101, histogram.getMean());
+    }
+
+    @Test
+    public void percentilesOfBigValuesAreClose() {
+        LatencyHistogram histogram = new LatencyHistogram(Tracer.MAX_LATENCY_MS);
+        Random random = new Random(7);
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 1000 + random.nextInt(120000);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double percentile : new double[]{50, 90, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long estimate = histogram.valueAt(percentile);
+            assertTrue(percentile + ": " + estimate + " vs " + exact,
+                    estimate >= exact && estimate - exact <= exact / 64);
+        }
+    }
+
+    @Test
+    public void clampsOutOfRangeValues() {
+        LatencyHistogram histogram = new LatencyHistogram(1000);
+        histogram.record(-5);
+        histogram.record(5000);
+
+        assertEquals(0, histogram.valueAt(50));
+        assertEquals(1000, histogram.valueAt(100));
+    }
+
+    @Test
+    public void movesIntervals() {
+        LatencyHistogram recording = new LatencyHistogram(Tracer.MAX_LATENCY_MS);
+        LatencyHistogram interval = new LatencyHistogram(Tracer.MAX_LATENCY_MS);
+        recording.record(10);
+        recording.record(300);
+
+        recording.moveTo(interval);
+        recording.record(7);
+
+        assertEquals(2, interval.getCount());
+        assertEquals(300, interval.getMax());
+        assertEquals(155, interval.getMean());
+        assertEquals(1, recording.getCount());
+        assertEquals(7, recording.getMax());
+        assertEquals(7, recording.valueAt(100));
+    }
+}
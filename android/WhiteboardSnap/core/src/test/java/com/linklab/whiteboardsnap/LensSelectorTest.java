@@ -0,0 +1,54 @@
+package com.linklab.whiteboardsnap;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class LensSelectorTest {
+    private static final int W = 320;
+    private static final int H = 240;
+
+    private final LensSelector selector = new LensSelector(new WhiteboardProcessor(null));
+
+    // a dim wall with a board from (left, top) to (right, bottom), with lines of ink across it
+    private static GrayImage framed(int left, int top, int right, int bottom) {
+        GrayImage image = new GrayImage(W, H);
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                boolean board = x >= left && x < right && y >= top && y < bottom;
+                boolean ink = board && (y - top) % 20 >= 10 && (y - top) % 20 < 12 && x > left + 10 && x < right - 10;
+                image.set(x, y, ink ? 30 : board ? 230 : 60);
+            }
+        }
+        return image;
+    }
+
+    @Test
+    public void prefersTheWholeBoardOverACloserCutOffOne() {
+        // the regular lens is closer but cuts off the right of the board, the wide angle has it all
+        LensSelector.Score regular = selector.score(framed(20, 20, W, H - 20));
+        LensSelector.Score wide = selector.score(framed(60, 50, 260, 190));
+        assertTrue(regular.isCutOff());
+        assertTrue(regular.isCutOffRight());
+        assertFalse(regular.isCutOffTop() || regular.isCutOffBottom() || regular.isCutOffLeft());
+        assertFalse(wide.isCutOff());
+        // and it's in the middle of the frame
+        assertEquals(0, wide.getRise(), 0.02);
+        assertTrue(regular.getCoverage() > wide.getCoverage());
+        assertEquals(1, LensSelector.best(Arrays.asList(regular, wide)));
+
+        // both whole, the one the board fills more wins
+        LensSelector.Score closer = selector.score(framed(20, 20, 300, 220));
+        assertEquals(0, LensSelector.best(Arrays.asList(closer, wide)));
+    }
+
+    @Test
+    public void withoutABoardTheSharperStillGoes() {
+        LensSelector.Score flat = selector.score(new GrayImage(W, H));
+        LensSelector.Score noise = selector.score(framed(0, 0, 8, 8));
+        assertEquals(0, flat.getCoverage(), 0);
+        assertEquals(1, LensSelector.best(Arrays.asList(flat, noise)));
+    }
+}
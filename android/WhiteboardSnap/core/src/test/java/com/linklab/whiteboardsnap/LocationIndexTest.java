@@ -0,0 +1,59 @@
+package com.linklab.whiteboardsnap;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class LocationIndexTest {
+    private final LocationIndex index = new LocationIndex(Arrays.asList("whiteboard 225", "whiteboard 226",
+            "whiteboard 3014", "kitchen", "home base"));
+
+    private String resolve(String text) {
+        return index.resolve(text).getLocation();
+    }
+
+    @Test
+    public void findsTheBoardDespiteTheTypo() {
+        assertTrue(index.resolve("whiteboard 225").isExact());
+        assertEquals("whiteboard 225", resolve("whitebaord 225"));
+        assertEquals("whiteboard 225", resolve("  Whiteboard-225 "));
+        assertEquals("whiteboard 3014", resolve("whiteboard3014"));
+        assertEquals("whiteboard 225", resolve("whitebord 0225"));
+        assertEquals("kitchen", resolve("kitchn"));
+        assertFalse(index.resolve("kitchn").isExact());
+        // the number alone is enough when only one board has it
+        assertEquals("whiteboard 3014", resolve("3014"));
+    }
+
+    @Test
+    public void neverTakesOneBoardForAnother() {
+        assertNull(resolve("whiteboard 227"));
+        assertEquals(Arrays.asList("whiteboard 225", "whiteboard 226", "whiteboard 3014"),
+                index.resolve("whiteboard 227").getSuggestions());
+        assertNull(resolve("whiteboard 22"));
+        // both are as close
+        assertEquals("no location called whiteboard, did you mean whiteboard 225 or whiteboard 226?",
+                new LocationIndex(Arrays.asList("whiteboard 225", "whiteboard 226")).resolve("whiteboard").describe());
+    }
+
+    @Test
+    public void turnsDownWhatIsCloseToNothing() {
+        LocationIndex.Resolution resolution = index.resolve("the cafeteria");
+        assertFalse(resolution.isResolved());
+        assertTrue(resolution.getSuggestions().isEmpty());
+        assertEquals("no location called the cafeteria", resolution.describe());
+        assertNull(new LocationIndex(Arrays.<String>asList()).resolve("kitchen").getLocation());
+    }
+
+    @Test
+    public void normalizesAndCountsEdits() {
+        assertEquals("wb 225 b", LocationIndex.normalize("WB225-b"));
+        assertEquals(1, LocationIndex.distance("whiteboard", "whitebaord"));
+        assertEquals(3, LocationIndex.distance("kitten", "sitting"));
+        assertEquals(0, LocationIndex.distance("", ""));
+        assertTrue(index.isOf(Arrays.asList("whiteboard 225", "whiteboard 226", "whiteboard 3014", "kitchen",
+                "home base")));
+    }
+}
@@ -0,0 +1,103 @@
+package com.linklab.whiteboardsnap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class MetricsExporterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final FakeClock clock = new FakeClock(0);
+    private final Tracer tracer = new Tracer(clock);
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void tracesAJobThroughItsPhases() {
+        tracer.start("7", 0);
+        clock.advance(40);
+        tracer.begin("7", Phase.QUEUE_WAIT);
+        clock.advance(1000);
+        tracer.onStatus("7", JobStatus.NAVIGATING);
+        clock.advance(20000);
+        tracer.end("7", Phase.NAVIGATION);
+        tracer.end("7", Phase.NAVIGATION); // only counted once
+        clock.advance(5000);
+        tracer.onStatus("7", JobStatus.UPLOADED);
+
+        assertEquals(1000, tracer.histogram(Phase.QUEUE_WAIT).getMax());
+        assertEquals(1, tracer.histogram(Phase.NAVIGATION).getCount());
+        assertEquals(20000, tracer.histogram(Phase.NAVIGATION).getMax());
+        assertEquals(26040, tracer.histogram(Phase.END_TO_END).getMax());
+        assertEquals(0, tracer.openTraces());
+    }
+
+    @Test
+    public void failedAndUnrequestedJobsHaveNoEndToEndLatency() {
+        tracer.begin("patrol", Phase.QUEUE_WAIT);
+        tracer.onStatus("patrol", JobStatus.UPLOADED);
+        tracer.start("8", 0);
+        tracer.onStatus("8", JobStatus.FAILED);
+
+        assertEquals(0, tracer.histogram(Phase.END_TO_END).getCount());
+        assertEquals(0, tracer.openTraces());
+    }
+
+    @Test
+    public void forgetsTheOldestTracesOfJobsThatNeverFinish() {
+        for (int i = 0; i < Tracer.MAX_TRACES + 10; i++) {
+            tracer.start(Integer.toString(i), 0);
+        }
+        clock.advance(100);
+        tracer.onStatus("0", JobStatus.UPLOADED);
+        tracer.onStatus(Integer.toString(Tracer.MAX_TRACES + 9), JobStatus.UPLOADED);
+
+        assertEquals(1, tracer.histogram(Phase.END_TO_END).getCount());
+        assertEquals(Tracer.MAX_TRACES - 1, tracer.openTraces());
+    }
+
+    @Test
+    public void exportsEachIntervalAsLineProtocol() throws IOException {
+        File file = new File(folder.getRoot(), "metrics.lp");
+        MetricsExporter exporter = new MetricsExporter(tracer, file, 1024 * 1024);
+        tracer.record(Phase.UPLOAD, 800);
+        tracer.record(Phase.UPLOAD, 1200);
+        tracer.record(Phase.INTAKE, 3);
+
+        String lines = exporter.export(1634567890123L);
+
+        assertEquals("whiteboardsnap_latency,phase=intake count=1i,mean=3i,p50=3i,p90=3i,p99=3i,max=3i 1634567890123000000\n"
+                + "whiteboardsnap_latency,phase=upload count=2i,mean=1000i,p50=807i,p90=1200i,p99=1200i,max=1200i "
+                + "1634567890123000000\n", lines);
+        assertEquals(lines, read(file));
+        // nothing happened since
+        assertEquals("", exporter.export(1634567950123L));
+        tracer.record(Phase.UPLOAD, 100);
+        assertEquals("whiteboardsnap_latency,phase=upload count=1i,mean=100i,p50=100i,p90=100i,p99=100i,max=100i "
+                + "1634568010123000000\n", exporter.export(1634568010123L));
+        assertEquals(3, read(file).split("\n").length);
+    }
+
+    @Test
+    public void rotatesTheFile() throws IOException {
+        File file = new File(folder.getRoot(), "metrics.lp");
+        MetricsExporter exporter = new MetricsExporter(tracer, file, 100);
+        for (int i = 0; i < 3; i++) {
+            tracer.record(Phase.UPLOAD, 100);
+            exporter.export(i);
+        }
+
+        assertEquals(1, read(file).split("\n").length);
+        assertEquals(2, read(new File(folder.getRoot(), "metrics.lp.1")).split("\n").length);
+    }
+}
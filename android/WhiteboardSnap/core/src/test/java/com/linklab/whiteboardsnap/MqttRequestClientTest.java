@@ -0,0 +1,218 @@
+package com.linklab.whiteboardsnap;
+
+import com.hivemq.client.mqtt.MqttClient;
+import com.hivemq.client.mqtt.MqttGlobalPublishFilter;
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+import com.hivemq.client.mqtt.mqtt5.Mqtt5BlockingClient;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import com.hivemq.embedded.EmbeddedHiveMQ;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class MqttRequestClientTest {
+    private static final String TOPIC = "temi-data";
+    private static final long TIMEOUT_S = 10;
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private static EmbeddedHiveMQ broker;
+    private static int brokerPort;
+    private static int clients = 0;
+
+    private TcpProxy proxy;
+    private Mqtt5BlockingClient publisher;
+    private MqttRequestClient client;
+    private final BlockingQueue<String> requests = new LinkedBlockingQueue<>();
+    private final List<Runnable> acks = new CopyOnWriteArrayList<>();
+    private final BlockingQueue<String> replyTo = new LinkedBlockingQueue<>();
+    private final BlockingQueue<MqttRequestClient.State> states = new LinkedBlockingQueue<>();
+
+    @BeforeClass
+    public static void startBroker() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            brokerPort = socket.getLocalPort();
+        }
+        File config = folder.newFolder("config");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(new File(config, "config.xml")), UTF_8)) {
+            writer.write("<hivemq><listeners><tcp-listener><port>" + brokerPort
+                    + "</port><bind-address>127.0.0.1</bind-address></tcp-listener></listeners></hivemq>");
+        }
+        broker = EmbeddedHiveMQ.builder()
+                .withConfigurationFolder(config.toPath())
+                .withDataFolder(folder.newFolder("data").toPath())
+                .withExtensionsFolder(folder.newFolder("extensions").toPath())
+                .build();
+        broker.start().join();
+    }
+
+    @AfterClass
+    public static void stopBroker() throws Exception {
+        broker.stop().join();
+        broker.close();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        proxy = new TcpProxy(brokerPort);
+        publisher = MqttClient.builder().useMqttVersion5()
+                .serverHost("127.0.0.1").serverPort(brokerPort)
+                .buildBlocking();
+        publisher.connect();
+    }
+
+    @After
+    public void tearDown() {
+        if (client != null) {
+            client.stop();
+        }
+        publisher.disconnect();
+        proxy.close();
+    }
+
+    // every test gets its own session on the broker
+    private MqttRequestClient client(final boolean ackRightAway) {
+        MqttRequestClient.Config config = new MqttRequestClient.Config("127.0.0.1", "robot-" + (++clients), TOPIC)
+                .port(proxy.getPort(), false)
+                .reconnectDelays(50, 200);
+        client = new MqttRequestClient(config, new MqttRequestClient.Handler() {
+            @Override
+            public void onRequest(String payload, String responseTopic, byte[] correlationData, Runnable ack) {
+                if (responseTopic != null) {
+                    replyTo.add(responseTopic + " " + new String(correlationData, UTF_8));
+                }
+                if (ackRightAway) {
+                    ack.run();
+                } else {
+                    acks.add(ack);
+                }
+                requests.add(payload);
+            }
+        }, new MqttRequestClient.Listener() {
+            @Override
+            public void onStateChanged(MqttRequestClient.State state, Throwable cause) {
+                states.add(state);
+            }
+        });
+        return client;
+    }
+
+    private void publish(String payload) {
+        publisher.publishWith().topic(TOPIC).qos(MqttQos.AT_LEAST_ONCE).payload(payload.getBytes(UTF_8)).send();
+    }
+
+    private void await(MqttRequestClient.State expected) throws InterruptedException {
+        MqttRequestClient.State state;
+        do {
+            state = states.poll(TIMEOUT_S, TimeUnit.SECONDS);
+            assertNotNull("timed out waiting for " + expected, state);
+        } while (state != expected);
+    }
+
+    @Test
+    public void startReturnsRightAwayAndKeepsTryingUntilTheNetworkIsUp() throws InterruptedException {
+        proxy.cut();
+        MqttRequestClient client = client(true);
+
+        long started = System.nanoTime();
+        client.start();
+        assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(500));
+        await(MqttRequestClient.State.RECONNECTING);
+
+        proxy.restore();
+        await(MqttRequestClient.State.CONNECTED);
+        publish("{\"location\": \"whiteboard 225\"}");
+
+        assertEquals("{\"location\": \"whiteboard 225\"}", requests.poll(TIMEOUT_S, TimeUnit.SECONDS));
+        assertTrue(client.getStats().getReconnectAttempts() >= 1);
+        assertEquals(1, client.getStats().getConnects());
+    }
+
+    @Test
+    public void requestsSentWhileOfflineArriveAfterReconnecting() throws InterruptedException {
+        MqttRequestClient client = client(true);
+        client.start();
+        await(MqttRequestClient.State.CONNECTED);
+
+        proxy.cut();
+        await(MqttRequestClient.State.RECONNECTING);
+        publish("one");
+        publish("two");
+        proxy.restore();
+
+        assertEquals("one", requests.poll(TIMEOUT_S, TimeUnit.SECONDS));
+        assertEquals("two", requests.poll(TIMEOUT_S, TimeUnit.SECONDS));
+        assertEquals(2, client.getStats().getConnects());
+        assertEquals(1, client.getStats().getDisconnects());
+        assertEquals(0, client.getStats().getUnacknowledged());
+    }
+
+    @Test
+    public void unacknowledgedRequestsAreDeliveredAgain() throws InterruptedException {
+        MqttRequestClient client = client(false);
+        client.start();
+        await(MqttRequestClient.State.CONNECTED);
+        publish("whiteboard 225");
+        assertEquals("whiteboard 225", requests.poll(TIMEOUT_S, TimeUnit.SECONDS));
+        assertEquals(1, client.getStats().getUnacknowledged());
+
+        // the robot lost the connection before the request was queued
+        proxy.cut();
+        await(MqttRequestClient.State.RECONNECTING);
+        proxy.restore();
+
+        assertEquals("whiteboard 225", requests.poll(TIMEOUT_S, TimeUnit.SECONDS));
+        for (Runnable ack : acks) {
+            ack.run();
+            ack.run();
+        }
+        assertEquals(2, client.getStats().getAcknowledged());
+    }
+
+    @Test
+    public void repliesGoToTheResponseTopicWithTheCorrelationData() throws InterruptedException {
+        MqttRequestClient client = client(true);
+        client.start();
+        await(MqttRequestClient.State.CONNECTED);
+        try (Mqtt5BlockingClient.Mqtt5Publishes replies = publisher.publishes(MqttGlobalPublishFilter.SUBSCRIBED)) {
+            publisher.subscribeWith().topicFilter("status/#").send();
+            publisher.publishWith().topic(TOPIC).qos(MqttQos.AT_LEAST_ONCE)
+                    .responseTopic("status/a1b2").correlationData("c1".getBytes(UTF_8))
+                    .payload("whiteboard 225".getBytes(UTF_8)).send();
+            assertEquals("status/a1b2 c1", replyTo.poll(TIMEOUT_S, TimeUnit.SECONDS));
+
+            client.publish("status/a1b2", "c1".getBytes(UTF_8), "queued");
+            // not an answer to anything
+            client.publish("metrics/robot", null, "{}");
+
+            Optional<Mqtt5Publish> reply = replies.receive(TIMEOUT_S, TimeUnit.SECONDS);
+            assertTrue(reply.isPresent());
+            assertEquals("status/a1b2", reply.get().getTopic().toString());
+            assertEquals("c1", UTF_8.decode(reply.get().getCorrelationData().get()).toString());
+            assertEquals("queued", new String(reply.get().getPayloadAsBytes(), UTF_8));
+            assertEquals(1, client.getStats().getReplies());
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.linklab.whiteboardsnap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class NearestNeighbourRoutePlannerTest {
+    private final RoutePlanner planner = new NearestNeighbourRoutePlanner();
+    private final SnapJobQueue queue = new SnapJobQueue();
+    private final Map<String, MapPoint> positions = new HashMap<>();
+
+    private SnapJob stop(String location, float x, float y) {
+        positions.put(location, new MapPoint(x, y));
+        return stop(location);
+    }
+
+    // a stop the robot has never been to, so its position is unknown
+    private SnapJob stop(String location) {
+        return queue.submit(location, 18, 1, "test");
+    }
+
+    private static List<String> locations(List<SnapJob> jobs) {
+        List<String> names = new ArrayList<>();
+        for (SnapJob job : jobs) {
+            names.add(job.getLocation());
+        }
+        return names;
+    }
+
+    private double length(MapPoint start, List<SnapJob> tour) {
+        double total = 0;
+        MapPoint current = start;
+        for (SnapJob job : tour) {
+            MapPoint next = positions.get(job.getLocation());
+            total += current.distanceTo(next);
+            current = next;
+        }
+        return total;
+    }
+
+    @Test
+    public void visitsStopsAlongACorridorInOrder() {
+        List<SnapJob> stops = Arrays.asList(
+                stop("whiteboard c", 30, 0),
+                stop("whiteboard a", 10, 0),
+                stop("whiteboard d", 40, 0),
+                stop("whiteboard b", 20, 0));
+
+        List<SnapJob> tour = planner.plan(new MapPoint(0, 0), stops, positions);
+
+        assertEquals(Arrays.asList("whiteboard a", "whiteboard b", "whiteboard c", "whiteboard d"), locations(tour));
+    }
+
+    @Test
+    public void unknownPositionsGoLastInRequestOrder() {
+        List<SnapJob> stops = Arrays.asList(
+                stop("whiteboard x"),
+                stop("whiteboard far", 50, 0),
+                stop("whiteboard y"),
+                stop("whiteboard near", 5, 0));
+
+        List<SnapJob> tour = planner.plan(new MapPoint(0, 0), stops, positions);
+
+        assertEquals(Arrays.asList("whiteboard near", "whiteboard far", "whiteboard x", "whiteboard y"), locations(tour));
+    }
+
+    @Test
+    public void handlesUnknownStart() {
+        List<SnapJob> stops = Arrays.asList(stop("whiteboard a", 0, 0), stop("whiteboard b", 1, 1));
+
+        assertEquals(2, planner.plan(null, stops, positions).size());
+    }
+
+    @Test
+    public void neverWorseThanRequestOrder() {
+        Random random = new Random(42);
+        MapPoint start = new MapPoint(0, 0);
+        for (int round = 0; round < 50; round++) {
+            positions.clear();
+            List<SnapJob> stops = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                stops.add(stop("whiteboard " + round + "-" + i, random.nextFloat() * 50, random.nextFloat() * 50));
+            }
+
+            List<SnapJob> tour = planner.plan(start, stops, positions);
+
+            assertEquals(stops.size(), tour.size());
+            assertTrue(tour.containsAll(stops));
+            assertTrue(length(start, tour) <= length(start, stops) + 1e-6);
+        }
+    }
+}
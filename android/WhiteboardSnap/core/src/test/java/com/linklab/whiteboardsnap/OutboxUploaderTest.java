@@ -0,0 +1,78 @@
+package com.linklab.whiteboardsnap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class OutboxUploaderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer slack;
+    private SlackUploader uploader;
+    private final SnapshotBufferPool pool = new SnapshotBufferPool(2);
+
+    @Before
+    public void setUp() throws Exception {
+        slack = new MockWebServer();
+        slack.start();
+        uploader = new SlackUploader(slack.url("/api/files.upload").toString(), "xoxb-test", 2, 1, 10);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        uploader.shutdown();
+        slack.shutdown();
+    }
+
+    @Test
+    public void uploadInFlightAtShutdownIsStillRecorded() throws Exception {
+        // slack takes its time answering
+        slack.enqueue(new MockResponse().setHeadersDelay(500, TimeUnit.MILLISECONDS).setBody(
+                "{\"ok\":true,\"file\":{\"id\":\"F123\",\"permalink\":\"https://slack.test/F123\"}}"));
+        File directory = folder.newFolder("outbox");
+        final AtomicReference<UploadResult> uploaded = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        OutboxUploader outboxUploader = new OutboxUploader(directory, uploader, pool, 2, new OutboxUploader.Listener() {
+            @Override
+            public void onUploaded(UploadOutbox.Entry entry, UploadResult result) {
+                uploaded.set(result);
+                done.countDown();
+            }
+
+            @Override
+            public void onError(String message, Exception e) {
+                fail(message);
+            }
+        });
+        outboxUploader.start();
+        byte[] bytes = "jpeg".getBytes(UTF_8);
+        ByteBuffer data = pool.acquire(bytes.length);
+        data.put(bytes).flip();
+        outboxUploader.submit(new Snapshot("1", "whiteboard 225", 1000, "image/jpeg", data, pool),
+                "whiteboard-messages", null, "snap");
+
+        assertNotNull(slack.takeRequest(10, TimeUnit.SECONDS));
+        outboxUploader.shutdown();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(uploaded.get().isOk());
+        assertTrue(outboxUploader.awaitTermination(10, TimeUnit.SECONDS));
+        // marked done before the outbox was closed, so it isn't sent again
+        assertTrue(new UploadOutbox(directory).pending().isEmpty());
+    }
+}
@@ -0,0 +1,99 @@
+package com.linklab.whiteboardsnap;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PatrolSchedulerTest {
+    private static final long MINUTE = 60 * 1000;
+    private static final long HOUR = 60 * MINUTE;
+
+    private final FakeClock clock = new FakeClock(1000000);
+    private final PatrolScheduler scheduler = new PatrolScheduler(clock, 30 * MINUTE, 5 * MINUTE, 50, 24 * HOUR);
+    private final List<String> locations = Arrays.asList(
+            "home base", "whiteboard a", "whiteboard b", "whiteboard c", "kitchen");
+
+    @Test
+    public void onlyPatrolsWhenIdleAndCharged() {
+        assertFalse("just started", scheduler.shouldPatrol(100));
+
+        clock.advance(5 * MINUTE);
+        assertTrue(scheduler.shouldPatrol(100));
+        assertTrue(scheduler.shouldPatrol(50));
+        assertFalse("battery low", scheduler.shouldPatrol(49));
+        assertFalse("battery unknown", scheduler.shouldPatrol(-1));
+
+        scheduler.recordActivity();
+        clock.advance(4 * MINUTE);
+        assertFalse("live work a moment ago", scheduler.shouldPatrol(100));
+    }
+
+    @Test
+    public void visitsEveryWhiteboardOnceAtFirst() {
+        assertEquals(Arrays.asList("whiteboard a", "whiteboard b", "whiteboard c"), scheduler.plan(locations));
+    }
+
+    @Test
+    public void skipsBoardsCapturedRecently() {
+        scheduler.recordCapture("whiteboard a");
+        clock.advance(29 * MINUTE);
+        scheduler.recordCapture("whiteboard b");
+
+        assertEquals(Arrays.asList("whiteboard c"), scheduler.plan(locations));
+
+        clock.advance(MINUTE);
+        assertEquals(Arrays.asList("whiteboard c", "whiteboard a"), scheduler.plan(locations));
+    }
+
+    @Test
+    public void popularBoardsGoFirst() {
+        for (String board : Arrays.asList("whiteboard a", "whiteboard b", "whiteboard c")) {
+            scheduler.recordCapture(board);
+        }
+        scheduler.recordRequest("whiteboard c");
+        scheduler.recordRequest("whiteboard c");
+        scheduler.recordRequest("whiteboard b");
+        clock.advance(HOUR);
+
+        assertEquals(Arrays.asList("whiteboard c", "whiteboard b", "whiteboard a"), scheduler.plan(locations));
+    }
+
+    @Test
+    public void stalenessCanOutweighPopularity() {
+        scheduler.recordCapture("whiteboard a");
+        scheduler.recordCapture("whiteboard b");
+        scheduler.recordRequest("whiteboard b");
+        clock.advance(10 * HOUR);
+        // b has been asked for, but a hasn't been seen for three times as long
+        scheduler.recordCapture("whiteboard b");
+        clock.advance(5 * HOUR);
+
+        List<String> plan = scheduler.plan(Arrays.asList("whiteboard a", "whiteboard b"));
+
+        assertEquals(Arrays.asList("whiteboard a", "whiteboard b"), plan);
+    }
+
+    @Test
+    public void demandFadesOverTime() {
+        scheduler.recordCapture("whiteboard a");
+        scheduler.recordCapture("whiteboard b");
+        for (int i = 0; i < 4; i++) {
+            scheduler.recordRequest("whiteboard a");
+        }
+        // four requests five half-lives ago are worth less than one today
+        clock.advance(5 * 24 * HOUR);
+        scheduler.recordRequest("whiteboard b");
+
+        assertEquals(Arrays.asList("whiteboard b", "whiteboard a"),
+                scheduler.plan(Arrays.asList("whiteboard a", "whiteboard b")));
+    }
+
+    @Test
+    public void nothingToDoWithoutWhiteboards() {
+        assertEquals(Collections.<String>emptyList(), scheduler.plan(Arrays.asList("home base", "kitchen")));
+    }
+}
@@ -0,0 +1,133 @@
+package com.linklab.whiteboardsnap;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PerceptualHashTest {
+    private static final int W = 640;
+    private static final int H = 480;
+    private static final int MAX_DISTANCE = 2;
+
+    private final PerceptualHash hasher = new PerceptualHash();
+
+    // a preview sized frame of a board with some writing on it, lit from the left
+    private static GrayImage board(int brightness, int noise, long seed) {
+        Random random = new Random(seed);
+        GrayImage image = new GrayImage(W, H);
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                int value = x < 60 || x > 580 || y < 40 || y > 440 ? 70 : 235 - x * 50 / W;
+                image.set(x, y, clamp(value + brightness + (noise > 0 ? random.nextInt(2 * noise + 1) - noise : 0)));
+            }
+        }
+        for (int line = 0; line < 4; line++) {
+            stroke(image, 120, 100 + line * 60, 300 + line * 30);
+        }
+        return image;
+    }
+
+    private static void stroke(GrayImage image, int x0, int y, int x1) {
+        for (int x = x0; x < x1; x++) {
+            for (int t = -2; t <= 2; t++) {
+                image.set(x, y + t, 30);
+            }
+        }
+    }
+
+    private static int clamp(int v) {
+        return Math.max(0, Math.min(255, v));
+    }
+
+    @Test
+    public void sameBoardInNewLightIsUnchanged() {
+        long[] before = hasher.compute(board(0, 0, 1));
+        long[] after = hasher.compute(board(12, 6, 2));
+
+        assertTrue(PerceptualHash.distance(before, after) <= MAX_DISTANCE);
+    }
+
+    @Test
+    public void aNewLineOfWritingIsAChange() {
+        GrayImage written = board(0, 3, 2);
+        stroke(written, 380, 380, 520);
+
+        int distance = PerceptualHash.distance(hasher.compute(board(0, 3, 1)), hasher.compute(written));
+
+        assertTrue("distance " + distance, distance > MAX_DISTANCE);
+    }
+
+    @Test
+    public void anotherBoardIsFarOff() {
+        GrayImage other = board(0, 0, 1);
+        for (int y = 60; y < 420; y++) {
+            for (int x = 80; x < 560; x++) {
+                other.set(x, y, 230 - x * 50 / W); // wiped clean
+            }
+        }
+        stroke(other, 200, 300, 450);
+
+        int distance = PerceptualHash.distance(hasher.compute(board(0, 0, 1)), hasher.compute(other));
+
+        assertTrue("distance " + distance, distance > 10 * MAX_DISTANCE);
+    }
+
+    @Test
+    public void honoursCameraStrides() {
+        GrayImage image = board(0, 4, 1);
+        // luma as some devices hand it out: interleaved with chroma and padded rows
+        int pixelStride = 2;
+        int rowStride = W * pixelStride + 64;
+        ByteBuffer plane = ByteBuffer.allocateDirect(rowStride * H);
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                plane.put(y * rowStride + x * pixelStride, (byte) image.get(x, y));
+            }
+        }
+
+        long[] strided = hasher.compute(plane, W, H, rowStride, pixelStride);
+
+        assertArrayEquals(hasher.compute(image), strided);
+        assertEquals(0, plane.position());
+    }
+
+    @Test
+    public void detectorOnlyTrustsUploadedFrames() {
+        ChangeDetector detector = new ChangeDetector(MAX_DISTANCE);
+        long[] hash = hasher.compute(board(0, 0, 1));
+        long[] similar = hasher.compute(board(8, 4, 2));
+
+        detector.captured("1000-1", "whiteboard 225/18/1", hash, 1000);
+        assertNull("still pending", detector.unchanged("whiteboard 225/18/1", similar));
+
+        detector.uploaded("1000-1", new UploadResult("1", false, true, "io", null, null, 0, 0, 1));
+        assertNull("retryable failure", detector.unchanged("whiteboard 225/18/1", similar));
+
+        detector.uploaded("1000-1", new UploadResult("1", true, false, null, "F1", "https://slack.test/F1", 0, 0, 2));
+        ChangeDetector.Previous previous = detector.unchanged("whiteboard 225/18/1", similar);
+        assertNotNull(previous);
+        assertEquals("https://slack.test/F1", previous.getPermalink());
+        // other views of the same board don't count
+        assertNull(detector.unchanged("whiteboard 225/18/0", similar));
+    }
+
+    @Test
+    public void detectorKeepsTheNewestUpload() {
+        ChangeDetector detector = new ChangeDetector(MAX_DISTANCE);
+        long[] old = hasher.compute(board(0, 0, 1));
+        GrayImage written = board(0, 0, 1);
+        stroke(written, 380, 380, 520);
+        long[] newer = hasher.compute(written);
+
+        detector.captured("1000-1", "w", old, 1000);
+        detector.captured("2000-2", "w", newer, 2000);
+        detector.uploaded("2000-2", new UploadResult("2", true, false, null, "F2", "p2", 0, 0, 1));
+        detector.uploaded("1000-1", new UploadResult("1", true, false, null, "F1", "p1", 0, 0, 1));
+
+        assertNotNull(detector.unchanged("w", newer));
+        assertNull(detector.unchanged("w", old));
+    }
+}
@@ -0,0 +1,62 @@
+package com.linklab.whiteboardsnap;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.*;
+
+public class PgmCodecTest {
+    private final SnapshotBufferPool pool = new SnapshotBufferPool(2);
+
+    // a luma plane the way the camera hands it over: rows padded to the stride
+    private static ByteBuffer plane(int width, int height, int rowStride) {
+        ByteBuffer plane = ByteBuffer.allocateDirect(rowStride * height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < rowStride; x++) {
+                plane.put(y * rowStride + x, (byte) (x < width ? y * width + x : 0xee));
+            }
+        }
+        return plane;
+    }
+
+    @Test
+    public void dropsThePaddingAndTurnsTheFrame() {
+        ByteBuffer plane = plane(4, 3, 8);
+        GrayImage image = PgmCodec.read(PgmCodec.write(plane, 4, 3, 8, false, pool), 1);
+        assertEquals(4, image.getWidth());
+        assertEquals(3, image.getHeight());
+        assertEquals(6, image.get(2, 1));
+        assertEquals(0, plane.position());
+
+        ByteBuffer data = PgmCodec.write(plane, 4, 3, 8, true, pool);
+        byte[] header = new byte[11];
+        data.duplicate().get(header);
+        assertEquals("P5\n4 3\n255\n", new String(header, US_ASCII));
+        GrayImage turned = PgmCodec.read(data, 1);
+        assertEquals(11, turned.get(0, 0));
+        assertEquals(6, turned.get(1, 1));
+        assertEquals(0, turned.get(3, 2));
+    }
+
+    @Test
+    public void readsEveryNthPixelForScoring() {
+        GrayImage image = new GrayImage(5, 5);
+        for (int i = 0; i < 25; i++) {
+            image.getPixels()[i] = (byte) i;
+        }
+        GrayImage sampled = PgmCodec.read(PgmCodec.write(image, pool), 2);
+        assertArrayEquals(new int[] {3, 3}, new int[] {sampled.getWidth(), sampled.getHeight()});
+        assertArrayEquals(new byte[] {0, 2, 4, 10, 12, 14, 20, 22, 24}, sampled.getPixels());
+        assertArrayEquals(new int[] {5, 5}, PgmCodec.size(PgmCodec.write(image, pool)));
+    }
+
+    @Test
+    public void leavesOtherFormatsAlone() {
+        assertNull(PgmCodec.read(ByteBuffer.wrap(new byte[] {(byte) 0xff, (byte) 0xd8, (byte) 0xff, 0}), 1));
+        // a header promising more pixels than there are
+        assertNull(PgmCodec.size(ByteBuffer.wrap("P5\n4 3\n255\nabc".getBytes(US_ASCII))));
+        assertNull(PgmCodec.size(ByteBuffer.wrap("P5\n4 3\n65535\n".getBytes(US_ASCII))));
+    }
+}
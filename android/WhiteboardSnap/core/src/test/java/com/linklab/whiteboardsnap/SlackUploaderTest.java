@@ -0,0 +1,158 @@
+package com.linklab.whiteboardsnap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+// runs the uploader against a local MockWebServer standing in for slack
+public class SlackUploaderTest {
+    private MockWebServer slack;
+    private SlackUploader uploader;
+    private final SnapshotBufferPool pool = new SnapshotBufferPool(2);
+
+    @Before
+    public void setUp() throws Exception {
+        slack = new MockWebServer();
+        slack.start();
+        uploader = new SlackUploader(slack.url("/api/files.upload").toString(), "xoxb-test", 2, 3, 10);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        uploader.shutdown();
+        slack.shutdown();
+    }
+
+    private Snapshot snapshot(String jobId, int size) {
+        ByteBuffer data = pool.acquire(size);
+        for (int i = 0; i < size; i++) {
+            data.put((byte) i);
+        }
+        data.flip();
+        return new Snapshot(jobId, "whiteboard 225", 1000L, "image/jpeg", data, pool);
+    }
+
+    private UploadResult upload(Snapshot snapshot) throws InterruptedException {
+        final AtomicReference<UploadResult> result = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        uploader.upload(snapshot, "whiteboard-messages", "Here's the snap", new SlackUploader.Listener() {
+            @Override
+            public void onComplete(UploadResult r) {
+                result.set(r);
+                done.countDown();
+            }
+        });
+        assertTrue("upload didn't finish", done.await(10, TimeUnit.SECONDS));
+        return result.get();
+    }
+
+    @Test
+    public void uploadsSnapshotAndParsesSlackResponse() throws Exception {
+        slack.enqueue(new MockResponse().setBody(
+                "{\"ok\":true,\"file\":{\"id\":\"F123\",\"permalink\":\"https://slack.test/F123\"}}"));
+
+        UploadResult result = upload(snapshot("1", 5000));
+
+        assertTrue(result.isOk());
+        assertEquals("F123", result.getFileId());
+        assertEquals("https://slack.test/F123", result.getPermalink());
+        assertEquals(1, result.getAttempts());
+        assertTrue(result.getBytes() > 5000);
+
+        RecordedRequest request = slack.takeRequest();
+        assertEquals("Bearer xoxb-test", request.getHeader("Authorization"));
+        assertEquals(result.getBytes(), request.getBodySize());
+        String body = request.getBody().readUtf8();
+        assertTrue(body.contains("whiteboard-messages"));
+        assertTrue(body.contains("Here's the snap"));
+        // the buffer went back to the pool once the upload was over
+        assertEquals(1, pool.pooled());
+    }
+
+    @Test
+    public void slackErrorIsReportedWithoutRetrying() throws Exception {
+        slack.enqueue(new MockResponse().setBody("{\"ok\":false,\"error\":\"channel_not_found\"}"));
+
+        UploadResult result = upload(snapshot("2", 100));
+
+        assertFalse(result.isOk());
+        assertEquals("channel_not_found", result.getError());
+        assertEquals(1, slack.getRequestCount());
+        assertEquals(1, uploader.getStats().getFailures());
+    }
+
+    @Test
+    public void retriesAfterRateLimitHonouringRetryAfter() throws Exception {
+        slack.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "1"));
+        slack.enqueue(new MockResponse().setBody("{\"ok\":true,\"file\":{\"id\":\"F9\"}}"));
+
+        long start = System.nanoTime();
+        UploadResult result = upload(snapshot("3", 100));
+
+        assertTrue(result.isOk());
+        assertEquals(2, result.getAttempts());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 1000);
+        assertEquals(2, slack.getRequestCount());
+        assertEquals(1, uploader.getStats().getRetries());
+    }
+
+    @Test
+    public void givesUpAfterMaxAttemptsOnServerErrors() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            slack.enqueue(new MockResponse().setResponseCode(503));
+        }
+
+        UploadResult result = upload(snapshot("4", 100));
+
+        assertFalse(result.isOk());
+        assertEquals("http 503", result.getError());
+        assertEquals(3, result.getAttempts());
+        assertEquals(3, slack.getRequestCount());
+    }
+
+    @Test
+    public void postsMessagesNextToFilesUpload() throws Exception {
+        slack.enqueue(new MockResponse().setBody("{\"ok\":true,\"ts\":\"1.2\"}"));
+        final AtomicReference<UploadResult> result = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        uploader.postMessage("5", "whiteboard-messages", "1634567890.000200",
+                "unchanged since https://slack.test/F123", new SlackUploader.Listener() {
+                    @Override
+                    public void onComplete(UploadResult r) {
+                        result.set(r);
+                        done.countDown();
+                    }
+                });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(result.get().isOk());
+        assertEquals("5", result.get().getJobId());
+        RecordedRequest request = slack.takeRequest();
+        assertEquals("/api/chat.postMessage", request.getPath());
+        String body = request.getBody().readUtf8();
+        assertTrue(body.contains("unchanged"));
+        assertTrue(body.contains("thread_ts=1634567890.000200"));
+    }
+
+    @Test
+    public void backoffGrowsAndIsCapped() {
+        for (int attempt = 1; attempt <= 30; attempt++) {
+            long delay = uploader.backoffMs(attempt, -1);
+            long ceiling = Math.min(30 * 1000, 10L << Math.min(attempt - 1, 20));
+            assertTrue(delay >= ceiling / 2 && delay <= ceiling);
+        }
+        assertEquals(7000, uploader.backoffMs(1, 7000));
+    }
+}
@@ -0,0 +1,126 @@
+package com.linklab.whiteboardsnap;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class SnapRequestParserTest {
+    private final SnapRequestParser parser = new SnapRequestParser();
+
+    private void assertMalformed(String payload, String message) {
+        try {
+            parser.parse(payload);
+            fail("parsed " + payload);
+        } catch (SnapRequestParser.MalformedRequestException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+        }
+    }
+
+    @Test
+    public void readsVersionOne() throws SnapRequestParser.MalformedRequestException {
+        SnapRequest request = parser.parse("{\"v\": 1, \"id\": \"a1b2\",\n"
+                + " \"locations\": [\"whiteboard 225\", \"whiteboard 110\", \"whiteboard 225\"],\n"
+                + " \"camera\": 0, \"tilt\": -10,\n"
+                + " \"reply\": {\"channel\": \"lab\", \"thread\": \"1634567890.000200\", \"user\": \"U1\"}}");
+
+        assertEquals(1, request.getVersion());
+        assertEquals("a1b2", request.getId());
+        assertEquals(Arrays.asList("whiteboard 225", "whiteboard 110"), request.getLocations());
+        assertEquals(0, request.getCameraId());
+        assertEquals(-10, request.getHeadAngle());
+        assertEquals("lab", request.getChannel());
+        assertEquals("1634567890.000200", request.getThread());
+    }
+
+    @Test
+    public void fillsInDefaults() throws SnapRequestParser.MalformedRequestException {
+        SnapRequest request = parser.parse("{\"v\":1,\"id\":\"x\",\"locations\":[\"whiteboard 225\"]}");
+
+        assertEquals(SnapRequest.DEFAULT_CAMERA_ID, request.getCameraId());
+        assertEquals(SnapRequest.DEFAULT_HEAD_ANGLE, request.getHeadAngle());
+        assertEquals(SnapRequest.DEFAULT_CHANNEL, request.getChannel());
+        assertNull(request.getThread());
+        assertFalse(request.isFromHistory());
+    }
+
+    @Test
+    public void readsATimeInTheHistory() throws SnapRequestParser.MalformedRequestException {
+        SnapRequest request = parser.parse("{\"v\":1,\"id\":\"x\",\"locations\":[\"whiteboard 225\"],"
+                + "\"before\":1634560000}");
+
+        assertTrue(request.isFromHistory());
+        assertEquals(1634560000000L, request.getBefore());
+        assertEquals(request.toString(), parser.parse(request.toJson()).toString());
+    }
+
+    @Test
+    public void readsUnversionedRequestsAsVersionZero() throws SnapRequestParser.MalformedRequestException {
+        SnapRequest request = parser.parse("{\"temi_request\": true, \"location\": \"whiteboard 225\"}");
+
+        assertEquals(0, request.getVersion());
+        assertNull(request.getId());
+        assertEquals(Collections.singletonList("whiteboard 225"), request.getLocations());
+        assertEquals(SnapRequest.DEFAULT_CHANNEL, request.getChannel());
+    }
+
+    @Test
+    public void skipsFieldsItDoesNotKnow() throws SnapRequestParser.MalformedRequestException {
+        SnapRequest request = parser.parse("{\"v\":1,\"sent\":1.5e3,\"meta\":{\"tags\":[\"a\",{\"b\":null}],"
+                + "\"ok\":false},\"id\":\"x\",\"locations\":[\"caf\\u00e9 \\\"board\\\"\"]}");
+
+        assertEquals(Collections.singletonList("caf\u00e9 \"board\""), request.getLocations());
+    }
+
+    @Test
+    public void readsBackWhatTheFleetWrites() throws SnapRequestParser.MalformedRequestException {
+        SnapRequest request = parser.parse("{\"temi_request\": true, \"location\": \"board \\\"a\\\"\"}")
+                .forLocation("board \"a\"", "fleet-1");
+
+        SnapRequest read = parser.parse(request.toJson());
+
+        assertEquals(request.toString(), read.toString());
+        assertEquals("fleet-1", read.getId());
+        assertEquals(SnapRequest.VERSION, read.getVersion());
+    }
+
+    @Test
+    public void refusesWhatItCannotHonour() {
+        assertMalformed("{\"v\":2,\"id\":\"x\",\"locations\":[\"a\"]}", "version 2 isn't supported");
+        assertMalformed("{\"v\":1,\"locations\":[\"a\"]}", "no id");
+        assertMalformed("{\"v\":1,\"id\":\"x\",\"locations\":[]}", "no locations");
+        assertMalformed("{\"location\":\"a\"}", "no version");
+        assertMalformed("{\"v\":1,\"id\":\"x\",\"locations\":[\"a\"],\"camera\":3}", "camera must be 0, 1 or 2");
+        assertMalformed("{\"v\":1,\"id\":\"x\",\"locations\":[\"a\"],\"tilt\":90}", "tilt out of range");
+        assertMalformed("{\"v\":1,\"id\":\"x\",\"locations\":[\"a\"],\"tilt\":1.5}", "expected an integer");
+        assertMalformed("{\"v\":1,\"id\":\"x\",\"locations\":[\"a\"],\"before\":-5}", "before must be after 1970");
+        StringBuilder many = new StringBuilder("{\"v\":1,\"id\":\"x\",\"locations\":[\"0\"");
+        for (int i = 1; i <= SnapRequestParser.MAX_LOCATIONS; i++) {
+            many.append(",\"").append(i).append('"');
+        }
+        assertMalformed(many.append("]}").toString(), "more than " + SnapRequestParser.MAX_LOCATIONS);
+    }
+
+    @Test
+    public void refusesBrokenJson() {
+        assertMalformed("", "expected '{'");
+        assertMalformed("{\"v\":1,\"id\":\"x\",\"locations\":[\"a\"]", "expected '}'");
+        assertMalformed("{\"v\":1,\"id\":\"x\",\"locations\":[\"a]}", "unterminated string");
+        assertMalformed("{\"v\":1,\"id\":\"x\",\"locations\":[\"a\"]} {}", "trailing characters");
+        assertMalformed("{\"v\":1,\"x\":[[[[[[[[[[[]]]]]]]]]]]}", "nested too deep");
+        assertMalformed("{\"v\":yes}", "expected a number");
+    }
+
+    @Test
+    public void parserCanBeReused() throws SnapRequestParser.MalformedRequestException {
+        parser.parse("{\"v\":1,\"id\":\"x\",\"locations\":[\"a\",\"b\"],\"camera\":0}");
+        assertMalformed("{\"v\":1,\"id\":\"y\",\"locations\":[\"c\"", "expected");
+
+        SnapRequest request = parser.parse("{\"v\":1,\"id\":\"z\",\"locations\":[\"d\"]}");
+
+        assertEquals(Collections.singletonList("d"), request.getLocations());
+        assertEquals(SnapRequest.DEFAULT_CAMERA_ID, request.getCameraId());
+    }
+}
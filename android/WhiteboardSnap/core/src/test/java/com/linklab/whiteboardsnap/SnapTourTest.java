@@ -0,0 +1,244 @@
+package com.linklab.whiteboardsnap;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SnapTourTest {
+    private final SnapJobQueue queue = new SnapJobQueue();
+    private final FakeRobotController robot = new FakeRobotController()
+            .place("whiteboard a", 10, 0)
+            .place("whiteboard b", 20, 0)
+            .place("whiteboard c", 30, 0);
+    private Thread worker;
+    // lets a test react to the robot reaching a board
+    private volatile SnapTour.Capturer hook;
+
+    private final SnapTour.Capturer capturer = new SnapTour.Capturer() {
+        @Override
+        public void prepare(SnapJob job) {
+            if (hook != null) {
+                hook.prepare(job);
+            }
+        }
+
+        @Override
+        public void capture(SnapJob job) throws InterruptedException {
+            robot.calls.add("capture " + job.getLocation());
+            queue.markCaptured(job);
+            if (hook != null) {
+                hook.capture(job);
+            }
+        }
+
+        @Override
+        public void release() {
+        }
+    };
+
+    private final List<String> statuses = new CopyOnWriteArrayList<>();
+    private JobDeadlines deadlines = new JobDeadlines();
+
+    private void startTour() {
+        SnapTour tour = new SnapTour(queue, robot, new NearestNeighbourRoutePlanner(), capturer, 50);
+        tour.setListener(new SnapTour.Listener() {
+            @Override
+            public void onStatus(SnapJob job, JobStatus status, String detail) {
+                statuses.add(status.wireName() + " " + job.getLocation() + (detail != null ? ": " + detail : ""));
+            }
+        });
+        tour.setDeadlines(deadlines);
+        worker = new Thread(tour);
+        worker.start();
+    }
+
+    private final FakeClock clock = new FakeClock(0);
+    private final PatrolScheduler patrol = new PatrolScheduler(clock, 30 * 60 * 1000, 5 * 60 * 1000, 50,
+            24 * 60 * 60 * 1000);
+
+    private void startPatrollingTour() {
+        worker = new Thread(new SnapTour(queue, robot, new NearestNeighbourRoutePlanner(), capturer, 50, patrol, 10));
+        worker.start();
+    }
+
+    @After
+    public void stopTour() throws InterruptedException {
+        worker.interrupt();
+        worker.join(1000);
+    }
+
+    private void awaitCall(String call) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!robot.calls.contains(call)) {
+            assertTrue("timed out waiting for " + call, System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void batchIsVisitedInOneTourAndHomedOnce() throws InterruptedException {
+        SnapJob c = queue.submit("whiteboard c", 18, 1, "alice");
+        SnapJob a = queue.submit("whiteboard a", 18, 1, "bob");
+        SnapJob b = queue.submit("whiteboard b", 18, 1, "carol");
+        startTour();
+        awaitCall("delete " + SnapTour.HOME);
+
+        assertEquals(Arrays.asList(
+                "save " + SnapTour.HOME,
+                "goTo whiteboard a", "tilt 18", "capture whiteboard a",
+                "goTo whiteboard b", "tilt 18", "capture whiteboard b",
+                "goTo whiteboard c", "tilt 18", "capture whiteboard c",
+                "goTo " + SnapTour.HOME, "delete " + SnapTour.HOME), robot.calls);
+        assertTrue(a.isDone() && b.isDone() && c.isDone());
+    }
+
+    @Test
+    public void duplicateRequestsShareOneCapture() throws InterruptedException {
+        SnapJob first = queue.submit("whiteboard a", 18, 1, "alice");
+        SnapJob second = queue.submit("whiteboard a", 18, 1, "bob");
+        startTour();
+        awaitCall("delete " + SnapTour.HOME);
+
+        assertSame(first, second);
+        assertEquals(Arrays.asList("alice", "bob"), first.getRequesters());
+        assertEquals(1, countCalls("capture whiteboard a"));
+    }
+
+    @Test
+    public void unreachableWhiteboardFailsJobAndTourContinues() throws InterruptedException {
+        robot.unreachable.add("whiteboard a");
+        SnapJob a = queue.submit("whiteboard a", 18, 1, "alice");
+        SnapJob b = queue.submit("whiteboard b", 18, 1, "bob");
+        startTour();
+        awaitCall("delete " + SnapTour.HOME);
+
+        assertTrue(a.isFailed());
+        assertFalse(b.isFailed());
+        assertTrue(robot.calls.contains("capture whiteboard b"));
+        assertEquals(Arrays.asList(
+                "navigating whiteboard a", "failed whiteboard a: couldn't get to whiteboard a",
+                "navigating whiteboard b", "captured whiteboard b"), statuses);
+    }
+
+    @Test
+    public void stuckDriveIsStoppedAtItsDeadlineAndTourContinues() throws InterruptedException {
+        robot.stuck.add("whiteboard a");
+        deadlines = new JobDeadlines().navigate(50);
+        SnapJob a = queue.submit("whiteboard a", 18, 1, "alice");
+        SnapJob b = queue.submit("whiteboard b", 18, 1, "bob");
+        startTour();
+        awaitCall("delete " + SnapTour.HOME);
+
+        assertTrue(a.isFailed());
+        assertTrue(b.isCaptured());
+        assertTrue(robot.calls.contains("stop"));
+        assertEquals(Arrays.asList(
+                "navigating whiteboard a", "failed whiteboard a: didn't get to whiteboard a within 50ms",
+                "navigating whiteboard b", "captured whiteboard b"), statuses);
+    }
+
+    private int countCalls(String call) {
+        int count = 0;
+        for (String c : robot.calls) {
+            if (c.equals(call)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void idleRobotPatrolsDueBoardsMostWantedFirst() throws InterruptedException {
+        patrol.recordRequest("whiteboard c");
+        clock.advance(5 * 60 * 1000);
+        startPatrollingTour();
+        awaitCall("delete " + SnapTour.HOME);
+
+        assertEquals(Arrays.asList(
+                "save " + SnapTour.HOME,
+                "goTo whiteboard c", "tilt 18", "capture whiteboard c",
+                "goTo whiteboard a", "tilt 18", "capture whiteboard a",
+                "goTo whiteboard b", "tilt 18", "capture whiteboard b",
+                "goTo " + SnapTour.HOME, "delete " + SnapTour.HOME), robot.calls);
+        // everything is fresh now, so the robot stays home
+        Thread.sleep(100);
+        assertEquals(12, robot.calls.size());
+    }
+
+    @Test
+    public void noPatrolOnLowBattery() throws InterruptedException {
+        robot.battery = 20;
+        clock.advance(5 * 60 * 1000);
+        startPatrollingTour();
+        Thread.sleep(100);
+
+        assertTrue(robot.calls.isEmpty());
+    }
+
+    @Test
+    public void liveRequestStopsThePatrolAndGoesFirst() throws InterruptedException {
+        clock.advance(5 * 60 * 1000);
+        final SnapJob[] live = new SnapJob[1];
+        hook = new SnapTour.Capturer() {
+            @Override
+            public void prepare(SnapJob job) {
+            }
+
+            @Override
+            public void capture(SnapJob job) {
+                if (live[0] == null) {
+                    live[0] = queue.submit("whiteboard c", 30, 0, "alice");
+                }
+            }
+
+            @Override
+            public void release() {
+            }
+        };
+        startPatrollingTour();
+        awaitCall("delete " + SnapTour.HOME);
+
+        assertEquals(Arrays.asList(
+                "save " + SnapTour.HOME,
+                "goTo whiteboard a", "tilt 18", "capture whiteboard a", "stop",
+                "goTo whiteboard c", "tilt 30", "capture whiteboard c",
+                "goTo " + SnapTour.HOME, "delete " + SnapTour.HOME), robot.calls);
+        assertTrue(live[0].isCaptured());
+    }
+
+    @Test
+    public void requestForThePatrolTargetJoinsIt() throws InterruptedException {
+        clock.advance(5 * 60 * 1000);
+        final SnapJob[] live = new SnapJob[1];
+        hook = new SnapTour.Capturer() {
+            @Override
+            public void prepare(SnapJob job) {
+                if (live[0] == null) {
+                    live[0] = queue.submit(job.getLocation(), PatrolScheduler.HEAD_ANGLE, PatrolScheduler.CAMERA_ID, "alice");
+                }
+            }
+
+            @Override
+            public void capture(SnapJob job) {
+            }
+
+            @Override
+            public void release() {
+            }
+        };
+        startPatrollingTour();
+        awaitCall("delete " + SnapTour.HOME);
+
+        assertFalse(robot.calls.contains("stop"));
+        assertEquals(Arrays.asList(PatrolScheduler.REQUESTER, "alice"), live[0].getRequesters());
+        assertFalse(live[0].isPatrol());
+        assertTrue(live[0].isCaptured());
+        assertEquals(1, countCalls("capture whiteboard a"));
+    }
+}
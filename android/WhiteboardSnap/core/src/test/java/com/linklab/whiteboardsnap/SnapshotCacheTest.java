@@ -0,0 +1,142 @@
+package com.linklab.whiteboardsnap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class SnapshotCacheTest {
+    private static final long MAX_AGE_MS = 10 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final SnapshotBufferPool pool = new SnapshotBufferPool(2);
+
+    private Snapshot snapshot(String location, long capturedAt, String content) {
+        byte[] bytes = content.getBytes(UTF_8);
+        ByteBuffer data = pool.acquire(bytes.length);
+        data.put(bytes);
+        data.flip();
+        return new Snapshot("1", location, capturedAt, "image/png", data, pool);
+    }
+
+    private static String read(Snapshot snapshot) {
+        ByteBuffer data = snapshot.data();
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static String filled(int size) {
+        char[] chars = new char[size];
+        Arrays.fill(chars, 'x');
+        return new String(chars);
+    }
+
+    @Test
+    public void servesTheLatestSnapOfAView() throws IOException {
+        SnapshotCache cache = new SnapshotCache(folder.newFolder("cache"), 1000, MAX_AGE_MS);
+        cache.put(snapshot("whiteboard 225", 1000, "old"), 18, 1);
+        cache.put(snapshot("whiteboard 225", 2000, "new"), 18, 1);
+        // an older snap finishing late doesn't replace a newer one
+        cache.put(snapshot("whiteboard 225", 1500, "late"), 18, 1);
+
+        SnapshotCache.Entry entry = cache.get("whiteboard 225", 18, 1);
+
+        assertNotNull(entry);
+        Snapshot cached = cache.load(entry, "cached-1", pool);
+        assertEquals("new", read(cached));
+        assertEquals("cached-1", cached.getJobId());
+        assertEquals(2000, cached.getCapturedAt());
+        assertEquals("image/png", cached.getMimeType());
+        assertEquals(3, cache.bytes());
+        // a different lens or head angle is a different picture
+        assertNull(cache.get("whiteboard 225", 18, 0));
+        assertNull(cache.get("whiteboard 225", 30, 1));
+        assertNull(cache.get("whiteboard 110", 18, 1));
+    }
+
+    @Test
+    public void freshUntilMaxAge() throws IOException {
+        SnapshotCache cache = new SnapshotCache(folder.newFolder("cache"), 1000, MAX_AGE_MS);
+        cache.put(snapshot("whiteboard 225", 1000, "snap"), 18, 1);
+        SnapshotCache.Entry entry = cache.get("whiteboard 225", 18, 1);
+
+        assertTrue(cache.isFresh(entry, 1000 + MAX_AGE_MS));
+        assertFalse(cache.isFresh(entry, 1001 + MAX_AGE_MS));
+        assertEquals(MAX_AGE_MS + 1, entry.ageMs(1001 + MAX_AGE_MS));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedToStayWithinBytes() throws IOException {
+        File dir = folder.newFolder("cache");
+        SnapshotCache cache = new SnapshotCache(dir, 250, MAX_AGE_MS);
+        cache.put(snapshot("a", 1, filled(100)), 18, 1);
+        cache.put(snapshot("b", 2, filled(100)), 18, 1);
+        cache.get("a", 18, 1); // b is now the least recently used
+        cache.put(snapshot("c", 3, filled(100)), 18, 1);
+
+        assertNotNull(cache.get("a", 18, 1));
+        assertNull(cache.get("b", 18, 1));
+        assertNotNull(cache.get("c", 18, 1));
+        assertEquals(200, cache.bytes());
+        // the evicted snap is gone from disk
+        assertEquals(2, dir.list((d, name) -> name.endsWith(".snap")).length);
+
+        // and one that's bigger than the whole cache isn't cached
+        cache.put(snapshot("d", 4, filled(300)), 18, 1);
+        assertNull(cache.get("d", 18, 1));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void survivesRestarts() throws IOException {
+        File dir = folder.newFolder("cache");
+        SnapshotCache cache = new SnapshotCache(dir, 250, MAX_AGE_MS);
+        cache.put(snapshot("whiteboard\t225", 1, filled(100)), 18, 1);
+        cache.put(snapshot("b", 2, filled(100)), 0, 0);
+        cache.get("whiteboard\t225", 18, 1);
+        cache.put(snapshot("b", 3, "replaced"), 0, 0);
+
+        SnapshotCache reopened = new SnapshotCache(dir, 250, MAX_AGE_MS);
+
+        assertEquals(2, reopened.size());
+        assertEquals(108, reopened.bytes());
+        assertEquals("replaced", read(reopened.load(reopened.get("b", 0, 0), "x", pool)));
+        assertEquals(filled(100), read(reopened.load(reopened.get("whiteboard\t225", 18, 1), "y", pool)));
+        // the replaced snap's file was cleaned up
+        assertEquals(2, dir.list((d, name) -> name.endsWith(".snap")).length);
+    }
+
+    @Test
+    public void dropsEntriesWithMissingFilesAndFilesWithoutEntries() throws IOException {
+        File dir = folder.newFolder("cache");
+        SnapshotCache cache = new SnapshotCache(dir, 1000, MAX_AGE_MS);
+        cache.put(snapshot("a", 1, "first"), 18, 1);
+        cache.put(snapshot("b", 2, "second"), 18, 1);
+        assertTrue(new File(dir, "1-1.snap").delete());
+        assertTrue(new File(dir, "7-7.snap").createNewFile());
+
+        SnapshotCache reopened = new SnapshotCache(dir, 1000, MAX_AGE_MS);
+
+        assertNull(reopened.get("a", 18, 1));
+        assertNotNull(reopened.get("b", 18, 1));
+        assertFalse(new File(dir, "7-7.snap").exists());
+    }
+
+    @Test
+    public void describesAges() {
+        assertEquals("40 s", SnapshotCache.describeAge(40 * 1000));
+        assertEquals("12 min", SnapshotCache.describeAge(12 * 60 * 1000 + 500));
+        assertEquals("3 h", SnapshotCache.describeAge(3 * 60 * 60 * 1000L));
+        assertEquals("4 days", SnapshotCache.describeAge(4 * 24 * 60 * 60 * 1000L));
+    }
+}
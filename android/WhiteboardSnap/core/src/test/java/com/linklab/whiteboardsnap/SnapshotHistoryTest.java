@@ -0,0 +1,152 @@
+package com.linklab.whiteboardsnap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class SnapshotHistoryTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final SnapshotBufferPool pool = new SnapshotBufferPool(2);
+
+    private Snapshot snapshot(String location, long capturedAt, String content) {
+        byte[] bytes = content.getBytes(UTF_8);
+        ByteBuffer data = pool.acquire(bytes.length);
+        data.put(bytes);
+        data.flip();
+        return new Snapshot("1", location, capturedAt, "image/png", data, pool);
+    }
+
+    private void put(SnapshotHistory history, String location, long capturedAt, String content) throws IOException {
+        Snapshot snapshot = snapshot(location, capturedAt, content);
+        history.put(snapshot, 18, 1);
+        snapshot.release();
+    }
+
+    private String load(SnapshotHistory history, SnapshotHistory.Entry entry) throws IOException {
+        Snapshot snapshot = history.load(entry, "2", pool);
+        ByteBuffer data = snapshot.data();
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        snapshot.release();
+        return new String(bytes, UTF_8);
+    }
+
+    private static List<Long> times(List<SnapshotHistory.Entry> entries) {
+        List<Long> times = new ArrayList<>();
+        for (SnapshotHistory.Entry entry : entries) {
+            times.add(entry.getCapturedAt());
+        }
+        return times;
+    }
+
+    private static String filled(char c, int size) {
+        char[] chars = new char[size];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    @Test
+    public void answersWhatABoardLookedLikeBeforeATime() throws IOException {
+        File directory = folder.newFolder("history");
+        SnapshotHistory history = new SnapshotHistory(directory, 1000, 100);
+        put(history, "whiteboard 225", 1000, "monday");
+        put(history, "whiteboard 225", 3000, "wednesday");
+        put(history, "whiteboard 225", 2000, "tuesday");
+        put(history, "whiteboard 110", 2500, "elsewhere");
+
+        SnapshotHistory.Entry entry = history.latestBefore("whiteboard 225", 2500);
+        assertEquals(2000, entry.getCapturedAt());
+        assertEquals("tuesday", load(history, entry));
+        assertNull(history.latestBefore("whiteboard 225", 1000));
+        assertNull(history.latestBefore("kitchen", 5000));
+        assertEquals(Arrays.asList(1000L, 2000L), times(history.between("whiteboard 225", 1000, 3000)));
+        history.close();
+
+        // and again from the files
+        SnapshotHistory reopened = new SnapshotHistory(directory, 1000, 100);
+        assertEquals(4, reopened.size());
+        entry = reopened.latestBefore("whiteboard 225", 5000);
+        assertEquals("wednesday", load(reopened, entry));
+        assertEquals("image/png", entry.getMimeType());
+        assertEquals(18, entry.getHeadAngle());
+        assertEquals(Arrays.asList(2500L), times(reopened.between("whiteboard 110", 0, 5000)));
+        reopened.close();
+    }
+
+    @Test
+    public void keepsTheOtherLensButDoesntAnswerWithIt() throws IOException {
+        File directory = folder.newFolder("history");
+        SnapshotHistory history = new SnapshotHistory(directory, 1000, 100);
+        put(history, "whiteboard 225", 1000, "wide");
+        // the regular lens came second, and lost
+        Snapshot other = snapshot("whiteboard 225", 1001, "regular");
+        assertTrue(history.put(other, 18, 0, true));
+        other.release();
+        history.close();
+
+        SnapshotHistory reopened = new SnapshotHistory(directory, 1000, 100);
+        assertEquals("wide", load(reopened, reopened.latestBefore("whiteboard 225", 2000)));
+        List<SnapshotHistory.Entry> both = reopened.between("whiteboard 225", 0, 2000);
+        assertEquals(2, both.size());
+        assertTrue(both.get(1).isAlternate());
+        assertEquals(0, both.get(1).getCameraId());
+        assertEquals("regular", load(reopened, both.get(1)));
+        reopened.close();
+    }
+
+    @Test
+    public void keepsTheBytesOfIdenticalSnapsOnce() throws IOException {
+        File directory = folder.newFolder("history");
+        SnapshotHistory history = new SnapshotHistory(directory, 1000, 100);
+        // more than the index first has room for
+        for (int i = 0; i < 300; i++) {
+            put(history, "whiteboard 225", 1000 + i, "unchanged");
+        }
+        put(history, "whiteboard 225", 2000, "changed");
+        assertEquals(301, history.size());
+        assertEquals("unchanged".length() + "changed".length(), history.bytes());
+        history.close();
+
+        SnapshotHistory reopened = new SnapshotHistory(directory, 1000, 100);
+        assertEquals(301, reopened.size());
+        assertEquals("unchanged", load(reopened, reopened.latestBefore("whiteboard 225", 1300)));
+        assertEquals("changed", load(reopened, reopened.latestBefore("whiteboard 225", 3000)));
+        reopened.close();
+    }
+
+    @Test
+    public void dropsTheOldestSegmentsButKeepsBlobsStillInUse() throws IOException {
+        File directory = folder.newFolder("history");
+        SnapshotHistory history = new SnapshotHistory(directory, 100, 40);
+        put(history, "whiteboard 225", 1, filled('a', 30));
+        put(history, "whiteboard 225", 2, filled('b', 30));
+        put(history, "whiteboard 225", 3, filled('c', 30));
+        // the same as the first, so it only points at the first segment
+        put(history, "whiteboard 225", 4, filled('a', 30));
+        assertEquals(90, history.bytes());
+        put(history, "whiteboard 225", 5, filled('d', 30));
+
+        assertTrue(history.bytes() <= 100);
+        assertEquals(Arrays.asList(3L, 4L, 5L), times(history.between("whiteboard 225", 0, 10)));
+        assertEquals(filled('a', 30), load(history, history.latestBefore("whiteboard 225", 5)));
+        history.close();
+
+        SnapshotHistory reopened = new SnapshotHistory(directory, 100, 40);
+        assertEquals(Arrays.asList(3L, 4L, 5L), times(reopened.between("whiteboard 225", 0, 10)));
+        assertEquals(filled('a', 30), load(reopened, reopened.latestBefore("whiteboard 225", 5)));
+        assertEquals(2, reopened.segments());
+        reopened.close();
+    }
+}
@@ -0,0 +1,70 @@
+package com.linklab.whiteboardsnap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class StatusReporterTest {
+    private final FakeClock clock = new FakeClock(1000);
+    private final List<String> published = new ArrayList<>();
+    private final StatusReporter reporter = new StatusReporter(new StatusReporter.Publisher() {
+        @Override
+        public void publish(String topic, byte[] correlationData, String payload) {
+            published.add(topic + " " + new String(correlationData, UTF_8) + " " + payload);
+        }
+    }, clock);
+
+    private static SnapRequest request(String id, String... locations) {
+        return new SnapRequest(1, id, Arrays.asList(locations), 1, 18, SnapRequest.DEFAULT_CHANNEL, null);
+    }
+
+    @Test
+    public void reportsEveryStepUntilTheJobIsDone() {
+        reporter.watch("7", request("a1b2", "whiteboard 225"), "whiteboard 225", "status/a1b2", "c1".getBytes(UTF_8));
+        clock.advance(5);
+        reporter.report("7", JobStatus.NAVIGATING, null);
+        reporter.report("7", JobStatus.UPLOADED, "https://slack/files/F1");
+        reporter.report("7", JobStatus.FAILED, "too late");
+
+        assertEquals(Arrays.asList(
+                "status/a1b2 c1 {\"v\":1,\"id\":\"a1b2\",\"location\":\"whiteboard 225\",\"job\":\"7\",\"status\":\"queued\",\"at\":1000}",
+                "status/a1b2 c1 {\"v\":1,\"id\":\"a1b2\",\"location\":\"whiteboard 225\",\"job\":\"7\",\"status\":\"navigating\",\"at\":1005}",
+                "status/a1b2 c1 {\"v\":1,\"id\":\"a1b2\",\"location\":\"whiteboard 225\",\"job\":\"7\",\"status\":\"uploaded\",\"at\":1005,"
+                        + "\"detail\":\"https://slack/files/F1\"}"), published);
+        assertEquals(0, reporter.watchedJobs());
+    }
+
+    @Test
+    public void mergedRequestsAllHearAboutTheJob() {
+        reporter.watch("7", request("a", "whiteboard 225"), "whiteboard 225", "status/a", "1".getBytes(UTF_8));
+        reporter.watch("7", request("b", "whiteboard 225", "whiteboard 110"), "whiteboard 225", "status/b",
+                "2".getBytes(UTF_8));
+        reporter.watch("8", request("b", "whiteboard 225", "whiteboard 110"), "whiteboard 110", "status/b",
+                "2".getBytes(UTF_8));
+        published.clear();
+
+        reporter.report("7", JobStatus.CAPTURED, null);
+
+        assertEquals(2, published.size());
+        assertTrue(published.get(0).startsWith("status/a 1 "));
+        assertTrue(published.get(1).startsWith("status/b 2 "));
+        assertEquals(2, reporter.watchedJobs());
+    }
+
+    @Test
+    public void escapesDetails() {
+        reporter.watch("7", request(null, "board \"a\""), "board \"a\"", "status", "".getBytes(UTF_8));
+        published.clear();
+
+        reporter.report("7", JobStatus.FAILED, "line\nbreak\\");
+
+        assertEquals(Collections.singletonList("status  {\"v\":1,\"id\":null,\"location\":\"board \\\"a\\\"\","
+                + "\"job\":\"7\",\"status\":\"failed\",\"at\":1000,\"detail\":\"line\\u000abreak\\\\\"}"), published);
+    }
+}
@@ -0,0 +1,108 @@
+package com.linklab.whiteboardsnap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class UploadOutboxTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final SnapshotBufferPool pool = new SnapshotBufferPool(2);
+
+    private Snapshot snapshot(String jobId, String content) {
+        byte[] bytes = content.getBytes(UTF_8);
+        ByteBuffer data = pool.acquire(bytes.length);
+        data.put(bytes);
+        data.flip();
+        return new Snapshot(jobId, "whiteboard 225", 1000L + Integer.parseInt(jobId), "image/jpeg", data, pool);
+    }
+
+    private static String read(Snapshot snapshot) {
+        ByteBuffer data = snapshot.data();
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    @Test
+    public void pendingEntriesSurviveReopening() throws IOException {
+        File dir = folder.newFolder("outbox");
+        UploadOutbox outbox = new UploadOutbox(dir);
+        UploadOutbox.Entry first = outbox.add(snapshot("1", "first jpeg"), "whiteboard-messages", null,
+                "snap\tof 225\nplease");
+        outbox.add(snapshot("2", "second jpeg"), "whiteboard-messages", "1634567890.000200", "snap of 225");
+        outbox.markDone(first);
+        outbox.close();
+
+        UploadOutbox reopened = new UploadOutbox(dir);
+        List<UploadOutbox.Entry> pending = reopened.pending();
+
+        assertEquals(1, pending.size());
+        UploadOutbox.Entry entry = pending.get(0);
+        assertEquals("2", entry.getJobId());
+        assertEquals("whiteboard 225", entry.getLocation());
+        assertEquals("1634567890.000200", entry.getThread());
+        assertEquals("second jpeg", read(reopened.load(entry, pool)));
+        // the blob of the finished upload is gone
+        assertFalse(new File(dir, first.getId() + ".blob").exists());
+    }
+
+    @Test
+    public void fieldsWithSeparatorsRoundTrip() throws IOException {
+        File dir = folder.newFolder("outbox");
+        UploadOutbox outbox = new UploadOutbox(dir);
+        outbox.add(snapshot("1", "jpeg"), "whiteboard-messages", null, "tab\there\nnewline \\ backslash");
+        outbox.close();
+
+        assertEquals("tab\there\nnewline \\ backslash", new UploadOutbox(dir).pending().get(0).getComment());
+    }
+
+    @Test
+    public void tornRecordIsSkipped() throws IOException {
+        File dir = folder.newFolder("outbox");
+        UploadOutbox outbox = new UploadOutbox(dir);
+        UploadOutbox.Entry entry = outbox.add(snapshot("1", "jpeg"), "whiteboard-messages", null, "snap");
+        outbox.close();
+        // a crash in the middle of writing the DONE record
+        try (FileOutputStream journal = new FileOutputStream(new File(dir, UploadOutbox.JOURNAL), true)) {
+            journal.write(UploadOutbox.record("DONE", entry.getId()).substring(0, 10).getBytes(UTF_8));
+        }
+
+        assertEquals(1, new UploadOutbox(dir).pending().size());
+    }
+
+    @Test
+    public void blobCutShortByACrashIsDropped() throws IOException {
+        File dir = folder.newFolder("outbox");
+        UploadOutbox outbox = new UploadOutbox(dir);
+        UploadOutbox.Entry entry = outbox.add(snapshot("1", "jpeg"), "whiteboard-messages", null, "snap");
+        outbox.close();
+        // the journal made it to disk, the blob didn't
+        try (FileOutputStream blob = new FileOutputStream(new File(dir, entry.getId() + ".blob"))) {
+            blob.write("jp".getBytes(UTF_8));
+        }
+
+        assertTrue(new UploadOutbox(dir).pending().isEmpty());
+    }
+
+    @Test
+    public void orphanBlobsAreRemovedOnOpen() throws IOException {
+        File dir = folder.newFolder("outbox");
+        File orphan = new File(dir, "123-9.blob");
+        assertTrue(orphan.createNewFile());
+
+        new UploadOutbox(dir).close();
+
+        assertFalse(orphan.exists());
+    }
+}
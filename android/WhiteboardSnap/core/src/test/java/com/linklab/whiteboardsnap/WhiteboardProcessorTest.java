@@ -0,0 +1,131 @@
+package com.linklab.whiteboardsnap;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+public class WhiteboardProcessorTest {
+    private static final int W = 640;
+    private static final int H = 480;
+    // board corners: top left, top right, bottom right, bottom left
+    private static final double[] BX = {100, 540, 560, 80};
+    private static final double[] BY = {80, 60, 420, 400};
+
+    private final ExecutorService workers = Executors.newFixedThreadPool(4);
+    private final WhiteboardProcessor processor = new WhiteboardProcessor(workers);
+
+    @After
+    public void tearDown() {
+        workers.shutdownNow();
+    }
+
+    // a dim wall with a skewed board on it, lit from the left, with a dark stroke across it
+    private static GrayImage syntheticBoard() {
+        GrayImage image = new GrayImage(W, H);
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                int value = 50;
+                if (inside(x, y)) {
+                    value = 240 - x * 60 / W; // uneven lighting
+                    if (Math.abs(y - 240) < 3 && x > 200 && x < 440) {
+                        value = 40; // ink
+                    }
+                }
+                image.set(x, y, value);
+            }
+        }
+        return image;
+    }
+
+    private static boolean inside(double x, double y) {
+        for (int i = 0; i < 4; i++) {
+            int j = (i + 1) % 4;
+            double cross = (BX[j] - BX[i]) * (y - BY[i]) - (BY[j] - BY[i]) * (x - BX[i]);
+            if (cross < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Test
+    public void findsTheBoardCorners() {
+        WhiteboardProcessor.Quad quad = processor.detectQuad(syntheticBoard());
+
+        assertNotNull(quad);
+        for (int c = 0; c < 4; c++) {
+            assertEquals("x of corner " + c, BX[c], quad.getX(c), 8);
+            assertEquals("y of corner " + c, BY[c], quad.getY(c), 8);
+        }
+    }
+
+    @Test
+    public void noBoardMeansNoQuad() {
+        GrayImage flat = new GrayImage(W, H);
+        for (int i = 0; i < flat.pixels.length; i++) {
+            flat.pixels[i] = (byte) (i % 7 == 0 ? 200 : 60);
+        }
+
+        assertNull(processor.detectQuad(flat));
+    }
+
+    @Test
+    public void warpsNormalizesAndKeepsTheInk() {
+        StageTimings timings = new StageTimings();
+        WhiteboardProcessor.Result result = processor.process(syntheticBoard(), timings, System.nanoTime() + 10_000_000_000L);
+
+        assertTrue(result.isComplete());
+        GrayImage board = result.getImage();
+        // sized by the longer of the opposite board edges, not the frame
+        assertEquals(480, board.getWidth(), 4);
+        assertEquals(360, board.getHeight(), 4);
+        // evenly white despite the lighting gradient
+        assertEquals(255, board.get(20, 20));
+        assertEquals(255, board.get(board.getWidth() - 20, board.getHeight() - 20));
+        // the stroke is still dark, about halfway down
+        int darkest = 255;
+        for (int y = board.getHeight() / 2 - 10; y < board.getHeight() / 2 + 10; y++) {
+            darkest = Math.min(darkest, board.get(board.getWidth() / 2, y));
+        }
+        assertTrue("ink got lost: " + darkest, darkest < 100);
+        assertTrue(timings.getStages().containsKey("detect"));
+        assertTrue(timings.getStages().containsKey("warp"));
+        assertTrue(timings.getStages().containsKey("normalize"));
+    }
+
+    @Test
+    public void expiredBudgetLeavesResultIncomplete() {
+        WhiteboardProcessor.Result result = processor.process(syntheticBoard(), new StageTimings(), System.nanoTime());
+
+        assertFalse(result.isComplete());
+    }
+
+    @Test
+    public void paletteCodecRoundTripsAndShrinksCleanBoards() throws IOException {
+        WhiteboardProcessor.Result result = processor.process(syntheticBoard(), new StageTimings(), System.nanoTime() + 10_000_000_000L);
+        GrayImage board = result.getImage();
+
+        byte[] png = PalettePngEncoder.encode(board);
+
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(png));
+        assertEquals(board.getWidth(), decoded.getWidth());
+        assertEquals(board.getHeight(), decoded.getHeight());
+        for (int y = 0; y < board.getHeight(); y += 17) {
+            for (int x = 0; x < board.getWidth(); x += 13) {
+                int expected = PalettePngEncoder.level(board.get(x, y)) * 17;
+                assertEquals(expected, decoded.getRGB(x, y) & 0xff);
+            }
+        }
+        // way below one byte per pixel
+        assertTrue(png.length < board.getWidth() * board.getHeight() / 20);
+    }
+}
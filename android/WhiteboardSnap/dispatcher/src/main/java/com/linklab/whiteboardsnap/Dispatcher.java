@@ -0,0 +1,111 @@
+package com.linklab.whiteboardsnap;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+
+// runs the fleet dispatcher until it's killed, logging to stdout. the broker's credentials come from
+// HIVEMQ_USER and HIVEMQ_PASSWORD, so they don't show up in the process list
+public class Dispatcher {
+    private static final String USAGE = "options:\n"
+            + "  --host name              mqtt broker (required)\n"
+            + "  --port n                 broker port (8883)\n"
+            + "  --no-ssl                 connect without tls\n"
+            + "  --topic name             where the snap requests come in (temi-data)\n"
+            + "  --heartbeat-timeout ms   drop robots not heard from in this long (15000)\n"
+            + "  --job ms                 what a snap costs a robot besides the drive (20000)\n"
+            + "  --speed m/s              how fast robots drive (0.5)\n"
+            + "  --min-battery n          robots below this only get boards nobody else can do (20)\n";
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length > 0 && args[0].equals("--help")) {
+            System.out.print(USAGE);
+            return;
+        }
+        String host = null;
+        int port = 8883;
+        boolean ssl = true;
+        String topic = "temi-data";
+        FleetDispatcher.Config config = new FleetDispatcher.Config();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String option = args[i];
+                if (option.equals("--no-ssl")) {
+                    ssl = false;
+                    continue;
+                }
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException("no value for " + option);
+                }
+                String value = args[++i];
+                try {
+                    switch (option) {
+                        case "--host":
+                            host = value;
+                            break;
+                        case "--port":
+                            port = Integer.parseInt(value);
+                            break;
+                        case "--topic":
+                            topic = value;
+                            break;
+                        case "--heartbeat-timeout":
+                            config.heartbeatTimeout(Long.parseLong(value));
+                            break;
+                        case "--job":
+                            config.estimates(Long.parseLong(value), config.metersPerSecond);
+                            break;
+                        case "--speed":
+                            config.estimates(config.jobMs, Double.parseDouble(value));
+                            break;
+                        case "--min-battery":
+                            config.minBattery(Integer.parseInt(value));
+                            break;
+                        default:
+                            throw new IllegalArgumentException("unknown option " + option);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("bad value for " + option + ": " + value);
+                }
+            }
+            if (host == null) {
+                throw new IllegalArgumentException("no --host");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            System.exit(2);
+        }
+
+        MqttRequestClient.Config mqtt = new MqttRequestClient.Config(host, "whiteboardsnap-dispatcher", topic)
+                .port(port, ssl);
+        String user = System.getenv("HIVEMQ_USER");
+        if (user != null) {
+            mqtt.credentials(user, System.getenv("HIVEMQ_PASSWORD"));
+        }
+        final FleetDispatcherService service = new FleetDispatcherService(mqtt, config, new FleetDispatcher.Listener() {
+            @Override
+            public void onEvent(String message) {
+                log("", message);
+            }
+
+            @Override
+            public void onWarning(String message, Exception error) {
+                log("warning: ", error != null ? message + ": " + error : message);
+            }
+        });
+        // the session stays on the broker, requests that come in while we're restarted wait there
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                service.stop();
+            }
+        });
+        service.start();
+        new CountDownLatch(1).await();
+    }
+
+    private static synchronized void log(String level, String message) {
+        System.out.println(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date()) + " " + level + message);
+    }
+}
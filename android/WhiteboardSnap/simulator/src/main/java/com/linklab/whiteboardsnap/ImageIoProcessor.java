@@ -0,0 +1,44 @@
+package com.linklab.whiteboardsnap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// SnapshotProcessor for the jvm: decodes with ImageIO where the app uses BitmapFactory, then cleans up
+// the board and encodes a palette png the same way
+public class ImageIoProcessor implements SnapPipeline.Processor {
+    private final WhiteboardProcessor processor;
+    private final long budgetMs;
+    private final SnapshotBufferPool pool;
+
+    public ImageIoProcessor(ExecutorService workers, long budgetMs, SnapshotBufferPool pool) {
+        this.processor = new WhiteboardProcessor(workers);
+        this.budgetMs = budgetMs;
+        this.pool = pool;
+    }
+
+    @Override
+    public Snapshot process(Snapshot snapshot) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMs);
+        GrayImage gray;
+        try {
+            gray = Jpegs.decodeGray(snapshot.data());
+        } catch (IOException e) {
+            return null;
+        }
+        if (gray == null) {
+            return null;
+        }
+        WhiteboardProcessor.Result result = processor.process(gray, new StageTimings(), deadline);
+        if (!result.isComplete()) {
+            return null;
+        }
+        byte[] encoded = PalettePngEncoder.encode(result.getImage());
+        ByteBuffer data = pool.acquire(encoded.length);
+        data.put(encoded);
+        data.flip();
+        return new Snapshot(snapshot.getJobId(), snapshot.getLocation(), snapshot.getCapturedAt(), "image/png",
+                data, pool);
+    }
+}
@@ -0,0 +1,52 @@
+package com.linklab.whiteboardsnap;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import javax.imageio.ImageIO;
+
+// jpeg helpers the simulator needs where the app has BitmapFactory
+final class Jpegs {
+    // the whiteboard photos checked in under benchmarks/src/main/resources/whiteboards
+    static final String[] SAMPLES = {"whiteboard-225.jpg", "whiteboard-225-right.jpg"};
+
+    private Jpegs() {
+    }
+
+    static byte[] sample(String name) throws IOException {
+        try (InputStream input = Jpegs.class.getResourceAsStream("/whiteboards/" + name)) {
+            if (input == null) {
+                throw new IOException("no sample " + name);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            int n;
+            while ((n = input.read(chunk)) != -1) {
+                bytes.write(chunk, 0, n);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    // luma only, as the camera's Y plane would hold it. null if the bytes aren't an image
+    static GrayImage decodeGray(ByteBuffer data) throws IOException {
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
+        if (image == null) {
+            return null;
+        }
+        GrayImage gray = new GrayImage(image.getWidth(), image.getHeight());
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int rgb = image.getRGB(x, y);
+                gray.set(x, y, (77 * ((rgb >> 16) & 0xff) + 150 * ((rgb >> 8) & 0xff) + 29 * (rgb & 0xff)) >> 8);
+            }
+        }
+        return gray;
+    }
+}
@@ -0,0 +1,256 @@
+package com.linklab.whiteboardsnap;
+
+import com.hivemq.client.mqtt.MqttClient;
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+import com.hivemq.client.mqtt.mqtt5.Mqtt5BlockingClient;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+// plays slack's side: publishes snap requests the way the lambda does (mqtt 5, qos 1, a response topic
+// per request with the request id as correlation data) at a steady rate, and follows the status events
+// that come back to time how long every board of every request took to be answered
+public class LoadGenerator {
+    static final String STATUS_TOPICS = "temi-status/";
+
+    public static class Config {
+        int requests = 50;
+        // 0 sends them all at once
+        double ratePerSecond = 0;
+        int locationsPerRequest = 1;
+        // malformed payloads, which should be rejected right away
+        double invalidRate = 0;
+        long seed = 1;
+
+        public Config requests(int requests, double ratePerSecond) {
+            this.requests = requests;
+            this.ratePerSecond = ratePerSecond;
+            return this;
+        }
+
+        public Config locationsPerRequest(int locations) {
+            this.locationsPerRequest = locations;
+            return this;
+        }
+
+        public Config invalidRate(double rate) {
+            this.invalidRate = rate;
+            return this;
+        }
+
+        public Config seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+    }
+
+    // one board of one request, or the whole request if it's invalid (location null)
+    private static class Answer {
+        final String location;
+        final long sentAt;
+        long navigatingAt = -1;
+        long answeredAt = -1;
+
+        Answer(String location, long sentAt) {
+            this.location = location;
+            this.sentAt = sentAt;
+        }
+    }
+
+    private final Config config;
+    private final List<String> boards;
+    private final Random random;
+    // by response topic
+    private final Map<String, List<Answer>> answers = new ConcurrentHashMap<>();
+    private final LatencyHistogram answerLatency = new LatencyHistogram(Tracer.MAX_LATENCY_MS);
+    private final LatencyHistogram untilNavigating = new LatencyHistogram(Tracer.MAX_LATENCY_MS);
+    private final AtomicLong uploaded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private int expected = 0;
+    private int outstanding = 0;
+    private long firstSentAt = -1, lastAnsweredAt = -1;
+
+    public LoadGenerator(Config config, List<String> boards) {
+        this.config = config;
+        this.boards = boards;
+        this.random = new Random(config.seed);
+    }
+
+    // sends every request and waits up to timeoutMs after the last one for their answers. false if some
+    // are still unanswered by then
+    public boolean run(String host, int port, String requestTopic, long timeoutMs)
+            throws InterruptedException, ExecutionException {
+        Mqtt5BlockingClient client = MqttClient.builder().useMqttVersion5()
+                .identifier("load-generator")
+                .serverHost(host)
+                .serverPort(port)
+                .buildBlocking();
+        client.connect();
+        try {
+            client.toAsync().subscribeWith()
+                    .topicFilter(STATUS_TOPICS + "#")
+                    .qos(MqttQos.AT_LEAST_ONCE)
+                    .callback(publish -> onStatus(publish))
+                    .send()
+                    .get();
+
+            long startedAt = System.currentTimeMillis();
+            for (int i = 0; i < config.requests; i++) {
+                if (config.ratePerSecond > 0) {
+                    long due = startedAt + (long) (i * 1000 / config.ratePerSecond);
+                    long wait = due - System.currentTimeMillis();
+                    if (wait > 0) {
+                        Thread.sleep(wait);
+                    }
+                }
+                send(client, requestTopic, "load-" + i);
+            }
+            return awaitAnswers(timeoutMs);
+        } finally {
+            client.disconnect();
+        }
+    }
+
+    private void send(Mqtt5BlockingClient client, String requestTopic, String id) {
+        String responseTopic = STATUS_TOPICS + id;
+        List<Answer> pending = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        String payload;
+        if (chance(config.invalidRate)) {
+            payload = "{\"v\":1,\"id\":\"" + id + "\",\"locations\":[]}";
+            pending.add(new Answer(null, now));
+        } else {
+            List<String> shuffled = new ArrayList<>(boards);
+            synchronized (random) {
+                Collections.shuffle(shuffled, random);
+            }
+            StringBuilder locations = new StringBuilder();
+            for (String location : shuffled.subList(0, Math.min(config.locationsPerRequest, shuffled.size()))) {
+                locations.append(locations.length() > 0 ? "," : "").append('"').append(location).append('"');
+                pending.add(new Answer(location, now));
+            }
+            payload = "{\"v\":1,\"id\":\"" + id + "\",\"locations\":[" + locations
+                    + "],\"camera\":1,\"tilt\":18,\"reply\":{\"channel\":\"whiteboard-messages\"}}";
+        }
+        answers.put(responseTopic, pending);
+        synchronized (this) {
+            expected += pending.size();
+            outstanding += pending.size();
+            if (firstSentAt < 0) {
+                firstSentAt = now;
+            }
+        }
+        client.publishWith()
+                .topic(requestTopic)
+                .qos(MqttQos.AT_LEAST_ONCE)
+                .responseTopic(responseTopic)
+                .correlationData(id.getBytes(UTF_8))
+                .payload(payload.getBytes(UTF_8))
+                .send();
+    }
+
+    private boolean chance(double rate) {
+        synchronized (random) {
+            return rate > 0 && random.nextDouble() < rate;
+        }
+    }
+
+    private void onStatus(Mqtt5Publish publish) {
+        long now = System.currentTimeMillis();
+        List<Answer> pending = answers.get(publish.getTopic().toString());
+        if (pending == null || !publish.getPayload().isPresent()) {
+            return;
+        }
+        String status;
+        String location;
+        try {
+            JSONObject event = new JSONObject(UTF_8.decode(publish.getPayload().get()).toString());
+            status = event.getString("status");
+            location = event.isNull("location") ? null : event.getString("location");
+        } catch (JSONException e) {
+            return;
+        }
+        synchronized (this) {
+            for (Answer answer : pending) {
+                if (answer.answeredAt >= 0 || (location != null && !location.equals(answer.location))) {
+                    continue;
+                }
+                if (status.equals(JobStatus.NAVIGATING.wireName()) && answer.navigatingAt < 0) {
+                    answer.navigatingAt = now;
+                    untilNavigating.record(now - answer.sentAt);
+                } else if (status.equals(JobStatus.UPLOADED.wireName()) || status.equals(JobStatus.FAILED.wireName())) {
+                    answer.answeredAt = now;
+                    answerLatency.record(now - answer.sentAt);
+                    if (answer.location == null) {
+                        rejected.incrementAndGet();
+                    } else if (status.equals(JobStatus.UPLOADED.wireName())) {
+                        uploaded.incrementAndGet();
+                    } else {
+                        failed.incrementAndGet();
+                    }
+                    lastAnsweredAt = now;
+                    outstanding--;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    private synchronized boolean awaitAnswers(long timeoutMs) throws InterruptedException {
+        long until = System.currentTimeMillis() + timeoutMs;
+        long left;
+        while (outstanding > 0 && (left = until - System.currentTimeMillis()) > 0) {
+            wait(left);
+        }
+        return outstanding == 0;
+    }
+
+    // from sending a request to each of its boards' final status, uploaded or failed
+    public LatencyHistogram getAnswerLatency() {
+        return answerLatency;
+    }
+
+    // from sending a request to the robot setting off for the board, for boards it had to go to
+    public LatencyHistogram getUntilNavigating() {
+        return untilNavigating;
+    }
+
+    public long getUploaded() {
+        return uploaded.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public synchronized int getExpected() {
+        return expected;
+    }
+
+    public synchronized int getUnanswered() {
+        return outstanding;
+    }
+
+    // from the first request to the last answer
+    public synchronized long getDurationMs() {
+        return firstSentAt < 0 || lastAnsweredAt < 0 ? 0 : lastAnsweredAt - firstSentAt;
+    }
+}
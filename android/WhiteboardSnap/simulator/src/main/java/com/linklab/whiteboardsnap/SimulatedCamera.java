@@ -0,0 +1,179 @@
+package com.linklab.whiteboardsnap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// stands in for Camera2Service. a capture takes openMs (less whatever the prewarm on the way already
+// covered), convergeMs and captureMs, then hands the pipeline one of the sample whiteboard photos with
+// its hash as the preview hash. a board changes between two captures at changeRate, otherwise it's
+// the same photo and the pipeline answers with a link to the last upload. captures fail at failureRate,
+// and at hangRate the camera never answers at all, which leaves it to the pipeline's capture deadline
+public class SimulatedCamera implements SnapPipeline.Camera {
+    public static class Config {
+        long openMs = 400;
+        long convergeMs = 300;
+        long captureMs = 250;
+        double changeRate = 0.5;
+        double failureRate = 0;
+        double hangRate = 0;
+        long seed = 1;
+
+        public Config timings(long openMs, long convergeMs, long captureMs) {
+            this.openMs = openMs;
+            this.convergeMs = convergeMs;
+            this.captureMs = captureMs;
+            return this;
+        }
+
+        public Config changeRate(double rate) {
+            this.changeRate = rate;
+            return this;
+        }
+
+        public Config failureRate(double rate) {
+            this.failureRate = rate;
+            return this;
+        }
+
+        public Config hangRate(double rate) {
+            this.hangRate = rate;
+            return this;
+        }
+
+        public Config seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+    }
+
+    private final Config config;
+    private final SnapshotBufferPool pool;
+    private final byte[][] samples;
+    private final long[][] hashes;
+    private final Random random;
+    // the camera's own thread, like the service's handler thread
+    private final ExecutorService thread = Executors.newSingleThreadExecutor();
+    private final AtomicLong captures = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private SnapPipeline pipeline;
+
+    // confined to the camera thread
+    private final Map<String, Integer> shownAt = new HashMap<>();
+    private int openCamera = -1;
+    private long openingSince;
+
+    public SimulatedCamera(Config config, SnapshotBufferPool pool) throws IOException {
+        this(config, pool, config.seed);
+    }
+
+    public SimulatedCamera(Config config, SnapshotBufferPool pool, long seed) throws IOException {
+        this.config = config;
+        this.pool = pool;
+        this.random = new Random(seed);
+        samples = new byte[Jpegs.SAMPLES.length][];
+        hashes = new long[Jpegs.SAMPLES.length][];
+        PerceptualHash hasher = new PerceptualHash();
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = Jpegs.sample(Jpegs.SAMPLES[i]);
+            hashes[i] = hasher.compute(Jpegs.decodeGray(ByteBuffer.wrap(samples[i])));
+        }
+    }
+
+    // the pipeline needs the camera to be built, so it's handed over afterwards
+    public void setPipeline(SnapPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    public long getCaptures() {
+        return captures.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    @Override
+    public void prepare(SnapJob job) {
+        final int cameraId = job.getCameraId();
+        thread.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (openCamera != cameraId) {
+                    openCamera = cameraId;
+                    openingSince = System.currentTimeMillis();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void capture(final SnapJob job) {
+        thread.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    take(job);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+
+    private void take(SnapJob job) throws InterruptedException {
+        long now = System.currentTimeMillis();
+        long openMs = openCamera == job.getCameraId()
+                ? Math.max(0, config.openMs - (now - openingSince)) : config.openMs;
+        if (openCamera != job.getCameraId()) {
+            openCamera = job.getCameraId();
+            openingSince = now;
+        }
+        Thread.sleep(openMs + config.convergeMs + config.captureMs);
+        captures.incrementAndGet();
+        if (chance(config.failureRate)) {
+            failures.incrementAndGet();
+            pipeline.captureFailed(job.getId());
+            return;
+        }
+        if (chance(config.hangRate)) {
+            failures.incrementAndGet();
+            return;
+        }
+
+        Integer shown = shownAt.get(job.getLocation());
+        int sample = shown == null ? random.nextInt(samples.length)
+                : chance(config.changeRate) ? (shown + 1) % samples.length : shown;
+        shownAt.put(job.getLocation(), sample);
+        ByteBuffer data = pool.acquire(samples[sample].length);
+        data.put(samples[sample]);
+        data.flip();
+        Snapshot snapshot = new Snapshot(job.getId(), job.getLocation(), System.currentTimeMillis(), "image/jpeg",
+                data, pool);
+        pipeline.captured(job.getId(), snapshot, hashes[sample].clone(), openMs, config.convergeMs,
+                config.captureMs);
+    }
+
+    private boolean chance(double rate) {
+        return rate > 0 && random.nextDouble() < rate;
+    }
+
+    @Override
+    public void release() {
+        thread.execute(new Runnable() {
+            @Override
+            public void run() {
+                openCamera = -1;
+            }
+        });
+    }
+
+    public void shutdown() {
+        thread.shutdownNow();
+    }
+}
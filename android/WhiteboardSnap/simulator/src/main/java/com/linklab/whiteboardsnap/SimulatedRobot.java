@@ -0,0 +1,243 @@
+package com.linklab.whiteboardsnap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// a temi stand-in. it takes planningMs to set off, then drives in a straight line at metersPerSecond,
+// and fails goTo(), tiltAngle() and saveLocation() at the configured rates: a failed goTo() gives up
+// halfway, a failed tilt leaves the head where it was and a failed save returns false. it sleeps in
+// real time, so pick a high speed to simulate quickly. like TemiRobotController, every trip is traced
+// as route planning and driving
+public class SimulatedRobot implements RobotController {
+    public static class Config {
+        long planningMs = 300;
+        double metersPerSecond = 0.8;
+        double goToFailureRate = 0;
+        double tiltFailureRate = 0;
+        double saveFailureRate = 0;
+        int batteryPercentage = 100;
+        long seed = 1;
+
+        public Config planning(long ms) {
+            this.planningMs = ms;
+            return this;
+        }
+
+        public Config speed(double metersPerSecond) {
+            this.metersPerSecond = metersPerSecond;
+            return this;
+        }
+
+        public Config failures(double goTo, double tilt, double save) {
+            this.goToFailureRate = goTo;
+            this.tiltFailureRate = tilt;
+            this.saveFailureRate = save;
+            return this;
+        }
+
+        public Config battery(int percentage) {
+            this.batteryPercentage = percentage;
+            return this;
+        }
+
+        public Config seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+    }
+
+    public static class Stats {
+        final AtomicLong trips = new AtomicLong();
+        final AtomicLong failedTrips = new AtomicLong();
+        final AtomicLong stoppedTrips = new AtomicLong();
+        final AtomicLong failedTilts = new AtomicLong();
+        final AtomicLong failedSaves = new AtomicLong();
+        final AtomicLong centimetersDriven = new AtomicLong();
+
+        public long getTrips() {
+            return trips.get();
+        }
+
+        public long getFailedTrips() {
+            return failedTrips.get();
+        }
+
+        public long getStoppedTrips() {
+            return stoppedTrips.get();
+        }
+
+        public long getFailedTilts() {
+            return failedTilts.get();
+        }
+
+        public long getFailedSaves() {
+            return failedSaves.get();
+        }
+
+        public double getMetersDriven() {
+            return centimetersDriven.get() / 100.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("trips=%d failed=%d stopped=%d failedTilts=%d failedSaves=%d driven=%.0fm",
+                    getTrips(), getFailedTrips(), getStoppedTrips(), getFailedTilts(), getFailedSaves(),
+                    getMetersDriven());
+        }
+    }
+
+    private final Config config;
+    private final Tracer tracer;
+    private final Random random;
+    private final Stats stats = new Stats();
+    private final Map<String, MapPoint> locations = new ConcurrentHashMap<>();
+    private volatile MapPoint position = new MapPoint(0, 0);
+    private volatile int headAngle = 0;
+
+    private final Object movement = new Object();
+    private boolean stopped;
+
+    public SimulatedRobot(Config config, Tracer tracer) {
+        this(config, tracer, config.seed);
+    }
+
+    // robots of a fleet share the config but not their luck
+    public SimulatedRobot(Config config, Tracer tracer, long seed) {
+        this.config = config;
+        this.tracer = tracer;
+        this.random = new Random(seed);
+    }
+
+    public Stats getStats() {
+        return stats;
+    }
+
+    // where it starts out, (0, 0) otherwise
+    public void place(MapPoint point) {
+        position = point;
+    }
+
+    public void addLocation(String name, MapPoint point) {
+        locations.put(name, point);
+    }
+
+    public int getHeadAngle() {
+        return headAngle;
+    }
+
+    @Override
+    public boolean goTo(String location) throws InterruptedException {
+        synchronized (movement) {
+            stopped = false;
+        }
+        stats.trips.incrementAndGet();
+        MapPoint target = locations.get(location);
+        if (target == null) {
+            // temi aborts right away when it doesn't know the location
+            stats.failedTrips.incrementAndGet();
+            return false;
+        }
+        if (!sleep(config.planningMs)) {
+            stats.stoppedTrips.incrementAndGet();
+            return false;
+        }
+        tracer.record(Phase.ROUTE_PLANNING, config.planningMs);
+
+        MapPoint from = position;
+        double distance = from.distanceTo(target);
+        boolean fails = chance(config.goToFailureRate);
+        double fraction = fails ? 0.5 : 1;
+        long driveMs = (long) (distance * fraction / config.metersPerSecond * 1000);
+        long startedAt = System.currentTimeMillis();
+        boolean arrived = sleep(driveMs);
+        if (!arrived) {
+            // stopped on the way, wherever that was
+            fraction *= Math.min(1, (double) (System.currentTimeMillis() - startedAt) / Math.max(1, driveMs));
+        }
+        position = new MapPoint((float) (from.getX() + (target.getX() - from.getX()) * fraction),
+                (float) (from.getY() + (target.getY() - from.getY()) * fraction));
+        stats.centimetersDriven.addAndGet((long) (distance * fraction * 100));
+        if (!arrived) {
+            stats.stoppedTrips.incrementAndGet();
+            return false;
+        }
+        if (fails) {
+            stats.failedTrips.incrementAndGet();
+            return false;
+        }
+        tracer.record(Phase.DRIVING, driveMs);
+        return true;
+    }
+
+    // false if stopMovement() cut it short
+    private boolean sleep(long ms) throws InterruptedException {
+        long until = System.currentTimeMillis() + ms;
+        synchronized (movement) {
+            long left;
+            while (!stopped && (left = until - System.currentTimeMillis()) > 0) {
+                movement.wait(left);
+            }
+            return !stopped;
+        }
+    }
+
+    private synchronized boolean chance(double rate) {
+        return rate > 0 && random.nextDouble() < rate;
+    }
+
+    @Override
+    public void stopMovement() {
+        synchronized (movement) {
+            stopped = true;
+            movement.notifyAll();
+        }
+    }
+
+    @Override
+    public void tiltAngle(int angle) {
+        if (chance(config.tiltFailureRate)) {
+            stats.failedTilts.incrementAndGet();
+            return;
+        }
+        headAngle = angle;
+    }
+
+    @Override
+    public boolean saveLocation(String name) {
+        if (chance(config.saveFailureRate)) {
+            stats.failedSaves.incrementAndGet();
+            return false;
+        }
+        locations.put(name, position);
+        return true;
+    }
+
+    @Override
+    public boolean deleteLocation(String name) {
+        return locations.remove(name) != null;
+    }
+
+    @Override
+    public List<String> getLocations() {
+        return new ArrayList<>(locations.keySet());
+    }
+
+    @Override
+    public MapPoint getPosition() {
+        return position;
+    }
+
+    @Override
+    public MapPoint positionOf(String location) {
+        return locations.get(location);
+    }
+
+    @Override
+    public int getBatteryPercentage() {
+        return config.batteryPercentage;
+    }
+}
@@ -0,0 +1,67 @@
+package com.linklab.whiteboardsnap;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+
+// answers the slack web api calls SlackUploader makes, files.upload and chat.postMessage, the way slack
+// does, after latencyMs. failureRate of the calls get a 500 instead, which the uploader retries
+public class SimulatedSlack extends Dispatcher {
+    private final long latencyMs;
+    private final double failureRate;
+    private final Random random;
+    private final AtomicLong uploads = new AtomicLong();
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    public SimulatedSlack(long latencyMs, double failureRate, long seed) {
+        this.latencyMs = latencyMs;
+        this.failureRate = failureRate;
+        this.random = new Random(seed);
+    }
+
+    public long getUploads() {
+        return uploads.get();
+    }
+
+    public long getMessages() {
+        return messages.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+        MockResponse response = new MockResponse().setHeadersDelay(latencyMs, TimeUnit.MILLISECONDS);
+        if (fails()) {
+            errors.incrementAndGet();
+            return response.setResponseCode(500);
+        }
+        String path = request.getPath();
+        if (path.endsWith("/files.upload")) {
+            long n = uploads.incrementAndGet();
+            bytes.addAndGet(request.getBodySize());
+            return response.setBody("{\"ok\":true,\"file\":{\"id\":\"F" + n
+                    + "\",\"permalink\":\"https://simulated.slack.com/files/F" + n + "\"}}");
+        } else if (path.endsWith("/chat.postMessage")) {
+            messages.incrementAndGet();
+            return response.setBody("{\"ok\":true,\"ts\":\"" + System.currentTimeMillis() / 1000 + ".000100\"}");
+        }
+        return response.setBody("{\"ok\":false,\"error\":\"unknown_method\"}");
+    }
+
+    private synchronized boolean fails() {
+        return failureRate > 0 && random.nextDouble() < failureRate;
+    }
+}
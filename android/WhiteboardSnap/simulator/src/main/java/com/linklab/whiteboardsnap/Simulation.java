@@ -0,0 +1,382 @@
+package com.linklab.whiteboardsnap;
+
+import com.hivemq.embedded.EmbeddedHiveMQ;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockWebServer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+// one run of the real pipeline against local fakes: an embedded hivemq broker takes the place of hivemq
+// cloud, a MockWebServer the one of slack, and the robot and camera are simulated. the load generator
+// sends its requests through the broker like the lambda would, and the run ends once every board of
+// every request was answered, or the timeout ran out. with more than one robot, a FleetDispatcher
+// shares the requests among them, and robots can be made to crash halfway
+public class Simulation {
+    static final String REQUEST_TOPIC = "temi-data";
+    // the fleet's heartbeats, quicker than on the floor so a crash is noticed within the run
+    static final long HEARTBEAT_INTERVAL_MS = 200;
+    static final long HEARTBEAT_TIMEOUT_MS = 1500;
+
+    public static class Config {
+        final SimulatedRobot.Config robot = new SimulatedRobot.Config();
+        final SimulatedCamera.Config camera = new SimulatedCamera.Config();
+        final LoadGenerator.Config load = new LoadGenerator.Config();
+        final JobDeadlines deadlines = new JobDeadlines();
+        int boards = 8;
+        int robots = 1;
+        // that many robots stop answering crashAfterMs into the run, without a word to the dispatcher
+        int crashes = 0;
+        long crashAfterMs;
+        // the boards are spread over a floor this big, in meters, with the robot starting in a corner
+        float floorWidth = 40, floorDepth = 20;
+        long slackLatencyMs = 300;
+        double slackFailureRate = 0;
+        boolean process = true;
+        long cacheMaxAgeMs = 10 * 60 * 1000;
+        long idleTimeoutMs = 5000;
+        long timeoutMs = 10 * 60 * 1000;
+        long seed = 1;
+
+        public SimulatedRobot.Config robot() {
+            return robot;
+        }
+
+        public SimulatedCamera.Config camera() {
+            return camera;
+        }
+
+        public LoadGenerator.Config load() {
+            return load;
+        }
+
+        public JobDeadlines deadlines() {
+            return deadlines;
+        }
+
+        public Config boards(int boards, float floorWidth, float floorDepth) {
+            this.boards = boards;
+            this.floorWidth = floorWidth;
+            this.floorDepth = floorDepth;
+            return this;
+        }
+
+        // more than one goes through the fleet dispatcher, they start spread along the floor's edge
+        public Config robots(int robots) {
+            this.robots = robots;
+            return this;
+        }
+
+        public Config crash(int robots, long afterMs) {
+            this.crashes = robots;
+            this.crashAfterMs = afterMs;
+            return this;
+        }
+
+        public Config slack(long latencyMs, double failureRate) {
+            this.slackLatencyMs = latencyMs;
+            this.slackFailureRate = failureRate;
+            return this;
+        }
+
+        public Config process(boolean process) {
+            this.process = process;
+            return this;
+        }
+
+        // 0 sends the robot for every request
+        public Config cacheMaxAge(long ms) {
+            this.cacheMaxAgeMs = ms;
+            return this;
+        }
+
+        public Config idleTimeout(long ms) {
+            this.idleTimeoutMs = ms;
+            return this;
+        }
+
+        // how long to wait for answers after the last request went out
+        public Config timeout(long ms) {
+            this.timeoutMs = ms;
+            return this;
+        }
+
+        // for the board layout, the robot, the camera and slack alike
+        public Config seed(long seed) {
+            this.seed = seed;
+            robot.seed(seed);
+            camera.seed(seed);
+            load.seed(seed);
+            return this;
+        }
+    }
+
+    // a simulated robot with everything it runs: its own pipeline, camera and mqtt connection
+    private class Member {
+        final String id;
+        final SimulatedRobot robot;
+        final SimulatedCamera camera;
+        final Tracer tracer = new Tracer(Clock.SYSTEM);
+        final MqttRequestClient client;
+        final FleetMember fleetMember;
+        // the mqtt client hands it requests, and it reports back through the client
+        volatile SnapPipeline pipeline;
+        volatile boolean stopped = false;
+
+        Member(int index, File directory, int brokerPort, SlackUploader uploader, ExecutorService processingWorkers,
+               SimulationReport.Log log, final CountDownLatch connected) throws IOException {
+            id = "temi-" + (index + 1);
+            robot = new SimulatedRobot(config.robot, tracer, config.robot.seed + index);
+            robot.place(new MapPoint(config.floorWidth * index / Math.max(1, config.robots - 1), 0));
+            layOutBoards(robot);
+            SnapshotBufferPool pool = new SnapshotBufferPool(4);
+            camera = new SimulatedCamera(config.camera, pool, config.camera.seed + index);
+            boolean fleet = config.robots > 1;
+            client = new MqttRequestClient(new MqttRequestClient.Config("127.0.0.1", "whiteboardsnap-" + id,
+                    fleet ? FleetDispatcher.requestTopic(id) : REQUEST_TOPIC).port(brokerPort, false),
+                    new MqttRequestClient.Handler() {
+                        @Override
+                        public void onRequest(String payload, String responseTopic, byte[] correlationData,
+                                              Runnable ack) {
+                            pipeline.onRequest(payload, responseTopic, correlationData, ack);
+                        }
+                    }, new MqttRequestClient.Listener() {
+                        @Override
+                        public void onStateChanged(MqttRequestClient.State state, Throwable cause) {
+                            if (state == MqttRequestClient.State.CONNECTED) {
+                                connected.countDown();
+                            }
+                        }
+                    });
+            SnapPipeline.Config pipelineConfig = new SnapPipeline.Config(new File(directory, id), pool)
+                    .idleTimeout(config.idleTimeoutMs)
+                    .cache(32 * 1024 * 1024, config.cacheMaxAgeMs)
+                    .deadlines(config.deadlines)
+                    .noPatrol();
+            pipeline = new SnapPipeline(pipelineConfig, tracer, robot, camera,
+                    config.process ? new ImageIoProcessor(processingWorkers, 3000, pool) : null,
+                    uploader, client, log);
+            camera.setPipeline(pipeline);
+            fleetMember = fleet ? new FleetMember(id, robot, pipeline, client, HEARTBEAT_INTERVAL_MS) : null;
+        }
+
+        void start() {
+            pipeline.start();
+            client.start();
+            if (fleetMember != null) {
+                fleetMember.start();
+            }
+        }
+
+        // pulls the plug: no offline heartbeat, no answers for what it was doing
+        synchronized void crash() {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            client.stop();
+            if (fleetMember != null) {
+                fleetMember.stop();
+            }
+            pipeline.stop();
+            camera.shutdown();
+        }
+
+        synchronized void stop() {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            if (fleetMember != null) {
+                fleetMember.stop();
+            }
+            client.stop();
+            pipeline.stop();
+            camera.shutdown();
+        }
+    }
+
+    private final Config config;
+
+    public Simulation(Config config) {
+        this.config = config;
+    }
+
+    public SimulationReport run() throws IOException, InterruptedException, ExecutionException {
+        File directory = Files.createTempDirectory("whiteboardsnap-sim").toFile();
+        EmbeddedHiveMQ broker = null;
+        MockWebServer slackServer = new MockWebServer();
+        SimulatedSlack slack = new SimulatedSlack(config.slackLatencyMs, config.slackFailureRate, config.seed);
+        SlackUploader uploader = null;
+        ExecutorService processingWorkers = Executors.newFixedThreadPool(
+                Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        ScheduledExecutorService crashes = Executors.newSingleThreadScheduledExecutor();
+        FleetDispatcherService dispatcher = null;
+        final List<Member> members = new ArrayList<>();
+        try {
+            int brokerPort = freePort();
+            broker = startBroker(new File(directory, "broker"), brokerPort);
+            slackServer.setDispatcher(slack);
+            slackServer.start();
+            // one slack app for the whole fleet
+            uploader = new SlackUploader(slackServer.url("/api/files.upload").toString(), "xoxb-simulated",
+                    2 /* concurrent uploads */, 4 /* attempts */, 100 /* base backoff ms */);
+
+            final SimulationReport.Log log = new SimulationReport.Log();
+            CountDownLatch connected = new CountDownLatch(config.robots);
+            for (int i = 0; i < config.robots; i++) {
+                members.add(new Member(i, directory, brokerPort, uploader, processingWorkers, log, connected));
+            }
+            if (config.robots > 1) {
+                // a trip costs about the planning and the camera, plus the drive the dispatcher works out
+                long jobMs = config.robot.planningMs + config.camera.openMs + config.camera.convergeMs
+                        + config.camera.captureMs;
+                dispatcher = new FleetDispatcherService(new MqttRequestClient.Config("127.0.0.1",
+                        "whiteboardsnap-dispatcher", REQUEST_TOPIC).port(brokerPort, false),
+                        new FleetDispatcher.Config()
+                                .heartbeatTimeout(HEARTBEAT_TIMEOUT_MS)
+                                .estimates(jobMs, config.robot.metersPerSecond), log);
+                dispatcher.start();
+            }
+            for (Member member : members) {
+                member.start();
+            }
+            if (!connected.await(30, TimeUnit.SECONDS)) {
+                throw new IOException("can't connect to the embedded broker");
+            }
+            if (dispatcher != null) {
+                awaitFleet(dispatcher.getDispatcher());
+            }
+            for (int i = 0; i < Math.min(config.crashes, members.size()); i++) {
+                final Member member = members.get(i);
+                crashes.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        member.crash();
+                    }
+                }, config.crashAfterMs, TimeUnit.MILLISECONDS);
+            }
+
+            List<String> boards = new ArrayList<>();
+            for (int i = 1; i <= config.boards; i++) {
+                boards.add(board(i));
+            }
+            LoadGenerator load = new LoadGenerator(config.load, boards);
+            load.run("127.0.0.1", brokerPort, REQUEST_TOPIC, config.timeoutMs);
+
+            List<Tracer> tracers = new ArrayList<>();
+            List<String> robots = new ArrayList<>();
+            List<String> cameras = new ArrayList<>();
+            List<String> mqtt = new ArrayList<>();
+            for (Member member : members) {
+                tracers.add(member.tracer);
+                robots.add(member.id + ": " + member.robot.getStats() + (member.stopped ? ", crashed" : ""));
+                cameras.add(String.format("%s: captures=%d failed=%d", member.id, member.camera.getCaptures(),
+                        member.camera.getFailures()));
+                mqtt.add(member.id + ": " + member.client.getStats());
+            }
+            return new SimulationReport(config, load, tracers, robots, cameras, slack, uploader.getStats(), mqtt,
+                    dispatcher != null ? dispatcher.getDispatcher() : null, log);
+        } finally {
+            crashes.shutdownNow();
+            for (Member member : members) {
+                member.stop();
+            }
+            if (dispatcher != null) {
+                dispatcher.stop();
+            }
+            processingWorkers.shutdownNow();
+            if (uploader != null) {
+                uploader.shutdown();
+            }
+            slackServer.shutdown();
+            if (broker != null) {
+                broker.stop().join();
+                broker.close();
+            }
+            delete(directory);
+        }
+    }
+
+    // the load starts once every robot has told the dispatcher which boards it knows
+    private void awaitFleet(FleetDispatcher dispatcher) throws InterruptedException, IOException {
+        long until = System.currentTimeMillis() + 30 * 1000;
+        while (dispatcher.getRobots().size() < config.robots) {
+            if (System.currentTimeMillis() > until) {
+                throw new IOException("only " + dispatcher.getRobots() + " joined the fleet");
+            }
+            Thread.sleep(HEARTBEAT_INTERVAL_MS / 2);
+        }
+    }
+
+    private static String board(int i) {
+        return "whiteboard-" + i;
+    }
+
+    // whiteboard-1 to whiteboard-n at random spots on the floor, the same ones for every robot
+    private void layOutBoards(SimulatedRobot robot) {
+        Random random = new Random(config.seed);
+        for (int i = 1; i <= config.boards; i++) {
+            robot.addLocation(board(i), new MapPoint(random.nextFloat() * config.floorWidth,
+                    random.nextFloat() * config.floorDepth));
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static EmbeddedHiveMQ startBroker(File directory, int port) throws IOException {
+        File config = new File(directory, "config");
+        File data = new File(directory, "data");
+        File extensions = new File(directory, "extensions");
+        if (!config.mkdirs() || !data.mkdirs() || !extensions.mkdirs()) {
+            throw new IOException("can't create " + directory);
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(new File(config, "config.xml")), UTF_8)) {
+            writer.write("<hivemq><listeners><tcp-listener><port>" + port
+                    + "</port><bind-address>127.0.0.1</bind-address></tcp-listener></listeners></hivemq>");
+        }
+        // the broker's own log would drown the report
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(new File(config, "logback.xml")), UTF_8)) {
+            writer.write("<configuration><appender name=\"console\" class=\"ch.qos.logback.core.ConsoleAppender\">"
+                    + "<encoder><pattern>%-5level %msg%n</pattern></encoder></appender>"
+                    + "<root level=\"ERROR\"><appender-ref ref=\"console\"/></root></configuration>");
+        }
+        EmbeddedHiveMQ broker = EmbeddedHiveMQ.builder()
+                .withConfigurationFolder(config.toPath())
+                .withDataFolder(data.toPath())
+                .withExtensionsFolder(extensions.toPath())
+                .build();
+        broker.start().join();
+        return broker;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
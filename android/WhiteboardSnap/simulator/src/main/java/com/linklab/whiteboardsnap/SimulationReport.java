@@ -0,0 +1,196 @@
+package com.linklab.whiteboardsnap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// what a simulation run measured: how many boards were answered and how fast, how long requests waited
+// for the robot, and the latency percentiles of every phase the pipeline traced. all times in ms
+public class SimulationReport {
+    // collects the warnings of the pipelines and the dispatcher, the simulator runs without a log
+    static class Log implements SnapPipeline.Listener, FleetDispatcher.Listener {
+        private static final int KEEP = 10;
+
+        final AtomicLong warnings = new AtomicLong();
+        final List<String> lastWarnings = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void onCaptured(SnapJob job, Snapshot snapshot) {
+        }
+
+        @Override
+        public void onEvent(String message) {
+        }
+
+        @Override
+        public void onWarning(String message, Exception error) {
+            warnings.incrementAndGet();
+            synchronized (lastWarnings) {
+                if (lastWarnings.size() == KEEP) {
+                    lastWarnings.remove(0);
+                }
+                lastWarnings.add(error != null ? message + ": " + error : message);
+            }
+        }
+    }
+
+    private final int requests;
+    private final int boards;
+    private final int robotCount;
+    private final int expected;
+    private final long uploaded;
+    private final long failed;
+    private final long rejected;
+    private final int unanswered;
+    private final long durationMs;
+    private final LatencyHistogram answerLatency;
+    private final LatencyHistogram untilNavigating;
+    private final Map<Phase, LatencyHistogram> phases = new EnumMap<>(Phase.class);
+    private final List<String> robots;
+    private final List<String> cameras;
+    private final String slack;
+    private final List<String> mqtt;
+    private final Map<String, Long> assignedTo;
+    private final long reassigned;
+    private final String fleet;
+    private final long warnings;
+    private final List<String> lastWarnings;
+
+    // a line of stats per robot, camera and mqtt connection. dispatcher is null for a single robot
+    SimulationReport(Simulation.Config config, LoadGenerator load, List<Tracer> tracers, List<String> robots,
+                     List<String> cameras, SimulatedSlack slack, UploadStats uploads, List<String> mqtt,
+                     FleetDispatcher dispatcher, Log log) {
+        this.requests = config.load.requests;
+        this.boards = config.boards;
+        this.robotCount = config.robots;
+        this.expected = load.getExpected();
+        this.uploaded = load.getUploaded();
+        this.failed = load.getFailed();
+        this.rejected = load.getRejected();
+        this.unanswered = load.getUnanswered();
+        this.durationMs = load.getDurationMs();
+        this.answerLatency = load.getAnswerLatency();
+        this.untilNavigating = load.getUntilNavigating();
+        for (Phase phase : Phase.values()) {
+            LatencyHistogram histogram = new LatencyHistogram(Tracer.MAX_LATENCY_MS);
+            for (Tracer tracer : tracers) {
+                tracer.histogram(phase).moveTo(histogram);
+            }
+            phases.put(phase, histogram);
+        }
+        this.robots = robots;
+        this.cameras = cameras;
+        this.slack = String.format("uploads=%d messages=%d errors=%d received=%dKB, uploader: %s",
+                slack.getUploads(), slack.getMessages(), slack.getErrors(), slack.getBytes() / 1024, uploads);
+        this.mqtt = mqtt;
+        if (dispatcher != null) {
+            this.assignedTo = dispatcher.getAssignedTo();
+            this.reassigned = dispatcher.getReassigned();
+            this.fleet = String.format("assigned=%s reassigned=%d pending=%d", assignedTo, reassigned,
+                    dispatcher.getPending());
+        } else {
+            this.assignedTo = Collections.emptyMap();
+            this.reassigned = 0;
+            this.fleet = null;
+        }
+        this.warnings = log.warnings.get();
+        synchronized (log.lastWarnings) {
+            this.lastWarnings = new ArrayList<>(log.lastWarnings);
+        }
+    }
+
+    public int getExpected() {
+        return expected;
+    }
+
+    public long getUploaded() {
+        return uploaded;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public int getUnanswered() {
+        return unanswered;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    // boards answered per second, from the first request to the last answer
+    public double getThroughput() {
+        return durationMs > 0 ? (uploaded + failed) * 1000.0 / durationMs : 0;
+    }
+
+    public LatencyHistogram getAnswerLatency() {
+        return answerLatency;
+    }
+
+    public LatencyHistogram getUntilNavigating() {
+        return untilNavigating;
+    }
+
+    // boards the dispatcher gave each robot, empty for a single robot
+    public Map<String, Long> getAssignedTo() {
+        return assignedTo;
+    }
+
+    // boards taken from robots that crashed and given to others
+    public long getReassigned() {
+        return reassigned;
+    }
+
+    public LatencyHistogram getPhase(Phase phase) {
+        return phases.get(phase);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("%d requests for %d boards over %d whiteboards, %d robot%s%n", requests, expected,
+                boards, robotCount, robotCount == 1 ? "" : "s"));
+        out.append(String.format("answered %d uploaded, %d failed, %d rejected, %d unanswered in %.1fs: %.2f boards/s%n",
+                uploaded, failed, rejected, unanswered, durationMs / 1000.0, getThroughput()));
+        out.append(String.format("%n%-16s %7s %8s %8s %8s %8s %8s%n", "ms", "count", "mean", "p50", "p90", "p99", "max"));
+        row(out, "answer", answerLatency);
+        row(out, "until navigating", untilNavigating);
+        for (Map.Entry<Phase, LatencyHistogram> phase : phases.entrySet()) {
+            if (phase.getValue().getCount() > 0) {
+                row(out, phase.getKey().wireName(), phase.getValue());
+            }
+        }
+        out.append(String.format("%n"));
+        lines(out, "robot:  ", robots);
+        lines(out, "camera: ", cameras);
+        out.append(String.format("slack:  %s%n", slack));
+        lines(out, "mqtt:   ", mqtt);
+        if (fleet != null) {
+            out.append(String.format("fleet:  %s%n", fleet));
+        }
+        out.append(String.format("pipeline warnings: %d%n", warnings));
+        for (String warning : lastWarnings) {
+            out.append("  ").append(warning).append(String.format("%n"));
+        }
+        return out.toString();
+    }
+
+    private static void lines(StringBuilder out, String label, List<String> lines) {
+        for (String line : lines) {
+            out.append(label).append(line).append(String.format("%n"));
+        }
+    }
+
+    private static void row(StringBuilder out, String name, LatencyHistogram histogram) {
+        out.append(String.format("%-16s %7d %8d %8d %8d %8d %8d%n", name, histogram.getCount(), histogram.getMean(),
+                histogram.valueAt(50), histogram.valueAt(90), histogram.valueAt(99), histogram.getMax()));
+    }
+}
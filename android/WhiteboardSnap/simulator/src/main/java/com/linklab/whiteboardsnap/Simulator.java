@@ -0,0 +1,146 @@
+package com.linklab.whiteboardsnap;
+
+// runs one simulation from the command line and prints its report, e.g.
+//   --requests 50 --rate 5 --boards 8 --speed 2 --goto-failures 0.05 --slack-failures 0.1
+// times are in ms, rates are fractions. exits with 1 if any request went unanswered, so ci can tell
+public class Simulator {
+    private static final String USAGE = "options:\n"
+            + "  --requests n          requests to send (50)\n"
+            + "  --rate n              requests per second, 0 sends them all at once (0)\n"
+            + "  --locations n         boards per request (1)\n"
+            + "  --invalid f           fraction of malformed requests (0)\n"
+            + "  --boards n            whiteboards on the floor (8)\n"
+            + "  --robots n            robots, more than one share the requests through the dispatcher (1)\n"
+            + "  --crash n,ms          crash that many robots this long into the run (0)\n"
+            + "  --planning ms         time the robot takes to set off (300)\n"
+            + "  --speed m/s           robot speed (0.8)\n"
+            + "  --goto-failures f     fraction of trips the robot gives up on (0)\n"
+            + "  --tilt-failures f     fraction of head tilts that don't happen (0)\n"
+            + "  --save-failures f     fraction of saveLocation calls that fail (0)\n"
+            + "  --camera ms,ms,ms     camera open, convergence and capture times (400,300,250)\n"
+            + "  --camera-failures f   fraction of captures without a picture (0)\n"
+            + "  --camera-hangs f      fraction of captures the camera never answers (0)\n"
+            + "  --change f            chance a board changed since its last capture (0.5)\n"
+            + "  --slack ms            slack response time (300)\n"
+            + "  --slack-failures f    fraction of slack calls answered with a 500 (0)\n"
+            + "  --cache-age ms        answer from the cache within this age, 0 never does (600000)\n"
+            + "  --idle ms             how long the robot waits for more requests before going home (5000)\n"
+            + "  --no-processing       upload captures as they are\n"
+            + "  --timeout ms          how long to wait for answers after the last request (600000)\n"
+            + "  --seed n              random seed (1)\n";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--help")) {
+            System.out.print(USAGE);
+            return;
+        }
+        Simulation.Config config = new Simulation.Config();
+        try {
+            parse(args, config);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            System.exit(2);
+        }
+        SimulationReport report = new Simulation(config).run();
+        System.out.print(report);
+        System.exit(report.getUnanswered() > 0 ? 1 : 0);
+    }
+
+    static void parse(String[] args, Simulation.Config config) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--no-processing")) {
+                config.process(false);
+                continue;
+            }
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("no value for " + option);
+            }
+            String value = args[++i];
+            try {
+                switch (option) {
+                    case "--requests":
+                        config.load.requests = Integer.parseInt(value);
+                        break;
+                    case "--rate":
+                        config.load.ratePerSecond = Double.parseDouble(value);
+                        break;
+                    case "--locations":
+                        config.load.locationsPerRequest(Integer.parseInt(value));
+                        break;
+                    case "--invalid":
+                        config.load.invalidRate(Double.parseDouble(value));
+                        break;
+                    case "--boards":
+                        config.boards = Integer.parseInt(value);
+                        break;
+                    case "--robots":
+                        config.robots(Integer.parseInt(value));
+                        break;
+                    case "--crash":
+                        String[] crash = value.split(",");
+                        if (crash.length != 2) {
+                            throw new IllegalArgumentException("--crash takes robots,ms");
+                        }
+                        config.crash(Integer.parseInt(crash[0]), Long.parseLong(crash[1]));
+                        break;
+                    case "--planning":
+                        config.robot.planning(Long.parseLong(value));
+                        break;
+                    case "--speed":
+                        config.robot.speed(Double.parseDouble(value));
+                        break;
+                    case "--goto-failures":
+                        config.robot.goToFailureRate = Double.parseDouble(value);
+                        break;
+                    case "--tilt-failures":
+                        config.robot.tiltFailureRate = Double.parseDouble(value);
+                        break;
+                    case "--save-failures":
+                        config.robot.saveFailureRate = Double.parseDouble(value);
+                        break;
+                    case "--camera":
+                        String[] timings = value.split(",");
+                        if (timings.length != 3) {
+                            throw new IllegalArgumentException("--camera takes open,converge,capture");
+                        }
+                        config.camera.timings(Long.parseLong(timings[0]), Long.parseLong(timings[1]),
+                                Long.parseLong(timings[2]));
+                        break;
+                    case "--camera-failures":
+                        config.camera.failureRate(Double.parseDouble(value));
+                        break;
+                    case "--camera-hangs":
+                        config.camera.hangRate(Double.parseDouble(value));
+                        break;
+                    case "--change":
+                        config.camera.changeRate(Double.parseDouble(value));
+                        break;
+                    case "--slack":
+                        config.slackLatencyMs = Long.parseLong(value);
+                        break;
+                    case "--slack-failures":
+                        config.slackFailureRate = Double.parseDouble(value);
+                        break;
+                    case "--cache-age":
+                        config.cacheMaxAge(Long.parseLong(value));
+                        break;
+                    case "--idle":
+                        config.idleTimeout(Long.parseLong(value));
+                        break;
+                    case "--timeout":
+                        config.timeout(Long.parseLong(value));
+                        break;
+                    case "--seed":
+                        config.seed(Long.parseLong(value));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown option " + option);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("bad value for " + option + ": " + value);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.linklab.whiteboardsnap;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+// small, fast scenarios of the whole pipeline. they fail when requests go unanswered, which is what a
+// regression in the queue, the tour, the uploads or the status reports usually looks like
+public class SimulationTest {
+    // a quick robot and camera, so a scenario takes seconds
+    private static Simulation.Config fast() {
+        Simulation.Config config = new Simulation.Config()
+                .boards(6, 20, 10)
+                .slack(20, 0)
+                .idleTimeout(300)
+                .timeout(60 * 1000);
+        config.robot().planning(20).speed(20);
+        config.camera().timings(20, 20, 20);
+        return config;
+    }
+
+    @Test
+    public void burstOfRequestsIsAnsweredWithOneTripPerBoard() throws Exception {
+        Simulation.Config config = fast();
+        config.load().requests(50, 0);
+        SimulationReport report = new Simulation(config).run();
+
+        assertEquals(report.toString(), 50, report.getExpected());
+        assertEquals(report.toString(), 50, report.getUploaded());
+        assertEquals(0, report.getFailed());
+        assertEquals(0, report.getUnanswered());
+        // requests for a board merge while its job waits, so no board is visited twice
+        assertTrue(report.toString(), report.getPhase(Phase.NAVIGATION).getCount() <= 6);
+        assertEquals(report.getPhase(Phase.NAVIGATION).getCount(), report.getPhase(Phase.END_TO_END).getCount());
+        assertTrue(report.getThroughput() > 0);
+    }
+
+    @Test
+    public void everyRequestIsAnsweredDespiteFailures() throws Exception {
+        Simulation.Config config = fast()
+                .slack(20, 0.1)
+                .cacheMaxAge(0)
+                .seed(7);
+        config.robot().failures(0.2, 0.2, 0.2);
+        config.camera().failureRate(0.2);
+        config.load().requests(30, 50).locationsPerRequest(2).invalidRate(0.1);
+        SimulationReport report = new Simulation(config).run();
+
+        assertEquals(report.toString(), 0, report.getUnanswered());
+        assertEquals(report.getExpected(), report.getUploaded() + report.getFailed() + report.getRejected());
+        assertTrue(report.toString(), report.getRejected() > 0);
+        assertTrue(report.toString(), report.getFailed() > 0);
+        assertTrue(report.toString(), report.getUploaded() > 0);
+    }
+
+    @Test
+    public void hungCameraFailsItsJobsInsteadOfStallingTheRobot() throws Exception {
+        Simulation.Config config = fast().cacheMaxAge(0);
+        config.camera().hangRate(1);
+        config.deadlines().tilt(50).cameraOpen(100).capture(200);
+        config.load().requests(10, 20);
+        SimulationReport report = new Simulation(config).run();
+
+        assertEquals(report.toString(), 0, report.getUnanswered());
+        assertEquals(report.toString(), report.getExpected(), report.getFailed());
+    }
+
+    @Test
+    public void fleetSharesTheBoardsAndCoversForACrashedRobot() throws Exception {
+        Simulation.Config config = fast()
+                .boards(9, 60, 10)
+                .robots(3)
+                .crash(1, 400)
+                .cacheMaxAge(0);
+        config.load().requests(40, 40).locationsPerRequest(2);
+        SimulationReport report = new Simulation(config).run();
+
+        assertEquals(report.toString(), 0, report.getUnanswered());
+        assertEquals(report.toString(), report.getExpected(), report.getUploaded());
+        assertEquals(report.toString(), 3, report.getAssignedTo().size());
+        assertTrue(report.toString(), report.getReassigned() > 0);
+    }
+}
@@ -6,25 +6,40 @@ exports.handler = async (event) => {
     let buff = new Buffer(event.body, 'base64');
     const parameters = new URLSearchParams(buff.toString('utf-8'));
 
-    const whiteboardLocation = parameters.get('text');
+    // "/snap whiteboard 225, whiteboard 110" asks for both boards in one trip
+    const locations = parameters.get('text').split(',').map(l => l.trim()).filter(l => l.length > 0);
+    const requestId = parameters.get('trigger_id') || Date.now().toString(36);
 
-    // send this on mqtt to the hivemq broker
+    // send this on mqtt to the hivemq broker, see SnapRequest in the app for the schema
     const dataToSend = {
-        "temi_request": true,
-        "location": whiteboardLocation
+        "v": 1,
+        "id": requestId,
+        "locations": locations,
+        "reply": {
+            "channel": parameters.get('channel_id')
+        }
     };
 
     const options = {
         host: apiKey['hivemq_broker_url'],
         port: 8883,
         protocol: 'mqtts',
+        protocolVersion: 5,
         username: apiKey['hivemq_user'],
         password: apiKey['hivemq_password']
     };
 
     const client = await mqtt.connectAsync(options);
     try {
-        await client.publish("temi-data", JSON.stringify(dataToSend));
+        // the robot publishes the job's status events (queued, navigating, captured, uploaded, failed) to
+        // the response topic, subscribe to temi-status/# to follow the requests
+        await client.publish("temi-data", JSON.stringify(dataToSend), {
+            qos: 1,
+            properties: {
+                responseTopic: "temi-status/" + requestId,
+                correlationData: Buffer.from(requestId)
+            }
+        });
         await client.end();
         console.log("Done");
         return {